@@ -0,0 +1,100 @@
+package com.lightbend.akka.sample.bench;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.event.Logging;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.ActivityLogging;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceGroup;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.lightbend.akka.sample.iot.IotSettings;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.TimeUnit;
+
+// RecordTemperature throughput of a device in a group at the default INFO level, logging every reading
+// versus sampled logging. Log events go to a logger that formats them like a console appender would and
+// then drops them, so the benchmark output isn't flooded.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ActivityLoggingBenchmark {
+
+    private static final int PIPELINED = 1000;
+
+    public static final class DiscardingLogger extends AbstractActor {
+        static volatile int lastLength;
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                    .match(Logging.InitializeLogger.class, init ->
+                            getSender().tell(Logging.loggerInitialized(), getSelf()))
+                    .match(Logging.LogEvent.class, event ->
+                            lastLength = String.format("[%s] [%s] [%s] %s", event.level(), event.thread().getName(),
+                                    event.logSource(), event.message()).length())
+                    .build();
+        }
+    }
+
+    @Param({"PER_MESSAGE", "SAMPLED"})
+    public ActivityLogging logging;
+
+    private ActorSystem system;
+    private TestKit probe;
+    private ActorRef device;
+    private long requestId;
+
+    @Setup
+    public void setup() {
+        system = ActorSystem.create("bench", ConfigFactory.parseString(
+                "akka.loglevel = INFO\n" +
+                "akka.stdout-loglevel = WARNING\n" +
+                "akka.loggers = [\"" + DiscardingLogger.class.getName() + "\"]"));
+        probe = new TestKit(system);
+        IotSettings settings = IotSettings.defaults().withActivityLogging(logging);
+        ActorRef group = system.actorOf(DeviceGroup.props("group", settings));
+        group.tell(new DeviceManager.RequestTrackDevice("group", "device"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        device = probe.getLastSender();
+    }
+
+    @TearDown
+    public void teardown() {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    @Benchmark
+    public Object recordTemperature() {
+        device.tell(new Device.RecordTemperature(requestId++, 21.5), probe.getRef());
+        return probe.expectMsgClass(Device.TemperatureRecorded.class);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINED)
+    public Object recordTemperaturePipelined() {
+        for (int i = 0; i < PIPELINED; i++) {
+            device.tell(new Device.RecordTemperature(requestId++, 21.5), probe.getRef());
+        }
+        return probe.receiveN(PIPELINED, FiniteDuration.create(10, TimeUnit.SECONDS));
+    }
+}
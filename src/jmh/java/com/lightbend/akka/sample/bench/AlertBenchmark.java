@@ -0,0 +1,93 @@
+package com.lightbend.akka.sample.bench;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.AlertRule;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceGroup;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// RecordTemperature on a device of a group with 0, 10 or 100 alert rules, a quarter of each kind, none of
+// which ever holds, so the difference is the cost of evaluating them on every reading. Run with -prof gc
+// to see that evaluation doesn't allocate.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlertBenchmark {
+
+    private static final int PIPELINED = 1000;
+
+    @Param({"0", "10", "100"})
+    public int rules;
+
+    private ActorSystem system;
+    private TestKit probe;
+    private ActorRef device;
+    private long requestId;
+
+    @Setup
+    public void setup() {
+        system = ActorSystem.create("bench", ConfigFactory.parseString("akka.loglevel = WARNING"));
+        probe = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+        groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        device = probe.getLastSender();
+
+        List<AlertRule> alertRules = new ArrayList<>();
+        for (int i = 0; i < rules; i++) {
+            switch (i % 4) {
+                case 0:
+                    alertRules.add(AlertRule.above("above" + i, 100.0 + i));
+                    break;
+                case 1:
+                    alertRules.add(AlertRule.below("below" + i, -100.0 - i));
+                    break;
+                case 2:
+                    alertRules.add(AlertRule.rateOfChange("rate" + i, 1e6 + i));
+                    break;
+                default:
+                    alertRules.add(AlertRule.consecutiveAbove("consecutive" + i, 100.0 + i, 3));
+            }
+        }
+        groupActor.tell(new DeviceGroup.SetAlertRules(0L, alertRules, probe.getRef()), probe.getRef());
+        probe.expectMsgClass(DeviceGroup.AlertRulesSet.class);
+    }
+
+    @TearDown
+    public void teardown() {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINED)
+    public Object recordTemperaturePipelined() {
+        for (int i = 0; i < PIPELINED; i++) {
+            device.tell(new Device.RecordTemperature(requestId++, 20.0 + i % 3), probe.getRef());
+        }
+        return probe.receiveN(PIPELINED, FiniteDuration.create(10, TimeUnit.SECONDS));
+    }
+}
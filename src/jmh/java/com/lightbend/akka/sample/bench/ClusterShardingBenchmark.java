@@ -0,0 +1,126 @@
+package com.lightbend.akka.sample.bench;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.cluster.Cluster;
+import akka.cluster.MemberStatus;
+import akka.cluster.sharding.ShardRegion;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.lightbend.akka.sample.iot.DeviceSharding;
+import com.lightbend.akka.sample.iot.IotSettings;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.StreamSupport;
+
+// Registers, and reads back, 6000 devices in 300 groups through the DeviceSharding regions of a cluster of
+// the given number of nodes, each region taking an equal share of the requests. Every node is an
+// ActorSystem in this JVM talking to the others over loopback remoting, so the nodes share this machine's
+// cores: more nodes add routing and serialization, and only spread the work on a machine with cores to
+// spare. Each registration storm uses groups of its own. Scores are per registration or read.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ClusterShardingBenchmark {
+
+    private static final int DEVICES = 6000;
+    private static final int GROUPS = 300;
+    private static final FiniteDuration TIMEOUT = FiniteDuration.create(5, TimeUnit.MINUTES);
+
+    @Param({"1", "2", "3"})
+    public int nodes;
+
+    private final List<ActorSystem> systems = new ArrayList<>();
+    private final List<ActorRef> regions = new ArrayList<>();
+    // Replies only reach a sender on the node of the region it sent to, since the nodes share a name.
+    private final List<TestKit> probes = new ArrayList<>();
+    private int storms;
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < nodes; i++) {
+            ActorSystem system = ActorSystem.create("iot", ConfigFactory.parseString(
+                    "akka.loglevel = WARNING\n"
+                            + "akka.actor.provider = cluster\n"
+                            + "akka.actor.warn-about-java-serializer-usage = off\n"
+                            + "akka.remote.netty.tcp.hostname = 127.0.0.1\n"
+                            + "akka.remote.netty.tcp.port = 0\n"
+                            + "akka.cluster.jmx.enabled = off"));
+            Cluster.get(system).join(Cluster.get(systems.isEmpty() ? system : systems.get(0)).selfAddress());
+            systems.add(system);
+            regions.add(DeviceSharding.start(system, IotSettings.defaults()));
+            probes.add(new TestKit(system));
+        }
+        TestKit probe = probes.get(0);
+        probe.awaitAssert(FiniteDuration.create(1, TimeUnit.MINUTES), () -> {
+            for (ActorSystem system : systems) {
+                if (StreamSupport.stream(Cluster.get(system).state().getMembers().spliterator(), false)
+                        .filter(m -> m.status().equals(MemberStatus.up())).count() != nodes) {
+                    throw new AssertionError("Cluster of " + nodes + " nodes not up yet");
+                }
+            }
+            regions.get(0).tell(ShardRegion.getCurrentRegionsInstance(), probe.getRef());
+            if (probe.expectMsgClass(ShardRegion.CurrentRegions.class).getRegions().size() != nodes) {
+                throw new AssertionError("Not every region is known to the coordinator yet");
+            }
+            return null;
+        });
+        // The fleet that reads are served from
+        register("group");
+    }
+
+    @TearDown
+    public void teardown() {
+        for (int i = systems.size() - 1; i >= 0; i--) {
+            TestKit.shutdownActorSystem(systems.get(i));
+        }
+    }
+
+    private void register(String groupPrefix) {
+        for (int i = 0; i < DEVICES; i++) {
+            regions.get(i % nodes).tell(new DeviceManager.RequestTrackDevice(groupPrefix + i % GROUPS, "device" + i),
+                    probes.get(i % nodes).getRef());
+        }
+        for (int node = 0; node < nodes; node++) {
+            probes.get(node).receiveN((DEVICES - node + nodes - 1) / nodes, TIMEOUT);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DEVICES)
+    public void registration() {
+        register("storm" + storms++ + "-group");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DEVICES)
+    public void read() {
+        for (int i = 0; i < DEVICES; i++) {
+            regions.get(i % nodes).tell(new DeviceManager.RequestTemperature(i, "group" + i % GROUPS, "device" + i),
+                    probes.get(i % nodes).getRef());
+        }
+        for (int node = 0; node < nodes; node++) {
+            probes.get(node).receiveN((DEVICES - node + nodes - 1) / nodes, TIMEOUT);
+        }
+    }
+}
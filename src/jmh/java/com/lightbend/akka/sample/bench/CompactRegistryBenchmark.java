@@ -0,0 +1,99 @@
+package com.lightbend.akka.sample.bench;
+
+import com.lightbend.akka.sample.iot.CompactRegistry;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Fills a CompactRegistry, and the pair of HashMaps it replaces, with ENTRIES ids and values. Scores are
+// per entry. The retainedBytesPerEntry counter is the heap the filled structure keeps per entry, measured
+// with JOL, without the ids and values themselves, which the actors hold anyway.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompactRegistryBenchmark {
+
+    private static final int ENTRIES = 100000;
+
+    private String[] ids;
+    private Object[] values;
+
+    @Setup
+    public void setup() {
+        ids = new String[ENTRIES];
+        values = new Object[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            ids[i] = "device-" + i;
+            values[i] = new Object();
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        private double retainedBytesPerEntry;
+
+        // A method rather than a field, which JMH would reset after the iteration setup.
+        public double retainedBytesPerEntry() {
+            return retainedBytesPerEntry;
+        }
+
+        @Setup(Level.Iteration)
+        public void measure(BenchmarkParams params, CompactRegistryBenchmark benchmark) {
+            Object filled = params.getBenchmark().endsWith("compactRegistry")
+                    ? benchmark.fillCompactRegistry() : benchmark.fillHashMapPair();
+            GraphLayout shared = GraphLayout.parseInstance((Object[]) benchmark.ids)
+                    .add(GraphLayout.parseInstance(benchmark.values));
+            retainedBytesPerEntry = (double) GraphLayout.parseInstance(filled).subtract(shared).totalSize() / ENTRIES;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public CompactRegistry<Object> compactRegistry(Footprint footprint) {
+        return fillCompactRegistry();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public Object[] hashMapPair(Footprint footprint) {
+        return fillHashMapPair();
+    }
+
+    private CompactRegistry<Object> fillCompactRegistry() {
+        CompactRegistry<Object> registry = new CompactRegistry<>();
+        for (int i = 0; i < ENTRIES; i++) {
+            registry.put(ids[i], values[i]);
+        }
+        return registry;
+    }
+
+    private Object[] fillHashMapPair() {
+        Map<String, Object> idToValue = new HashMap<>();
+        Map<Object, String> valueToId = new HashMap<>();
+        for (int i = 0; i < ENTRIES; i++) {
+            idToValue.put(ids[i], values[i]);
+            valueToId.put(values[i], ids[i]);
+        }
+        return new Object[]{idToValue, valueToId};
+    }
+}
@@ -0,0 +1,97 @@
+package com.lightbend.akka.sample.bench;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.IotSettings;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.TimeUnit;
+
+// Request/reply round trips against a single Device, measured from a TestKit probe, with and without
+// IotMetrics instrumentation and with and without requestId de-duplication (deduplicatedSenders 0).
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeviceBenchmark {
+
+    private static final int PIPELINED = 1000;
+
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    @Param({"0", "8"})
+    public int deduplicatedSenders;
+
+    private ActorSystem system;
+    private TestKit probe;
+    private ActorRef device;
+    private long requestId;
+
+    @Setup
+    public void setup() {
+        system = ActorSystem.create("bench", ConfigFactory.parseString("akka.loglevel = WARNING"));
+        probe = new TestKit(system);
+        device = system.actorOf(Device.props("group", "device", IotSettings.defaults()
+                .withMetricsEnabled(metrics).withDeduplicatedSenders(deduplicatedSenders)));
+        device.tell(new Device.RecordTemperature(requestId++, 20.0), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+    }
+
+    @TearDown
+    public void teardown() {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    @Benchmark
+    public Object recordTemperature() {
+        device.tell(new Device.RecordTemperature(requestId++, 21.5), probe.getRef());
+        return probe.expectMsgClass(Device.TemperatureRecorded.class);
+    }
+
+    // PIPELINED requests in flight at once, so the device rather than the probe is the bottleneck.
+    @Benchmark
+    @OperationsPerInvocation(PIPELINED)
+    public Object recordTemperaturePipelined() {
+        for (int i = 0; i < PIPELINED; i++) {
+            device.tell(new Device.RecordTemperature(requestId++, 21.5), probe.getRef());
+        }
+        return probe.receiveN(PIPELINED, FiniteDuration.create(10, TimeUnit.SECONDS));
+    }
+
+    // Every reading sent twice, as by a gateway retrying each one.
+    @Benchmark
+    @OperationsPerInvocation(PIPELINED)
+    public Object recordTemperatureRetried() {
+        for (int i = 0; i < PIPELINED; i += 2) {
+            Device.RecordTemperature reading = new Device.RecordTemperature(requestId++, 21.5);
+            device.tell(reading, probe.getRef());
+            device.tell(reading, probe.getRef());
+        }
+        return probe.receiveN(PIPELINED, FiniteDuration.create(10, TimeUnit.SECONDS));
+    }
+
+    @Benchmark
+    public Object readTemperature() {
+        device.tell(new Device.ReadTemperature(requestId++), probe.getRef());
+        return probe.expectMsgClass(Device.RespondTemperature.class);
+    }
+}
@@ -0,0 +1,105 @@
+package com.lightbend.akka.sample.bench;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import akka.util.Timeout;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceDirectory;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.lightbend.akka.sample.iot.IotServices;
+import com.lightbend.akka.sample.iot.IotSettings;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.TimeUnit;
+
+// ReadTemperature round trips to one of DEVICES devices, either through the DeviceManager and DeviceGroup
+// as a DeviceManager.RequestTemperature, or told directly to the actor looked up in a DeviceDirectory.
+// The difference is the latency of the two forwarding hops.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeviceDirectoryBenchmark {
+
+    private static final int DEVICES = 1000;
+    private static final int PIPELINED = 1000;
+
+    private ActorSystem system;
+    private TestKit probe;
+    private DeviceDirectory directory;
+    private ActorRef manager;
+    private String[] deviceIds;
+    private int next;
+    private long requestId;
+
+    @Setup
+    public void setup() throws Exception {
+        system = ActorSystem.create("bench", ConfigFactory.parseString("akka.loglevel = WARNING"));
+        probe = new TestKit(system);
+        directory = new DeviceDirectory();
+        manager = system.actorOf(DeviceManager.props(IotSettings.defaults(), IotServices.none().withDeviceDirectory(directory)));
+        deviceIds = new String[DEVICES];
+        Timeout timeout = Timeout.apply(10, TimeUnit.SECONDS);
+        for (int i = 0; i < DEVICES; i++) {
+            deviceIds[i] = "device-" + i;
+            directory.resolve(manager, "group", deviceIds[i], timeout).toCompletableFuture().get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @TearDown
+    public void teardown() {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    private String nextDevice() {
+        String deviceId = deviceIds[next];
+        next = next + 1 == DEVICES ? 0 : next + 1;
+        return deviceId;
+    }
+
+    @Benchmark
+    public Object throughManager() {
+        manager.tell(new DeviceManager.RequestTemperature(requestId++, "group", nextDevice()), probe.getRef());
+        return probe.expectMsgClass(Device.RespondTemperature.class);
+    }
+
+    @Benchmark
+    public Object direct() {
+        directory.lookup("group", nextDevice()).tell(new Device.ReadTemperature(requestId++), probe.getRef());
+        return probe.expectMsgClass(Device.RespondTemperature.class);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINED)
+    public Object throughManagerPipelined() {
+        for (int i = 0; i < PIPELINED; i++) {
+            manager.tell(new DeviceManager.RequestTemperature(requestId++, "group", nextDevice()), probe.getRef());
+        }
+        return probe.receiveN(PIPELINED, FiniteDuration.create(10, TimeUnit.SECONDS));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINED)
+    public Object directPipelined() {
+        for (int i = 0; i < PIPELINED; i++) {
+            directory.lookup("group", nextDevice()).tell(new Device.ReadTemperature(requestId++), probe.getRef());
+        }
+        return probe.receiveN(PIPELINED, FiniteDuration.create(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,63 @@
+package com.lightbend.akka.sample.bench;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.DeviceGroup;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.TimeUnit;
+
+// RequestDeviceList round trips against a group of the given size.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeviceListBenchmark {
+
+    @Param({"1000", "100000"})
+    public int devices;
+
+    private ActorSystem system;
+    private TestKit probe;
+    private ActorRef group;
+    private long requestId;
+
+    @Setup
+    public void setup() {
+        system = ActorSystem.create("bench", ConfigFactory.parseString("akka.loglevel = WARNING"));
+        probe = new TestKit(system);
+        group = system.actorOf(DeviceGroup.props("group"));
+        for (int i = 0; i < devices; i++) {
+            group.tell(new DeviceManager.RequestTrackDevice("group", "device-" + i), probe.getRef());
+        }
+        probe.receiveN(devices, FiniteDuration.create(5, TimeUnit.MINUTES));
+    }
+
+    @TearDown
+    public void teardown() {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    @Benchmark
+    public Object requestDeviceList() {
+        group.tell(new DeviceGroup.RequestDeviceList(requestId++), probe.getRef());
+        return probe.expectMsgClass(DeviceGroup.ReplyDeviceList.class);
+    }
+}
@@ -0,0 +1,112 @@
+package com.lightbend.akka.sample.bench;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceGroup;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.lightbend.akka.sample.iot.ExecutionProfile;
+import com.lightbend.akka.sample.iot.IotSettings;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.TimeUnit;
+
+// A mixed workload per execution profile: one thread ingests batches through the DeviceManager, one
+// queries all temperatures of a large group and one reads a single device. Comparing the read latency
+// across profiles shows how much the ingest and fan-out traffic gets in the way of small requests.
+@State(Scope.Group)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecutionProfileBenchmark {
+
+    private static final int GROUPS = 10;
+    private static final int DEVICES_PER_GROUP = 1000;
+
+    @Param({"DEFAULT", "TIERED", "TIERED_BOUNDED"})
+    public ExecutionProfile profile;
+
+    ActorSystem system;
+    private ActorRef manager;
+    private ActorRef queriedGroup;
+    private ActorRef readDevice;
+    private DeviceManager.RecordTemperatureBatch[] batches;
+
+    @State(Scope.Thread)
+    public static class Requester {
+        TestKit probe;
+        long requestId;
+
+        @Setup
+        public void setup(ExecutionProfileBenchmark benchmark) {
+            probe = new TestKit(benchmark.system);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        system = ActorSystem.create("bench", ConfigFactory.parseString("akka.loglevel = WARNING"));
+        TestKit probe = new TestKit(system);
+        manager = system.actorOf(DeviceManager.props(IotSettings.defaults().withExecutionProfile(profile)));
+
+        batches = new DeviceManager.RecordTemperatureBatch[GROUPS];
+        for (int g = 0; g < GROUPS; g++) {
+            String[] deviceIds = new String[DEVICES_PER_GROUP];
+            long[] requestIds = new long[DEVICES_PER_GROUP];
+            double[] values = new double[DEVICES_PER_GROUP];
+            for (int d = 0; d < DEVICES_PER_GROUP; d++) {
+                deviceIds[d] = "device-" + d;
+                values[d] = 20.0 + d % 10;
+                manager.tell(new DeviceManager.RequestTrackDevice("group-" + g, deviceIds[d]), probe.getRef());
+            }
+            batches[g] = new DeviceManager.RecordTemperatureBatch(g, "group-" + g, deviceIds, requestIds, values);
+        }
+        probe.receiveN(GROUPS * DEVICES_PER_GROUP, FiniteDuration.create(5, TimeUnit.MINUTES));
+        readDevice = probe.getLastSender();
+        queriedGroup = system.actorSelection(readDevice.path().parent())
+                .resolveOneCS(FiniteDuration.create(10, TimeUnit.SECONDS)).toCompletableFuture().join();
+    }
+
+    @TearDown
+    public void teardown() {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    public Object ingest(Requester requester) {
+        manager.tell(batches[(int) (requester.requestId++ % GROUPS)], requester.probe.getRef());
+        return requester.probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    public Object queryGroup(Requester requester) {
+        queriedGroup.tell(new DeviceGroup.RequestAllTemperatures(requester.requestId++), requester.probe.getRef());
+        return requester.probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    public Object readDevice(Requester requester) {
+        readDevice.tell(new Device.ReadTemperature(requester.requestId++), requester.probe.getRef());
+        return requester.probe.expectMsgClass(Device.RespondTemperature.class);
+    }
+}
@@ -0,0 +1,70 @@
+package com.lightbend.akka.sample.bench;
+
+import akka.actor.ActorIdentity;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Identify;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.Greeter;
+import com.lightbend.akka.sample.Printer;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Baseline: the Greeter -> Printer pipeline from AkkaQuickstart. The Printer doesn't reply, so each
+// invocation sends GREETINGS greetings and then an Identify through both actors; the second answer
+// arrives once the Printer has handled every greeting. Scores are per greeting.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GreeterBenchmark {
+
+    private static final int GREETINGS = 1000;
+
+    private ActorSystem system;
+    private TestKit probe;
+    private ActorRef printer;
+    private ActorRef greeter;
+    private final Greeter.Greet greet = new Greeter.Greet();
+
+    @Setup
+    public void setup() {
+        system = ActorSystem.create("bench", ConfigFactory.parseString("akka.loglevel = WARNING"));
+        probe = new TestKit(system);
+        printer = system.actorOf(Printer.props(), "printerActor");
+        greeter = system.actorOf(Greeter.props("Howdy", printer), "howdyGreeter");
+        greeter.tell(new Greeter.WhoToGreet("Akka"), ActorRef.noSender());
+    }
+
+    @TearDown
+    public void teardown() {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GREETINGS)
+    public Object greet() {
+        for (int i = 0; i < GREETINGS; i++) {
+            greeter.tell(greet, ActorRef.noSender());
+        }
+        greeter.tell(new Identify(1), probe.getRef());
+        probe.expectMsgClass(ActorIdentity.class);
+        printer.tell(new Identify(2), probe.getRef());
+        return probe.expectMsgClass(ActorIdentity.class);
+    }
+}
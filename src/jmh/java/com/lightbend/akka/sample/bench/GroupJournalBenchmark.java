@@ -0,0 +1,95 @@
+package com.lightbend.akka.sample.bench;
+
+import com.lightbend.akka.sample.iot.GroupJournal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Recovers a group of the given number of devices, tracked and then recorded three times each, either
+// from the journal alone or from a snapshot of the last readings. Scores are per recovery.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GroupJournalBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int devices;
+
+    @Param({"journal", "snapshot"})
+    public String from;
+
+    private Path directory;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("group-journal-bench");
+        GroupJournal journal = GroupJournal.open(directory, "group",
+                from.equals("snapshot") ? devices : Integer.MAX_VALUE);
+        for (int i = 0; i < devices; i++) {
+            journal.tracked("device-" + i);
+        }
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < devices; i++) {
+                journal.recorded("device-" + i, round + i * 0.001, round);
+            }
+        }
+        if (journal.isSnapshotDue()) {
+            GroupJournal.SnapshotWriter snapshot = journal.beginSnapshot();
+            for (int i = 0; i < devices; i++) {
+                snapshot.write("device-" + i, true, 2 + i * 0.001, 2);
+            }
+            snapshot.commit();
+        }
+        journal.close();
+    }
+
+    @TearDown
+    public void teardown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public int recover() {
+        int[] events = new int[1];
+        GroupJournal journal = GroupJournal.open(directory, "group", Integer.MAX_VALUE);
+        journal.recover(new GroupJournal.Recovery() {
+            @Override
+            public void tracked(String deviceId) {
+                events[0]++;
+            }
+
+            @Override
+            public void recorded(String deviceId, double value, long timestamp) {
+                events[0]++;
+            }
+
+            @Override
+            public void removed(String deviceId) {
+                events[0]++;
+            }
+        });
+        journal.close();
+        return events[0];
+    }
+}
@@ -0,0 +1,114 @@
+package com.lightbend.akka.sample.bench;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Source;
+import akka.testkit.javadsl.TestKit;
+import akka.util.ByteString;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.lightbend.akka.sample.iot.DeviceManifest;
+import com.lightbend.akka.sample.iot.IngestSettings;
+import com.lightbend.akka.sample.iot.IotSettings;
+import com.lightbend.akka.sample.iot.IotSupervisor;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+// Time to ready for a fleet of the given number of devices in devices / 50 groups, started under a fresh
+// IotSupervisor either from a manifest listed group by group or by one RequestTrackDevice per device;
+// 5M devices is the fleet of 100k groups the manifest is meant for. Per-message registration starts
+// every device actor, so its 5M run needs -jvmArgsAppend with a heap well beyond the one given here.
+// Scores are per fleet.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ManifestBenchmark {
+
+    private static final FiniteDuration TIMEOUT = FiniteDuration.create(30, TimeUnit.MINUTES);
+
+    @Param({"50000", "5000000"})
+    public int devices;
+
+    private ActorSystem system;
+    private Materializer materializer;
+    private TestKit probe;
+    private ActorRef supervisor;
+    private ActorRef manager;
+
+    @Setup
+    public void setup() {
+        system = ActorSystem.create("bench", ConfigFactory.parseString("akka.loglevel = WARNING"));
+        materializer = ActorMaterializer.create(system);
+        probe = new TestKit(system);
+    }
+
+    @Setup(Level.Invocation)
+    public void createSupervisor() {
+        supervisor = system.actorOf(IotSupervisor.props(IotSettings.defaults()));
+        supervisor.tell(new IotSupervisor.RequestDeviceManager(0L), probe.getRef());
+        manager = probe.expectMsgClass(IotSupervisor.RespondDeviceManager.class).getDeviceManager();
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopSupervisor() {
+        probe.watch(supervisor);
+        system.stop(supervisor);
+        probe.expectTerminated(TIMEOUT, supervisor);
+    }
+
+    @TearDown
+    public void teardown() {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    @Benchmark
+    public DeviceManifest.ManifestReport manifest() throws Exception {
+        int groups = devices / 50;
+        Iterator<ByteString> lines = new Iterator<ByteString>() {
+            int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < devices;
+            }
+
+            @Override
+            public ByteString next() {
+                int i = next++;
+                return ByteString.fromString("group" + (long) i * groups / devices + ",device" + i + "," + i % 40 + "\n");
+            }
+        };
+        return DeviceManifest.load(Source.fromIterator(() -> lines), manager, IngestSettings.defaults(), materializer)
+                .toCompletableFuture().get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    public void perMessage() {
+        int groups = devices / 50;
+        for (int i = 0; i < devices; i++) {
+            manager.tell(new DeviceManager.RequestTrackDevice("group" + (long) i * groups / devices, "device" + i),
+                    probe.getRef());
+        }
+        probe.receiveN(devices, TIMEOUT);
+    }
+}
@@ -0,0 +1,94 @@
+package com.lightbend.akka.sample.bench;
+
+import com.lightbend.akka.sample.iot.ReadingJournal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Appends RECORDS readings to a ReadingJournal, committing every 64K as ReadingJournalWriter does, and
+// scans a journal of RECORDS readings. Every append invocation writes a fresh journal, so the scores include
+// mapping new segments. Scores are per record.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadingJournalBenchmark {
+
+    private static final int RECORDS = 1 << 20;
+    private static final int SEGMENT_RECORDS = 1 << 18;
+
+    private Path scanned;
+    private Path appended;
+
+    @Setup
+    public void setup() throws IOException {
+        scanned = Files.createTempDirectory("reading-journal-scan");
+        ReadingJournal journal = ReadingJournal.open(scanned, SEGMENT_RECORDS);
+        append(journal);
+        journal.close();
+    }
+
+    @Setup(Level.Invocation)
+    public void createAppended() throws IOException {
+        appended = Files.createTempDirectory("reading-journal-append");
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteAppended() throws IOException {
+        delete(appended);
+    }
+
+    @TearDown
+    public void teardown() throws IOException {
+        delete(scanned);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void append() {
+        ReadingJournal journal = ReadingJournal.open(appended, SEGMENT_RECORDS);
+        append(journal);
+        journal.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public long scan() {
+        return ReadingJournal.scan(scanned, (deviceHash, requestId, timestamp, value) -> { });
+    }
+
+    private static void append(ReadingJournal journal) {
+        for (int i = 0; i < RECORDS; i++) {
+            journal.append(i & 1023, i, i, i);
+            if (journal.uncommittedRecords() >= 64 * 1024) {
+                journal.commit();
+            }
+        }
+        journal.commit();
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.lightbend.akka.sample.bench;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.lightbend.akka.sample.iot.IotSettings;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.TimeUnit;
+
+// Registers a storm of devices, spread evenly over the given number of groups, with a fresh DeviceManager
+// of the given number of shards; 1M devices over 10k groups is the fleet the registry is sized for.
+// A million device actors don't fit the default heap. Scores are per storm.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class RegistrationBenchmark {
+
+    private static final FiniteDuration TIMEOUT = FiniteDuration.create(10, TimeUnit.MINUTES);
+
+    @Param({"10000", "1000000"})
+    public int devices;
+
+    @Param({"1", "100", "10000"})
+    public int groups;
+
+    @Param({"1", "4", "16"})
+    public int shards;
+
+    private ActorSystem system;
+    private TestKit probe;
+    private ActorRef manager;
+    private DeviceManager.RequestTrackDevice[] requests;
+
+    @Setup
+    public void setup() {
+        system = ActorSystem.create("bench", ConfigFactory.parseString("akka.loglevel = WARNING"));
+        probe = new TestKit(system);
+        requests = new DeviceManager.RequestTrackDevice[devices];
+        for (int i = 0; i < devices; i++) {
+            requests[i] = new DeviceManager.RequestTrackDevice("group-" + (i % groups), "device-" + i);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void createManager() {
+        manager = system.actorOf(DeviceManager.props(IotSettings.defaults().withManagerShards(shards)));
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopManager() {
+        probe.watch(manager);
+        system.stop(manager);
+        probe.expectTerminated(TIMEOUT, manager);
+    }
+
+    @TearDown
+    public void teardown() {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    @Benchmark
+    public void registerDevices() {
+        for (DeviceManager.RequestTrackDevice request : requests) {
+            manager.tell(request, probe.getRef());
+        }
+        probe.receiveN(devices, TIMEOUT);
+    }
+}
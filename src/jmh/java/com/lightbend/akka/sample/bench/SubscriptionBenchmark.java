@@ -0,0 +1,98 @@
+package com.lightbend.akka.sample.bench;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceGroup;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// One reading recorded by a device and pushed as a TemperatureChanged to every subscriber of its group,
+// each of which acknowledges it. An operation completes once all subscribers have received the change,
+// so the time per operation over the number of subscribers is the cost of one delivery.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubscriptionBenchmark {
+
+    @Param({"1", "100", "1000", "5000"})
+    public int subscribers;
+
+    private ActorSystem system;
+    private TestKit probe;
+    private ActorRef device;
+    private final Semaphore delivered = new Semaphore(0);
+    private long requestId;
+
+    public static final class AcknowledgingSubscriber extends AbstractActor {
+        private final Semaphore delivered;
+
+        public AcknowledgingSubscriber(final Semaphore delivered) {
+            this.delivered = delivered;
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                    .match(DeviceGroup.TemperatureChanged.class, changed -> {
+                        getSender().tell(new DeviceGroup.AcknowledgeChanges(
+                                changed.getSubscriptionId(), changed.getSequence()), getSelf());
+                        delivered.release();
+                    })
+                    .matchAny(message -> {
+                    })
+                    .build();
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        system = ActorSystem.create("bench", ConfigFactory.parseString("akka.loglevel = WARNING"));
+        probe = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+        groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        device = probe.getLastSender();
+        for (int i = 0; i < subscribers; i++) {
+            ActorRef subscriber = system.actorOf(Props.create(AcknowledgingSubscriber.class, delivered));
+            // Half follow the device, half the whole group
+            groupActor.tell(new DeviceGroup.Subscribe(i, i % 2 == 0 ? "device" : null), subscriber);
+        }
+        groupActor.tell(new DeviceGroup.ReadGroupStats(0L), probe.getRef());
+        probe.expectMsgClass(DeviceGroup.RespondGroupStats.class);
+    }
+
+    @TearDown
+    public void teardown() {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    @Benchmark
+    public void fanOut() throws InterruptedException {
+        long id = requestId++;
+        device.tell(new Device.RecordTemperature(id, id % 40), probe.getRef());
+        delivered.acquire(subscribers);
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+    }
+}
@@ -0,0 +1,73 @@
+package com.lightbend.akka.sample.iot;
+
+import akka.event.LoggingAdapter;
+
+import java.util.concurrent.TimeUnit;
+
+// The routine logging of one actor in the IotSettings ActivityLogging mode. Not thread-safe, like the
+// actor that owns it.
+final class ActivityLog {
+
+    private static final long MIN_SAMPLED_LINE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final LoggingAdapter log;
+    private final boolean perMessage;
+    private final int sampleRate;
+    private long unlogged;
+    private long lastSampledLine = System.nanoTime() - MIN_SAMPLED_LINE_INTERVAL;
+
+    ActivityLog(final LoggingAdapter log, final IotSettings settings) {
+        this.log = log;
+        this.perMessage = settings.getActivityLogging() == ActivityLogging.PER_MESSAGE;
+        this.sampleRate = settings.getLogSampleRate();
+    }
+
+    boolean isPerMessage() {
+        return perMessage;
+    }
+
+    // Whether this event should get an info line: always when logging per message, otherwise one in
+    // sampleRate events and at most one a second. Checks the level first, so a suppressed event costs a
+    // field read and a counter increment.
+    boolean sample() {
+        if (!log.isInfoEnabled()) {
+            return false;
+        }
+        if (perMessage) {
+            return true;
+        }
+        if (unlogged++ % sampleRate != 0) {
+            return false;
+        }
+        long now = System.nanoTime();
+        if (now - lastSampledLine < MIN_SAMPLED_LINE_INTERVAL) {
+            return false;
+        }
+        lastSampledLine = now;
+        return true;
+    }
+
+    // Events that sample() turned down since the previous line; resets the count.
+    long takeUnlogged() {
+        long skipped = Math.max(unlogged - 1, 0L);
+        unlogged = 0;
+        return skipped;
+    }
+
+    // Lifecycle events are info lines when logging per message and debug lines otherwise.
+    void lifecycle(String template, Object arg1) {
+        if (perMessage) {
+            log.info(template, arg1);
+        } else {
+            log.debug(template, arg1);
+        }
+    }
+
+    void lifecycle(String template, Object arg1, Object arg2) {
+        if (perMessage) {
+            log.info(template, arg1, arg2);
+        } else {
+            log.debug(template, arg1, arg2);
+        }
+    }
+}
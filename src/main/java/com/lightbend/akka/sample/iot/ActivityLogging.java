@@ -0,0 +1,12 @@
+package com.lightbend.akka.sample.iot;
+
+// How devices, groups and managers log their routine activity: recorded readings and device and group
+// actors being created, passivated and stopped. Warnings are logged the same way in both modes.
+public enum ActivityLogging {
+    // An info line for every reading and every lifecycle event.
+    PER_MESSAGE,
+    // Devices log one in IotSettings.getLogSampleRate() readings at info, at most one line a second each,
+    // lifecycle events go to debug, and every group logs a summary of its activity per
+    // IotSettings.getLogSummaryInterval() instead.
+    SAMPLED
+}
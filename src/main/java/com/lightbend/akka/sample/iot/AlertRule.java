@@ -0,0 +1,90 @@
+package com.lightbend.akka.sample.iot;
+
+import java.io.Serializable;
+import java.util.Locale;
+
+// A condition on a device's readings that raises a Device.Alert when it starts to hold. It is armed again
+// once a reading no longer satisfies it, so a device that stays too hot raises one alert, not one per
+// reading. Rules are registered per group with DeviceGroup.SetAlertRules.
+public final class AlertRule implements Serializable {
+
+    static final int ABOVE = 0;
+    static final int BELOW = 1;
+    static final int RATE_OF_CHANGE = 2;
+    static final int CONSECUTIVE_ABOVE = 3;
+
+    private final String name;
+    private final int kind;
+    private final double threshold;
+    private final int readings;
+
+    private AlertRule(final String name, final int kind, final double threshold, final int readings) {
+        if (name == null) {
+            throw new IllegalArgumentException("name must not be null");
+        }
+        if (Double.isNaN(threshold)) {
+            throw new IllegalArgumentException("threshold must be a number");
+        }
+        this.name = name;
+        this.kind = kind;
+        this.threshold = threshold;
+        this.readings = readings;
+    }
+
+    // A reading greater than threshold.
+    public static AlertRule above(String name, double threshold) {
+        return new AlertRule(name, ABOVE, threshold, 1);
+    }
+
+    // A reading less than threshold.
+    public static AlertRule below(String name, double threshold) {
+        return new AlertRule(name, BELOW, threshold, 1);
+    }
+
+    // A change from the previous reading faster than degreesPerSecond, either way. Readings recorded in
+    // the same millisecond, e.g. of one batch, are not compared.
+    public static AlertRule rateOfChange(String name, double degreesPerSecond) {
+        if (!(degreesPerSecond >= 0.0)) {
+            throw new IllegalArgumentException("degreesPerSecond must not be negative, was " + degreesPerSecond);
+        }
+        return new AlertRule(name, RATE_OF_CHANGE, degreesPerSecond, 2);
+    }
+
+    // The given number of readings in a row greater than threshold.
+    public static AlertRule consecutiveAbove(String name, double threshold, int readings) {
+        if (readings < 1) {
+            throw new IllegalArgumentException("readings must be at least 1, was " + readings);
+        }
+        return new AlertRule(name, CONSECUTIVE_ABOVE, threshold, readings);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    int getKind() {
+        return kind;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public int getReadings() {
+        return readings;
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case ABOVE:
+                return String.format(Locale.ROOT, "%s: above %s", name, threshold);
+            case BELOW:
+                return String.format(Locale.ROOT, "%s: below %s", name, threshold);
+            case RATE_OF_CHANGE:
+                return String.format(Locale.ROOT, "%s: changing faster than %s/s", name, threshold);
+            default:
+                return String.format(Locale.ROOT, "%s: %d readings above %s", name, readings, threshold);
+        }
+    }
+}
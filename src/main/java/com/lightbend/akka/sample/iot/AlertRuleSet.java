@@ -0,0 +1,168 @@
+package com.lightbend.akka.sample.iot;
+
+import akka.actor.ActorRef;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// The rules of a group compiled for evaluation on every reading. Threshold rules of one kind are sorted,
+// so that the rules a value satisfies are always a prefix: a device only keeps how long that prefix was,
+// finds the new length with a binary search and raises the rules in between. The rate of change is
+// computed once and matched the same way. Only consecutive-readings rules keep a counter each.
+// The set is immutable and shared by the devices of the group; each device evaluates it with an
+// Evaluator of its own, which allocates nothing unless an alert is raised. The group keeps the evaluators
+// and hands each to the next actor of its device, so passivation doesn't reset them.
+final class AlertRuleSet {
+
+    private final ActorRef sink;
+    private final int size;
+    // Ascending thresholds with the rule names in the same order.
+    private final double[] above;
+    private final String[] aboveNames;
+    // Negated, so that the thresholds a value is below are also a prefix of an ascending array.
+    private final double[] negatedBelow;
+    private final String[] belowNames;
+    private final double[] rates;
+    private final String[] rateNames;
+    private final double[] consecutiveThresholds;
+    private final int[] consecutiveReadings;
+    private final String[] consecutiveNames;
+
+    AlertRuleSet(final List<AlertRule> rules, final ActorRef sink) {
+        this.sink = sink;
+        this.size = rules.size();
+        List<AlertRule> aboveRules = sorted(rules, AlertRule.ABOVE, false);
+        List<AlertRule> belowRules = sorted(rules, AlertRule.BELOW, true);
+        List<AlertRule> rateRules = sorted(rules, AlertRule.RATE_OF_CHANGE, false);
+        List<AlertRule> consecutiveRules = sorted(rules, AlertRule.CONSECUTIVE_ABOVE, false);
+        this.above = thresholds(aboveRules, 1.0);
+        this.aboveNames = names(aboveRules);
+        this.negatedBelow = thresholds(belowRules, -1.0);
+        this.belowNames = names(belowRules);
+        this.rates = thresholds(rateRules, 1.0);
+        this.rateNames = names(rateRules);
+        this.consecutiveThresholds = thresholds(consecutiveRules, 1.0);
+        this.consecutiveNames = names(consecutiveRules);
+        this.consecutiveReadings = new int[consecutiveRules.size()];
+        for (int i = 0; i < consecutiveReadings.length; i++) {
+            consecutiveReadings[i] = consecutiveRules.get(i).getReadings();
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    Evaluator newEvaluator() {
+        return new Evaluator(this);
+    }
+
+    private static List<AlertRule> sorted(List<AlertRule> rules, int kind, boolean descending) {
+        List<AlertRule> ofKind = new ArrayList<>();
+        for (AlertRule rule : rules) {
+            if (rule.getKind() == kind) {
+                ofKind.add(rule);
+            }
+        }
+        Comparator<AlertRule> byThreshold = Comparator.comparingDouble(AlertRule::getThreshold);
+        ofKind.sort(descending ? byThreshold.reversed() : byThreshold);
+        return ofKind;
+    }
+
+    private static double[] thresholds(List<AlertRule> rules, double sign) {
+        double[] thresholds = new double[rules.size()];
+        for (int i = 0; i < thresholds.length; i++) {
+            thresholds[i] = sign * rules.get(i).getThreshold();
+        }
+        return thresholds;
+    }
+
+    private static String[] names(List<AlertRule> rules) {
+        String[] names = new String[rules.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = rules.get(i).getName();
+        }
+        return names;
+    }
+
+    // The number of thresholds strictly less than value.
+    private static int countBelow(double[] ascending, double value) {
+        int low = 0;
+        int high = ascending.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ascending[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Per-device state of a rule set: how many threshold rules of each kind hold, the run of each
+    // consecutive-readings rule and the previous reading for the rate of change.
+    static final class Evaluator {
+        private final AlertRuleSet rules;
+        private int aboveHolding;
+        private int belowHolding;
+        private int rateHolding;
+        private final int[] runs;
+        private boolean hasPrevious;
+        private double previousValue;
+        private long previousTimestamp;
+
+        private Evaluator(final AlertRuleSet rules) {
+            this.rules = rules;
+            this.runs = new int[rules.consecutiveReadings.length];
+        }
+
+        void evaluate(double value, long timestamp, String groupId, String deviceId, ActorRef self) {
+            if (Double.isNaN(value)) {
+                return;
+            }
+            int holding = countBelow(rules.above, value);
+            raise(rules.aboveNames, aboveHolding, holding, value, timestamp, groupId, deviceId, self);
+            aboveHolding = holding;
+
+            holding = countBelow(rules.negatedBelow, -value);
+            raise(rules.belowNames, belowHolding, holding, value, timestamp, groupId, deviceId, self);
+            belowHolding = holding;
+
+            if (rules.rates.length > 0) {
+                if (hasPrevious && timestamp > previousTimestamp) {
+                    double rate = Math.abs(value - previousValue) * 1000.0 / (timestamp - previousTimestamp);
+                    holding = countBelow(rules.rates, rate);
+                    raise(rules.rateNames, rateHolding, holding, value, timestamp, groupId, deviceId, self);
+                    rateHolding = holding;
+                }
+                hasPrevious = true;
+                previousValue = value;
+                previousTimestamp = timestamp;
+            }
+
+            for (int i = 0; i < runs.length; i++) {
+                if (value > rules.consecutiveThresholds[i]) {
+                    if (runs[i] < rules.consecutiveReadings[i] && ++runs[i] == rules.consecutiveReadings[i]) {
+                        alert(rules.consecutiveNames[i], value, timestamp, groupId, deviceId, self);
+                    }
+                } else {
+                    runs[i] = 0;
+                }
+            }
+        }
+
+        // Raises the rules that started to hold, the ones between the previous and the new prefix length.
+        private void raise(String[] names, int before, int after, double value, long timestamp,
+                           String groupId, String deviceId, ActorRef self) {
+            for (int i = before; i < after; i++) {
+                alert(names[i], value, timestamp, groupId, deviceId, self);
+            }
+        }
+
+        private void alert(String rule, double value, long timestamp, String groupId, String deviceId, ActorRef self) {
+            rules.sink.tell(new Device.Alert(groupId, deviceId, rule, value, timestamp), self);
+        }
+    }
+}
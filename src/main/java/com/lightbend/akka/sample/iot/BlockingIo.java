@@ -0,0 +1,138 @@
+package com.lightbend.akka.sample.iot;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import akka.actor.Status;
+import com.typesafe.config.Config;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Per-ActorSystem executor for blocking calls made on behalf of actors, such as reading a local config
+// store or writing a file, so that they never hold a dispatcher thread. On JDK 21 and later every call
+// gets a virtual thread of its own, found by reflection since the build targets Java 8; on older JDKs,
+// or with iot.blocking-io.virtual-threads off, calls share a pool of iot.blocking-io.pool-size threads
+// and queue for it. pipe() delivers the result to an actor as a message, like pipeTo, so the actor
+// handles it in its own turn.
+public final class BlockingIo implements Extension {
+
+    private static final Id ID = new Id();
+
+    public static BlockingIo get(ActorSystem system) {
+        return ID.get(system);
+    }
+
+    private static final class Id extends AbstractExtensionId<BlockingIo> implements ExtensionIdProvider {
+        @Override
+        public Id lookup() {
+            return ID;
+        }
+
+        @Override
+        public BlockingIo createExtension(ExtendedActorSystem system) {
+            BlockingIo blockingIo = new BlockingIo(system.settings().config().getConfig("iot.blocking-io"));
+            system.registerOnTermination(blockingIo.executor::shutdownNow);
+            return blockingIo;
+        }
+    }
+
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private BlockingIo(final Config config) {
+        ExecutorService perTask = config.getBoolean("virtual-threads") ? newVirtualThreadPerTaskExecutor() : null;
+        this.virtualThreads = perTask != null;
+        this.executor = perTask != null ? perTask : newPool(config.getInt("pool-size"));
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService newPool(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("iot.blocking-io.pool-size must be at least 1, was " + size);
+        }
+        AtomicInteger threads = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "iot-blocking-io-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), factory);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    // Calls submitted and not yet completed, whether running or queued for a pool thread.
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public <T> CompletionStage<T> call(Callable<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        run(() -> {
+            try {
+                result.complete(call.call());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    // Sends the result of the call to recipient, or a Status.Failure with what it threw.
+    public <T> void pipe(Callable<T> call, ActorRef recipient, ActorRef sender) {
+        run(() -> {
+            Object message;
+            try {
+                message = call.call();
+            } catch (Throwable e) {
+                message = new Status.Failure(e);
+            }
+            recipient.tell(message, sender);
+        });
+    }
+
+    private void run(Runnable task) {
+        inFlight.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // After the system terminated; the call never runs
+            inFlight.decrementAndGet();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.lightbend.akka.sample.iot;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+// Bidirectional id <-> value registry. The entries live in two dense parallel arrays and are found through
+// two open-addressing index tables (linear probing, backward-shift deletion) that store entry positions as
+// ints, so an entry costs two array references plus two int index slots instead of two HashMap nodes.
+// The two directions have a table each rather than sharing one: a shared table needs as many slots to
+// hold both keys of every entry at the same load factor, so it saves nothing, and every probe would have
+// to step over the other direction's slots, doubling the probe runs of both lookups.
+// Ids are stored as the instances passed in, which are the same strings the actors hold, and an entry's
+// value may be null for ids that are known but have no value, e.g. passivated devices.
+public final class CompactRegistry<V> {
+
+    private static final int MIN_TABLE_SIZE = 16;
+
+    private String[] ids;
+    private Object[] values;
+    private int size;
+
+    // Entry index + 1, 0 marks a free position.
+    private int[] byId;
+    private int[] byValue;
+    private int mask;
+
+    public CompactRegistry() {
+        this(0);
+    }
+
+    public CompactRegistry(final int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Entries are densely packed; indexes are only stable until the next removal.
+    public String idAt(int index) {
+        return ids[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V valueAt(int index) {
+        return (V) values[index];
+    }
+
+    // The current index of the id, or -1 if it isn't registered.
+    public int indexOf(String id) {
+        int pos = findId(id);
+        return pos < 0 ? -1 : byId[pos] - 1;
+    }
+
+    public boolean contains(String id) {
+        return findId(id) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(String id) {
+        int pos = findId(id);
+        return pos < 0 ? null : (V) values[byId[pos] - 1];
+    }
+
+    public String idOf(V value) {
+        int pos = findValue(value);
+        return pos < 0 ? null : ids[byValue[pos] - 1];
+    }
+
+    // Adds the id or replaces its value; a null value keeps the id without a value.
+    public void put(String id, V value) {
+        int pos = findId(id);
+        if (pos >= 0) {
+            int index = byId[pos] - 1;
+            if (values[index] != null) {
+                delete(byValue, positionOf(byValue, values[index], index), false);
+            }
+            values[index] = value;
+            if (value != null) {
+                insert(byValue, value, index);
+            }
+            return;
+        }
+
+        if (size == ids.length) {
+            grow();
+        }
+        int index = size++;
+        ids[index] = id;
+        values[index] = value;
+        insert(byId, id, index);
+        if (value != null) {
+            insert(byValue, value, index);
+        }
+    }
+
+    public boolean remove(String id) {
+        int pos = findId(id);
+        if (pos < 0) {
+            return false;
+        }
+        int index = byId[pos] - 1;
+        delete(byId, pos, true);
+        if (values[index] != null) {
+            delete(byValue, positionOf(byValue, values[index], index), false);
+        }
+
+        // Keep the entries dense by moving the last one into the hole.
+        int last = --size;
+        if (index != last) {
+            byId[positionOf(byId, ids[last], last)] = index + 1;
+            if (values[last] != null) {
+                byValue[positionOf(byValue, values[last], last)] = index + 1;
+            }
+            ids[index] = ids[last];
+            values[index] = values[last];
+        }
+        ids[last] = null;
+        values[last] = null;
+        return true;
+    }
+
+    // An immutable copy of the ids. Building it copies two flat arrays and allocates nothing per entry.
+    public Set<String> idSnapshot() {
+        return new IdSnapshot(Arrays.copyOf(ids, size), byId.clone());
+    }
+
+    private static int tableSizeFor(int entries) {
+        int tableSize = MIN_TABLE_SIZE;
+        while (tableSize / 4 * 3 < entries) {
+            tableSize <<= 1;
+        }
+        return tableSize;
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void allocate(int tableSize) {
+        ids = new String[tableSize / 4 * 3];
+        values = new Object[tableSize / 4 * 3];
+        byId = new int[tableSize];
+        byValue = new int[tableSize];
+        mask = tableSize - 1;
+    }
+
+    private void grow() {
+        String[] oldIds = ids;
+        Object[] oldValues = values;
+        int oldSize = size;
+        allocate(byId.length * 2);
+        System.arraycopy(oldIds, 0, ids, 0, oldSize);
+        System.arraycopy(oldValues, 0, values, 0, oldSize);
+        for (int index = 0; index < oldSize; index++) {
+            insert(byId, ids[index], index);
+            if (values[index] != null) {
+                insert(byValue, values[index], index);
+            }
+        }
+    }
+
+    private int findId(String id) {
+        for (int pos = hash(id) & mask; ; pos = (pos + 1) & mask) {
+            int entry = byId[pos];
+            if (entry == 0) {
+                return -1;
+            }
+            if (id.equals(ids[entry - 1])) {
+                return pos;
+            }
+        }
+    }
+
+    private int findValue(Object value) {
+        for (int pos = hash(value) & mask; ; pos = (pos + 1) & mask) {
+            int entry = byValue[pos];
+            if (entry == 0) {
+                return -1;
+            }
+            if (value.equals(values[entry - 1])) {
+                return pos;
+            }
+        }
+    }
+
+    private int positionOf(int[] table, Object key, int index) {
+        int pos = hash(key) & mask;
+        while (table[pos] != index + 1) {
+            pos = (pos + 1) & mask;
+        }
+        return pos;
+    }
+
+    private void insert(int[] table, Object key, int index) {
+        int pos = hash(key) & mask;
+        while (table[pos] != 0) {
+            pos = (pos + 1) & mask;
+        }
+        table[pos] = index + 1;
+    }
+
+    // Backward-shift deletion: later entries of the same probe run move into the hole, so lookups never
+    // need tombstones.
+    private void delete(int[] table, int pos, boolean idTable) {
+        int hole = pos;
+        for (int i = (pos + 1) & mask; table[i] != 0; i = (i + 1) & mask) {
+            int index = table[i] - 1;
+            int home = hash(idTable ? ids[index] : values[index]) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                table[hole] = table[i];
+                hole = i;
+            }
+        }
+        table[hole] = 0;
+    }
+
+    private static final class IdSnapshot extends AbstractSet<String> implements Serializable {
+        private final String[] ids;
+        private final int[] byId;
+        private final int mask;
+
+        IdSnapshot(String[] ids, int[] byId) {
+            this.ids = ids;
+            this.byId = byId;
+            this.mask = byId.length - 1;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof String)) {
+                return false;
+            }
+            for (int pos = hash(o) & mask; ; pos = (pos + 1) & mask) {
+                int entry = byId[pos];
+                if (entry == 0) {
+                    return false;
+                }
+                if (o.equals(ids[entry - 1])) {
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                private int next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return next < ids.length;
+                }
+
+                @Override
+                public String next() {
+                    if (next == ids.length) {
+                        throw new NoSuchElementException();
+                    }
+                    return ids[next++];
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
+        }
+    }
+}
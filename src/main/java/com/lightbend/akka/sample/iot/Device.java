@@ -1,32 +1,118 @@
 package com.lightbend.akka.sample.iot;
 
-import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
 import akka.actor.Props;
+import akka.actor.ReceiveTimeout;
+import akka.actor.Status;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
 import com.lightbend.akka.sample.iot.DeviceManager.DeviceRegistered;
 import com.lightbend.akka.sample.iot.DeviceManager.RequestTrackDevice;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
 
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.concurrent.Callable;
 
-public final class Device extends AbstractActor {
+public final class Device extends InstrumentedActor {
     private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
 
     public static Props props(final String groupId, final String deviceId) {
-        return Props.create(Device.class, groupId, deviceId);
+        return props(groupId, deviceId, IotSettings.defaults());
+    }
+
+    public static Props props(final String groupId, final String deviceId,
+                              final int historyCapacity, final FiniteDuration historyRetention) {
+        return props(groupId, deviceId, IotSettings.defaults()
+                .withHistoryCapacity(historyCapacity)
+                .withHistoryRetention(historyRetention));
+    }
+
+    public static Props props(final String groupId, final String deviceId, final IotSettings settings) {
+        return settings.deviceProps(Props.create(Device.class, groupId, deviceId, settings));
+    }
+
+    // Starts the device with a last reading it had before, e.g. when a passivated device is re-created.
+    public static Props props(final String groupId, final String deviceId, final IotSettings settings,
+                              final double lastTemperatureReading) {
+        return settings.deviceProps(
+                Props.create(Device.class, groupId, deviceId, settings, lastTemperatureReading));
+    }
+
+    // Every reading the device records is also appended to the given ReadingJournalWriter.
+    public static Props props(final String groupId, final String deviceId, final IotSettings settings,
+                              final ActorRef readingJournal) {
+        return settings.deviceProps(
+                Props.create(Device.class, groupId, deviceId, settings, readingJournal));
+    }
+
+    public static Props props(final String groupId, final String deviceId, final IotSettings settings,
+                              final ActorRef readingJournal, final double lastTemperatureReading) {
+        return settings.deviceProps(
+                Props.create(Device.class, groupId, deviceId, settings, readingJournal, lastTemperatureReading));
     }
 
     private final String groupId;
     private final String deviceId;
 
-    private Optional<Double> lastTemperatureReading = Optional.empty();
+    // Kept as a primitive plus a presence flag so that recording and reading don't box.
+    private boolean hasTemperatureReading = false;
+    private double lastTemperatureReading;
+    private final TemperatureHistory history;
+    private final Duration passivationTimeout;
+    // Null when readings are not journaled.
+    private final ActorRef readingJournal;
+    private final long deviceHash;
+    // Null when every reading is recorded as it comes.
+    private final RequestDeduplicator deduplicator;
+    // Readings dropped because they were too old for the deduplicator to tell whether they were retries.
+    private long expiredReadings;
+    private final ActivityLog activityLog;
+    // Null while the group has no alert rules.
+    private AlertRuleSet.Evaluator alerts;
+    private final BlockingIo blockingIo;
+    // External calls whose results haven't come back yet; the device doesn't passivate while there are any.
+    private int pendingCalls;
+    // Set once the device asked its group to passivate it; it may stop before any further call returns.
+    private boolean passivating;
+
+    public Device(final String groupId, final String deviceId, final IotSettings settings) {
+        this(groupId, deviceId, settings, (ActorRef) null);
+    }
+
+    public Device(final String groupId, final String deviceId, final IotSettings settings,
+                  final double lastTemperatureReading) {
+        this(groupId, deviceId, settings, null, lastTemperatureReading);
+    }
 
-    public Device(final String groupId, final String deviceId) {
+    public Device(final String groupId, final String deviceId, final IotSettings settings,
+                  final ActorRef readingJournal) {
         this.groupId = groupId;
         this.deviceId = deviceId;
+        this.history = new TemperatureHistory(settings.getHistoryCapacity(), settings.getHistoryRetention().toMillis());
+        this.passivationTimeout = settings.getPassivationTimeout();
+        this.readingJournal = readingJournal;
+        this.deviceHash = readingJournal == null ? 0L : ReadingJournal.deviceHash(groupId, deviceId);
+        this.deduplicator = settings.getDeduplicatedSenders() == 0
+                ? null : new RequestDeduplicator(settings.getDeduplicatedSenders());
+        this.activityLog = new ActivityLog(log, settings);
+        this.blockingIo = BlockingIo.get(getContext().getSystem());
+        if (settings.isMetricsEnabled()) {
+            instrument(IotMetrics.DEVICE);
+        }
+    }
+
+    public Device(final String groupId, final String deviceId, final IotSettings settings,
+                  final ActorRef readingJournal, final double lastTemperatureReading) {
+        this(groupId, deviceId, settings, readingJournal);
+        this.lastTemperatureReading = lastTemperatureReading;
+        this.hasTemperatureReading = true;
     }
 
-    public static final class RecordTemperature {
+    public static final class RecordTemperature implements Serializable {
         private final long requestId;
         private final double value;
 
@@ -44,7 +130,7 @@ public final class Device extends AbstractActor {
         }
     }
 
-    public static final class TemperatureRecorded {
+    public static final class TemperatureRecorded implements Serializable {
         private final long requestId;
 
         public TemperatureRecorded(final long requestId) {
@@ -56,7 +142,156 @@ public final class Device extends AbstractActor {
         }
     }
 
-    public static final class ReadTemperature {
+    public static final class RecordTemperatureBatch {
+        private final long batchId;
+        private final int slot;
+        private final long[] requestIds;
+        private final double[] values;
+        // Who sent the readings, for deduplication, since the sender of the sub-batch is the group.
+        private final ActorRef producer;
+
+        public RecordTemperatureBatch(final long batchId, final int slot, final long[] requestIds, final double[] values) {
+            this(batchId, slot, requestIds, values, ActorRef.noSender());
+        }
+
+        public RecordTemperatureBatch(final long batchId, final int slot, final long[] requestIds, final double[] values,
+                                      final ActorRef producer) {
+            this.batchId = batchId;
+            this.slot = slot;
+            this.requestIds = requestIds;
+            this.values = values;
+            this.producer = producer;
+        }
+
+        public long getBatchId() {
+            return batchId;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public int size() {
+            return requestIds.length;
+        }
+    }
+
+    public static final class TemperatureBatchRecorded {
+        private final long batchId;
+        private final int slot;
+        private final long highestRequestId;
+
+        public TemperatureBatchRecorded(final long batchId, final int slot, final long highestRequestId) {
+            this.batchId = batchId;
+            this.slot = slot;
+            this.highestRequestId = highestRequestId;
+        }
+
+        public long getBatchId() {
+            return batchId;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public long getHighestRequestId() {
+            return highestRequestId;
+        }
+    }
+
+    // Sent to the parent DeviceGroup whenever the device records a new last reading, after one or more readings.
+    public static final class TemperatureUpdated {
+        private final String deviceId;
+        private final double value;
+        private final long timestamp;
+        private final int readings;
+
+        public TemperatureUpdated(final String deviceId, final double value, final long timestamp) {
+            this(deviceId, value, timestamp, 1);
+        }
+
+        public TemperatureUpdated(final String deviceId, final double value, final long timestamp, final int readings) {
+            this.deviceId = deviceId;
+            this.value = value;
+            this.timestamp = timestamp;
+            this.readings = readings;
+        }
+
+        public String getDeviceId() {
+            return deviceId;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public int getReadings() {
+            return readings;
+        }
+    }
+
+    // Sent to the sink of the group's alert rules when a rule starts to hold for this device.
+    public static final class Alert implements Serializable {
+        private final String groupId;
+        private final String deviceId;
+        private final String rule;
+        private final double value;
+        private final long timestamp;
+
+        public Alert(final String groupId, final String deviceId, final String rule, final double value,
+                     final long timestamp) {
+            this.groupId = groupId;
+            this.deviceId = deviceId;
+            this.rule = rule;
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        public String getDeviceId() {
+            return deviceId;
+        }
+
+        public String getRule() {
+            return rule;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+
+    // Sent by the parent DeviceGroup when its alert rules change, and to every device it starts. New rules
+    // are evaluated from scratch: readings before the update don't count towards them. The evaluator is
+    // the group's, which hands it to the next actor of a passivated device; both are null without rules.
+    static final class UpdateAlertRules {
+        final AlertRuleSet rules;
+        final AlertRuleSet.Evaluator evaluator;
+
+        UpdateAlertRules(final AlertRuleSet rules, final AlertRuleSet.Evaluator evaluator) {
+            this.rules = rules;
+            this.evaluator = evaluator;
+        }
+    }
+
+    // Sent to the parent DeviceGroup when the device has been idle for the passivation timeout. The group
+    // answers with a PoisonPill, so messages already in the mailbox are still processed before stopping.
+    public static final class Passivate {
+    }
+
+    public static final class ReadTemperature implements Serializable {
         private final long requestId;
 
         public ReadTemperature(final long requestId) {
@@ -68,32 +303,319 @@ public final class Device extends AbstractActor {
         }
     }
 
-    public static final class RespondTemperature {
+    public static final class RespondTemperature implements Serializable {
         private final long requestId;
-        private final Optional<Double> value;
+        private final boolean hasValue;
+        private final double value;
 
-        public RespondTemperature(final long requestId, final Optional<Double> value) {
+        public RespondTemperature(final long requestId) {
             this.requestId = requestId;
+            this.hasValue = false;
+            this.value = Double.NaN;
+        }
+
+        public RespondTemperature(final long requestId, final double value) {
+            this.requestId = requestId;
+            this.hasValue = true;
             this.value = value;
         }
 
+        public RespondTemperature(final long requestId, final Optional<Double> value) {
+            this.requestId = requestId;
+            this.hasValue = value.isPresent();
+            this.value = value.orElse(Double.NaN);
+        }
+
         public long getRequestId() {
             return requestId;
         }
 
-        public Optional<Double> getValue() {
+        public boolean hasValue() {
+            return hasValue;
+        }
+
+        public double getValueAsDouble() {
+            if (!hasValue) {
+                throw new NoSuchElementException("No temperature reading available");
+            }
             return value;
         }
+
+        public Optional<Double> getValue() {
+            return hasValue ? Optional.of(value) : Optional.empty();
+        }
+    }
+
+    // Subscribes the sender to this device's changes. The device hands the subscription to its DeviceGroup,
+    // which keeps it while the device is passivated; Subscribed and every TemperatureChanged come from the
+    // group, and Unsubscribe and AcknowledgeChanges go there, as with a DeviceGroup.Subscribe.
+    public static final class Subscribe {
+        private final long requestId;
+        private final double minDelta;
+        private final int maxUnacknowledged;
+
+        public Subscribe(final long requestId) {
+            this(requestId, 0.0, DeviceGroup.Subscribe.DEFAULT_MAX_UNACKNOWLEDGED);
+        }
+
+        public Subscribe(final long requestId, final double minDelta, final int maxUnacknowledged) {
+            this.requestId = requestId;
+            this.minDelta = minDelta;
+            this.maxUnacknowledged = maxUnacknowledged;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public double getMinDelta() {
+            return minDelta;
+        }
+
+        public int getMaxUnacknowledged() {
+            return maxUnacknowledged;
+        }
+    }
+
+    // Runs a blocking side effect of the device, e.g. a call to a local config store, on BlockingIo rather
+    // than on the device's dispatcher. The device goes on handling messages meanwhile and answers with
+    // ExternalCallCompleted, or a Status.Failure with what the call threw.
+    public static final class CallExternal {
+        private final long requestId;
+        private final Callable<?> call;
+
+        public CallExternal(final long requestId, final Callable<?> call) {
+            this.requestId = requestId;
+            this.call = call;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public Callable<?> getCall() {
+            return call;
+        }
+    }
+
+    public static final class ExternalCallCompleted {
+        private final long requestId;
+        private final String deviceId;
+        private final Object result;
+
+        public ExternalCallCompleted(final long requestId, final String deviceId, final Object result) {
+            this.requestId = requestId;
+            this.deviceId = deviceId;
+            this.result = result;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public String getDeviceId() {
+            return deviceId;
+        }
+
+        public Object getResult() {
+            return result;
+        }
+    }
+
+    // Piped back from BlockingIo when an external call returns; failure is null if it succeeded.
+    private static final class ExternalCallDone {
+        final long requestId;
+        final ActorRef replyTo;
+        final Object result;
+        final Throwable failure;
+
+        ExternalCallDone(final long requestId, final ActorRef replyTo, final Object result, final Throwable failure) {
+            this.requestId = requestId;
+            this.replyTo = replyTo;
+            this.result = result;
+            this.failure = failure;
+        }
+    }
+
+    public static final class ReadAggregate implements Serializable {
+        private final long requestId;
+        private final FiniteDuration window;
+
+        public ReadAggregate(final long requestId, final FiniteDuration window) {
+            this.requestId = requestId;
+            this.window = window;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public FiniteDuration getWindow() {
+            return window;
+        }
+    }
+
+    // Statistics over the readings recorded within the requested window. When count is 0 the
+    // other values are NaN.
+    public static final class RespondAggregate implements Serializable {
+        private final long requestId;
+        private final int count;
+        private final double min;
+        private final double max;
+        private final double mean;
+        private final double stddev;
+
+        public RespondAggregate(final long requestId, final int count, final double min, final double max,
+                                final double mean, final double stddev) {
+            this.requestId = requestId;
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.mean = mean;
+            this.stddev = stddev;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getStddev() {
+            return stddev;
+        }
     }
 
     @Override
     public void preStart() {
-        log.info("Device actor {}-{} started", groupId, deviceId);
+        activityLog.lifecycle("Device actor {}-{} started", groupId, deviceId);
+        if (passivationTimeout.isFinite()) {
+            getContext().setReceiveTimeout(passivationTimeout);
+        }
     }
 
     @Override
     public void postStop() {
-        log.info("Device actor {}-{} stopped", groupId, deviceId);
+        activityLog.lifecycle("Device actor {}-{} stopped", groupId, deviceId);
+    }
+
+    private void logRecorded(int readings, double lastValue, long requestId) {
+        if (activityLog.isPerMessage()) {
+            if (readings == 1) {
+                log.info("Recorded temperature reading {} with {}", lastValue, requestId);
+            } else {
+                log.info("Recorded {} temperature readings, last {} with {}", readings, lastValue, requestId);
+            }
+        } else {
+            log.info("Recorded {} temperature readings, last {} with {}; {} earlier messages not logged",
+                    readings, lastValue, requestId, activityLog.takeUnlogged());
+        }
+    }
+
+    // Without deduplication, or from a sender that can't be told apart, every reading is the latest.
+    private int deduplicate(ActorRef producer, long requestId) {
+        if (deduplicator == null || producer == null || producer.equals(getContext().getSystem().deadLetters())) {
+            return RequestDeduplicator.LATEST;
+        }
+        int seen = deduplicator.accept(producer, requestId);
+        if (seen == RequestDeduplicator.EXPIRED) {
+            expiredReadings++;
+            log.warning("Dropped reading {} from {}, too far behind its latest to tell if it is a retry ({} so far)",
+                    requestId, producer, expiredReadings);
+        }
+        return seen;
+    }
+
+    private void onRecordTemperatureBatch(RecordTemperatureBatch batch) {
+        long now = System.currentTimeMillis();
+        long highestRequestId = Long.MIN_VALUE;
+        // The readings to record; copied only once one of them turns out to be a duplicate.
+        long[] requestIds = batch.requestIds;
+        double[] values = batch.values;
+        int recorded = 0;
+        boolean hasLatest = false;
+        double latest = 0.0;
+        for (int i = 0; i < batch.requestIds.length; i++) {
+            highestRequestId = Math.max(highestRequestId, batch.requestIds[i]);
+            int seen = deduplicate(batch.producer, batch.requestIds[i]);
+            if (seen == RequestDeduplicator.DUPLICATE || seen == RequestDeduplicator.EXPIRED) {
+                if (requestIds == batch.requestIds) {
+                    requestIds = batch.requestIds.clone();
+                    values = batch.values.clone();
+                }
+                continue;
+            }
+            double value = batch.values[i];
+            if (requestIds != batch.requestIds) {
+                requestIds[recorded] = batch.requestIds[i];
+                values[recorded] = value;
+            }
+            recorded++;
+            history.record(now, value);
+            if (seen == RequestDeduplicator.LATEST) {
+                latest = value;
+                hasLatest = true;
+                if (alerts != null) {
+                    alerts.evaluate(value, now, groupId, deviceId, getSelf());
+                }
+            }
+        }
+        if (readingJournal != null && recorded > 0) {
+            readingJournal.tell(new ReadingJournalWriter.AppendBatch(deviceHash, now,
+                    recorded == requestIds.length ? requestIds : Arrays.copyOf(requestIds, recorded),
+                    recorded == values.length ? values : Arrays.copyOf(values, recorded)), getSelf());
+        }
+        if (activityLog.sample()) {
+            logRecorded(recorded, latest, highestRequestId);
+        }
+        getSender().tell(new TemperatureBatchRecorded(batch.batchId, batch.slot, highestRequestId), getSelf());
+        if (hasLatest) {
+            lastTemperatureReading = latest;
+            hasTemperatureReading = true;
+            getContext().getParent().tell(new TemperatureUpdated(deviceId, latest, now, recorded), getSelf());
+        }
+    }
+
+    private void onCallExternal(CallExternal callExternal) {
+        if (passivating) {
+            // The group buffers the call for the actor that replaces this one
+            getContext().getParent().tell(new DeviceGroup.Redeliver(deviceId, callExternal, getSender()), getSelf());
+            return;
+        }
+        long requestId = callExternal.getRequestId();
+        ActorRef replyTo = getSender();
+        Callable<?> call = callExternal.getCall();
+        pendingCalls++;
+        blockingIo.pipe(() -> {
+            try {
+                return new ExternalCallDone(requestId, replyTo, call.call(), null);
+            } catch (Exception e) {
+                return new ExternalCallDone(requestId, replyTo, null, e);
+            }
+        }, getSelf(), getSelf());
+    }
+
+    private void onExternalCallDone(ExternalCallDone done) {
+        pendingCalls--;
+        if (done.failure != null) {
+            done.replyTo.tell(new Status.Failure(done.failure), getSelf());
+        } else {
+            done.replyTo.tell(new ExternalCallCompleted(done.requestId, deviceId, done.result), getSelf());
+        }
     }
 
     @Override
@@ -110,12 +632,57 @@ public final class Device extends AbstractActor {
                     }
                 })
                 .match(RecordTemperature.class, recordTemperature -> {
-                    log.info("Recorded temperature reading {} with {}", recordTemperature.getValue(), recordTemperature.getRequestId());
-                    lastTemperatureReading = Optional.of(recordTemperature.getValue());
+                    int seen = deduplicate(getSender(), recordTemperature.getRequestId());
+                    if (seen == RequestDeduplicator.DUPLICATE || seen == RequestDeduplicator.EXPIRED) {
+                        // A retry of a recorded reading, or one too old to tell: only the ack is repeated
+                        getSender().tell(new TemperatureRecorded(recordTemperature.getRequestId()), getSelf());
+                        return;
+                    }
+                    if (activityLog.sample()) {
+                        logRecorded(1, recordTemperature.getValue(), recordTemperature.getRequestId());
+                    }
+                    long now = System.currentTimeMillis();
+                    history.record(now, recordTemperature.getValue());
+                    if (readingJournal != null) {
+                        readingJournal.tell(new ReadingJournalWriter.Append(
+                                deviceHash, recordTemperature.getRequestId(), now, recordTemperature.getValue()), getSelf());
+                    }
+                    if (seen == RequestDeduplicator.LATE) {
+                        // Kept in the history and journal, but the sender has already sent a newer reading
+                        getSender().tell(new TemperatureRecorded(recordTemperature.getRequestId()), getSelf());
+                        return;
+                    }
+                    lastTemperatureReading = recordTemperature.getValue();
+                    hasTemperatureReading = true;
                     getSender().tell(new TemperatureRecorded(recordTemperature.getRequestId()), getSelf());
+                    if (alerts != null) {
+                        alerts.evaluate(lastTemperatureReading, now, groupId, deviceId, getSelf());
+                    }
+                    getContext().getParent().tell(new TemperatureUpdated(deviceId, lastTemperatureReading, now), getSelf());
+                })
+                .match(RecordTemperatureBatch.class, this::onRecordTemperatureBatch)
+                .match(ReadTemperature.class, readTemperature -> {
+                    RespondTemperature response = hasTemperatureReading
+                            ? new RespondTemperature(readTemperature.getRequestId(), lastTemperatureReading)
+                            : new RespondTemperature(readTemperature.getRequestId());
+                    getSender().tell(response, getSelf());
+                })
+                .match(UpdateAlertRules.class, update -> alerts = update.evaluator)
+                .match(Subscribe.class, subscribe -> getContext().getParent().forward(new DeviceGroup.Subscribe(
+                        subscribe.getRequestId(), deviceId, subscribe.getMinDelta(), subscribe.getMaxUnacknowledged()), getContext()))
+                .match(ReadAggregate.class, readAggregate ->
+                        getSender().tell(history.aggregate(readAggregate.getRequestId(), System.currentTimeMillis(),
+                                readAggregate.getWindow().toMillis()), getSelf()))
+                .match(CallExternal.class, this::onCallExternal)
+                .match(ExternalCallDone.class, this::onExternalCallDone)
+                .match(ReceiveTimeout.class, receiveTimeout -> {
+                    if (pendingCalls > 0) {
+                        return;
+                    }
+                    getContext().setReceiveTimeout(Duration.Undefined());
+                    passivating = true;
+                    getContext().getParent().tell(new Passivate(), getSelf());
                 })
-                .match(ReadTemperature.class, readTemperature ->
-                        getSender().tell(new RespondTemperature(readTemperature.getRequestId(), lastTemperatureReading), getSelf()))
                 .build();
     }
 }
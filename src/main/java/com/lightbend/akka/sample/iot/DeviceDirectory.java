@@ -0,0 +1,51 @@
+package com.lightbend.akka.sample.iot;
+
+import akka.actor.ActorRef;
+import akka.pattern.PatternsCS;
+import akka.util.Timeout;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The running device actors of the groups created with this directory in their IotSettings (see
+// IotServices.withDeviceDirectory), so that a sender can resolve a device once and then tell it directly
+// instead of having every message forwarded by the DeviceManager and the DeviceGroup.
+// Groups add a device when they create its actor and remove it as soon as they ask it to passivate, and
+// again when it terminates; removal only succeeds for the same actor, so a late Terminated of an old
+// incarnation never removes its re-created successor. A resolved ref is valid until the device stops:
+// messages sent to it afterwards go to dead letters, so senders that outlive passivation should resolve
+// again when a reply times out, or send through the manager.
+public final class DeviceDirectory {
+
+    private final ConcurrentHashMap<DeviceKey, ActorRef> devices = new ConcurrentHashMap<>();
+
+    // The running actor of the device, or null if it isn't tracked or has no actor at the moment.
+    public ActorRef lookup(String groupId, String deviceId) {
+        return devices.get(new DeviceKey(groupId, deviceId));
+    }
+
+    // The running actor of the device, tracking it through the manager first if there is none. Completes
+    // with null in the unlikely case that the device passivated again before the registration came back.
+    public CompletionStage<ActorRef> resolve(ActorRef manager, String groupId, String deviceId, Timeout timeout) {
+        ActorRef device = lookup(groupId, deviceId);
+        if (device != null) {
+            return CompletableFuture.completedFuture(device);
+        }
+        // The group adds the actor before forwarding the registration to it, so it is there once answered
+        return PatternsCS.ask(manager, new DeviceManager.RequestTrackDevice(groupId, deviceId), timeout)
+                .thenApply(registered -> lookup(groupId, deviceId));
+    }
+
+    public int size() {
+        return devices.size();
+    }
+
+    void register(String groupId, String deviceId, ActorRef device) {
+        devices.put(new DeviceKey(groupId, deviceId), device);
+    }
+
+    void unregister(String groupId, String deviceId, ActorRef device) {
+        devices.remove(new DeviceKey(groupId, deviceId), device);
+    }
+}
@@ -1,33 +1,118 @@
 package com.lightbend.akka.sample.iot;
 
-import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.PoisonPill;
 import akka.actor.Props;
 import akka.actor.Terminated;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
 
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
-public final class DeviceGroup extends AbstractActor {
+public final class DeviceGroup extends InstrumentedActor {
 
     private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), getSelf());
 
     public static Props props(String groupId) {
-        return Props.create(DeviceGroup.class, groupId);
+        return props(groupId, IotSettings.defaults());
     }
 
-    private final Map<ActorRef, String> actorToDeviceId = new HashMap<>();
-    private final Map<String, ActorRef> deviceIdToActor = new HashMap<>();
+    public static Props props(String groupId, FiniteDuration queryTimeout) {
+        return props(groupId, IotSettings.defaults().withQueryTimeout(queryTimeout));
+    }
+
+    public static Props props(String groupId, IotSettings settings) {
+        return props(groupId, settings, IotServices.none());
+    }
+
+    public static Props props(String groupId, IotSettings settings, IotServices services) {
+        return props(groupId, settings, services, null);
+    }
+
+    // Devices of the group append every reading they record to the given ReadingJournalWriter, unless null.
+    public static Props props(String groupId, IotSettings settings, IotServices services, ActorRef readingJournal) {
+        return settings.groupProps(
+                Props.create(DeviceGroup.class, groupId, settings, services, readingJournal));
+    }
+
+    // An entity of DeviceSharding takes its groupId from its name, which Cluster Sharding gives it.
+    static Props entityProps(IotSettings settings, IotServices services) {
+        return props(null, settings, services, null);
+    }
+
+    // Every tracked device; passivated devices are kept without an actor and their last reading is in stats.
+    private final CompactRegistry<ActorRef> devices = new CompactRegistry<>();
+    // Devices asked to stop for passivation, with the messages that arrived for them in the meantime.
+    private final Map<String, List<BufferedMessage>> passivating = new HashMap<>();
     private final String groupId;
+    private final IotSettings settings;
+    private final GroupStats stats;
+    private final Map<Long, PendingBatch> pendingBatches = new HashMap<>();
+    private long nextBatchId = 0L;
+    // Sub-batches sent to each device and not acknowledged yet, whether or not their batch was answered.
+    private final Map<String, Integer> batchesInFlight = new HashMap<>();
+    private final int maxBatchesInFlight;
+    // Null unless settings name a journal directory.
+    private GroupJournal journal;
+    private Cancellable journalFlush;
+
+    // Null when readings are not journaled.
+    private final ActorRef readingJournal;
+
+    // Null unless the services include a read cache.
+    private final ReadCache readCache;
+    // Null unless the services include a device directory.
+    private final DeviceDirectory directory;
+    private final TemperatureSubscriptions subscriptions;
+    // Null while no alert rules are set.
+    private AlertRuleSet alertRules;
+    // Alert state of each device started under the current rules. It is only ever used by the device's
+    // actor, and kept here while the device is passivated so that its next actor doesn't raise an alert
+    // again for a rule that still holds.
+    private final Map<String, AlertRuleSet.Evaluator> alertStates = new HashMap<>();
 
-    public DeviceGroup(final String groupId) {
-        this.groupId = groupId;
+    private final ActivityLog activityLog;
+    // Null unless activity is logged as periodic summaries.
+    private Cancellable logSummary;
+    private long summaryStart;
+    private long readingsSinceSummary;
+    private int createdSinceSummary;
+    private int recreatedSinceSummary;
+    private int passivatedSinceSummary;
+    private int terminatedSinceSummary;
+
+    public DeviceGroup(final String groupId, final IotSettings settings, final IotServices services,
+                       final ActorRef readingJournal) throws UnsupportedEncodingException {
+        this.groupId = groupId != null ? groupId : URLDecoder.decode(getSelf().path().name(), "UTF-8");
+        this.settings = settings;
+        this.stats = new GroupStats(settings.getStatsThreshold(), devices);
+        this.readingJournal = readingJournal;
+        this.readCache = services.getReadCache();
+        this.directory = services.getDeviceDirectory();
+        this.subscriptions = new TemperatureSubscriptions(this.groupId);
+        this.maxBatchesInFlight = settings.getExecutionProfile()
+                .deviceBatchesInFlight(getContext().getSystem().settings().config());
+        this.activityLog = new ActivityLog(log, settings);
+        if (settings.isMetricsEnabled()) {
+            instrument(IotMetrics.GROUP);
+        }
     }
 
-    public static final class RequestDeviceList {
+    public static final class RequestDeviceList implements Serializable {
         private final long requestId;
 
         public RequestDeviceList(final long requestId) {
@@ -35,7 +120,7 @@ public final class DeviceGroup extends AbstractActor {
         }
     }
 
-    public static final class ReplyDeviceList {
+    public static final class ReplyDeviceList implements Serializable {
         private final long requestId;
         private final Set<String> deviceIds;
 
@@ -53,28 +138,450 @@ public final class DeviceGroup extends AbstractActor {
         }
     }
 
+    public static final class RequestAllTemperatures implements Serializable {
+        private final long requestId;
+
+        public RequestAllTemperatures(final long requestId) {
+            this.requestId = requestId;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+    }
+
+    public static final class RespondAllTemperatures implements Serializable {
+        private final long requestId;
+        private final Map<String, TemperatureReading> temperatures;
+
+        public RespondAllTemperatures(final long requestId, final Map<String, TemperatureReading> temperatures) {
+            this.requestId = requestId;
+            this.temperatures = temperatures;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public Map<String, TemperatureReading> getTemperatures() {
+            return temperatures;
+        }
+    }
+
+    public static final class ReadGroupStats implements Serializable {
+        private final long requestId;
+
+        public ReadGroupStats(final long requestId) {
+            this.requestId = requestId;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+    }
+
+    // Aggregates over the last reading of each device. mean and max are NaN while no device has reported.
+    public static final class RespondGroupStats implements Serializable {
+        private final long requestId;
+        private final int deviceCount;
+        private final int reportingCount;
+        private final double mean;
+        private final double max;
+        private final int aboveThresholdCount;
+        private final double threshold;
+
+        public RespondGroupStats(final long requestId, final int deviceCount, final int reportingCount,
+                                 final double mean, final double max, final int aboveThresholdCount,
+                                 final double threshold) {
+            this.requestId = requestId;
+            this.deviceCount = deviceCount;
+            this.reportingCount = reportingCount;
+            this.mean = mean;
+            this.max = max;
+            this.aboveThresholdCount = aboveThresholdCount;
+            this.threshold = threshold;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public int getDeviceCount() {
+            return deviceCount;
+        }
+
+        public int getReportingCount() {
+            return reportingCount;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public int getAboveThresholdCount() {
+            return aboveThresholdCount;
+        }
+
+        public double getThreshold() {
+            return threshold;
+        }
+    }
+
+    public interface TemperatureReading extends Serializable {
+    }
+
+    public static final class Temperature implements TemperatureReading {
+        private final double value;
+
+        public Temperature(final double value) {
+            this.value = value;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return Double.compare(((Temperature) o).value, value) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Double.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return "Temperature{value=" + value + '}';
+        }
+    }
+
+    public enum TemperatureNotAvailable implements TemperatureReading {
+        INSTANCE
+    }
+
+    public enum DeviceNotAvailable implements TemperatureReading {
+        INSTANCE
+    }
+
+    public enum DeviceTimedOut implements TemperatureReading {
+        INSTANCE
+    }
+
+    // Asks for a TemperatureChanged whenever the device, or with a null deviceId any device of the group,
+    // records a new last reading, starting with the current one. Changes smaller than minDelta from the
+    // last value sent for the device are not sent. At most maxUnacknowledged changes are sent ahead of
+    // AcknowledgeChanges; while the subscriber is behind, only the latest value of each device is kept.
+    // Subscribing again to the same device, or to the whole group, replaces the earlier subscription.
+    public static final class Subscribe implements Serializable {
+        public static final int DEFAULT_MAX_UNACKNOWLEDGED = 32;
+
+        private final long requestId;
+        private final String deviceId;
+        private final double minDelta;
+        private final int maxUnacknowledged;
+
+        public Subscribe(final long requestId, final String deviceId) {
+            this(requestId, deviceId, 0.0, DEFAULT_MAX_UNACKNOWLEDGED);
+        }
+
+        public Subscribe(final long requestId, final String deviceId, final double minDelta, final int maxUnacknowledged) {
+            if (!(minDelta >= 0.0)) {
+                throw new IllegalArgumentException("minDelta must not be negative, was " + minDelta);
+            }
+            if (maxUnacknowledged < 1) {
+                throw new IllegalArgumentException("maxUnacknowledged must be at least 1, was " + maxUnacknowledged);
+            }
+            this.requestId = requestId;
+            this.deviceId = deviceId;
+            this.minDelta = minDelta;
+            this.maxUnacknowledged = maxUnacknowledged;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public String getDeviceId() {
+            return deviceId;
+        }
+
+        public double getMinDelta() {
+            return minDelta;
+        }
+
+        public int getMaxUnacknowledged() {
+            return maxUnacknowledged;
+        }
+    }
+
+    public static final class Subscribed implements Serializable {
+        private final long requestId;
+        private final long subscriptionId;
+
+        public Subscribed(final long requestId, final long subscriptionId) {
+            this.requestId = requestId;
+            this.subscriptionId = subscriptionId;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public long getSubscriptionId() {
+            return subscriptionId;
+        }
+    }
+
+    public static final class Unsubscribe implements Serializable {
+        private final long requestId;
+        private final long subscriptionId;
+
+        public Unsubscribe(final long requestId, final long subscriptionId) {
+            this.requestId = requestId;
+            this.subscriptionId = subscriptionId;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public long getSubscriptionId() {
+            return subscriptionId;
+        }
+    }
+
+    public static final class Unsubscribed implements Serializable {
+        private final long requestId;
+
+        public Unsubscribed(final long requestId) {
+            this.requestId = requestId;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+    }
+
+    // Sequence numbers count the changes sent for the subscription, from 1.
+    public static final class TemperatureChanged implements Serializable {
+        private final long subscriptionId;
+        private final long sequence;
+        private final String groupId;
+        private final String deviceId;
+        private final double value;
+        private final long timestamp;
+
+        public TemperatureChanged(final long subscriptionId, final long sequence, final String groupId,
+                                  final String deviceId, final double value, final long timestamp) {
+            this.subscriptionId = subscriptionId;
+            this.sequence = sequence;
+            this.groupId = groupId;
+            this.deviceId = deviceId;
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+
+        public long getSubscriptionId() {
+            return subscriptionId;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        public String getDeviceId() {
+            return deviceId;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+
+    // Sent by the subscriber to the sender of its TemperatureChanged messages, for every change up to and
+    // including the sequence number.
+    public static final class AcknowledgeChanges implements Serializable {
+        private final long subscriptionId;
+        private final long sequence;
+
+        public AcknowledgeChanges(final long subscriptionId, final long sequence) {
+            this.subscriptionId = subscriptionId;
+            this.sequence = sequence;
+        }
+
+        public long getSubscriptionId() {
+            return subscriptionId;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+    }
+
+    // Replaces the group's alert rules; every device evaluates them on each reading it records and tells
+    // sink a Device.Alert when one starts to hold. An empty list removes the rules. Rules are not
+    // journaled and have to be set again when the group is restarted.
+    public static final class SetAlertRules implements Serializable {
+        private final long requestId;
+        private final List<AlertRule> rules;
+        private final ActorRef sink;
+
+        public SetAlertRules(final long requestId, final List<AlertRule> rules, final ActorRef sink) {
+            this.requestId = requestId;
+            this.rules = rules;
+            this.sink = sink;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public List<AlertRule> getRules() {
+            return rules;
+        }
+
+        public ActorRef getSink() {
+            return sink;
+        }
+    }
+
+    public static final class AlertRulesSet implements Serializable {
+        private final long requestId;
+
+        public AlertRulesSet(final long requestId) {
+            this.requestId = requestId;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+    }
+
+    // Sent by a device that asked to be passivated for a message it can't handle any more, so that the
+    // group delivers it to the device's next actor.
+    static final class Redeliver {
+        final String deviceId;
+        final Object message;
+        final ActorRef sender;
+
+        Redeliver(final String deviceId, final Object message, final ActorRef sender) {
+            this.deviceId = deviceId;
+            this.message = message;
+            this.sender = sender;
+        }
+    }
+
+    // Asked by a SnapshotExport; answered from the last readings the group holds, without waking devices.
+    static final class ExportDevices {
+    }
+
+    static final class DevicesExported {
+        final SnapshotFile.GroupColumns columns;
+
+        DevicesExported(final SnapshotFile.GroupColumns columns) {
+            this.columns = columns;
+        }
+    }
+
+    private static final FiniteDuration JOURNAL_FLUSH_INTERVAL = Duration.create(1, TimeUnit.SECONDS);
+
+    private static final class FlushJournal {
+        static final FlushJournal INSTANCE = new FlushJournal();
+    }
+
+    private static final class LogSummary {
+        static final LogSummary INSTANCE = new LogSummary();
+    }
+
+    private static final class BatchTimedOut {
+        final long batchId;
+
+        BatchTimedOut(long batchId) {
+            this.batchId = batchId;
+        }
+    }
+
     @Override
     public void preStart() {
         log.info("DeviceGroup {} started", groupId);
+        if (settings.getJournalDirectory() != null) {
+            journal = GroupJournal.open(settings.getJournalDirectory(), groupId, settings.getJournalSnapshotInterval());
+            journal.recover(new GroupJournal.Recovery() {
+                @Override
+                public void tracked(String deviceId) {
+                    // Recovered devices start out passivated and get an actor on their first message
+                    devices.put(deviceId, null);
+                }
+
+                @Override
+                public void recorded(String deviceId, double value, long timestamp) {
+                    if (devices.contains(deviceId)) {
+                        stats.update(deviceId, value, timestamp);
+                    }
+                }
+
+                @Override
+                public void removed(String deviceId) {
+                    stats.remove(deviceId);
+                    devices.remove(deviceId);
+                }
+            });
+            log.info("DeviceGroup {} recovered {} devices", groupId, devices.size());
+            journalFlush = getContext().getSystem().scheduler().schedule(
+                    JOURNAL_FLUSH_INTERVAL, JOURNAL_FLUSH_INTERVAL, getSelf(), FlushJournal.INSTANCE,
+                    getContext().dispatcher(), getSelf());
+        }
+        Duration summaryInterval = settings.getLogSummaryInterval();
+        if (!activityLog.isPerMessage() && summaryInterval.isFinite()) {
+            FiniteDuration interval = Duration.create(summaryInterval.toNanos(), TimeUnit.NANOSECONDS);
+            summaryStart = System.nanoTime();
+            logSummary = getContext().getSystem().scheduler().schedule(
+                    interval, interval, getSelf(), LogSummary.INSTANCE, getContext().dispatcher(), getSelf());
+        }
     }
 
     @Override
     public void postStop() {
+        if (journal != null) {
+            journalFlush.cancel();
+            journal.close();
+        }
+        if (logSummary != null) {
+            logSummary.cancel();
+        }
+        // The devices stop with the group, without the group seeing their Terminated
+        if (directory != null) {
+            for (int i = 0; i < devices.size(); i++) {
+                if (devices.valueAt(i) != null) {
+                    directory.unregister(groupId, devices.idAt(i), devices.valueAt(i));
+                }
+            }
+        }
         log.info("DeviceGroup {} stopped", groupId);
     }
 
     private void onTrackDevice(DeviceManager.RequestTrackDevice trackMsg) {
         if (this.groupId.equals(trackMsg.getGroupId())) {
-            ActorRef deviceActor = deviceIdToActor.get(trackMsg.getDeviceId());
-            if (deviceActor != null) {
-                deviceActor.forward(trackMsg, getContext());
-            } else {
-                log.info("Creating device actor for {}", trackMsg.getDeviceId());
-                deviceActor = getContext().actorOf(Device.props(groupId, trackMsg.getDeviceId()), "device-" + trackMsg.getDeviceId());
-                getContext().watch(deviceActor);
-                actorToDeviceId.put(deviceActor, trackMsg.getDeviceId());
-                deviceIdToActor.put(trackMsg.getDeviceId(), deviceActor);
-                deviceActor.forward(trackMsg, getContext());
+            if (!deliver(trackMsg.getDeviceId(), trackMsg, getSender())) {
+                activityLog.lifecycle("Creating device actor for {}", trackMsg.getDeviceId());
+                createdSinceSummary++;
+                createDevice(trackMsg.getDeviceId()).forward(trackMsg, getContext());
             }
         } else {
             log.warning(
@@ -84,24 +591,542 @@ public final class DeviceGroup extends AbstractActor {
         }
     }
 
+    private void onRegisterDevices(DeviceManager.RegisterDevices r) {
+        if (!this.groupId.equals(r.getGroupId())) {
+            log.warning(
+                    "Ignoring RegisterDevices request for {}. This actor is responsible for {}.",
+                    r.getGroupId(), this.groupId
+            );
+            return;
+        }
+        // The age of a manifest's reading is unknown, so it is kept without a timestamp
+        int registered = 0;
+        for (int i = 0; i < r.size(); i++) {
+            String deviceId = r.getDeviceId(i);
+            if (devices.contains(deviceId)) {
+                continue;
+            }
+            devices.put(deviceId, null);
+            registered++;
+            double lastReading = r.getLastReading(i);
+            if (!Double.isNaN(lastReading)) {
+                stats.update(deviceId, lastReading, 0L);
+            }
+            if (journal != null) {
+                journal.tracked(deviceId);
+                if (!Double.isNaN(lastReading)) {
+                    journal.recorded(deviceId, lastReading, 0L);
+                }
+                snapshotIfDue();
+            }
+        }
+        activityLog.lifecycle("Registered {} dormant devices", registered);
+        getSender().tell(new DeviceManager.DevicesRegistered(r.getRequestId(), registered), getSelf());
+    }
+
+    private ActorRef createDevice(String deviceId) {
+        boolean known = devices.contains(deviceId);
+        Props deviceProps = known && stats.hasReading(deviceId)
+                ? Device.props(groupId, deviceId, settings, readingJournal, stats.getReading(deviceId))
+                : Device.props(groupId, deviceId, settings, readingJournal);
+        ActorRef deviceActor = getContext().actorOf(deviceProps, "device-" + deviceId);
+        getContext().watch(deviceActor);
+        if (alertRules != null) {
+            // Before anything else can reach the device, including senders using the directory
+            AlertRuleSet.Evaluator alertState = alertStates.computeIfAbsent(deviceId, id -> alertRules.newEvaluator());
+            deviceActor.tell(new Device.UpdateAlertRules(alertRules, alertState), getSelf());
+        }
+        devices.put(deviceId, deviceActor);
+        if (directory != null) {
+            directory.register(groupId, deviceId, deviceActor);
+        }
+        if (journal != null && !known) {
+            journal.tracked(deviceId);
+            snapshotIfDue();
+        }
+        return deviceActor;
+    }
+
+    // Sends the message to the device, re-creating it if it was passivated or buffering the message
+    // while it is passivating. Returns false for devices this group doesn't know.
+    private boolean deliver(String deviceId, Object message, ActorRef sender) {
+        if (!passivating.isEmpty()) {
+            List<BufferedMessage> buffer = passivating.get(deviceId);
+            if (buffer != null) {
+                buffer.add(new BufferedMessage(message, sender));
+                return true;
+            }
+        }
+        ActorRef deviceActor = devices.get(deviceId);
+        if (deviceActor == null) {
+            if (!devices.contains(deviceId)) {
+                return false;
+            }
+            activityLog.lifecycle("Re-creating passivated device actor for {}", deviceId);
+            recreatedSinceSummary++;
+            deviceActor = createDevice(deviceId);
+        }
+        deviceActor.tell(message, sender);
+        return true;
+    }
+
     private void onDeviceList(RequestDeviceList r) {
-        getSender().tell(new ReplyDeviceList(r.requestId, deviceIdToActor.keySet()), getSelf());
+        getSender().tell(new ReplyDeviceList(r.requestId, devices.idSnapshot()), getSelf());
+    }
+
+    private void onAllTemperatures(RequestAllTemperatures r) {
+        // The query works on its own copy so that devices joining or leaving mid-query don't affect it.
+        // Devices without a running actor are answered from their last known reading.
+        Map<ActorRef, String> actorToDeviceIdCopy = new HashMap<>(devices.size() * 4 / 3 + 1);
+        Map<String, TemperatureReading> knownReadings = new HashMap<>();
+        for (int i = 0; i < devices.size(); i++) {
+            String deviceId = devices.idAt(i);
+            ActorRef deviceActor = devices.valueAt(i);
+            if (deviceActor != null && !passivating.containsKey(deviceId)) {
+                actorToDeviceIdCopy.put(deviceActor, deviceId);
+            } else {
+                knownReadings.put(deviceId, lastKnownReading(deviceId));
+            }
+        }
+        getContext().actorOf(DeviceGroupQuery.props(
+                actorToDeviceIdCopy, knownReadings, r.requestId, getSender(), settings.getQueryTimeout()));
+    }
+
+    private TemperatureReading lastKnownReading(String deviceId) {
+        return stats.hasReading(deviceId)
+                ? new Temperature(stats.getReading(deviceId))
+                : TemperatureNotAvailable.INSTANCE;
+    }
+
+    private void onRecordTemperatureBatch(DeviceManager.RecordTemperatureBatch batch) {
+        if (!this.groupId.equals(batch.getGroupId())) {
+            log.warning(
+                    "Ignoring temperature batch for {}. This actor is responsible for {}.",
+                    batch.getGroupId(), this.groupId
+            );
+            return;
+        }
+
+        // First pass: find each device's position in the batch and how many readings it has.
+        Map<String, DeviceSplit> splits = new HashMap<>();
+        List<DeviceSplit> slots = new ArrayList<>();
+        int untracked = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            String deviceId = batch.getDeviceId(i);
+            DeviceSplit split = splits.get(deviceId);
+            if (split == null) {
+                if (!devices.contains(deviceId)) {
+                    untracked++;
+                    continue;
+                }
+                split = new DeviceSplit(deviceId);
+                splits.put(deviceId, split);
+                slots.add(split);
+            }
+            split.size++;
+        }
+        if (untracked > 0) {
+            log.warning("Ignoring {} readings in batch {} for untracked devices", untracked, batch.getRequestId());
+        }
+        if (slots.isEmpty()) {
+            getSender().tell(new DeviceManager.TemperatureBatchRecorded(batch.getRequestId(), new String[0], new long[0]), getSelf());
+            return;
+        }
+
+        // Second pass: copy every device's readings into its own sub-batch, keeping their order.
+        for (DeviceSplit split : slots) {
+            split.requestIds = new long[split.size];
+            split.values = new double[split.size];
+            split.size = 0;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            DeviceSplit split = splits.get(batch.getDeviceId(i));
+            if (split != null) {
+                split.requestIds[split.size] = batch.getRequestId(i);
+                split.values[split.size] = batch.getValue(i);
+                split.size++;
+            }
+        }
+
+        long batchId = nextBatchId++;
+        PendingBatch pending = new PendingBatch(batch.getRequestId(), getSender(), slots.size());
+        int refused = 0;
+        for (int slot = 0; slot < slots.size(); slot++) {
+            DeviceSplit split = slots.get(slot);
+            pending.deviceIds[slot] = split.deviceId;
+            int inFlight = batchesInFlight.getOrDefault(split.deviceId, 0);
+            if (inFlight >= maxBatchesInFlight) {
+                // The device is behind: its readings are left out of the acknowledgement instead of queueing
+                pending.refuse(slot);
+                refused++;
+                continue;
+            }
+            batchesInFlight.put(split.deviceId, inFlight + 1);
+            deliver(split.deviceId, new Device.RecordTemperatureBatch(
+                    batchId, slot, split.requestIds, split.values, pending.requester), getSelf());
+        }
+        if (refused > 0) {
+            log.debug("Refused readings in batch {} for {} devices with {} batches queued",
+                    batch.getRequestId(), refused, maxBatchesInFlight);
+        }
+        if (pending.remaining == 0) {
+            pending.reply(getSelf());
+            return;
+        }
+        // Devices that haven't answered by the deadline are left out of the acknowledgement
+        pending.deadline = getContext().getSystem().scheduler().scheduleOnce(
+                settings.getQueryTimeout(), getSelf(), new BatchTimedOut(batchId), getContext().dispatcher(), getSelf());
+        pendingBatches.put(batchId, pending);
+    }
+
+    private void onTemperatureBatchRecorded(Device.TemperatureBatchRecorded recorded) {
+        String deviceId = devices.idOf(getSender());
+        if (deviceId != null) {
+            batchesInFlight.computeIfPresent(deviceId, (id, inFlight) -> inFlight > 1 ? inFlight - 1 : null);
+        }
+        PendingBatch pending = pendingBatches.get(recorded.getBatchId());
+        if (pending != null && pending.acknowledge(recorded.getSlot(), recorded.getHighestRequestId())) {
+            pendingBatches.remove(recorded.getBatchId());
+            pending.reply(getSelf());
+        }
+    }
+
+    private void onBatchTimedOut(BatchTimedOut timedOut) {
+        PendingBatch pending = pendingBatches.remove(timedOut.batchId);
+        if (pending != null) {
+            log.warning("Batch {} timed out with {} of {} devices acknowledged",
+                    pending.requestId, pending.recorded, pending.deviceIds.length);
+            pending.reply(getSelf());
+        }
+    }
+
+    private void onTemperatureUpdated(Device.TemperatureUpdated updated) {
+        // Passivating devices keep their actor until terminated, so their last updates are not lost
+        readingsSinceSummary += updated.getReadings();
+        if (updated.getDeviceId().equals(devices.idOf(getSender()))) {
+            stats.update(updated.getDeviceId(), updated.getValue(), updated.getTimestamp());
+            if (journal != null) {
+                journal.recorded(updated.getDeviceId(), updated.getValue(), updated.getTimestamp());
+                snapshotIfDue();
+            }
+            if (readCache != null) {
+                readCache.update(groupId, updated.getDeviceId(), updated.getValue(), updated.getTimestamp());
+            }
+            if (!subscriptions.isEmpty()) {
+                subscriptions.publish(updated.getDeviceId(), updated.getValue(), updated.getTimestamp(), getSelf());
+            }
+        }
+    }
+
+    // Subscriptions are kept by the group rather than the devices, so they outlive passivation.
+    private void onSubscribe(Subscribe s) {
+        ActorRef subscriber = getSender();
+        long subscriptionId = subscriptions.subscribe(
+                subscriber, s.getDeviceId(), s.getMinDelta(), s.getMaxUnacknowledged());
+        getContext().watch(subscriber);
+        subscriber.tell(new Subscribed(s.getRequestId(), subscriptionId), getSelf());
+        if (s.getDeviceId() != null) {
+            if (stats.hasReading(s.getDeviceId())) {
+                subscriptions.publishTo(subscriptionId, s.getDeviceId(),
+                        stats.getReading(s.getDeviceId()), stats.getTimestamp(s.getDeviceId()), getSelf());
+            }
+            return;
+        }
+        for (int i = 0; i < devices.size(); i++) {
+            String deviceId = devices.idAt(i);
+            if (stats.hasReading(deviceId)) {
+                subscriptions.publishTo(subscriptionId, deviceId,
+                        stats.getReading(deviceId), stats.getTimestamp(deviceId), getSelf());
+            }
+        }
+    }
+
+    private void onUnsubscribe(Unsubscribe u) {
+        ActorRef subscriber = subscriptions.unsubscribe(u.getSubscriptionId());
+        if (subscriber != null && !subscriptions.isSubscribed(subscriber)) {
+            getContext().unwatch(subscriber);
+        }
+        getSender().tell(new Unsubscribed(u.getRequestId()), getSelf());
+    }
+
+    // Running devices get the new rules right away; passivated ones when they are started again.
+    private void onSetAlertRules(SetAlertRules r) {
+        alertRules = r.getRules().isEmpty() ? null : new AlertRuleSet(r.getRules(), r.getSink());
+        alertStates.clear();
+        for (int i = 0; i < devices.size(); i++) {
+            ActorRef deviceActor = devices.valueAt(i);
+            if (deviceActor != null) {
+                AlertRuleSet.Evaluator alertState = null;
+                if (alertRules != null) {
+                    alertState = alertRules.newEvaluator();
+                    alertStates.put(devices.idAt(i), alertState);
+                }
+                deviceActor.tell(new Device.UpdateAlertRules(alertRules, alertState), getSelf());
+            }
+        }
+        log.info("DeviceGroup {} has {} alert rules", groupId, r.getRules().size());
+        getSender().tell(new AlertRulesSet(r.getRequestId()), getSelf());
+    }
+
+    private void onAcknowledgeChanges(AcknowledgeChanges a) {
+        subscriptions.acknowledge(a.getSubscriptionId(), a.getSequence(), getSender(), getSelf());
+    }
+
+    // The snapshot holds exactly what recovery would rebuild from the journal: every device and its last reading.
+    private void snapshotIfDue() {
+        if (!journal.isSnapshotDue()) {
+            return;
+        }
+        GroupJournal.SnapshotWriter snapshot = journal.beginSnapshot();
+        for (int i = 0; i < devices.size(); i++) {
+            String deviceId = devices.idAt(i);
+            if (stats.hasReading(deviceId)) {
+                snapshot.write(deviceId, true, stats.getReading(deviceId), stats.getTimestamp(deviceId));
+            } else {
+                snapshot.write(deviceId, false, 0.0, 0L);
+            }
+        }
+        snapshot.commit();
+    }
+
+    private void onFlushJournal(FlushJournal f) {
+        journal.flush();
+    }
+
+    // One line for everything the group did since the previous summary, or nothing if it was idle.
+    private void onLogSummary(LogSummary s) {
+        long now = System.nanoTime();
+        boolean idle = readingsSinceSummary == 0 && createdSinceSummary == 0 && recreatedSinceSummary == 0
+                && passivatedSinceSummary == 0 && terminatedSinceSummary == 0;
+        if (!idle && log.isInfoEnabled()) {
+            log.info(String.format(Locale.ROOT,
+                    "DeviceGroup %s over %.1f s: readings=%d created=%d recreated=%d passivated=%d terminated=%d devices=%d",
+                    groupId, (now - summaryStart) / 1e9, readingsSinceSummary, createdSinceSummary,
+                    recreatedSinceSummary, passivatedSinceSummary, terminatedSinceSummary, devices.size()));
+        }
+        summaryStart = now;
+        readingsSinceSummary = 0;
+        createdSinceSummary = 0;
+        recreatedSinceSummary = 0;
+        passivatedSinceSummary = 0;
+        terminatedSinceSummary = 0;
+    }
+
+    // Running devices answer themselves; passivated ones are answered from their last reading rather than
+    // being re-created just for a read.
+    private void onRequestTemperature(DeviceManager.RequestTemperature r) {
+        ActorRef deviceActor = devices.get(r.getDeviceId());
+        if (deviceActor != null && !passivating.containsKey(r.getDeviceId())) {
+            deviceActor.tell(new Device.ReadTemperature(r.getRequestId()), getSender());
+        } else if (stats.hasReading(r.getDeviceId())) {
+            getSender().tell(new Device.RespondTemperature(r.getRequestId(), stats.getReading(r.getDeviceId())), getSelf());
+        } else {
+            getSender().tell(new Device.RespondTemperature(r.getRequestId()), getSelf());
+        }
+    }
+
+    private void onExportDevices(ExportDevices e) {
+        int size = devices.size();
+        String[] deviceIds = new String[size];
+        double[] values = new double[size];
+        long[] timestamps = new long[size];
+        for (int i = 0; i < size; i++) {
+            String deviceId = devices.idAt(i);
+            deviceIds[i] = deviceId;
+            if (stats.hasReading(deviceId)) {
+                values[i] = stats.getReading(deviceId);
+                timestamps[i] = stats.getTimestamp(deviceId);
+            } else {
+                values[i] = Double.NaN;
+            }
+        }
+        getSender().tell(new DevicesExported(new SnapshotFile.GroupColumns(groupId, deviceIds, values, timestamps)),
+                getSelf());
+    }
+
+    private void onGroupStats(ReadGroupStats r) {
+        getSender().tell(stats.respond(r.requestId, devices.size()), getSelf());
+    }
+
+    private void onPassivate(Device.Passivate p) {
+        ActorRef deviceActor = getSender();
+        String deviceId = devices.idOf(deviceActor);
+        if (deviceId != null && !passivating.containsKey(deviceId)) {
+            passivating.put(deviceId, new ArrayList<>());
+            // From now on messages must come through the group, which buffers them until the device stopped
+            if (directory != null) {
+                directory.unregister(groupId, deviceId, deviceActor);
+            }
+            deviceActor.tell(PoisonPill.getInstance(), getSelf());
+        }
+    }
+
+    private void onRedeliver(Redeliver r) {
+        if (!deliver(r.deviceId, r.message, r.sender)) {
+            log.warning("Dropping {} for device {}, which is no longer tracked", r.message.getClass().getSimpleName(), r.deviceId);
+        }
     }
 
     private void onTerminated(Terminated t) {
         ActorRef deviceActor = t.getActor();
-        String deviceId = actorToDeviceId.get(deviceActor);
-        log.info("Device actor for {} has been terminated", deviceId);
-        actorToDeviceId.remove(deviceActor);
-        deviceIdToActor.remove(deviceId);
+        String deviceId = devices.idOf(deviceActor);
+        if (deviceId == null) {
+            subscriptions.removeSubscriber(deviceActor);
+            return;
+        }
+        if (directory != null) {
+            directory.unregister(groupId, deviceId, deviceActor);
+        }
+        List<BufferedMessage> buffer = passivating.remove(deviceId);
+        if (buffer != null) {
+            activityLog.lifecycle("Device actor for {} has been passivated", deviceId);
+            passivatedSinceSummary++;
+            devices.put(deviceId, null);
+            if (!buffer.isEmpty()) {
+                recreatedSinceSummary++;
+                ActorRef rehydrated = createDevice(deviceId);
+                for (BufferedMessage buffered : buffer) {
+                    rehydrated.tell(buffered.message, buffered.sender);
+                }
+            }
+            return;
+        }
+
+        activityLog.lifecycle("Device actor for {} has been terminated", deviceId);
+        terminatedSinceSummary++;
+        batchesInFlight.remove(deviceId);
+        Iterator<PendingBatch> pendingIterator = pendingBatches.values().iterator();
+        while (pendingIterator.hasNext()) {
+            PendingBatch pending = pendingIterator.next();
+            if (pending.deviceLost(deviceId)) {
+                pendingIterator.remove();
+                pending.reply(getSelf());
+            }
+        }
+        stats.remove(deviceId);
+        alertStates.remove(deviceId);
+        devices.remove(deviceId);
+        if (readCache != null) {
+            readCache.invalidate(groupId, deviceId);
+        }
+        if (journal != null) {
+            journal.removed(deviceId);
+            snapshotIfDue();
+        }
     }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder()
                 .match(DeviceManager.RequestTrackDevice.class, this::onTrackDevice)
+                .match(DeviceManager.RegisterDevices.class, this::onRegisterDevices)
                 .match(RequestDeviceList.class, this::onDeviceList)
+                .match(RequestAllTemperatures.class, this::onAllTemperatures)
+                .match(DeviceManager.RecordTemperatureBatch.class, this::onRecordTemperatureBatch)
+                .match(Device.TemperatureBatchRecorded.class, this::onTemperatureBatchRecorded)
+                .match(BatchTimedOut.class, this::onBatchTimedOut)
+                .match(Device.TemperatureUpdated.class, this::onTemperatureUpdated)
+                .match(DeviceManager.RequestTemperature.class, this::onRequestTemperature)
+                .match(ReadGroupStats.class, this::onGroupStats)
+                .match(ExportDevices.class, this::onExportDevices)
+                .match(Subscribe.class, this::onSubscribe)
+                .match(Unsubscribe.class, this::onUnsubscribe)
+                .match(AcknowledgeChanges.class, this::onAcknowledgeChanges)
+                .match(SetAlertRules.class, this::onSetAlertRules)
+                .match(Device.Passivate.class, this::onPassivate)
+                .match(Redeliver.class, this::onRedeliver)
                 .match(Terminated.class, this::onTerminated)
+                .match(FlushJournal.class, this::onFlushJournal)
+                .match(LogSummary.class, this::onLogSummary)
                 .build();
     }
+
+    private static final class BufferedMessage {
+        final Object message;
+        final ActorRef sender;
+
+        BufferedMessage(Object message, ActorRef sender) {
+            this.message = message;
+            this.sender = sender;
+        }
+    }
+
+    private static final class DeviceSplit {
+        final String deviceId;
+        int size;
+        long[] requestIds;
+        double[] values;
+
+        DeviceSplit(String deviceId) {
+            this.deviceId = deviceId;
+        }
+    }
+
+    // Book-keeping for a batch whose sub-batches have been sent to the devices but not all acknowledged yet.
+    private static final class PendingBatch {
+        final long requestId;
+        final ActorRef requester;
+        final String[] deviceIds;
+        final boolean[] outstanding;
+        final long[] highestRequestIds;
+        final boolean[] acknowledged;
+        int remaining;
+        int recorded;
+        Cancellable deadline;
+
+        PendingBatch(long requestId, ActorRef requester, int devices) {
+            this.requestId = requestId;
+            this.requester = requester;
+            this.deviceIds = new String[devices];
+            this.outstanding = new boolean[devices];
+            Arrays.fill(outstanding, true);
+            this.highestRequestIds = new long[devices];
+            this.acknowledged = new boolean[devices];
+            this.remaining = devices;
+        }
+
+        boolean acknowledge(int slot, long highestRequestId) {
+            if (outstanding[slot]) {
+                outstanding[slot] = false;
+                highestRequestIds[slot] = highestRequestId;
+                acknowledged[slot] = true;
+                recorded++;
+                remaining--;
+            }
+            return remaining == 0;
+        }
+
+        void refuse(int slot) {
+            outstanding[slot] = false;
+            remaining--;
+        }
+
+        boolean deviceLost(String deviceId) {
+            for (int slot = 0; slot < deviceIds.length; slot++) {
+                if (outstanding[slot] && deviceId.equals(deviceIds[slot])) {
+                    outstanding[slot] = false;
+                    remaining--;
+                    return remaining == 0;
+                }
+            }
+            return false;
+        }
+
+        void reply(ActorRef self) {
+            if (deadline != null) {
+                deadline.cancel();
+            }
+            String[] ackedDeviceIds = new String[recorded];
+            long[] ackedRequestIds = new long[recorded];
+            int j = 0;
+            for (int slot = 0; slot < deviceIds.length; slot++) {
+                if (acknowledged[slot]) {
+                    ackedDeviceIds[j] = deviceIds[slot];
+                    ackedRequestIds[j] = highestRequestIds[slot];
+                    j++;
+                }
+            }
+            requester.tell(new DeviceManager.TemperatureBatchRecorded(requestId, ackedDeviceIds, ackedRequestIds), self);
+        }
+    }
 }
@@ -0,0 +1,122 @@
+package com.lightbend.akka.sample.iot;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import akka.actor.Terminated;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+public final class DeviceGroupQuery extends AbstractActor {
+
+    private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+
+    public static Props props(final Map<ActorRef, String> actorToDeviceId, final long requestId,
+                              final ActorRef requester, final FiniteDuration timeout) {
+        return props(actorToDeviceId, Collections.emptyMap(), requestId, requester, timeout);
+    }
+
+    // knownReadings are included in the response as they are, for devices that have no actor to ask.
+    public static Props props(final Map<ActorRef, String> actorToDeviceId,
+                              final Map<String, DeviceGroup.TemperatureReading> knownReadings, final long requestId,
+                              final ActorRef requester, final FiniteDuration timeout) {
+        return Props.create(DeviceGroupQuery.class, actorToDeviceId, knownReadings, requestId, requester, timeout);
+    }
+
+    public static final class CollectionTimeout {
+    }
+
+    private final Map<ActorRef, String> actorToDeviceId;
+    private final long requestId;
+    private final ActorRef requester;
+    private final Cancellable queryTimeoutTimer;
+
+    // Replies are accumulated in place: copying per reply would make a query over n devices O(n^2).
+    private final Map<String, DeviceGroup.TemperatureReading> repliesSoFar;
+    private final Set<ActorRef> stillWaiting;
+
+    public DeviceGroupQuery(final Map<ActorRef, String> actorToDeviceId,
+                            final Map<String, DeviceGroup.TemperatureReading> knownReadings, final long requestId,
+                            final ActorRef requester, final FiniteDuration timeout) {
+        this.actorToDeviceId = actorToDeviceId;
+        this.requestId = requestId;
+        this.requester = requester;
+        this.repliesSoFar = new HashMap<>((actorToDeviceId.size() + knownReadings.size()) * 4 / 3 + 1);
+        this.repliesSoFar.putAll(knownReadings);
+        this.stillWaiting = new HashSet<>(actorToDeviceId.keySet());
+
+        queryTimeoutTimer = getContext().getSystem().scheduler().scheduleOnce(
+                timeout, getSelf(), new CollectionTimeout(), getContext().dispatcher(), getSelf()
+        );
+    }
+
+    @Override
+    public void preStart() {
+        if (stillWaiting.isEmpty()) {
+            replyAndStop();
+            return;
+        }
+        for (ActorRef deviceActor : stillWaiting) {
+            getContext().watch(deviceActor);
+            deviceActor.tell(new Device.ReadTemperature(requestId), getSelf());
+        }
+    }
+
+    @Override
+    public void postStop() {
+        queryTimeoutTimer.cancel();
+    }
+
+    private void onRespondTemperature(Device.RespondTemperature r) {
+        DeviceGroup.TemperatureReading reading = r.hasValue()
+                ? new DeviceGroup.Temperature(r.getValueAsDouble())
+                : DeviceGroup.TemperatureNotAvailable.INSTANCE;
+        receivedResponse(getSender(), reading);
+    }
+
+    private void onTerminated(Terminated t) {
+        receivedResponse(t.getActor(), DeviceGroup.DeviceNotAvailable.INSTANCE);
+    }
+
+    private void onCollectionTimeout(CollectionTimeout t) {
+        log.debug("Query {} timed out waiting for {} devices", requestId, stillWaiting.size());
+        for (ActorRef deviceActor : stillWaiting) {
+            repliesSoFar.put(actorToDeviceId.get(deviceActor), DeviceGroup.DeviceTimedOut.INSTANCE);
+        }
+        stillWaiting.clear();
+        replyAndStop();
+    }
+
+    private void receivedResponse(ActorRef deviceActor, DeviceGroup.TemperatureReading reading) {
+        if (!stillWaiting.remove(deviceActor)) {
+            return;
+        }
+        getContext().unwatch(deviceActor);
+        repliesSoFar.put(actorToDeviceId.get(deviceActor), reading);
+        if (stillWaiting.isEmpty()) {
+            replyAndStop();
+        }
+    }
+
+    private void replyAndStop() {
+        requester.tell(new DeviceGroup.RespondAllTemperatures(requestId, repliesSoFar), getSelf());
+        getContext().stop(getSelf());
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(Device.RespondTemperature.class, this::onRespondTemperature)
+                .match(Terminated.class, this::onTerminated)
+                .match(CollectionTimeout.class, this::onCollectionTimeout)
+                .build();
+    }
+}
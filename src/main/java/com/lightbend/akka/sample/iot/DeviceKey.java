@@ -0,0 +1,32 @@
+package com.lightbend.akka.sample.iot;
+
+// A device's (groupId, deviceId) pair as a key of the concurrent maps that ReadCache and DeviceDirectory
+// share between threads; the hash is computed once since every lookup needs it.
+final class DeviceKey {
+    final String groupId;
+    final String deviceId;
+    private final int hash;
+
+    DeviceKey(final String groupId, final String deviceId) {
+        this.groupId = groupId;
+        this.deviceId = deviceId;
+        this.hash = 31 * groupId.hashCode() + deviceId.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DeviceKey)) {
+            return false;
+        }
+        DeviceKey other = (DeviceKey) o;
+        return hash == other.hash && groupId.equals(other.groupId) && deviceId.equals(other.deviceId);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -1,27 +1,75 @@
 package com.lightbend.akka.sample.iot;
 
-import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
+import akka.actor.ActorSelection;
 import akka.actor.Props;
+import akka.actor.SupervisorStrategy;
 import akka.actor.Terminated;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import akka.routing.ConsistentHashingPool;
+import akka.routing.ConsistentHashingRouter.ConsistentHashable;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
-public class DeviceManager extends AbstractActor {
+public class DeviceManager extends InstrumentedActor {
 
     private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
 
     public static Props props() {
-        return Props.create(DeviceManager.class);
+        return props(IotSettings.defaults());
     }
 
-    final Map<String, ActorRef> groupIdToActor = new HashMap<>();
-    final Map<ActorRef, String> actorToGroupId = new HashMap<>();
+    // With more than one shard, which settings have to ask for, the returned props create a
+    // consistent-hashing router in front of the DeviceManager shards. The router picks the shard for a
+    // groupId on the sender's thread, so there is no single mailbox that every registration has to pass
+    // through. Only ConsistentHashable messages can be routed; the router logs and drops any other.
+    public static Props props(IotSettings settings) {
+        return props(settings, IotServices.none());
+    }
+
+    public static Props props(IotSettings settings, IotServices services) {
+        Props shardProps = settings.managerProps(Props.create(DeviceManager.class, settings, services));
+        if (settings.getManagerShards() == 1) {
+            return shardProps;
+        }
+        return settings.getExecutionProfile().management(new ConsistentHashingPool(settings.getManagerShards())
+                .withSupervisorStrategy(SupervisorStrategy.defaultStrategy())
+                .props(shardProps), null);
+    }
+
+    private final CompactRegistry<ActorRef> groups = new CompactRegistry<>();
+    private final IotSettings settings;
+    private final IotServices services;
+    private final ActivityLog activityLog;
+    // Null unless settings name a reading journal directory.
+    private ActorRef readingJournal;
 
-    public static final class RequestTrackDevice {
+    public DeviceManager(final IotSettings settings, final IotServices services) {
+        this.settings = settings;
+        this.services = services;
+        this.activityLog = new ActivityLog(log, settings);
+        if (settings.isMetricsEnabled()) {
+            instrument(IotMetrics.MANAGER);
+        }
+    }
+
+    // Each shard writes its own reading journal, in a directory named after the shard actor.
+    @Override
+    public void preStart() throws UnsupportedEncodingException {
+        if (settings.getReadingJournalDirectory() != null) {
+            readingJournal = getContext().actorOf(settings.journalProps(ReadingJournalWriter.props(
+                    settings.getReadingJournalDirectory().resolve(URLEncoder.encode(getSelf().path().name(), "UTF-8")),
+                    settings.getReadingJournalSegmentRecords())), "reading-journal");
+        }
+    }
+
+    public static final class RequestTrackDevice implements ConsistentHashable, Serializable {
         private final String groupId;
         private final String deviceId;
 
@@ -37,32 +85,368 @@ public class DeviceManager extends AbstractActor {
         public String getDeviceId() {
             return deviceId;
         }
+
+        @Override
+        public Object consistentHashKey() {
+            return groupId;
+        }
+    }
+
+    public static final class DeviceRegistered implements Serializable {
+    }
+
+    // Tracks many devices of a group at once without creating their actors: each starts out dormant, like a
+    // passivated device, with the given last reading (NaN for none), and gets an actor on its first
+    // message. Devices the group already tracks are left as they are. Answered with DevicesRegistered.
+    public static final class RegisterDevices implements ConsistentHashable, Serializable {
+        private final long requestId;
+        private final String groupId;
+        private final String[] deviceIds;
+        private final double[] lastReadings;
+
+        public RegisterDevices(final long requestId, final String groupId, final String[] deviceIds,
+                               final double[] lastReadings) {
+            if (deviceIds.length != lastReadings.length) {
+                throw new IllegalArgumentException("deviceIds and lastReadings must have the same length");
+            }
+            this.requestId = requestId;
+            this.groupId = groupId;
+            this.deviceIds = deviceIds;
+            this.lastReadings = lastReadings;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        public int size() {
+            return deviceIds.length;
+        }
+
+        public String getDeviceId(int i) {
+            return deviceIds[i];
+        }
+
+        public double getLastReading(int i) {
+            return lastReadings[i];
+        }
+
+        @Override
+        public Object consistentHashKey() {
+            return groupId;
+        }
+    }
+
+    public static final class DevicesRegistered implements Serializable {
+        private final long requestId;
+        private final int registered;
+
+        public DevicesRegistered(final long requestId, final int registered) {
+            this.requestId = requestId;
+            this.registered = registered;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        // Devices the group didn't track before.
+        public int getRegistered() {
+            return registered;
+        }
     }
 
-    public static final class DeviceRegistered {
+    // Asks for a device's temperature by its ids, without tracking it. Answered with a Device.RespondTemperature
+    // that is empty for unknown devices; see ReadCache.readTemperature.
+    public static final class RequestTemperature implements ConsistentHashable, Serializable {
+        private final long requestId;
+        private final String groupId;
+        private final String deviceId;
+
+        public RequestTemperature(final long requestId, final String groupId, final String deviceId) {
+            this.requestId = requestId;
+            this.groupId = groupId;
+            this.deviceId = deviceId;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        public String getDeviceId() {
+            return deviceId;
+        }
+
+        @Override
+        public Object consistentHashKey() {
+            return groupId;
+        }
+    }
+
+    // Readings are carried as parallel arrays: reading i is (deviceIds[i], requestIds[i], values[i]).
+    // The arrays are shared with the receiving actors and must not be modified after sending.
+    public static final class RecordTemperatureBatch implements ConsistentHashable, Serializable {
+        private final long requestId;
+        private final String groupId;
+        private final String[] deviceIds;
+        private final long[] requestIds;
+        private final double[] values;
+
+        public RecordTemperatureBatch(final long requestId, final String groupId, final String[] deviceIds,
+                                      final long[] requestIds, final double[] values) {
+            if (deviceIds.length != requestIds.length || deviceIds.length != values.length) {
+                throw new IllegalArgumentException("deviceIds, requestIds and values must have the same length");
+            }
+            this.requestId = requestId;
+            this.groupId = groupId;
+            this.deviceIds = deviceIds;
+            this.requestIds = requestIds;
+            this.values = values;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        public int size() {
+            return deviceIds.length;
+        }
+
+        public String getDeviceId(int i) {
+            return deviceIds[i];
+        }
+
+        public long getRequestId(int i) {
+            return requestIds[i];
+        }
+
+        public double getValue(int i) {
+            return values[i];
+        }
+
+        @Override
+        public Object consistentHashKey() {
+            return groupId;
+        }
+    }
+
+    // Acknowledges a RecordTemperatureBatch: for every device that recorded its readings, the highest
+    // requestId it recorded. Devices that are not tracked, stopped before recording or didn't answer within
+    // the query timeout are left out.
+    public static final class TemperatureBatchRecorded implements Serializable {
+        private final long requestId;
+        private final String[] deviceIds;
+        private final long[] highestRequestIds;
+
+        public TemperatureBatchRecorded(final long requestId, final String[] deviceIds, final long[] highestRequestIds) {
+            this.requestId = requestId;
+            this.deviceIds = deviceIds;
+            this.highestRequestIds = highestRequestIds;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public int size() {
+            return deviceIds.length;
+        }
+
+        public String getDeviceId(int i) {
+            return deviceIds[i];
+        }
+
+        public long getHighestRequestId(int i) {
+            return highestRequestIds[i];
+        }
+    }
+
+    // Delivers a message of the DeviceGroup protocol, such as RequestAllTemperatures or Subscribe, to the
+    // group groupId, which is created if needed and answers the sender directly. This is how group messages
+    // reach their group through a sharded manager or a DeviceSharding region without a ref to it.
+    public static final class ForGroup implements ConsistentHashable, Serializable {
+        private final String groupId;
+        private final Object message;
+
+        public ForGroup(final String groupId, final Object message) {
+            this.groupId = groupId;
+            this.message = message;
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        public Object getMessage() {
+            return message;
+        }
+
+        @Override
+        public Object consistentHashKey() {
+            return groupId;
+        }
+    }
+
+    // Writes the last reading of every device of every group to a SnapshotFile. Answered with
+    // SnapshotExported once the file is in place, or a Status.Failure if it couldn't be written.
+    public static final class ExportSnapshot implements ConsistentHashable {
+        private final long requestId;
+        private final Path file;
+
+        public ExportSnapshot(final long requestId, final Path file) {
+            this.requestId = requestId;
+            this.file = file;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        // Any shard can run the export; hashing the file keeps two exports to it on the same one.
+        @Override
+        public Object consistentHashKey() {
+            return file.toString();
+        }
+    }
+
+    public static final class SnapshotExported {
+        private final long requestId;
+        private final Path file;
+        private final int groups;
+        private final long devices;
+        private final long bytes;
+        private final long elapsedNanos;
+
+        public SnapshotExported(final long requestId, final Path file, final int groups, final long devices,
+                                final long bytes, final long elapsedNanos) {
+            this.requestId = requestId;
+            this.file = file;
+            this.groups = groups;
+            this.devices = devices;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public int getGroups() {
+            return groups;
+        }
+
+        public long getDevices() {
+            return devices;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+    }
+
+    // Sent by a SnapshotExport to every shard, answered with the groups of the shard.
+    static final class CollectGroups {
+    }
+
+    static final class GroupsCollected {
+        final List<ActorRef> groups;
+
+        GroupsCollected(final List<ActorRef> groups) {
+            this.groups = groups;
+        }
     }
 
     private void onTrackDevice(RequestTrackDevice trackMsg) {
-        String groupId = trackMsg.groupId;
-        ActorRef ref = groupIdToActor.get(groupId);
+        groupFor(trackMsg.groupId).forward(trackMsg, getContext());
+    }
+
+    private void onRegisterDevices(RegisterDevices registerMsg) {
+        groupFor(registerMsg.groupId).forward(registerMsg, getContext());
+    }
+
+    private void onForGroup(ForGroup forGroup) {
+        groupFor(forGroup.groupId).forward(forGroup.message, getContext());
+    }
+
+    private ActorRef groupFor(String groupId) {
+        ActorRef ref = groups.get(groupId);
+        if (ref == null) {
+            activityLog.lifecycle("Creating device group actor for {}", groupId);
+            ref = getContext().actorOf(DeviceGroup.props(groupId, settings, services, readingJournal), "group-" + groupId);
+            getContext().watch(ref);
+            groups.put(groupId, ref);
+        }
+        return ref;
+    }
+
+    private void onRecordTemperatureBatch(RecordTemperatureBatch batch) {
+        ActorRef ref = groups.get(batch.groupId);
+        if (ref != null) {
+            ref.forward(batch, getContext());
+        } else {
+            log.warning("Ignoring temperature batch {} for unknown group {}", batch.requestId, batch.groupId);
+            getSender().tell(new TemperatureBatchRecorded(batch.requestId, new String[0], new long[0]), getSelf());
+        }
+    }
+
+    private void onRequestTemperature(RequestTemperature r) {
+        ActorRef ref = groups.get(r.groupId);
         if (ref != null) {
-            ref.forward(trackMsg, getContext());
+            ref.forward(r, getContext());
         } else {
-            log.info("Creating device group actor for {}", groupId);
-            ActorRef groupActor = getContext().actorOf(DeviceGroup.props(groupId), "group-" + groupId);
-            getContext().watch(groupActor);
-            groupActor.forward(trackMsg, getContext());
-            groupIdToActor.put(groupId, groupActor);
-            actorToGroupId.put(groupActor, groupId);
+            getSender().tell(new Device.RespondTemperature(r.requestId), getSelf());
+        }
+    }
+
+    // The export writes its file on BlockingIo, so it runs next to the managers like a query.
+    private void onExportSnapshot(ExportSnapshot export) {
+        int shards = settings.getManagerShards();
+        ActorSelection managers = shards == 1
+                ? getContext().actorSelection(getSelf().path())
+                : getContext().actorSelection("../*");
+        getContext().actorOf(settings.getExecutionProfile().management(SnapshotExport.props(
+                export, getSender(), managers, shards, settings.getQueryTimeout()), null));
+    }
+
+    private void onCollectGroups(CollectGroups collect) {
+        List<ActorRef> refs = new ArrayList<>(groups.size());
+        for (int i = 0; i < groups.size(); i++) {
+            refs.add(groups.valueAt(i));
         }
+        getSender().tell(new GroupsCollected(refs), getSelf());
     }
 
     private void onTerminated(Terminated t) {
         ActorRef groupActor = t.getActor();
-        String groupId = actorToGroupId.get(groupActor);
-        log.info("Device group actor for {} has been terminated", groupId);
-        actorToGroupId.remove(groupActor);
-        groupIdToActor.remove(groupId);
+        String groupId = groups.idOf(groupActor);
+        if (groupId != null) {
+            activityLog.lifecycle("Device group actor for {} has been terminated", groupId);
+            groups.remove(groupId);
+        }
     }
 
 
@@ -70,6 +454,12 @@ public class DeviceManager extends AbstractActor {
     public Receive createReceive() {
         return receiveBuilder()
                 .match(RequestTrackDevice.class, this::onTrackDevice)
+                .match(RegisterDevices.class, this::onRegisterDevices)
+                .match(RecordTemperatureBatch.class, this::onRecordTemperatureBatch)
+                .match(RequestTemperature.class, this::onRequestTemperature)
+                .match(ForGroup.class, this::onForGroup)
+                .match(ExportSnapshot.class, this::onExportSnapshot)
+                .match(CollectGroups.class, this::onCollectGroups)
                 .match(Terminated.class, this::onTerminated)
                 .build();
     }
@@ -0,0 +1,154 @@
+package com.lightbend.akka.sample.iot;
+
+import akka.actor.ActorRef;
+import akka.pattern.PatternsCS;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import akka.util.Timeout;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bootstraps a DeviceManager from a manifest of the fleet, one "groupId,deviceId[,lastReading]" line per
+// device, so that after a deploy every device is tracked before the first reading arrives. Lines are
+// parsed by LineFormat and streamed like ReadingIngest's, collected into batches of IngestSettings.getBatchSize, split by group and
+// sent as RegisterDevices asks, up to IngestSettings.getParallelism at a time. Groups are created as the
+// manifest names them, spread over the manager's shards; devices stay dormant, without an actor, until
+// their first message. A manifest listed group by group needs the fewest round trips; one that
+// interleaves more groups than a batch holds costs about a round trip per device.
+public final class DeviceManifest {
+
+    private DeviceManifest() {
+    }
+
+    public static final class Entry {
+        private final String groupId;
+        private final String deviceId;
+        private final double lastReading;
+
+        public Entry(final String groupId, final String deviceId, final double lastReading) {
+            this.groupId = groupId;
+            this.deviceId = deviceId;
+            this.lastReading = lastReading;
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        public String getDeviceId() {
+            return deviceId;
+        }
+
+        // NaN when the manifest has no reading for the device.
+        public double getLastReading() {
+            return lastReading;
+        }
+    }
+
+    public static final class ManifestReport {
+        private final long groups;
+        private final long devices;
+        private final long registered;
+        private final long malformed;
+        private final long elapsedNanos;
+
+        public ManifestReport(final long groups, final long devices, final long registered, final long malformed,
+                              final long elapsedNanos) {
+            this.groups = groups;
+            this.devices = devices;
+            this.registered = registered;
+            this.malformed = malformed;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getGroups() {
+            return groups;
+        }
+
+        public long getDevices() {
+            return devices;
+        }
+
+        // Devices that weren't tracked before; the rest were already known to their group.
+        public long getRegistered() {
+            return registered;
+        }
+
+        // Lines that were not a manifest entry and were skipped.
+        public long getMalformed() {
+            return malformed;
+        }
+
+        // From starting to read the manifest until every group acknowledged its devices.
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getDevicesPerSecond() {
+            return devices * 1e9 / Math.max(elapsedNanos, 1L);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d devices in %d groups, %d newly registered, %d malformed lines, %.3f s, %.0f devices/s",
+                    devices, groups, registered, malformed, elapsedNanos / 1e9, getDevicesPerSecond());
+        }
+    }
+
+    // Completes when every group named in the manifest has acknowledged its devices. Fails if a line is
+    // longer than maxLineLength or a group doesn't answer within the ack timeout.
+    public static CompletionStage<ManifestReport> load(Source<ByteString, ?> lines, ActorRef manager,
+                                                       IngestSettings settings, Materializer materializer) {
+        LongAdder malformed = new LongAdder();
+        Set<String> groups = ConcurrentHashMap.newKeySet();
+        AtomicLong requestIds = new AtomicLong();
+        Timeout timeout = new Timeout(settings.getAckTimeout());
+        long start = System.nanoTime();
+        return lines
+                .via(LineFormat.parse(settings.getMaxLineLength(), false, malformed, Entry::new))
+                .grouped(settings.getBatchSize())
+                .mapConcat(entries -> byGroup(entries, requestIds))
+                .mapAsyncUnordered(settings.getParallelism(), register -> {
+                    groups.add(register.getGroupId());
+                    return PatternsCS.ask(manager, register, timeout)
+                            .thenApply(reply -> new long[]{register.size(), ((DeviceManager.DevicesRegistered) reply).getRegistered()});
+                })
+                .runFold(new long[2], (totals, acknowledged) -> {
+                    totals[0] += acknowledged[0];
+                    totals[1] += acknowledged[1];
+                    return totals;
+                }, materializer)
+                .thenApply(totals -> new ManifestReport(
+                        groups.size(), totals[0], totals[1], malformed.sum(), System.nanoTime() - start));
+    }
+
+    private static List<DeviceManager.RegisterDevices> byGroup(List<Entry> entries, AtomicLong requestIds) {
+        Map<String, List<Entry>> groups = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            groups.computeIfAbsent(entry.groupId, g -> new ArrayList<>()).add(entry);
+        }
+        List<DeviceManager.RegisterDevices> registrations = new ArrayList<>(groups.size());
+        for (Map.Entry<String, List<Entry>> group : groups.entrySet()) {
+            List<Entry> groupEntries = group.getValue();
+            String[] deviceIds = new String[groupEntries.size()];
+            double[] lastReadings = new double[groupEntries.size()];
+            for (int i = 0; i < deviceIds.length; i++) {
+                deviceIds[i] = groupEntries.get(i).deviceId;
+                lastReadings[i] = groupEntries.get(i).lastReading;
+            }
+            registrations.add(new DeviceManager.RegisterDevices(
+                    requestIds.getAndIncrement(), group.getKey(), deviceIds, lastReadings));
+        }
+        return registrations;
+    }
+}
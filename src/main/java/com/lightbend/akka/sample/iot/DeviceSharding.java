@@ -0,0 +1,74 @@
+package com.lightbend.akka.sample.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.cluster.sharding.ClusterSharding;
+import akka.cluster.sharding.ClusterShardingSettings;
+import akka.cluster.sharding.ShardRegion;
+
+// Spreads device groups over the nodes of an Akka cluster with Cluster Sharding. Every group is an entity
+// named after its groupId, so the region that start returns on any node takes the same groupId-keyed
+// messages as a DeviceManager: RequestTrackDevice, RegisterDevices, RecordTemperatureBatch,
+// RequestTemperature, and ForGroup for the DeviceGroup protocol. Groups start when they are first sent a
+// message and move with their shard when the cluster rebalances; a group that moves keeps its state only if
+// the nodes share IotSettings.getJournalDirectory. ExportSnapshot is not routed, since no DeviceManager
+// knows the groups of a node.
+// Messages cross nodes with Akka's Java serializer, which is why the protocol messages are Serializable.
+public final class DeviceSharding {
+
+    public static final String TYPE_NAME = "DeviceGroup";
+
+    private DeviceSharding() {
+    }
+
+    public static ActorRef start(ActorSystem system, IotSettings settings) {
+        return start(system, settings, IotServices.none());
+    }
+
+    // Starts the region of this node, or returns it if it already runs. Every node of the cluster has to
+    // start it, with the same iot.sharding.number-of-shards.
+    public static ActorRef start(ActorSystem system, IotSettings settings, IotServices services) {
+        int shards = system.settings().config().getInt("iot.sharding.number-of-shards");
+        return ClusterSharding.get(system).start(TYPE_NAME, DeviceGroup.entityProps(settings, services),
+                ClusterShardingSettings.create(system), new GroupExtractor(shards));
+    }
+
+    // The region of this node once start has been called.
+    public static ActorRef region(ActorSystem system) {
+        return ClusterSharding.get(system).shardRegion(TYPE_NAME);
+    }
+
+    // The groupId is the entity id, and the shard is picked from its hash code. Messages of any other type
+    // are not sharded and go to dead letters.
+    static final class GroupExtractor extends ShardRegion.HashCodeMessageExtractor {
+
+        GroupExtractor(int shards) {
+            super(shards);
+        }
+
+        @Override
+        public String entityId(Object message) {
+            if (message instanceof DeviceManager.RequestTrackDevice) {
+                return ((DeviceManager.RequestTrackDevice) message).getGroupId();
+            } else if (message instanceof DeviceManager.RegisterDevices) {
+                return ((DeviceManager.RegisterDevices) message).getGroupId();
+            } else if (message instanceof DeviceManager.RecordTemperatureBatch) {
+                return ((DeviceManager.RecordTemperatureBatch) message).getGroupId();
+            } else if (message instanceof DeviceManager.RequestTemperature) {
+                return ((DeviceManager.RequestTemperature) message).getGroupId();
+            } else if (message instanceof DeviceManager.ForGroup) {
+                return ((DeviceManager.ForGroup) message).getGroupId();
+            }
+            return null;
+        }
+
+        // The group itself takes the DeviceGroup message a ForGroup carries.
+        @Override
+        public Object entityMessage(Object message) {
+            if (message instanceof DeviceManager.ForGroup) {
+                return ((DeviceManager.ForGroup) message).getMessage();
+            }
+            return message;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.lightbend.akka.sample.iot;
+
+import akka.actor.Props;
+import com.typesafe.config.Config;
+
+// Which dispatchers and mailboxes, configured under "iot" in reference.conf, the actors of each tier run on.
+public enum ExecutionProfile {
+    // Every actor on akka.actor.default-dispatcher with the default unbounded mailbox.
+    DEFAULT(null, null, null),
+    // Devices on their own high-throughput pool and groups and managers on a separate management pool.
+    TIERED("iot.device-dispatcher", "iot.device-mailbox", "iot.management-dispatcher"),
+    // TIERED with a limit on the batches queued per device, so ingest is refused instead of queueing
+    // without limit.
+    TIERED_BOUNDED("iot.device-dispatcher", "iot.device-mailbox", "iot.management-dispatcher");
+
+    private final String deviceDispatcher;
+    private final String deviceMailbox;
+    private final String managementDispatcher;
+
+    ExecutionProfile(final String deviceDispatcher, final String deviceMailbox, final String managementDispatcher) {
+        this.deviceDispatcher = deviceDispatcher;
+        this.deviceMailbox = deviceMailbox;
+        this.managementDispatcher = managementDispatcher;
+    }
+
+    // With metrics the device mailbox is replaced by a metered one.
+    Props device(Props props, boolean metered) {
+        Props onDispatcher = this == DEFAULT ? props : props.withDispatcher(deviceDispatcher);
+        if (metered) {
+            return onDispatcher.withMailbox("iot.metered-device-mailbox");
+        }
+        return this == DEFAULT ? onDispatcher : onDispatcher.withMailbox(deviceMailbox);
+    }
+
+    // meteredMailbox is null without metrics.
+    Props management(Props props, String meteredMailbox) {
+        Props onDispatcher = this == DEFAULT ? props : props.withDispatcher(managementDispatcher);
+        return meteredMailbox == null ? onDispatcher : onDispatcher.withMailbox(meteredMailbox);
+    }
+
+    // Groups that keep a GroupJournal block on its files, so under every profile they run on a pool of
+    // their own rather than next to managers, groups without a journal and devices.
+    Props journaledGroup(Props props, String meteredMailbox) {
+        Props onDispatcher = props.withDispatcher("iot.group-journal-dispatcher");
+        return meteredMailbox == null ? onDispatcher : onDispatcher.withMailbox(meteredMailbox);
+    }
+
+    // The reading journal writer forces its segments to disk, so under every profile it runs on a pinned
+    // thread rather than on one that groups and devices need.
+    Props journal(Props props) {
+        return props.withDispatcher("iot.journal-dispatcher");
+    }
+
+    // How many sub-batches a group may have queued for one of its devices.
+    int deviceBatchesInFlight(Config config) {
+        return this == TIERED_BOUNDED ? config.getInt("iot.bounded-device-batches") : Integer.MAX_VALUE;
+    }
+}
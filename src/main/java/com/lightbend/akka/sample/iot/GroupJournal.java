@@ -0,0 +1,295 @@
+package com.lightbend.akka.sample.iot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Durable state of one DeviceGroup: an append-only journal of membership and reading events plus a
+// snapshot of every device's last reading. A snapshot replaces the journal written before it, so
+// recovery reads at most one snapshot and snapshotInterval events whatever the length of the history.
+//
+// Journal records are [int length][byte type][unsigned short id length][UTF-8 id][payload]; a torn
+// record at the end of the journal, left by a crash mid-write, is dropped on recovery, and so is
+// everything after a record whose length can't be right.
+//
+// Events are only buffered until flush(), which the group calls once a second, and the journal itself
+// is never forced to disk: a crash of the process loses up to the last second of events, a crash of the
+// machine whatever the OS hadn't written back yet. Snapshots are forced before they replace the journal.
+// Every call blocks on the files, so groups with a journal run on iot.group-journal-dispatcher.
+public final class GroupJournal implements Closeable {
+
+    public interface Recovery {
+        void tracked(String deviceId);
+
+        void recorded(String deviceId, double value, long timestamp);
+
+        void removed(String deviceId);
+    }
+
+    private static final String JOURNAL_FILE = "journal.bin";
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    private static final int SNAPSHOT_MAGIC = 0x494f5453;
+    private static final int MAX_ID_BYTES = 0xFFFF;
+    private static final int MAX_RECORD_BYTES = 3 + MAX_ID_BYTES + 16;
+
+    private static final byte TRACKED = 1;
+    private static final byte RECORDED = 2;
+    private static final byte REMOVED = 3;
+
+    private final Path directory;
+    private final int snapshotInterval;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(128 * 1024);
+    private int eventsSinceSnapshot;
+
+    public static GroupJournal open(final Path baseDirectory, final String groupId, final int snapshotInterval) {
+        try {
+            Path directory = baseDirectory.resolve(URLEncoder.encode(groupId, "UTF-8"));
+            Files.createDirectories(directory);
+            return new GroupJournal(directory, snapshotInterval);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private GroupJournal(final Path directory, final int snapshotInterval) throws IOException {
+        this.directory = directory;
+        this.snapshotInterval = snapshotInterval;
+        this.channel = FileChannel.open(directory.resolve(JOURNAL_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    public void recover(Recovery recovery) {
+        try {
+            recoverSnapshot(recovery);
+            recoverJournal(recovery);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void tracked(String deviceId) {
+        append(TRACKED, deviceId, 0);
+    }
+
+    public void recorded(String deviceId, double value, long timestamp) {
+        byte[] id = encode(deviceId);
+        reserve(4 + 3 + id.length + 16);
+        putHeader(RECORDED, id, 16);
+        buffer.putDouble(value);
+        buffer.putLong(timestamp);
+        eventsSinceSnapshot++;
+    }
+
+    public void removed(String deviceId) {
+        append(REMOVED, deviceId, 0);
+    }
+
+    public boolean isSnapshotDue() {
+        return eventsSinceSnapshot >= snapshotInterval;
+    }
+
+    // Entries written to the returned writer replace the whole journal once it is committed.
+    public SnapshotWriter beginSnapshot() {
+        try {
+            return new SnapshotWriter();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void flush() {
+        try {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            flush();
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    public final class SnapshotWriter {
+        private final Path tempFile = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        private final FileOutputStream file;
+        private final DataOutputStream out;
+
+        private SnapshotWriter() throws IOException {
+            file = new FileOutputStream(tempFile.toFile());
+            out = new DataOutputStream(new BufferedOutputStream(file, 128 * 1024));
+            out.writeInt(SNAPSHOT_MAGIC);
+        }
+
+        public void write(String deviceId, boolean hasReading, double value, long timestamp) {
+            try {
+                byte[] id = encode(deviceId);
+                out.writeShort(id.length);
+                out.write(id);
+                out.writeBoolean(hasReading);
+                out.writeDouble(value);
+                out.writeLong(timestamp);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public void commit() {
+            try {
+                out.flush();
+                file.getFD().sync();
+                out.close();
+                Files.move(tempFile, directory.resolve(SNAPSHOT_FILE),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                // Events still buffered are older than the snapshot as well
+                buffer.clear();
+                channel.truncate(0);
+                channel.position(0);
+                eventsSinceSnapshot = 0;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void append(byte type, String deviceId, int payloadLength) {
+        byte[] id = encode(deviceId);
+        reserve(4 + 3 + id.length + payloadLength);
+        putHeader(type, id, payloadLength);
+        eventsSinceSnapshot++;
+    }
+
+    private void reserve(int recordLength) {
+        if (buffer.remaining() < recordLength) {
+            flush();
+        }
+    }
+
+    private void putHeader(byte type, byte[] id, int payloadLength) {
+        buffer.putInt(3 + id.length + payloadLength);
+        buffer.put(type);
+        buffer.putShort((short) id.length);
+        buffer.put(id);
+    }
+
+    private static byte[] encode(String deviceId) {
+        byte[] id = deviceId.getBytes(StandardCharsets.UTF_8);
+        if (id.length > MAX_ID_BYTES) {
+            throw new IllegalArgumentException("Device id longer than " + MAX_ID_BYTES + " bytes: " + deviceId);
+        }
+        return id;
+    }
+
+    private void recoverSnapshot(Recovery recovery) throws IOException {
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(snapshot)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot), 128 * 1024))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a group snapshot: " + snapshot);
+            }
+            byte[] id = new byte[256];
+            while (true) {
+                int idLength;
+                try {
+                    idLength = in.readUnsignedShort();
+                } catch (EOFException end) {
+                    return;
+                }
+                if (id.length < idLength) {
+                    id = new byte[idLength];
+                }
+                in.readFully(id, 0, idLength);
+                String deviceId = new String(id, 0, idLength, StandardCharsets.UTF_8);
+                boolean hasReading = in.readBoolean();
+                double value = in.readDouble();
+                long timestamp = in.readLong();
+                recovery.tracked(deviceId);
+                if (hasReading) {
+                    recovery.recorded(deviceId, value, timestamp);
+                }
+            }
+        }
+    }
+
+    private void recoverJournal(Recovery recovery) throws IOException {
+        long validLength = 0;
+        byte[] body = new byte[256];
+        channel.position(0);
+        InputStream channelStream = Channels.newInputStream(channel);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(channelStream, 128 * 1024));
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+                if (length < 3 || length > MAX_RECORD_BYTES) {
+                    break;
+                }
+                if (body.length < length) {
+                    body = new byte[length];
+                }
+                in.readFully(body, 0, length);
+            } catch (EOFException end) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.wrap(body, 0, length);
+            byte type = record.get();
+            int idLength = record.getShort() & 0xFFFF;
+            if (length != 3 + idLength + (type == RECORDED ? 16 : 0)) {
+                break;
+            }
+            String deviceId = new String(body, 3, idLength, StandardCharsets.UTF_8);
+            record.position(3 + idLength);
+            switch (type) {
+                case TRACKED:
+                    recovery.tracked(deviceId);
+                    break;
+                case RECORDED:
+                    recovery.recorded(deviceId, record.getDouble(), record.getLong());
+                    break;
+                case REMOVED:
+                    recovery.removed(deviceId);
+                    break;
+                default:
+                    throw new IOException("Unknown journal record type " + type + " at offset " + validLength);
+            }
+            validLength += 4 + length;
+            eventsSinceSnapshot++;
+        }
+        channel.truncate(validLength);
+        channel.position(validLength);
+    }
+}
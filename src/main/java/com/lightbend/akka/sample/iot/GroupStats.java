@@ -0,0 +1,186 @@
+package com.lightbend.akka.sample.iot;
+
+import java.util.Arrays;
+
+// Running aggregates over the last reading of every device in a group. The readings are kept in primitive
+// arrays parallel to the group's CompactRegistry, at the same index as the device, so there is no map of
+// their own. The maximum is the top of an indexed max-heap over the reporting devices, so every update and
+// removal is O(log n). The sum is adjusted incrementally and re-added from scratch after as many updates
+// as there are readings, which keeps rounding errors from accumulating at an amortized O(1).
+// NaN and infinite readings are not counted: one of them would turn the sum into NaN for good.
+final class GroupStats {
+
+    private final double threshold;
+    private final CompactRegistry<?> devices;
+
+    private double[] values = new double[16];
+    private long[] timestamps = new long[16];
+    // Position in the heap per device index, -1 while the device has no reading.
+    private int[] heapPosition = filled(16);
+    // Device indexes ordered as a binary max-heap on their values.
+    private int[] heap = new int[16];
+
+    private int reporting;
+    private int aboveThreshold;
+    private double sum;
+    private int updatesSinceResum;
+
+    GroupStats(final double threshold, final CompactRegistry<?> devices) {
+        this.threshold = threshold;
+        this.devices = devices;
+    }
+
+    // The device must be in the registry. Returns false if the value isn't finite and was ignored.
+    boolean update(String deviceId, double value, long timestamp) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return false;
+        }
+        int index = devices.indexOf(deviceId);
+        ensureCapacity(index + 1);
+        int position = heapPosition[index];
+        if (position >= 0) {
+            double previous = values[index];
+            sum -= previous;
+            if (previous > threshold) {
+                aboveThreshold--;
+            }
+        } else {
+            position = reporting++;
+            heap[position] = index;
+            heapPosition[index] = position;
+        }
+        values[index] = value;
+        timestamps[index] = timestamp;
+        sum += value;
+        if (value > threshold) {
+            aboveThreshold++;
+        }
+        siftDown(siftUp(position));
+        if (++updatesSinceResum > Math.max(reporting, 1024)) {
+            resum();
+        }
+        return true;
+    }
+
+    // Must be called before the device is removed from the registry, which then moves its last entry into
+    // the removed one's index; the readings are moved along with it.
+    void remove(String deviceId) {
+        int index = devices.indexOf(deviceId);
+        if (index < 0 || index >= values.length) {
+            return;
+        }
+        dropReading(index);
+        int last = devices.size() - 1;
+        if (index != last && last < values.length) {
+            values[index] = values[last];
+            timestamps[index] = timestamps[last];
+            int position = heapPosition[last];
+            heapPosition[index] = position;
+            if (position >= 0) {
+                heap[position] = index;
+            }
+            heapPosition[last] = -1;
+        }
+    }
+
+    boolean hasReading(String deviceId) {
+        int index = devices.indexOf(deviceId);
+        return index >= 0 && index < values.length && heapPosition[index] >= 0;
+    }
+
+    double getReading(String deviceId) {
+        return values[devices.indexOf(deviceId)];
+    }
+
+    long getTimestamp(String deviceId) {
+        return timestamps[devices.indexOf(deviceId)];
+    }
+
+    DeviceGroup.RespondGroupStats respond(long requestId, int deviceCount) {
+        double mean = reporting == 0 ? Double.NaN : sum / reporting;
+        double max = reporting == 0 ? Double.NaN : values[heap[0]];
+        return new DeviceGroup.RespondGroupStats(requestId, deviceCount, reporting, mean, max, aboveThreshold, threshold);
+    }
+
+    private void dropReading(int index) {
+        int position = heapPosition[index];
+        if (position < 0) {
+            return;
+        }
+        sum -= values[index];
+        if (values[index] > threshold) {
+            aboveThreshold--;
+        }
+        heapPosition[index] = -1;
+        int lastPosition = --reporting;
+        if (position != lastPosition) {
+            heap[position] = heap[lastPosition];
+            heapPosition[heap[position]] = position;
+            siftDown(siftUp(position));
+        }
+    }
+
+    private int siftUp(int position) {
+        int index = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (values[heap[parent]] >= values[index]) {
+                break;
+            }
+            heap[position] = heap[parent];
+            heapPosition[heap[position]] = position;
+            position = parent;
+        }
+        heap[position] = index;
+        heapPosition[index] = position;
+        return position;
+    }
+
+    private void siftDown(int position) {
+        int index = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= reporting) {
+                break;
+            }
+            if (child + 1 < reporting && values[heap[child + 1]] > values[heap[child]]) {
+                child++;
+            }
+            if (values[heap[child]] <= values[index]) {
+                break;
+            }
+            heap[position] = heap[child];
+            heapPosition[heap[position]] = position;
+            position = child;
+        }
+        heap[position] = index;
+        heapPosition[index] = position;
+    }
+
+    private void resum() {
+        sum = 0.0;
+        for (int position = 0; position < reporting; position++) {
+            sum += values[heap[position]];
+        }
+        updatesSinceResum = 0;
+    }
+
+    private void ensureCapacity(int entries) {
+        if (entries <= values.length) {
+            return;
+        }
+        int capacity = Math.max(entries, values.length * 2);
+        values = Arrays.copyOf(values, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        heap = Arrays.copyOf(heap, capacity);
+        int oldLength = heapPosition.length;
+        heapPosition = Arrays.copyOf(heapPosition, capacity);
+        Arrays.fill(heapPosition, oldLength, capacity, -1);
+    }
+
+    private static int[] filled(int length) {
+        int[] array = new int[length];
+        Arrays.fill(array, -1);
+        return array;
+    }
+}
@@ -0,0 +1,103 @@
+package com.lightbend.akka.sample.iot;
+
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.TimeUnit;
+
+public final class IngestSettings {
+
+    private static final IngestSettings DEFAULTS = new IngestSettings(
+            1000,
+            Duration.create(50, TimeUnit.MILLISECONDS),
+            4,
+            Duration.create(10, TimeUnit.SECONDS),
+            1024,
+            100_000
+    );
+
+    public static IngestSettings defaults() {
+        return DEFAULTS;
+    }
+
+    private final int batchSize;
+    private final FiniteDuration batchDelay;
+    private final int parallelism;
+    private final FiniteDuration ackTimeout;
+    private final int maxLineLength;
+    private final int trackedDevices;
+
+    private IngestSettings(final int batchSize, final FiniteDuration batchDelay, final int parallelism,
+                           final FiniteDuration ackTimeout, final int maxLineLength, final int trackedDevices) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1, was " + batchSize);
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1, was " + parallelism);
+        }
+        if (trackedDevices < 1) {
+            throw new IllegalArgumentException("trackedDevices must be at least 1, was " + trackedDevices);
+        }
+        this.batchSize = batchSize;
+        this.batchDelay = batchDelay;
+        this.parallelism = parallelism;
+        this.ackTimeout = ackTimeout;
+        this.maxLineLength = maxLineLength;
+        this.trackedDevices = trackedDevices;
+    }
+
+    // Most readings collected before they are split by group and sent.
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    // Longest a reading waits for its batch to fill up.
+    public FiniteDuration getBatchDelay() {
+        return batchDelay;
+    }
+
+    // Batches sent and not yet acknowledged. Together with the batch size this bounds how many readings
+    // are in memory, whatever the rate they arrive at.
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    // How long to wait for a batch to be acknowledged before failing the ingestion.
+    public FiniteDuration getAckTimeout() {
+        return ackTimeout;
+    }
+
+    public int getMaxLineLength() {
+        return maxLineLength;
+    }
+
+    // Devices an ingestion remembers as registered, most recently used first. One it has forgotten is
+    // registered again before its next batch, which is harmless but costs a round trip.
+    public int getTrackedDevices() {
+        return trackedDevices;
+    }
+
+    public IngestSettings withBatchSize(final int batchSize) {
+        return new IngestSettings(batchSize, batchDelay, parallelism, ackTimeout, maxLineLength, trackedDevices);
+    }
+
+    public IngestSettings withBatchDelay(final FiniteDuration batchDelay) {
+        return new IngestSettings(batchSize, batchDelay, parallelism, ackTimeout, maxLineLength, trackedDevices);
+    }
+
+    public IngestSettings withParallelism(final int parallelism) {
+        return new IngestSettings(batchSize, batchDelay, parallelism, ackTimeout, maxLineLength, trackedDevices);
+    }
+
+    public IngestSettings withAckTimeout(final FiniteDuration ackTimeout) {
+        return new IngestSettings(batchSize, batchDelay, parallelism, ackTimeout, maxLineLength, trackedDevices);
+    }
+
+    public IngestSettings withMaxLineLength(final int maxLineLength) {
+        return new IngestSettings(batchSize, batchDelay, parallelism, ackTimeout, maxLineLength, trackedDevices);
+    }
+
+    public IngestSettings withTrackedDevices(final int trackedDevices) {
+        return new IngestSettings(batchSize, batchDelay, parallelism, ackTimeout, maxLineLength, trackedDevices);
+    }
+}
@@ -0,0 +1,80 @@
+package com.lightbend.akka.sample.iot;
+
+import akka.actor.AbstractActor;
+import scala.Option;
+import scala.PartialFunction;
+import scala.runtime.BoxedUnit;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Base of the actors that report to IotMetrics. Until a subclass calls instrument() nothing is measured
+// and a message costs one null check. Every message is counted, but only the first and then every
+// TIMING_SAMPLE_RATE-th message is timed, which keeps the two clock reads off most messages. The counter of
+// the last message type is kept at hand, since an actor mostly gets runs of the same type.
+abstract class InstrumentedActor extends AbstractActor {
+
+    static final int TIMING_SAMPLE_RATE = 8;
+
+    private IotMetrics.Tier metrics;
+    private int untimed = TIMING_SAMPLE_RATE - 1;
+    private Class<?> lastType;
+    private LongAdder lastTypeProcessed;
+
+    // Called from the subclass constructor when metrics are enabled.
+    protected final void instrument(String tier) {
+        metrics = IotMetrics.get(getContext().getSystem()).tier(tier);
+        metrics.started();
+    }
+
+    @Override
+    public void aroundReceive(PartialFunction<Object, BoxedUnit> receive, Object msg) {
+        if (metrics == null) {
+            super.aroundReceive(receive, msg);
+            return;
+        }
+        Class<?> type = msg.getClass();
+        if (type != lastType) {
+            lastType = type;
+            lastTypeProcessed = metrics.processed(type);
+        }
+        if (++untimed < TIMING_SAMPLE_RATE) {
+            try {
+                super.aroundReceive(receive, msg);
+            } finally {
+                lastTypeProcessed.increment();
+            }
+            return;
+        }
+        untimed = 0;
+        long start = System.nanoTime();
+        try {
+            super.aroundReceive(receive, msg);
+        } finally {
+            lastTypeProcessed.increment();
+            metrics.processingTime(System.nanoTime() - start);
+        }
+    }
+
+    // The failed instance never sees postStop, while its replacement calls instrument() again.
+    @Override
+    public void aroundPreRestart(Throwable reason, Option<Object> message) {
+        try {
+            super.aroundPreRestart(reason, message);
+        } finally {
+            if (metrics != null) {
+                metrics.stopped();
+            }
+        }
+    }
+
+    @Override
+    public void aroundPostStop() {
+        try {
+            super.aroundPostStop();
+        } finally {
+            if (metrics != null) {
+                metrics.stopped();
+            }
+        }
+    }
+}
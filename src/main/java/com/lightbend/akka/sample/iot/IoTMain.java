@@ -2,23 +2,92 @@ package com.lightbend.akka.sample.iot;
 
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.pattern.PatternsCS;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.FileIO;
+import akka.stream.javadsl.StreamConverters;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
 
+// With no arguments, starts the application and waits for ENTER. Otherwise ingests readings, one
+// "groupId,deviceId,value" line each, into a DeviceManager:
+//   --file <path>        ingest the file and print a report
+//   --stdin              ingest standard input and print a report
+//   --port <port>        serve the line protocol on localhost:port until ENTER
+//   --wire-port <port>   serve the WireFormat binary protocol on localhost:port until ENTER
+// Any of these may be preceded by --manifest <path>, which first tracks every device of a DeviceManifest
+// file and prints how long it took; on its own it then waits for ENTER. Groups and devices live under
+// IotSupervisor's DeviceManager in every mode.
 public class IoTMain {
 
-    public static void main(String[] args) throws IOException {
+    private static final String USAGE =
+            "Usage: IoTMain [--manifest <path>] [--file <path> | --stdin | --port <port> | --wire-port <port>]";
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
         ActorSystem system = ActorSystem.create("iot-system");
 
         try {
-            ActorRef supervisor = system.actorOf(IotSupervisor.props(), "iot-supervisor");
-            ActorRef device = system.actorOf(Device.props("1","2"), "device");
+            ActorRef supervisor = system.actorOf(IotSupervisor.props(IotSettings.defaults()), "iot-supervisor");
+            if (args.length == 0) {
+                ActorRef device = system.actorOf(Device.props("1","2"), "device");
+
+                device.tell(new Device.ReadTemperature(22L), ActorRef.noSender());
 
-            device.tell(new Device.ReadTemperature(22L), ActorRef.noSender());
+                System.out.println("Press ENTER to exit the system");
 
-            System.out.println("Press ENTER to exit the system");
+                System.in.read();
+                return;
+            }
 
-            System.in.read();
+            IngestSettings settings = IngestSettings.defaults();
+            ActorRef manager = ((IotSupervisor.RespondDeviceManager) PatternsCS.ask(supervisor,
+                    new IotSupervisor.RequestDeviceManager(0L), settings.getAckTimeout().toMillis())
+                    .toCompletableFuture().get()).getDeviceManager();
+            Materializer materializer = ActorMaterializer.create(system);
+            if (args[0].equals("--manifest") && args.length > 1) {
+                System.out.println(DeviceManifest.load(FileIO.fromPath(Paths.get(args[1])), manager, settings, materializer)
+                        .toCompletableFuture().get());
+                if (args.length == 2) {
+                    System.out.println("Devices ready, press ENTER to exit the system");
+                    System.in.read();
+                    return;
+                }
+                args = Arrays.copyOfRange(args, 2, args.length);
+            }
+            if (!args[0].equals("--stdin") && args.length < 2) {
+                System.out.println(USAGE);
+                return;
+            }
+            switch (args[0]) {
+                case "--file":
+                    System.out.println(ReadingIngest.run(FileIO.fromPath(Paths.get(args[1])), manager, settings, materializer)
+                            .toCompletableFuture().get());
+                    break;
+                case "--stdin":
+                    System.out.println(ReadingIngest.run(StreamConverters.fromInputStream(() -> System.in), manager, settings, materializer)
+                            .toCompletableFuture().get());
+                    break;
+                case "--port":
+                    ReadingIngest.bind(system, manager, settings, "localhost", Integer.parseInt(args[1]), materializer)
+                            .toCompletableFuture().get();
+                    System.out.println("Ingesting on port " + args[1] + ", press ENTER to exit the system");
+                    System.in.read();
+                    break;
+                case "--wire-port":
+                    try (WireServer server = WireServer.start(system, manager, settings,
+                            new InetSocketAddress("localhost", Integer.parseInt(args[1])))) {
+                        System.out.println("Ingesting on " + server.getLocalAddress() + ", press ENTER to exit the system");
+                        System.in.read();
+                    }
+                    break;
+                default:
+                    System.out.println(USAGE);
+            }
         } finally {
             system.terminate();
         }
@@ -0,0 +1,200 @@
+package com.lightbend.akka.sample.iot;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Per-ActorSystem metrics of the device, group and manager tiers. Actors created with metrics enabled in
+// their IotSettings count the messages they process by type, record processing time, mailbox time and
+// queued messages, and count themselves as active while they run. Times are sampled, see
+// InstrumentedActor and MeteredMailbox. Everything is a LongAdder or a LatencyHistogram, so recording
+// never takes a lock; read it with snapshot() or through a MetricsReporter.
+public final class IotMetrics implements Extension {
+
+    public static final String DEVICE = "device";
+    public static final String GROUP = "group";
+    public static final String MANAGER = "manager";
+
+    private static final Id ID = new Id();
+
+    public static IotMetrics get(ActorSystem system) {
+        return ID.get(system);
+    }
+
+    private static final class Id extends AbstractExtensionId<IotMetrics> implements ExtensionIdProvider {
+        @Override
+        public Id lookup() {
+            return ID;
+        }
+
+        @Override
+        public IotMetrics createExtension(ExtendedActorSystem system) {
+            return new IotMetrics();
+        }
+    }
+
+    private final Map<String, Tier> tiers;
+
+    private IotMetrics() {
+        Map<String, Tier> tiers = new LinkedHashMap<>();
+        tiers.put(DEVICE, new Tier());
+        tiers.put(GROUP, new Tier());
+        tiers.put(MANAGER, new Tier());
+        this.tiers = Collections.unmodifiableMap(tiers);
+    }
+
+    public Tier tier(String name) {
+        Tier tier = tiers.get(name);
+        if (tier == null) {
+            throw new IllegalArgumentException("Unknown metrics tier " + name + ", expected one of " + tiers.keySet());
+        }
+        return tier;
+    }
+
+    public Snapshot snapshot() {
+        Map<String, TierSnapshot> snapshots = new LinkedHashMap<>();
+        for (Map.Entry<String, Tier> tier : tiers.entrySet()) {
+            snapshots.put(tier.getKey(), tier.getValue().snapshot());
+        }
+        return new Snapshot(System.currentTimeMillis(), snapshots);
+    }
+
+    public static final class Tier {
+        // The class lookup is the hot path; the map is only there so that snapshots can enumerate the types.
+        private final ConcurrentHashMap<Class<?>, LongAdder> processedByType = new ConcurrentHashMap<>();
+        private final ClassValue<LongAdder> processed = new ClassValue<LongAdder>() {
+            @Override
+            protected LongAdder computeValue(Class<?> type) {
+                return processedByType.computeIfAbsent(type, t -> new LongAdder());
+            }
+        };
+        private final LatencyHistogram processingTime = new LatencyHistogram();
+        private final LatencyHistogram mailboxTime = new LatencyHistogram();
+        private final LongAdder active = new LongAdder();
+        private final LongAdder queued = new LongAdder();
+
+        private Tier() {
+        }
+
+        // The counter of processed messages of the type.
+        LongAdder processed(Class<?> messageType) {
+            return processed.get(messageType);
+        }
+
+        void processingTime(long nanos) {
+            processingTime.record(nanos);
+        }
+
+        void started() {
+            active.increment();
+        }
+
+        void stopped() {
+            active.decrement();
+        }
+
+        // Messages enqueued and dequeued are sampled, each sample standing for weight messages.
+        void enqueued(int weight) {
+            queued.add(weight);
+        }
+
+        void dequeued(int weight, long mailboxNanos) {
+            queued.add(-weight);
+            mailboxTime.record(mailboxNanos);
+        }
+
+        private TierSnapshot snapshot() {
+            Map<String, Long> counts = new TreeMap<>();
+            for (Map.Entry<Class<?>, LongAdder> entry : processedByType.entrySet()) {
+                counts.put(typeName(entry.getKey()), entry.getValue().sum());
+            }
+            return new TierSnapshot(active.sum(), queued.sum(), Collections.unmodifiableMap(counts),
+                    processingTime.snapshot(), mailboxTime.snapshot());
+        }
+
+        // "Device.RecordTemperature" rather than the binary name of the nested class.
+        private static String typeName(Class<?> type) {
+            String name = type.getName();
+            return name.substring(name.lastIndexOf('.') + 1).replace('$', '.');
+        }
+    }
+
+    public static final class Snapshot {
+        private final long timestamp;
+        private final Map<String, TierSnapshot> tiers;
+
+        Snapshot(final long timestamp, final Map<String, TierSnapshot> tiers) {
+            this.timestamp = timestamp;
+            this.tiers = tiers;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public Map<String, TierSnapshot> getTiers() {
+            return tiers;
+        }
+
+        public TierSnapshot getTier(String name) {
+            return tiers.get(name);
+        }
+    }
+
+    public static final class TierSnapshot {
+        private final long active;
+        private final long queued;
+        private final Map<String, Long> processed;
+        private final LatencyHistogram.Snapshot processingTime;
+        private final LatencyHistogram.Snapshot mailboxTime;
+
+        TierSnapshot(final long active, final long queued, final Map<String, Long> processed,
+                     final LatencyHistogram.Snapshot processingTime, final LatencyHistogram.Snapshot mailboxTime) {
+            this.active = active;
+            this.queued = queued;
+            this.processed = processed;
+            this.processingTime = processingTime;
+            this.mailboxTime = mailboxTime;
+        }
+
+        // Actors of the tier that are currently running.
+        public long getActive() {
+            return active;
+        }
+
+        // Messages waiting in the mailboxes of the tier, estimated from a sample of them; only counted with
+        // a metered mailbox.
+        public long getQueued() {
+            return queued;
+        }
+
+        // Messages processed so far, by message type.
+        public Map<String, Long> getProcessed() {
+            return processed;
+        }
+
+        public long getProcessed(String messageType) {
+            Long count = processed.get(messageType);
+            return count == null ? 0L : count;
+        }
+
+        // Sampled: holds one in InstrumentedActor.TIMING_SAMPLE_RATE of the processed messages.
+        public LatencyHistogram.Snapshot getProcessingTime() {
+            return processingTime;
+        }
+
+        // Time from enqueueing to dequeueing of a sample of the messages; only recorded with a metered mailbox.
+        public LatencyHistogram.Snapshot getMailboxTime() {
+            return mailboxTime;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.lightbend.akka.sample.iot;
+
+// Shared runtime objects that DeviceGroups update while they run, as opposed to the plain values of
+// IotSettings. Passed next to the settings to DeviceManager.props and DeviceGroup.props; none() has
+// neither a read cache nor a device directory.
+public final class IotServices {
+
+    private static final IotServices NONE = new IotServices(null, null);
+
+    public static IotServices none() {
+        return NONE;
+    }
+
+    private final ReadCache readCache;
+    private final DeviceDirectory deviceDirectory;
+
+    private IotServices(final ReadCache readCache, final DeviceDirectory deviceDirectory) {
+        this.readCache = readCache;
+        this.deviceDirectory = deviceDirectory;
+    }
+
+    // Cache that groups keep the last readings of their devices in for ReadCache.readTemperature; null
+    // disables it.
+    public ReadCache getReadCache() {
+        return readCache;
+    }
+
+    // Directory that groups publish their running device actors in; null disables it.
+    public DeviceDirectory getDeviceDirectory() {
+        return deviceDirectory;
+    }
+
+    public IotServices withReadCache(final ReadCache readCache) {
+        return new IotServices(readCache, deviceDirectory);
+    }
+
+    public IotServices withDeviceDirectory(final DeviceDirectory deviceDirectory) {
+        return new IotServices(readCache, deviceDirectory);
+    }
+}
@@ -0,0 +1,292 @@
+package com.lightbend.akka.sample.iot;
+
+import akka.actor.Props;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Immutable configuration of devices, groups and managers; every with* returns a changed copy. Shared
+// objects the actors update at runtime are passed separately as IotServices.
+public final class IotSettings {
+
+    private static final IotSettings DEFAULTS = new IotSettings(new Builder());
+
+    public static IotSettings defaults() {
+        return DEFAULTS;
+    }
+
+    private final FiniteDuration queryTimeout;
+    private final int historyCapacity;
+    private final FiniteDuration historyRetention;
+    private final double statsThreshold;
+    private final int managerShards;
+    private final Duration passivationTimeout;
+    private final Path journalDirectory;
+    private final int journalSnapshotInterval;
+    private final Path readingJournalDirectory;
+    private final int readingJournalSegmentRecords;
+    private final ExecutionProfile executionProfile;
+    private final boolean metricsEnabled;
+    private final ActivityLogging activityLogging;
+    private final int logSampleRate;
+    private final Duration logSummaryInterval;
+    private final int deduplicatedSenders;
+
+    // The mutable counterpart that every with* copy is made through, holding the defaults when new.
+    private static final class Builder {
+        FiniteDuration queryTimeout = Duration.create(3, TimeUnit.SECONDS);
+        int historyCapacity = 32;
+        FiniteDuration historyRetention = Duration.create(10, TimeUnit.MINUTES);
+        double statsThreshold = Double.POSITIVE_INFINITY;
+        int managerShards = 1;
+        Duration passivationTimeout = Duration.Inf();
+        Path journalDirectory;
+        int journalSnapshotInterval = 100_000;
+        Path readingJournalDirectory;
+        int readingJournalSegmentRecords = 1 << 21;
+        ExecutionProfile executionProfile = ExecutionProfile.DEFAULT;
+        boolean metricsEnabled;
+        ActivityLogging activityLogging = ActivityLogging.SAMPLED;
+        int logSampleRate = 10_000;
+        Duration logSummaryInterval = Duration.create(10, TimeUnit.SECONDS);
+        int deduplicatedSenders = 0;
+
+        Builder() {
+        }
+
+        Builder(final IotSettings from) {
+            this.queryTimeout = from.queryTimeout;
+            this.historyCapacity = from.historyCapacity;
+            this.historyRetention = from.historyRetention;
+            this.statsThreshold = from.statsThreshold;
+            this.managerShards = from.managerShards;
+            this.passivationTimeout = from.passivationTimeout;
+            this.journalDirectory = from.journalDirectory;
+            this.journalSnapshotInterval = from.journalSnapshotInterval;
+            this.readingJournalDirectory = from.readingJournalDirectory;
+            this.readingJournalSegmentRecords = from.readingJournalSegmentRecords;
+            this.executionProfile = from.executionProfile;
+            this.metricsEnabled = from.metricsEnabled;
+            this.activityLogging = from.activityLogging;
+            this.logSampleRate = from.logSampleRate;
+            this.logSummaryInterval = from.logSummaryInterval;
+            this.deduplicatedSenders = from.deduplicatedSenders;
+        }
+    }
+
+    private IotSettings(final Builder b) {
+        if (b.historyCapacity < 0) {
+            throw new IllegalArgumentException("historyCapacity must not be negative, was " + b.historyCapacity);
+        }
+        if (b.managerShards < 1) {
+            throw new IllegalArgumentException("managerShards must be at least 1, was " + b.managerShards);
+        }
+        if (b.journalSnapshotInterval < 1) {
+            throw new IllegalArgumentException("journalSnapshotInterval must be at least 1, was " + b.journalSnapshotInterval);
+        }
+        if (b.deduplicatedSenders < 0) {
+            throw new IllegalArgumentException("deduplicatedSenders must not be negative, was " + b.deduplicatedSenders);
+        }
+        if (b.logSampleRate < 1) {
+            throw new IllegalArgumentException("logSampleRate must be at least 1, was " + b.logSampleRate);
+        }
+        this.queryTimeout = b.queryTimeout;
+        this.historyCapacity = b.historyCapacity;
+        this.historyRetention = b.historyRetention;
+        this.statsThreshold = b.statsThreshold;
+        this.managerShards = b.managerShards;
+        this.passivationTimeout = b.passivationTimeout;
+        this.journalDirectory = b.journalDirectory;
+        this.journalSnapshotInterval = b.journalSnapshotInterval;
+        this.readingJournalDirectory = b.readingJournalDirectory;
+        this.readingJournalSegmentRecords = b.readingJournalSegmentRecords;
+        this.executionProfile = b.executionProfile;
+        this.metricsEnabled = b.metricsEnabled;
+        this.activityLogging = b.activityLogging;
+        this.logSampleRate = b.logSampleRate;
+        this.logSummaryInterval = b.logSummaryInterval;
+        this.deduplicatedSenders = b.deduplicatedSenders;
+    }
+
+    private IotSettings copy(final Consumer<Builder> change) {
+        Builder builder = new Builder(this);
+        change.accept(builder);
+        return new IotSettings(builder);
+    }
+
+    public FiniteDuration getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    // Number of readings each device keeps for ReadAggregate; 0 disables the history.
+    public int getHistoryCapacity() {
+        return historyCapacity;
+    }
+
+    // Readings older than this are never included in an aggregate, whatever window is asked for.
+    public FiniteDuration getHistoryRetention() {
+        return historyRetention;
+    }
+
+    // DeviceGroup counts the devices whose last reading is above this value; infinite means none are counted.
+    public double getStatsThreshold() {
+        return statsThreshold;
+    }
+
+    // Number of DeviceManager actors that groups are partitioned across by groupId; 1, the default, is a
+    // single manager without a router in front of it.
+    public int getManagerShards() {
+        return managerShards;
+    }
+
+    // How long a device may go without messages before it is stopped and kept by its group as just its
+    // id and last reading; infinite keeps devices alive forever.
+    public Duration getPassivationTimeout() {
+        return passivationTimeout;
+    }
+
+    // Directory under which every group journals its devices and readings so that it can be recovered
+    // after a restart; null keeps the state in memory only.
+    public Path getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    // Number of journaled events after which a group writes a snapshot and starts a new journal.
+    public int getJournalSnapshotInterval() {
+        return journalSnapshotInterval;
+    }
+
+    // Directory under which every DeviceManager shard keeps an audit log of all recorded readings; null
+    // disables it.
+    public Path getReadingJournalDirectory() {
+        return readingJournalDirectory;
+    }
+
+    // Number of readings per memory-mapped reading journal segment file.
+    public int getReadingJournalSegmentRecords() {
+        return readingJournalSegmentRecords;
+    }
+
+    // Dispatchers and mailboxes that devices, the management tier and the reading journal run on.
+    public ExecutionProfile getExecutionProfile() {
+        return executionProfile;
+    }
+
+    // Whether devices, groups and managers report to IotMetrics.
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    // Whether devices, groups and managers log every reading and lifecycle event or a sample and summaries.
+    public ActivityLogging getActivityLogging() {
+        return activityLogging;
+    }
+
+    // With SAMPLED activity logging, a device logs at most one in this many readings.
+    public int getLogSampleRate() {
+        return logSampleRate;
+    }
+
+    // With SAMPLED activity logging, how often each group logs a summary of its activity; infinite
+    // disables the summaries.
+    public Duration getLogSummaryInterval() {
+        return logSummaryInterval;
+    }
+
+    // Number of senders per device whose requestIds are tracked, so that retries are only acknowledged and
+    // late readings don't replace newer ones; 0, the default, records every reading as it comes. Senders
+    // are told apart by their ref, so this only helps producers that send from a long-lived actor: a
+    // message without a sender is never deduplicated, and asks use a new temporary actor every time.
+    // Batches are keyed by the sender of the DeviceManager.RecordTemperatureBatch.
+    public int getDeduplicatedSenders() {
+        return deduplicatedSenders;
+    }
+
+    public IotSettings withQueryTimeout(final FiniteDuration queryTimeout) {
+        return copy(b -> b.queryTimeout = queryTimeout);
+    }
+
+    public IotSettings withHistoryCapacity(final int historyCapacity) {
+        return copy(b -> b.historyCapacity = historyCapacity);
+    }
+
+    public IotSettings withHistoryRetention(final FiniteDuration historyRetention) {
+        return copy(b -> b.historyRetention = historyRetention);
+    }
+
+    public IotSettings withStatsThreshold(final double statsThreshold) {
+        return copy(b -> b.statsThreshold = statsThreshold);
+    }
+
+    public IotSettings withManagerShards(final int managerShards) {
+        return copy(b -> b.managerShards = managerShards);
+    }
+
+    public IotSettings withPassivationTimeout(final Duration passivationTimeout) {
+        return copy(b -> b.passivationTimeout = passivationTimeout);
+    }
+
+    public IotSettings withJournalDirectory(final Path journalDirectory) {
+        return copy(b -> b.journalDirectory = journalDirectory);
+    }
+
+    public IotSettings withJournalSnapshotInterval(final int journalSnapshotInterval) {
+        return copy(b -> b.journalSnapshotInterval = journalSnapshotInterval);
+    }
+
+    public IotSettings withReadingJournalDirectory(final Path readingJournalDirectory) {
+        return copy(b -> b.readingJournalDirectory = readingJournalDirectory);
+    }
+
+    public IotSettings withReadingJournalSegmentRecords(final int readingJournalSegmentRecords) {
+        return copy(b -> b.readingJournalSegmentRecords = readingJournalSegmentRecords);
+    }
+
+    public IotSettings withExecutionProfile(final ExecutionProfile executionProfile) {
+        return copy(b -> b.executionProfile = executionProfile);
+    }
+
+    public IotSettings withMetricsEnabled(final boolean metricsEnabled) {
+        return copy(b -> b.metricsEnabled = metricsEnabled);
+    }
+
+    public IotSettings withActivityLogging(final ActivityLogging activityLogging) {
+        return copy(b -> b.activityLogging = activityLogging);
+    }
+
+    public IotSettings withLogSampleRate(final int logSampleRate) {
+        return copy(b -> b.logSampleRate = logSampleRate);
+    }
+
+    public IotSettings withLogSummaryInterval(final Duration logSummaryInterval) {
+        return copy(b -> b.logSummaryInterval = logSummaryInterval);
+    }
+
+    public IotSettings withDeduplicatedSenders(final int deduplicatedSenders) {
+        return copy(b -> b.deduplicatedSenders = deduplicatedSenders);
+    }
+
+    // Dispatcher and mailbox selection for the props() factories of each tier.
+    Props deviceProps(final Props props) {
+        return executionProfile.device(props, metricsEnabled);
+    }
+
+    Props groupProps(final Props props) {
+        String meteredMailbox = metricsEnabled ? "iot.metered-group-mailbox" : null;
+        if (journalDirectory != null) {
+            return executionProfile.journaledGroup(props, meteredMailbox);
+        }
+        return executionProfile.management(props, meteredMailbox);
+    }
+
+    Props managerProps(final Props props) {
+        return executionProfile.management(props, metricsEnabled ? "iot.metered-manager-mailbox" : null);
+    }
+
+    Props journalProps(final Props props) {
+        return executionProfile.journal(props);
+    }
+}
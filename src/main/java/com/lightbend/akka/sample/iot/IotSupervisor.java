@@ -1,20 +1,69 @@
 package com.lightbend.akka.sample.iot;
 
 import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
 import akka.actor.Props;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
 
+// Root of the application's hierarchy. Every group and device lives under its DeviceManager child, which
+// it hands out on request so that ingestion and manifests can talk to it directly.
 public class IotSupervisor extends AbstractActor {
 
     private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
 
+    private final IotSettings settings;
+    private ActorRef deviceManager;
+
+    public IotSupervisor() {
+        this(IotSettings.defaults());
+    }
+
+    public IotSupervisor(final IotSettings settings) {
+        this.settings = settings;
+    }
+
     public static Props props() {
         return Props.create(IotSupervisor.class);
     }
 
+    public static Props props(IotSettings settings) {
+        return settings.getExecutionProfile().management(Props.create(IotSupervisor.class, settings), null);
+    }
+
+    public static final class RequestDeviceManager {
+        private final long requestId;
+
+        public RequestDeviceManager(final long requestId) {
+            this.requestId = requestId;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+    }
+
+    public static final class RespondDeviceManager {
+        private final long requestId;
+        private final ActorRef deviceManager;
+
+        public RespondDeviceManager(final long requestId, final ActorRef deviceManager) {
+            this.requestId = requestId;
+            this.deviceManager = deviceManager;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public ActorRef getDeviceManager() {
+            return deviceManager;
+        }
+    }
+
     @Override
     public void preStart() {
+        deviceManager = getContext().actorOf(DeviceManager.props(settings), "device-manager");
         log.info("IoT Application started");
     }
 
@@ -23,9 +72,14 @@ public class IotSupervisor extends AbstractActor {
         log.info("IoT Application stop");
     }
 
+    private void onRequestDeviceManager(RequestDeviceManager request) {
+        getSender().tell(new RespondDeviceManager(request.getRequestId(), deviceManager), getSelf());
+    }
+
     @Override
     public Receive createReceive() {
         return receiveBuilder()
+                .match(RequestDeviceManager.class, this::onRequestDeviceManager)
                 .build();
     }
 }
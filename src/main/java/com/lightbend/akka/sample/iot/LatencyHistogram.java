@@ -0,0 +1,122 @@
+package com.lightbend.akka.sample.iot;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Log-linear histogram of nanosecond durations in the style of HdrHistogram: every power-of-two range is
+// split into SUB_BUCKETS linear buckets, so a recorded value is reported within 1/SUB_BUCKETS (about 3%) of
+// its true value whatever its magnitude, from 1 ns to hours, in a fixed 15 KB of counts per stripe.
+//
+// Recording is lock-free: threads increment a stripe chosen by their id, so concurrent recorders rarely
+// touch the same cache lines. A snapshot sums the stripes and may miss values recorded while it is taken.
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+    private static final int STRIPES = stripesFor(Runtime.getRuntime().availableProcessors());
+
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0L);
+        stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)].incrementAndGet(index(value));
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long c = stripe.get(i);
+                counts[i] += c;
+                count += c;
+            }
+        }
+        return new Snapshot(counts, count, sum.sum(), max.get());
+    }
+
+    // Values below 2 * SUB_BUCKETS get a bucket each; above that, each power of two gets SUB_BUCKETS
+    // buckets indexed by the value's top SUB_BUCKET_BITS + 1 bits.
+    static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    // Smallest value that falls into the bucket.
+    static long lowestValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        return (long) (index - shift * SUB_BUCKETS) << shift;
+    }
+
+    private static int stripesFor(int processors) {
+        int stripes = 1;
+        while (stripes < processors && stripes < 16) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(final long[] counts, final long count, final long sum, final long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        // Mean in nanoseconds; NaN when nothing was recorded.
+        public double getMean() {
+            return count == 0 ? Double.NaN : (double) sum / count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        // The value in nanoseconds at or below which the given percentage of recorded values fall,
+        // reported as the middle of its bucket; 0 when nothing was recorded.
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0L;
+            }
+            long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    long low = lowestValue(i);
+                    long high = i + 1 < counts.length ? lowestValue(i + 1) - 1 : Long.MAX_VALUE;
+                    return Math.min(low + (high - low) / 2, max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.lightbend.akka.sample.iot;
+
+import akka.NotUsed;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Framing;
+import akka.stream.javadsl.FramingTruncation;
+import akka.util.ByteString;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.LongAdder;
+
+// The "groupId,deviceId[,value]" lines read by ReadingIngest and DeviceManifest. Blank lines and lines
+// starting with # are skipped; ids are trimmed and must not be empty, and a value must be a finite number.
+final class LineFormat {
+
+    interface Factory<T> {
+        // value is NaN when the line has none.
+        T create(String groupId, String deviceId, double value);
+    }
+
+    private LineFormat() {
+    }
+
+    // Lines that don't parse are counted in malformed and skipped.
+    static <T> Flow<ByteString, T, NotUsed> parse(int maxLineLength, boolean valueRequired, LongAdder malformed,
+                                                  Factory<T> factory) {
+        return Flow.of(ByteString.class)
+                .via(Framing.delimiter(ByteString.fromString("\n"), maxLineLength, FramingTruncation.ALLOW))
+                .mapConcat(bytes -> {
+                    String line = bytes.utf8String().trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        return Collections.emptyList();
+                    }
+                    T parsed = parseLine(line, valueRequired, factory);
+                    if (parsed == null) {
+                        malformed.increment();
+                        return Collections.emptyList();
+                    }
+                    return Collections.singletonList(parsed);
+                });
+    }
+
+    // Null if the line is malformed.
+    static <T> T parseLine(String line, boolean valueRequired, Factory<T> factory) {
+        int first = line.indexOf(',');
+        if (first < 0) {
+            return null;
+        }
+        int second = line.indexOf(',', first + 1);
+        if (second < 0 ? valueRequired : line.indexOf(',', second + 1) >= 0) {
+            return null;
+        }
+        String groupId = line.substring(0, first).trim();
+        String deviceId = (second < 0 ? line.substring(first + 1) : line.substring(first + 1, second)).trim();
+        if (groupId.isEmpty() || deviceId.isEmpty()) {
+            return null;
+        }
+        if (second < 0) {
+            return factory.create(groupId, deviceId, Double.NaN);
+        }
+        try {
+            double value = Double.parseDouble(line.substring(second + 1));
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                return null;
+            }
+            return factory.create(groupId, deviceId, value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.lightbend.akka.sample.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import akka.dispatch.UnboundedMessageQueueSemantics;
+import com.typesafe.config.Config;
+import scala.Option;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Unbounded mailbox that records, in the IotMetrics tier named by the mailbox's "tier" setting, how long the
+// first and then every InstrumentedActor.TIMING_SAMPLE_RATE-th message waited and how many messages are
+// queued. Only those sampled messages are wrapped with their enqueue time, and only they move the queued
+// gauge, by TIMING_SAMPLE_RATE each, so the rest are queued as they are and cost nothing but the sample
+// check. Configured in reference.conf.
+public final class MeteredMailbox implements MailboxType, ProducesMessageQueue<MeteredMailbox.MeteredQueue> {
+
+    private final String tier;
+
+    public MeteredMailbox(final ActorSystem.Settings settings, final Config config) {
+        this.tier = config.getString("tier");
+    }
+
+    @Override
+    public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+        return new MeteredQueue(IotMetrics.get(system.get()).tier(tier));
+    }
+
+    public static final class MeteredQueue implements MessageQueue, UnboundedMessageQueueSemantics {
+        // Envelopes, and StampedEnvelopes for the sampled ones.
+        private final ConcurrentLinkedQueue<Object> queue = new ConcurrentLinkedQueue<>();
+        private final IotMetrics.Tier metrics;
+        // Senders race on this, which only makes the sample slightly less regular.
+        private int enqueues;
+
+        MeteredQueue(final IotMetrics.Tier metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void enqueue(ActorRef receiver, Envelope handle) {
+            if (enqueues++ % InstrumentedActor.TIMING_SAMPLE_RATE == 0) {
+                queue.offer(new StampedEnvelope(handle, System.nanoTime()));
+                metrics.enqueued(InstrumentedActor.TIMING_SAMPLE_RATE);
+            } else {
+                queue.offer(handle);
+            }
+        }
+
+        @Override
+        public Envelope dequeue() {
+            return unwrap(queue.poll());
+        }
+
+        @Override
+        public int numberOfMessages() {
+            return queue.size();
+        }
+
+        @Override
+        public boolean hasMessages() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+            Object queued;
+            while ((queued = queue.poll()) != null) {
+                deadLetters.enqueue(owner, unwrap(queued));
+            }
+        }
+
+        private Envelope unwrap(Object queued) {
+            if (!(queued instanceof StampedEnvelope)) {
+                return (Envelope) queued;
+            }
+            StampedEnvelope stamped = (StampedEnvelope) queued;
+            metrics.dequeued(InstrumentedActor.TIMING_SAMPLE_RATE, System.nanoTime() - stamped.enqueuedAt);
+            return stamped.envelope;
+        }
+    }
+
+    private static final class StampedEnvelope {
+        final Envelope envelope;
+        final long enqueuedAt;
+
+        StampedEnvelope(Envelope envelope, long enqueuedAt) {
+            this.envelope = envelope;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.lightbend.akka.sample.iot;
+
+import akka.actor.AbstractActor;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Map;
+
+// Answers ReadMetrics with the current IotMetrics snapshot and, when given a file, rewrites it every
+// interval with the snapshot plus the per-second rate of every message type since the previous dump.
+public final class MetricsReporter extends AbstractActor {
+
+    private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+
+    public static Props props() {
+        return Props.create(MetricsReporter.class, null, null);
+    }
+
+    public static Props props(Path dumpFile, FiniteDuration dumpInterval) {
+        return Props.create(MetricsReporter.class, dumpFile, dumpInterval);
+    }
+
+    private final IotMetrics metrics = IotMetrics.get(getContext().getSystem());
+    // Null when the metrics are only queried.
+    private final Path dumpFile;
+    private final FiniteDuration dumpInterval;
+    private Cancellable dumpTimer;
+    private IotMetrics.Snapshot previous;
+
+    public MetricsReporter(final Path dumpFile, final FiniteDuration dumpInterval) {
+        this.dumpFile = dumpFile;
+        this.dumpInterval = dumpInterval;
+    }
+
+    public static final class ReadMetrics {
+        private final long requestId;
+
+        public ReadMetrics(final long requestId) {
+            this.requestId = requestId;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+    }
+
+    public static final class RespondMetrics {
+        private final long requestId;
+        private final IotMetrics.Snapshot snapshot;
+
+        public RespondMetrics(final long requestId, final IotMetrics.Snapshot snapshot) {
+            this.requestId = requestId;
+            this.snapshot = snapshot;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public IotMetrics.Snapshot getSnapshot() {
+            return snapshot;
+        }
+    }
+
+    private static final class Dump {
+        static final Dump INSTANCE = new Dump();
+    }
+
+    @Override
+    public void preStart() {
+        previous = metrics.snapshot();
+        if (dumpFile != null) {
+            dumpTimer = getContext().getSystem().scheduler().schedule(
+                    dumpInterval, dumpInterval, getSelf(), Dump.INSTANCE, getContext().dispatcher(), getSelf());
+        }
+    }
+
+    @Override
+    public void postStop() {
+        if (dumpTimer != null) {
+            dumpTimer.cancel();
+        }
+    }
+
+    private void onReadMetrics(ReadMetrics r) {
+        getSender().tell(new RespondMetrics(r.requestId, metrics.snapshot()), getSelf());
+    }
+
+    private void onDump(Dump d) {
+        IotMetrics.Snapshot current = metrics.snapshot();
+        Path tempFile = dumpFile.resolveSibling(dumpFile.getFileName() + ".tmp");
+        try {
+            Files.write(tempFile, format(previous, current).getBytes(StandardCharsets.UTF_8));
+            Files.move(tempFile, dumpFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warning("Could not write metrics to {}: {}", dumpFile, e);
+        }
+        previous = current;
+    }
+
+    static String format(IotMetrics.Snapshot previous, IotMetrics.Snapshot current) {
+        double seconds = Math.max(current.getTimestamp() - previous.getTimestamp(), 1L) / 1000.0;
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        out.printf("# %s, rates over %.1f s%n", Instant.ofEpochMilli(current.getTimestamp()), seconds);
+        for (Map.Entry<String, IotMetrics.TierSnapshot> entry : current.getTiers().entrySet()) {
+            String tier = entry.getKey();
+            IotMetrics.TierSnapshot now = entry.getValue();
+            IotMetrics.TierSnapshot before = previous.getTier(tier);
+            out.printf("%s.active %d%n", tier, now.getActive());
+            out.printf("%s.queued %d%n", tier, now.getQueued());
+            for (Map.Entry<String, Long> processed : now.getProcessed().entrySet()) {
+                long delta = processed.getValue() - before.getProcessed(processed.getKey());
+                out.printf("%s.processed %s count=%d rate=%.1f/s%n",
+                        tier, processed.getKey(), processed.getValue(), delta / seconds);
+            }
+            printHistogram(out, tier + ".processing-time", now.getProcessingTime());
+            printHistogram(out, tier + ".mailbox-time", now.getMailboxTime());
+        }
+        out.flush();
+        return text.toString();
+    }
+
+    private static void printHistogram(PrintWriter out, String name, LatencyHistogram.Snapshot histogram) {
+        out.printf("%s count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus%n",
+                name, histogram.getCount(), histogram.getMean() / 1000.0,
+                histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(90) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0, histogram.getValueAtPercentile(99.9) / 1000.0,
+                histogram.getMax() / 1000.0);
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(ReadMetrics.class, this::onReadMetrics)
+                .match(Dump.class, this::onDump)
+                .build();
+    }
+}
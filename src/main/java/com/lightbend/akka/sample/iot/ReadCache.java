@@ -0,0 +1,234 @@
+package com.lightbend.akka.sample.iot;
+
+import akka.actor.ActorRef;
+import akka.pattern.PatternsCS;
+import akka.util.Timeout;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// The last reading of recently active devices, kept up to date by their DeviceGroups (see
+// IotServices.withReadCache) so that reads of popular devices don't queue behind readings in the group and
+// device mailboxes. A reading is only served while it is younger than the time to live, counted from when
+// the device recorded it, so a hit is never staler than that however far the group lags behind.
+// Lookups are a ConcurrentHashMap get without locks. The size is bounded by CLOCK eviction, an LRU
+// approximation: a lookup marks its entry as referenced, and the evicting thread drops the first entry it
+// finds unreferenced while clearing the marks it passes.
+public final class ReadCache {
+
+    private final int capacity;
+    private final long timeToLiveMillis;
+    private final ConcurrentHashMap<DeviceKey, CachedReading> entries;
+    private final ReentrantLock evicting = new ReentrantLock();
+    // The clock hand; only used while holding the eviction lock.
+    private Iterator<Map.Entry<DeviceKey, CachedReading>> hand;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LatencyHistogram hitLatency = new LatencyHistogram();
+    private final LatencyHistogram missLatency = new LatencyHistogram();
+
+    public ReadCache(final int capacity, final FiniteDuration timeToLive) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1, was " + capacity);
+        }
+        this.capacity = capacity;
+        this.timeToLiveMillis = timeToLive.toMillis();
+        this.entries = new ConcurrentHashMap<>(Math.min(capacity, 1 << 16) * 4 / 3 + 1);
+    }
+
+    public static final class CachedReading {
+        private final double value;
+        private final long timestamp;
+        // A racy flag is enough for the clock: a lost update only changes which entry is evicted.
+        private volatile boolean referenced;
+
+        CachedReading(final double value, final long timestamp) {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        // When the device recorded the reading, in epoch milliseconds.
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+
+    // The cached reading if there is one within the time to live, otherwise null.
+    public CachedReading read(String groupId, String deviceId) {
+        long start = System.nanoTime();
+        CachedReading reading = lookup(new DeviceKey(groupId, deviceId));
+        if (reading == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+            hitLatency.record(System.nanoTime() - start);
+        }
+        return reading;
+    }
+
+    // Answers from the cache, or else asks the manager with a DeviceManager.RequestTemperature.
+    public CompletionStage<Device.RespondTemperature> readTemperature(ActorRef manager, long requestId, String groupId,
+                                                                      String deviceId, Timeout timeout) {
+        CachedReading reading = read(groupId, deviceId);
+        if (reading != null) {
+            return CompletableFuture.completedFuture(new Device.RespondTemperature(requestId, reading.value));
+        }
+        long start = System.nanoTime();
+        return PatternsCS.ask(manager, new DeviceManager.RequestTemperature(requestId, groupId, deviceId), timeout)
+                .thenApply(response -> {
+                    missLatency.record(System.nanoTime() - start);
+                    return (Device.RespondTemperature) response;
+                });
+    }
+
+    private CachedReading lookup(DeviceKey key) {
+        CachedReading reading = entries.get(key);
+        if (reading == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - reading.timestamp > timeToLiveMillis) {
+            if (entries.remove(key, reading)) {
+                expired.increment();
+            }
+            return null;
+        }
+        if (!reading.referenced) {
+            reading.referenced = true;
+        }
+        return reading;
+    }
+
+    // Called by the group that owns the device, which is the only writer of its entry.
+    void update(String groupId, String deviceId, double value, long timestamp) {
+        DeviceKey key = new DeviceKey(groupId, deviceId);
+        CachedReading reading = new CachedReading(value, timestamp);
+        CachedReading previous = entries.put(key, reading);
+        if (previous == null) {
+            if (entries.size() > capacity) {
+                evict(key);
+            }
+        } else if (previous.referenced) {
+            // A new reading doesn't make a device any less popular
+            reading.referenced = true;
+        }
+    }
+
+    void invalidate(String groupId, String deviceId) {
+        entries.remove(new DeviceKey(groupId, deviceId));
+    }
+
+    // Whoever gets the lock evicts down to the capacity, sparing the entry it just added; writers that find
+    // the lock taken carry on, so the size can briefly overshoot by the number of concurrent writers.
+    private void evict(DeviceKey added) {
+        if (!evicting.tryLock()) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            while (entries.size() > capacity) {
+                if (hand == null || !hand.hasNext()) {
+                    hand = entries.entrySet().iterator();
+                    if (!hand.hasNext()) {
+                        return;
+                    }
+                }
+                Map.Entry<DeviceKey, CachedReading> entry = hand.next();
+                CachedReading reading = entry.getValue();
+                if (entry.getKey().equals(added)) {
+                    continue;
+                }
+                if (reading.referenced && now - reading.timestamp <= timeToLiveMillis) {
+                    reading.referenced = false;
+                } else if (entries.remove(entry.getKey(), reading)) {
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evicting.unlock();
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), expired.sum(), evictions.sum(), entries.size(),
+                hitLatency.snapshot(), missLatency.snapshot());
+    }
+
+    public static final class Stats {
+        private final long hits;
+        private final long misses;
+        private final long expired;
+        private final long evictions;
+        private final int size;
+        private final LatencyHistogram.Snapshot hitLatency;
+        private final LatencyHistogram.Snapshot missLatency;
+
+        Stats(final long hits, final long misses, final long expired, final long evictions, final int size,
+              final LatencyHistogram.Snapshot hitLatency, final LatencyHistogram.Snapshot missLatency) {
+            this.hits = hits;
+            this.misses = misses;
+            this.expired = expired;
+            this.evictions = evictions;
+            this.size = size;
+            this.hitLatency = hitLatency;
+            this.missLatency = missLatency;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        // Includes the lookups that found an expired reading.
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getExpired() {
+            return expired;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public double getHitRate() {
+            return hits + misses == 0 ? 0.0 : (double) hits / (hits + misses);
+        }
+
+        // Time to answer a read from the cache.
+        public LatencyHistogram.Snapshot getHitLatency() {
+            return hitLatency;
+        }
+
+        // Time to answer a readTemperature that missed, through the manager, group and device.
+        public LatencyHistogram.Snapshot getMissLatency() {
+            return missLatency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "hits=%d misses=%d hit-rate=%.3f expired=%d evictions=%d size=%d hit-p50=%.2fus hit-p99=%.2fus miss-p50=%.1fus miss-p99=%.1fus",
+                    hits, misses, getHitRate(), expired, evictions, size,
+                    hitLatency.getValueAtPercentile(50) / 1000.0, hitLatency.getValueAtPercentile(99) / 1000.0,
+                    missLatency.getValueAtPercentile(50) / 1000.0, missLatency.getValueAtPercentile(99) / 1000.0);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.lightbend.akka.sample.iot;
+
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.PatternsCS;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.Tcp;
+import akka.util.ByteString;
+import akka.util.Timeout;
+import scala.concurrent.duration.Duration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Streams lines of "groupId,deviceId,value" into a DeviceManager. Readings are collected into batches,
+// split by group and sent as RecordTemperatureBatch asks, and a batch only leaves room for the next one
+// once its TemperatureBatchRecorded has come back. So at most batchSize * parallelism readings are in
+// flight, and a source that is faster than the devices is simply read more slowly: a burst waits in the
+// file, the pipe or the sender's TCP window instead of growing mailboxes.
+public final class ReadingIngest {
+
+    private ReadingIngest() {
+    }
+
+    public static final class Reading {
+        private final String groupId;
+        private final String deviceId;
+        private final double value;
+
+        public Reading(final String groupId, final String deviceId, final double value) {
+            this.groupId = groupId;
+            this.deviceId = deviceId;
+            this.value = value;
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        public String getDeviceId() {
+            return deviceId;
+        }
+
+        public double getValue() {
+            return value;
+        }
+    }
+
+    // The outcome of one batch: how many of its readings were recorded by their device.
+    public static final class Acknowledged {
+        private final long requestId;
+        private final int readings;
+        private final int recorded;
+
+        public Acknowledged(final long requestId, final int readings, final int recorded) {
+            this.requestId = requestId;
+            this.readings = readings;
+            this.recorded = recorded;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        public int getReadings() {
+            return readings;
+        }
+
+        public int getRecorded() {
+            return recorded;
+        }
+    }
+
+    public static final class IngestReport {
+        private final long readings;
+        private final long recorded;
+        private final long malformed;
+        private final long batches;
+        private final long elapsedNanos;
+
+        public IngestReport(final long readings, final long recorded, final long malformed, final long batches,
+                            final long elapsedNanos) {
+            this.readings = readings;
+            this.recorded = recorded;
+            this.malformed = malformed;
+            this.batches = batches;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getReadings() {
+            return readings;
+        }
+
+        // Readings acknowledged by their device; the rest were lost with a device that stopped.
+        public long getRecorded() {
+            return recorded;
+        }
+
+        // Lines that were not a reading and were skipped.
+        public long getMalformed() {
+            return malformed;
+        }
+
+        public long getBatches() {
+            return batches;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getRecordedPerSecond() {
+            return recorded * 1e9 / Math.max(elapsedNanos, 1L);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d readings in %d batches, %d recorded, %d malformed lines, %.3f s, %.0f readings/s",
+                    readings, batches, recorded, malformed, elapsedNanos / 1e9, getRecordedPerSecond());
+        }
+    }
+
+    // Ingests everything the source produces and completes when the last batch has been acknowledged.
+    // Fails if a line is longer than maxLineLength or a batch isn't acknowledged within the ack timeout.
+    public static CompletionStage<IngestReport> run(Source<ByteString, ?> lines, ActorRef manager,
+                                                    IngestSettings settings, Materializer materializer) {
+        LongAdder malformed = new LongAdder();
+        long start = System.nanoTime();
+        return lines
+                .via(LineFormat.parse(settings.getMaxLineLength(), true, malformed, Reading::new))
+                .via(deliver(manager, settings))
+                .runFold(new long[3], (totals, acknowledged) -> {
+                    totals[0] += acknowledged.getReadings();
+                    totals[1] += acknowledged.getRecorded();
+                    totals[2]++;
+                    return totals;
+                }, materializer)
+                .thenApply(totals -> new IngestReport(
+                        totals[0], totals[1], malformed.sum(), totals[2], System.nanoTime() - start));
+    }
+
+    // Serves the same line format on host:port. Every connection is ingested on its own and answered with
+    // a line "<requestId> <recorded>/<readings>" per acknowledged batch. A client that half-closes its side
+    // keeps getting acknowledgements until the last batch is through.
+    public static CompletionStage<Tcp.ServerBinding> bind(ActorSystem system, ActorRef manager, IngestSettings settings,
+                                                          String host, int port, Materializer materializer) {
+        return Tcp.lookup().get(system).bind(host, port, 100, Collections.emptyList(), true, Duration.Inf())
+                .to(Sink.foreach(connection -> connection.handleWith(connection(manager, settings), materializer)))
+                .run(materializer);
+    }
+
+    static Flow<ByteString, ByteString, NotUsed> connection(ActorRef manager, IngestSettings settings) {
+        return LineFormat.parse(settings.getMaxLineLength(), true, new LongAdder(), Reading::new)
+                .via(deliver(manager, settings))
+                .map(acknowledged -> ByteString.fromString(
+                        acknowledged.getRequestId() + " " + acknowledged.getRecorded() + "/" + acknowledged.getReadings() + "\n"));
+    }
+
+    static Flow<Reading, Acknowledged, NotUsed> deliver(ActorRef manager, IngestSettings settings) {
+        // Registration of each device, least recently used first; registrations complete on other threads.
+        int trackedDevices = settings.getTrackedDevices();
+        Map<String, CompletableFuture<Object>> tracked = Collections.synchronizedMap(
+                new LinkedHashMap<String, CompletableFuture<Object>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<Object>> eldest) {
+                return size() > trackedDevices;
+            }
+        });
+        AtomicLong requestIds = new AtomicLong();
+        Timeout timeout = new Timeout(settings.getAckTimeout());
+        return Flow.of(Reading.class)
+                .groupedWithin(settings.getBatchSize(), settings.getBatchDelay())
+                .mapConcat(readings -> byGroup(readings, requestIds))
+                .mapAsyncUnordered(settings.getParallelism(), batch -> send(manager, batch, tracked, timeout));
+    }
+
+    private static List<DeviceManager.RecordTemperatureBatch> byGroup(List<Reading> readings, AtomicLong requestIds) {
+        Map<String, List<Reading>> groups = new LinkedHashMap<>();
+        for (Reading reading : readings) {
+            groups.computeIfAbsent(reading.groupId, g -> new ArrayList<>()).add(reading);
+        }
+        List<DeviceManager.RecordTemperatureBatch> batches = new ArrayList<>(groups.size());
+        for (Map.Entry<String, List<Reading>> group : groups.entrySet()) {
+            List<Reading> groupReadings = group.getValue();
+            String[] deviceIds = new String[groupReadings.size()];
+            long[] ids = new long[groupReadings.size()];
+            double[] values = new double[groupReadings.size()];
+            for (int i = 0; i < deviceIds.length; i++) {
+                Reading reading = groupReadings.get(i);
+                deviceIds[i] = reading.deviceId;
+                ids[i] = requestIds.getAndIncrement();
+                values[i] = reading.value;
+            }
+            batches.add(new DeviceManager.RecordTemperatureBatch(
+                    requestIds.getAndIncrement(), group.getKey(), deviceIds, ids, values));
+        }
+        return batches;
+    }
+
+    private static CompletionStage<Acknowledged> send(ActorRef manager, DeviceManager.RecordTemperatureBatch batch,
+                                                      Map<String, CompletableFuture<Object>> tracked,
+                                                      Timeout timeout) {
+        // Devices not known to be tracked are registered first. The manager and the group handle messages
+        // in the order they were sent, so the batch finds them tracked without waiting for the replies.
+        // A batch for a device whose registration is still out waits for that registration too, and one
+        // that didn't come back with DeviceRegistered is forgotten, so the next batch registers it again.
+        List<CompletableFuture<Object>> registrations = new ArrayList<>();
+        Map<String, Integer> perDevice = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            String deviceId = batch.getDeviceId(i);
+            perDevice.merge(deviceId, 1, Integer::sum);
+            if (perDevice.get(deviceId) > 1) {
+                continue;
+            }
+            String key = batch.getGroupId() + '\u0000' + deviceId;
+            CompletableFuture<Object> registration = tracked.get(key);
+            if (registration == null) {
+                CompletableFuture<Object> asked = PatternsCS.ask(manager,
+                        new DeviceManager.RequestTrackDevice(batch.getGroupId(), deviceId), timeout).toCompletableFuture();
+                tracked.put(key, asked);
+                asked.whenComplete((reply, failure) -> {
+                    if (!(reply instanceof DeviceManager.DeviceRegistered)) {
+                        tracked.remove(key, asked);
+                    }
+                });
+                registration = asked;
+            }
+            if (!registration.isDone()) {
+                registrations.add(registration);
+            }
+        }
+        CompletionStage<Object> recorded = PatternsCS.ask(manager, batch, timeout);
+        return CompletableFuture.allOf(registrations.toArray(new CompletableFuture<?>[0]))
+                .thenCombine(recorded, (registered, reply) -> {
+                    DeviceManager.TemperatureBatchRecorded ack = (DeviceManager.TemperatureBatchRecorded) reply;
+                    int recordedReadings = 0;
+                    for (int i = 0; i < ack.size(); i++) {
+                        recordedReadings += perDevice.getOrDefault(ack.getDeviceId(i), 0);
+                    }
+                    return new Acknowledged(batch.getRequestId(), batch.size(), recordedReadings);
+                });
+    }
+}
@@ -0,0 +1,258 @@
+package com.lightbend.akka.sample.iot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Append-only audit log of every recorded reading, written into memory-mapped segment files of fixed-width
+// records: [long device hash][long requestId][long timestamp][double value]. Appending is a few stores into
+// the mapping; commit() forces the records to disk and only then publishes them in the segment header, so a
+// scan never sees records that were not committed. A full segment is committed and a new one started, named
+// after the sequence number of its first record so that segments sort in write order. A crash can leave
+// the newest segment without a header; it can't hold committed records, so it is read as empty and
+// started again on open. Retired segments are unmapped right away rather than when they are collected.
+//
+// Not thread-safe; ReadingJournalWriter owns the instance that appends.
+public final class ReadingJournal implements Closeable {
+
+    public interface RecordVisitor {
+        void record(long deviceHash, long requestId, long timestamp, double value);
+    }
+
+    static final int RECORD_SIZE = 32;
+
+    private static final String SEGMENT_SUFFIX = ".segment";
+    private static final int MAGIC = 0x494f5452;
+    // Header: [int magic][int capacity in records][long first sequence][long committed records][8 bytes unused]
+    private static final int HEADER_SIZE = 32;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int FIRST_SEQUENCE_OFFSET = 8;
+    private static final int COMMITTED_OFFSET = 16;
+
+    private final Path directory;
+    private final int segmentRecords;
+
+    private MappedByteBuffer segment;
+    private int segmentCapacity;
+    private long segmentFirstSequence;
+    private int segmentCount;
+    private int committedCount;
+
+    public static ReadingJournal open(final Path directory, final int segmentRecords) {
+        try {
+            Files.createDirectories(directory);
+            ReadingJournal journal = new ReadingJournal(directory, segmentRecords);
+            List<Path> segments = segments(directory);
+            if (segments.isEmpty()) {
+                journal.startSegment(0L);
+            } else {
+                Path last = segments.get(segments.size() - 1);
+                if (isHeaderless(last)) {
+                    Files.delete(last);
+                    journal.startSegment(firstSequenceOf(last));
+                } else {
+                    journal.continueSegment(last);
+                }
+            }
+            return journal;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ReadingJournal(final Path directory, final int segmentRecords) {
+        if (segmentRecords < 1 || segmentRecords > (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE) {
+            throw new IllegalArgumentException("segmentRecords must be between 1 and "
+                    + (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE + ", was " + segmentRecords);
+        }
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+    }
+
+    // 64-bit FNV-1a over "groupId/deviceId"; devices compute it once rather than per reading.
+    public static long deviceHash(String groupId, String deviceId) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : (groupId + '/' + deviceId).getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    public void append(long deviceHash, long requestId, long timestamp, double value) {
+        if (segmentCount == segmentCapacity) {
+            commit();
+            unmap(segment);
+            startSegment(segmentFirstSequence + segmentCount);
+        }
+        int offset = HEADER_SIZE + segmentCount * RECORD_SIZE;
+        segment.putLong(offset, deviceHash);
+        segment.putLong(offset + 8, requestId);
+        segment.putLong(offset + 16, timestamp);
+        segment.putDouble(offset + 24, value);
+        segmentCount++;
+    }
+
+    // Sequence number the next appended record will get.
+    public long nextSequence() {
+        return segmentFirstSequence + segmentCount;
+    }
+
+    public int uncommittedRecords() {
+        return segmentCount - committedCount;
+    }
+
+    public void commit() {
+        if (segmentCount == committedCount) {
+            return;
+        }
+        segment.force();
+        segment.putLong(COMMITTED_OFFSET, segmentCount);
+        segment.force();
+        committedCount = segmentCount;
+    }
+
+    @Override
+    public void close() {
+        commit();
+        unmap(segment);
+        segment = null;
+    }
+
+    // Visits every committed record in the directory in write order and returns how many there were.
+    public static long scan(Path directory, RecordVisitor visitor) {
+        long scanned = 0;
+        try {
+            List<Path> segments = segments(directory);
+            for (int s = 0; s < segments.size(); s++) {
+                Path file = segments.get(s);
+                if (s == segments.size() - 1 && isHeaderless(file)) {
+                    break;
+                }
+                MappedByteBuffer segment;
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+                if (segment.getInt(0) != MAGIC) {
+                    unmap(segment);
+                    throw new IOException("Not a reading journal segment: " + file);
+                }
+                long committed = segment.getLong(COMMITTED_OFFSET);
+                if (committed > segment.getInt(CAPACITY_OFFSET)) {
+                    unmap(segment);
+                    throw new IOException("Corrupt reading journal segment header: " + file);
+                }
+                for (int i = 0; i < committed; i++) {
+                    int offset = HEADER_SIZE + i * RECORD_SIZE;
+                    visitor.record(segment.getLong(offset), segment.getLong(offset + 8),
+                            segment.getLong(offset + 16), segment.getDouble(offset + 24));
+                }
+                unmap(segment);
+                scanned += committed;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return scanned;
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                segments.add(file);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private void startSegment(long firstSequence) {
+        Path file = directory.resolve(String.format("%020d%s", firstSequence, SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) segmentRecords * RECORD_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        segment.putInt(0, MAGIC);
+        segment.putInt(CAPACITY_OFFSET, segmentRecords);
+        segment.putLong(FIRST_SEQUENCE_OFFSET, firstSequence);
+        segment.putLong(COMMITTED_OFFSET, 0L);
+        segment.force();
+        segmentCapacity = segmentRecords;
+        segmentFirstSequence = firstSequence;
+        segmentCount = 0;
+        committedCount = 0;
+    }
+
+    // Appends after the committed records of an existing segment; anything written after the last commit
+    // is overwritten.
+    private void continueSegment(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        if (segment.getInt(0) != MAGIC) {
+            throw new IOException("Not a reading journal segment: " + file);
+        }
+        segmentCapacity = segment.getInt(CAPACITY_OFFSET);
+        segmentFirstSequence = segment.getLong(FIRST_SEQUENCE_OFFSET);
+        segmentCount = (int) segment.getLong(COMMITTED_OFFSET);
+        committedCount = segmentCount;
+    }
+
+    // True for a segment created just before a crash, whose header never reached the disk.
+    private static boolean isHeaderless(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return true;
+            }
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            channel.read(magic, 0);
+            return magic.getInt(0) == 0;
+        }
+    }
+
+    private static long firstSequenceOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    // Releases the mapping now; the buffer must not be used afterwards. Found by reflection, like the
+    // virtual threads of BlockingIo: sun.misc.Unsafe.invokeCleaner on JDK 9 and later, the buffer's own
+    // cleaner on JDK 8. Where neither is accessible the mapping is released when the buffer is collected.
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            try {
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch (NoSuchMethodException beforeJdk9) {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Left to the garbage collector
+        }
+    }
+}
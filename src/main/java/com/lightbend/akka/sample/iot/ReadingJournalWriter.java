@@ -0,0 +1,160 @@
+package com.lightbend.akka.sample.iot;
+
+import akka.actor.AbstractActor;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Owns a ReadingJournal and appends the readings devices hand to it. Commits are batched: the journal is
+// forced to disk once COMMIT_RECORDS readings have been appended or COMMIT_INTERVAL has passed, whichever
+// comes first, so the cost of a sync is shared by all readings that arrived in between. The interval is
+// only timed while there is something to commit, so an idle writer isn't woken up.
+public final class ReadingJournalWriter extends AbstractActor {
+
+    private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+
+    private static final int COMMIT_RECORDS = 64 * 1024;
+    private static final FiniteDuration COMMIT_INTERVAL = Duration.create(10, TimeUnit.MILLISECONDS);
+
+    public static Props props(Path directory, int segmentRecords) {
+        return Props.create(ReadingJournalWriter.class, directory, segmentRecords);
+    }
+
+    private final Path directory;
+    private final int segmentRecords;
+    private ReadingJournal journal;
+    private Cancellable commitTimer;
+
+    public ReadingJournalWriter(final Path directory, final int segmentRecords) {
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+    }
+
+    public static final class Append {
+        private final long deviceHash;
+        private final long requestId;
+        private final long timestamp;
+        private final double value;
+
+        public Append(final long deviceHash, final long requestId, final long timestamp, final double value) {
+            this.deviceHash = deviceHash;
+            this.requestId = requestId;
+            this.timestamp = timestamp;
+            this.value = value;
+        }
+    }
+
+    // Readings of one device that were recorded together. The arrays are shared with the sender and must
+    // not be modified after sending.
+    public static final class AppendBatch {
+        private final long deviceHash;
+        private final long timestamp;
+        private final long[] requestIds;
+        private final double[] values;
+
+        public AppendBatch(final long deviceHash, final long timestamp, final long[] requestIds, final double[] values) {
+            this.deviceHash = deviceHash;
+            this.timestamp = timestamp;
+            this.requestIds = requestIds;
+            this.values = values;
+        }
+    }
+
+    // Commits everything appended so far and answers with Committed.
+    public static final class Commit {
+        private final long requestId;
+
+        public Commit(final long requestId) {
+            this.requestId = requestId;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+    }
+
+    public static final class Committed {
+        private final long requestId;
+        private final long nextSequence;
+
+        public Committed(final long requestId, final long nextSequence) {
+            this.requestId = requestId;
+            this.nextSequence = nextSequence;
+        }
+
+        public long getRequestId() {
+            return requestId;
+        }
+
+        // Number of readings the journal holds, all of which are now on disk.
+        public long getNextSequence() {
+            return nextSequence;
+        }
+    }
+
+    private static final class CommitTick {
+        static final CommitTick INSTANCE = new CommitTick();
+    }
+
+    @Override
+    public void preStart() {
+        journal = ReadingJournal.open(directory, segmentRecords);
+        log.info("Reading journal in {} opened at sequence {}", directory, journal.nextSequence());
+    }
+
+    @Override
+    public void postStop() {
+        if (commitTimer != null) {
+            commitTimer.cancel();
+        }
+        journal.close();
+        log.info("Reading journal in {} closed at sequence {}", directory, journal.nextSequence());
+    }
+
+    private void onAppend(Append append) {
+        journal.append(append.deviceHash, append.requestId, append.timestamp, append.value);
+        commitIfFull();
+    }
+
+    private void onAppendBatch(AppendBatch batch) {
+        for (int i = 0; i < batch.requestIds.length; i++) {
+            journal.append(batch.deviceHash, batch.requestIds[i], batch.timestamp, batch.values[i]);
+        }
+        commitIfFull();
+    }
+
+    private void commitIfFull() {
+        if (journal.uncommittedRecords() >= COMMIT_RECORDS) {
+            journal.commit();
+        } else if (commitTimer == null && journal.uncommittedRecords() > 0) {
+            commitTimer = getContext().getSystem().scheduler().scheduleOnce(
+                    COMMIT_INTERVAL, getSelf(), CommitTick.INSTANCE, getContext().dispatcher(), getSelf());
+        }
+    }
+
+    private void onCommitTick(CommitTick tick) {
+        commitTimer = null;
+        journal.commit();
+    }
+
+    private void onCommit(Commit commit) {
+        journal.commit();
+        getSender().tell(new Committed(commit.requestId, journal.nextSequence()), getSelf());
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(Append.class, this::onAppend)
+                .match(AppendBatch.class, this::onAppendBatch)
+                .match(Commit.class, this::onCommit)
+                .match(CommitTick.class, this::onCommitTick)
+                .build();
+    }
+}
@@ -0,0 +1,85 @@
+package com.lightbend.akka.sample.iot;
+
+import akka.actor.ActorRef;
+
+// The requestIds a device has seen from each of its recent senders, so that readings retried by a gateway
+// are acknowledged without being recorded twice and late readings don't overwrite newer ones. Each sender
+// has a high-water mark, the highest requestId it sent, and a 64-bit window marking which of the 64
+// requestIds up to it were seen. Senders live in a few fixed slots that are scanned linearly, so accepting a
+// reading from a known sender allocates nothing; when all are taken the slots are reused round-robin,
+// which forgets the oldest sender's window. Senders that ask, with a new temporary actor per request,
+// can't be deduplicated and just cycle through the slots.
+final class RequestDeduplicator {
+
+    // A requestId above the sender's high-water mark: a new, latest reading.
+    static final int LATEST = 0;
+    // A requestId below the high-water mark that wasn't seen yet: a new but superseded reading.
+    static final int LATE = 1;
+    // A requestId that was seen before.
+    static final int DUPLICATE = 2;
+    // A requestId that is too far below the high-water mark to tell; treated like a duplicate.
+    static final int EXPIRED = 3;
+
+    static final int WINDOW = Long.SIZE;
+
+    private final ActorRef[] senders;
+    private final long[] highest;
+    // Bit k is set when highest - k was seen.
+    private final long[] seen;
+    private int used;
+    private int nextReused;
+
+    RequestDeduplicator(final int capacity) {
+        this.senders = new ActorRef[capacity];
+        this.highest = new long[capacity];
+        this.seen = new long[capacity];
+    }
+
+    int accept(ActorRef sender, long requestId) {
+        int slot = slotOf(sender);
+        if (slot < 0) {
+            slot = claim(sender);
+            highest[slot] = requestId;
+            seen[slot] = 1L;
+            return LATEST;
+        }
+        long high = highest[slot];
+        if (requestId > high) {
+            long advance = requestId - high;
+            seen[slot] = advance >= WINDOW ? 1L : seen[slot] << advance | 1L;
+            highest[slot] = requestId;
+            return LATEST;
+        }
+        long behind = high - requestId;
+        if (behind >= WINDOW) {
+            return EXPIRED;
+        }
+        long bit = 1L << behind;
+        if ((seen[slot] & bit) != 0) {
+            return DUPLICATE;
+        }
+        seen[slot] |= bit;
+        return LATE;
+    }
+
+    private int slotOf(ActorRef sender) {
+        for (int i = 0; i < used; i++) {
+            if (senders[i].equals(sender)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int claim(ActorRef sender) {
+        int slot;
+        if (used < senders.length) {
+            slot = used++;
+        } else {
+            slot = nextReused;
+            nextReused = nextReused + 1 == senders.length ? 0 : nextReused + 1;
+        }
+        senders[slot] = sender;
+        return slot;
+    }
+}
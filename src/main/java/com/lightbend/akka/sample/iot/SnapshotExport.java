@@ -0,0 +1,256 @@
+package com.lightbend.akka.sample.iot;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSelection;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import akka.actor.Status;
+import akka.actor.Terminated;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Writes one DeviceManager.ExportSnapshot. Collects the groups of every manager shard, then asks up to
+// PARALLELISM groups at a time for their devices and writes the answers in SnapshotFile blocks as they
+// arrive, so only the block being written, the one being filled and the answers in flight are held at once.
+// A group that stops or doesn't answer within the timeout is left out. Opening, writing and syncing the
+// file run one at a time on BlockingIo, so the export never blocks its dispatcher. Answers the requester
+// with SnapshotExported, or a Status.Failure if writing failed.
+public final class SnapshotExport extends AbstractActor {
+
+    private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+
+    private static final int PARALLELISM = 16;
+
+    // managers is the manager itself, or a selection of all its shards when there is more than one. The
+    // timeout applies to the shards' answers and to each group's.
+    static Props props(DeviceManager.ExportSnapshot export, ActorRef requester, ActorSelection managers,
+                       int shards, FiniteDuration timeout) {
+        return Props.create(SnapshotExport.class, export, requester, managers, shards, timeout);
+    }
+
+    private static final class WriterOpened {
+        final SnapshotFile.Writer writer;
+
+        WriterOpened(final SnapshotFile.Writer writer) {
+            this.writer = writer;
+        }
+    }
+
+    private static final class CollectionTimeout {
+    }
+
+    private static final class GroupTimedOut {
+        final ActorRef group;
+
+        GroupTimedOut(final ActorRef group) {
+            this.group = group;
+        }
+    }
+
+    private static final class BlockWritten {
+        static final BlockWritten INSTANCE = new BlockWritten();
+    }
+
+    private static final class Finished {
+        final long bytes;
+
+        Finished(final long bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    private final DeviceManager.ExportSnapshot export;
+    private final ActorRef requester;
+    private final ActorSelection managers;
+    private final FiniteDuration timeout;
+    private final BlockingIo blockingIo = BlockingIo.get(getContext().getSystem());
+    private int shardsWaiting;
+    private Cancellable collectTimer;
+    private final long start = System.nanoTime();
+
+    private SnapshotFile.Writer writer;
+    // Set while BlockingIo has the writer.
+    private boolean writing;
+    private boolean finishing;
+    private final ArrayDeque<ActorRef> groupsToAsk = new ArrayDeque<>();
+    // Groups asked and not answered yet, with their deadline.
+    private final Map<ActorRef, Cancellable> asked = new HashMap<>();
+    private List<SnapshotFile.GroupColumns> block = new ArrayList<>();
+    private int blockDevices;
+
+    public SnapshotExport(final DeviceManager.ExportSnapshot export, final ActorRef requester,
+                          final ActorSelection managers, final int shards, final FiniteDuration timeout) {
+        this.export = export;
+        this.requester = requester;
+        this.managers = managers;
+        this.shardsWaiting = shards;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void preStart() {
+        Path file = export.getFile();
+        blockingIo.pipe(() -> new WriterOpened(new SnapshotFile.Writer(file)), getSelf(), getSelf());
+    }
+
+    @Override
+    public void postStop() throws IOException {
+        if (collectTimer != null) {
+            collectTimer.cancel();
+        }
+        for (Cancellable deadline : asked.values()) {
+            deadline.cancel();
+        }
+        // Only after a failure or once finished, so BlockingIo no longer has the writer; removes the
+        // temporary file of an export that didn't finish
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    private void onWriterOpened(WriterOpened opened) {
+        writer = opened.writer;
+        managers.tell(new DeviceManager.CollectGroups(), getSelf());
+        collectTimer = getContext().getSystem().scheduler().scheduleOnce(
+                timeout, getSelf(), new CollectionTimeout(), getContext().dispatcher(), getSelf());
+    }
+
+    private void onGroupsCollected(DeviceManager.GroupsCollected collected) {
+        if (shardsWaiting == 0) {
+            // After the collection timed out
+            return;
+        }
+        groupsToAsk.addAll(collected.groups);
+        if (--shardsWaiting == 0) {
+            collectTimer.cancel();
+            askNext();
+        }
+    }
+
+    private void onCollectionTimeout(CollectionTimeout t) {
+        if (shardsWaiting > 0) {
+            log.warning("Snapshot {} goes ahead without the groups of {} manager shards that didn't answer",
+                    export.getRequestId(), shardsWaiting);
+            shardsWaiting = 0;
+            askNext();
+        }
+    }
+
+    private void onDevicesExported(DeviceGroup.DevicesExported exported) {
+        Cancellable deadline = asked.remove(getSender());
+        if (deadline == null) {
+            // After the group timed out
+            return;
+        }
+        deadline.cancel();
+        getContext().unwatch(getSender());
+        block.add(exported.columns);
+        blockDevices += exported.columns.deviceIds.length;
+        if (blockDevices < SnapshotFile.BLOCK_DEVICES) {
+            askNext();
+        } else if (!writing) {
+            writeBlock();
+        }
+    }
+
+    private void onTerminated(Terminated t) {
+        Cancellable deadline = asked.remove(t.getActor());
+        if (deadline != null) {
+            deadline.cancel();
+            askNext();
+        }
+    }
+
+    private void onGroupTimedOut(GroupTimedOut t) {
+        if (asked.remove(t.group) != null) {
+            log.warning("Snapshot {} goes ahead without group {}, which didn't answer within {}",
+                    export.getRequestId(), t.group.path().name(), timeout);
+            getContext().unwatch(t.group);
+            askNext();
+        }
+    }
+
+    private void onBlockWritten(BlockWritten written) {
+        writing = false;
+        if (blockDevices >= SnapshotFile.BLOCK_DEVICES) {
+            writeBlock();
+        } else {
+            askNext();
+        }
+    }
+
+    private void askNext() {
+        while (asked.size() < PARALLELISM && !groupsToAsk.isEmpty()) {
+            ActorRef group = groupsToAsk.poll();
+            getContext().watch(group);
+            group.tell(new DeviceGroup.ExportDevices(), getSelf());
+            asked.put(group, getContext().getSystem().scheduler().scheduleOnce(
+                    timeout, getSelf(), new GroupTimedOut(group), getContext().dispatcher(), getSelf()));
+        }
+        if (asked.isEmpty() && groupsToAsk.isEmpty() && shardsWaiting == 0 && !writing && !finishing) {
+            finish();
+        }
+    }
+
+    private void writeBlock() {
+        List<SnapshotFile.GroupColumns> full = block;
+        block = new ArrayList<>();
+        blockDevices = 0;
+        writing = true;
+        SnapshotFile.Writer writer = this.writer;
+        blockingIo.pipe(() -> {
+            writer.writeBlock(full);
+            return BlockWritten.INSTANCE;
+        }, getSelf(), getSelf());
+    }
+
+    private void finish() {
+        finishing = true;
+        List<SnapshotFile.GroupColumns> last = block;
+        block = new ArrayList<>();
+        SnapshotFile.Writer writer = this.writer;
+        blockingIo.pipe(() -> {
+            writer.writeBlock(last);
+            return new Finished(writer.finish());
+        }, getSelf(), getSelf());
+    }
+
+    private void onFinished(Finished finished) {
+        log.info("Exported {} devices of {} groups to {}", writer.getTotalDevices(), writer.getTotalGroups(),
+                export.getFile());
+        requester.tell(new DeviceManager.SnapshotExported(export.getRequestId(), export.getFile(),
+                writer.getTotalGroups(), writer.getTotalDevices(), finished.bytes, System.nanoTime() - start), getSelf());
+        getContext().stop(getSelf());
+    }
+
+    private void fail(Status.Failure failure) {
+        log.error(failure.cause(), "Snapshot {} to {} failed", export.getRequestId(), export.getFile());
+        requester.tell(failure, getSelf());
+        getContext().stop(getSelf());
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(WriterOpened.class, this::onWriterOpened)
+                .match(DeviceManager.GroupsCollected.class, this::onGroupsCollected)
+                .match(CollectionTimeout.class, this::onCollectionTimeout)
+                .match(DeviceGroup.DevicesExported.class, this::onDevicesExported)
+                .match(Terminated.class, this::onTerminated)
+                .match(GroupTimedOut.class, this::onGroupTimedOut)
+                .match(BlockWritten.class, this::onBlockWritten)
+                .match(Finished.class, this::onFinished)
+                .match(Status.Failure.class, this::fail)
+                .build();
+    }
+}
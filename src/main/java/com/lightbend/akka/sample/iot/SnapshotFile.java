@@ -0,0 +1,369 @@
+package com.lightbend.akka.sample.iot;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Columnar dump of the last reading of every device, as written by DeviceManager.ExportSnapshot:
+//   [int magic][int version]
+//   blocks of up to about BLOCK_DEVICES devices, the devices of a group next to each other:
+//     [int devices][int groups][int distinct device ids]
+//     per group:            [string groupId][int devices of the group]
+//     per distinct id:      [string deviceId]
+//     per device:           [int index into the device ids]
+//     per device:           [double value]       NaN if the device has no reading
+//     per device:           [long timestamp]     0 if the device has no reading or only the one it was
+//                                                registered with from a manifest
+//   [int -1][int total groups][long total devices]
+// with strings as [int byte length][UTF-8 bytes]. Blocks bound the memory of writing and reading alike,
+// and within a block every column is contiguous. The writer fills a temporary file next to the target
+// and moves it into place once complete, so a reader never sees half a snapshot.
+public final class SnapshotFile {
+
+    static final int BLOCK_DEVICES = 64 * 1024;
+
+    private static final int MAGIC = 0x494f5453;
+    private static final int VERSION = 1;
+    private static final int END_OF_BLOCKS = -1;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private SnapshotFile() {
+    }
+
+    // The devices of one group at the time it was asked, in the columns the file stores.
+    static final class GroupColumns {
+        final String groupId;
+        final String[] deviceIds;
+        final double[] values;
+        final long[] timestamps;
+
+        GroupColumns(final String groupId, final String[] deviceIds, final double[] values, final long[] timestamps) {
+            this.groupId = groupId;
+            this.deviceIds = deviceIds;
+            this.values = values;
+            this.timestamps = timestamps;
+        }
+    }
+
+    // Not thread-safe; owned by the SnapshotExport that writes the file.
+    static final class Writer implements Closeable {
+        private final Path target;
+        private final Path temporary;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final Map<String, Integer> deviceIdIndexes = new HashMap<>();
+        private int totalGroups;
+        private long totalDevices;
+        private boolean finished;
+
+        Writer(final Path target) throws IOException {
+            this.target = target;
+            this.temporary = target.resolveSibling(target.getFileName() + ".tmp");
+            this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            buffer.putInt(MAGIC).putInt(VERSION);
+        }
+
+        void writeBlock(List<GroupColumns> groups) throws IOException {
+            int devices = 0;
+            for (GroupColumns group : groups) {
+                devices += group.deviceIds.length;
+            }
+            if (devices == 0) {
+                return;
+            }
+            deviceIdIndexes.clear();
+            for (GroupColumns group : groups) {
+                for (String deviceId : group.deviceIds) {
+                    deviceIdIndexes.putIfAbsent(deviceId, deviceIdIndexes.size());
+                }
+            }
+            String[] dictionary = new String[deviceIdIndexes.size()];
+            for (Map.Entry<String, Integer> entry : deviceIdIndexes.entrySet()) {
+                dictionary[entry.getValue()] = entry.getKey();
+            }
+
+            reserve(12);
+            buffer.putInt(devices).putInt(groups.size()).putInt(dictionary.length);
+            for (GroupColumns group : groups) {
+                putString(group.groupId);
+                reserve(4);
+                buffer.putInt(group.deviceIds.length);
+            }
+            for (String deviceId : dictionary) {
+                putString(deviceId);
+            }
+            for (GroupColumns group : groups) {
+                for (String deviceId : group.deviceIds) {
+                    reserve(4);
+                    buffer.putInt(deviceIdIndexes.get(deviceId));
+                }
+            }
+            for (GroupColumns group : groups) {
+                for (double value : group.values) {
+                    reserve(8);
+                    buffer.putDouble(value);
+                }
+            }
+            for (GroupColumns group : groups) {
+                for (long timestamp : group.timestamps) {
+                    reserve(8);
+                    buffer.putLong(timestamp);
+                }
+            }
+            totalGroups += groups.size();
+            totalDevices += devices;
+        }
+
+        long getTotalDevices() {
+            return totalDevices;
+        }
+
+        int getTotalGroups() {
+            return totalGroups;
+        }
+
+        // Writes the footer, syncs and moves the file into place; returns its size in bytes.
+        long finish() throws IOException {
+            reserve(16);
+            buffer.putInt(END_OF_BLOCKS).putInt(totalGroups).putLong(totalDevices);
+            drain();
+            channel.force(false);
+            long size = channel.size();
+            channel.close();
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+            return size;
+        }
+
+        // Without finish() the partial file is removed.
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                channel.close();
+                Files.deleteIfExists(temporary);
+            }
+        }
+
+        private void putString(String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            reserve(4);
+            buffer.putInt(bytes.length);
+            int offset = 0;
+            while (offset < bytes.length) {
+                reserve(1);
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        private void reserve(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                drain();
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    public static Reader open(Path file) throws IOException {
+        return new Reader(file);
+    }
+
+    // Reads a snapshot block by block: nextBlock() loads the next block, whose devices are then available
+    // by index until the following call. The arrays are reused, so memory depends on the block size only.
+    public static final class Reader implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        private int blockSize;
+        private String[] groupIds = new String[0];
+        private int[] groupOfDevice = new int[0];
+        private String[] deviceIds = new String[0];
+        private int[] deviceIdOfDevice = new int[0];
+        private double[] values = new double[0];
+        private long[] timestamps = new long[0];
+
+        private boolean ended;
+        private int totalGroups;
+        private long totalDevices;
+        private int groupsRead;
+        private long devicesRead;
+
+        private Reader(final Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            buffer.flip();
+            boolean opened = false;
+            try {
+                require(8);
+                if (buffer.getInt() != MAGIC) {
+                    throw new IOException(file + " is not a device snapshot");
+                }
+                int version = buffer.getInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported snapshot version " + version + " in " + file);
+                }
+                opened = true;
+            } finally {
+                if (!opened) {
+                    channel.close();
+                }
+            }
+        }
+
+        // Returns false once every block has been read; the totals are then available.
+        public boolean nextBlock() throws IOException {
+            if (ended) {
+                return false;
+            }
+            require(4);
+            int devices = buffer.getInt();
+            if (devices == END_OF_BLOCKS) {
+                require(12);
+                totalGroups = buffer.getInt();
+                totalDevices = buffer.getLong();
+                if (totalGroups != groupsRead || totalDevices != devicesRead) {
+                    throw new IOException("Snapshot footer counts " + totalGroups + " groups and " + totalDevices
+                            + " devices, but " + groupsRead + " and " + devicesRead + " were read");
+                }
+                ended = true;
+                blockSize = 0;
+                return false;
+            }
+            require(8);
+            int groups = buffer.getInt();
+            int distinctIds = buffer.getInt();
+            if (devices < 0 || groups < 0 || distinctIds < 0) {
+                throw new IOException("Corrupt snapshot block header");
+            }
+            ensureCapacity(devices, groups, distinctIds);
+
+            int device = 0;
+            for (int g = 0; g < groups; g++) {
+                groupIds[g] = getString();
+                require(4);
+                int count = buffer.getInt();
+                if (count < 0 || device + count > devices) {
+                    throw new IOException("Corrupt snapshot block: group sizes exceed " + devices + " devices");
+                }
+                Arrays.fill(groupOfDevice, device, device + count, g);
+                device += count;
+            }
+            for (int i = 0; i < distinctIds; i++) {
+                deviceIds[i] = getString();
+            }
+            for (int i = 0; i < devices; i++) {
+                require(4);
+                deviceIdOfDevice[i] = buffer.getInt();
+            }
+            for (int i = 0; i < devices; i++) {
+                require(8);
+                values[i] = buffer.getDouble();
+            }
+            for (int i = 0; i < devices; i++) {
+                require(8);
+                timestamps[i] = buffer.getLong();
+            }
+            blockSize = devices;
+            groupsRead += groups;
+            devicesRead += devices;
+            return true;
+        }
+
+        public int getBlockSize() {
+            return blockSize;
+        }
+
+        public String getGroupId(int index) {
+            return groupIds[groupOfDevice[index]];
+        }
+
+        public String getDeviceId(int index) {
+            return deviceIds[deviceIdOfDevice[index]];
+        }
+
+        public boolean hasValue(int index) {
+            return !Double.isNaN(values[index]);
+        }
+
+        public double getValue(int index) {
+            return values[index];
+        }
+
+        public long getTimestamp(int index) {
+            return timestamps[index];
+        }
+
+        public int getTotalGroups() {
+            return totalGroups;
+        }
+
+        public long getTotalDevices() {
+            return totalDevices;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private void ensureCapacity(int devices, int groups, int distinctIds) {
+            if (values.length < devices) {
+                groupOfDevice = new int[devices];
+                deviceIdOfDevice = new int[devices];
+                values = new double[devices];
+                timestamps = new long[devices];
+            }
+            if (groupIds.length < groups) {
+                groupIds = new String[groups];
+            }
+            if (deviceIds.length < distinctIds) {
+                deviceIds = new String[distinctIds];
+            }
+        }
+
+        private String getString() throws IOException {
+            require(4);
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.capacity()) {
+                throw new IOException("Corrupt snapshot string length " + length);
+            }
+            require(length);
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        // Makes at least the given number of bytes available in the buffer.
+        private void require(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Snapshot ends in the middle of a block");
+                }
+            }
+            buffer.flip();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.lightbend.akka.sample.iot;
+
+// Fixed-capacity ring buffer of the most recent readings of one device. The arrays are allocated on the
+// first reading, so devices that never report cost nothing, and never grow afterwards.
+final class TemperatureHistory {
+
+    private final int capacity;
+    private final long retentionMillis;
+
+    private long[] timestamps;
+    private double[] values;
+    private int next;
+    private int size;
+
+    TemperatureHistory(final int capacity, final long retentionMillis) {
+        this.capacity = capacity;
+        this.retentionMillis = retentionMillis;
+    }
+
+    void record(long timestamp, double value) {
+        if (capacity == 0) {
+            return;
+        }
+        if (timestamps == null) {
+            timestamps = new long[capacity];
+            values = new double[capacity];
+        }
+        timestamps[next] = timestamp;
+        values[next] = value;
+        next = next + 1 == capacity ? 0 : next + 1;
+        if (size < capacity) {
+            size++;
+        }
+    }
+
+    // Walks from the newest reading back to the oldest one still inside the window, updating the
+    // statistics with Welford's algorithm so that no intermediate storage is needed.
+    Device.RespondAggregate aggregate(long requestId, long now, long windowMillis) {
+        long oldest = now - Math.min(windowMillis, retentionMillis);
+        int count = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double mean = 0.0;
+        double m2 = 0.0;
+
+        int index = next;
+        for (int i = 0; i < size; i++) {
+            index = index == 0 ? capacity - 1 : index - 1;
+            if (timestamps[index] < oldest) {
+                break;
+            }
+            double value = values[index];
+            count++;
+            double delta = value - mean;
+            mean += delta / count;
+            m2 += delta * (value - mean);
+            if (value < min) {
+                min = value;
+            }
+            if (value > max) {
+                max = value;
+            }
+        }
+
+        if (count == 0) {
+            return new Device.RespondAggregate(requestId, 0, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+        }
+        return new Device.RespondAggregate(requestId, count, min, max, mean, Math.sqrt(m2 / count));
+    }
+}
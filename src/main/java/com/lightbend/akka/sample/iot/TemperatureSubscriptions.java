@@ -0,0 +1,308 @@
+package com.lightbend.akka.sample.iot;
+
+import akka.actor.ActorRef;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// The subscribers of one DeviceGroup. Subscriptions live in parallel arrays indexed by slot, and their ids
+// carry the slot in the low 32 bits and the slot's generation in the high bits, so acknowledgements find
+// their subscription without a lookup and stale ids of reused slots are ignored. Slots are indexed by the
+// device they follow, or in a separate list when they follow the whole group, so a change only visits
+// the subscriptions that want it.
+// A subscription may have at most `window` changes unacknowledged. Changes beyond that are coalesced to
+// the latest value per device and sent, oldest device first, as acknowledgements come in. The per-device
+// state this needs is only allocated for subscriptions that fell behind or have a delta threshold.
+final class TemperatureSubscriptions {
+
+    private final String groupId;
+
+    private ActorRef[] subscribers = new ActorRef[4];
+    // Null for subscriptions to every device of the group.
+    private String[] deviceIds = new String[4];
+    private double[] minDeltas = new double[4];
+    private int[] windows = new int[4];
+    private long[] sent = new long[4];
+    private long[] acknowledged = new long[4];
+    private int[] generations = new int[4];
+    private Backlog[] backlogs = new Backlog[4];
+    private int slots;
+    private int size;
+    private int[] free = new int[4];
+    private int freeCount;
+
+    private final SlotList everyDevice = new SlotList();
+    private final Map<String, SlotList> byDevice = new HashMap<>();
+
+    TemperatureSubscriptions(final String groupId) {
+        this.groupId = groupId;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Replaces an earlier subscription of the same subscriber to the same device, or to the whole group.
+    long subscribe(ActorRef subscriber, String deviceId, double minDelta, int window) {
+        int slot = find(subscriber, deviceId);
+        if (slot < 0) {
+            slot = allocate();
+            subscribers[slot] = subscriber;
+            deviceIds[slot] = deviceId;
+            listFor(deviceId, true).add(slot);
+            size++;
+        } else {
+            generations[slot]++;
+        }
+        minDeltas[slot] = minDelta;
+        windows[slot] = window;
+        sent[slot] = 0L;
+        acknowledged[slot] = 0L;
+        backlogs[slot] = null;
+        return idOf(slot);
+    }
+
+    // Returns the subscriber whose subscription was removed, or null if the id is not current.
+    ActorRef unsubscribe(long subscriptionId) {
+        int slot = slotOf(subscriptionId);
+        if (slot < 0) {
+            return null;
+        }
+        ActorRef subscriber = subscribers[slot];
+        release(slot);
+        return subscriber;
+    }
+
+    // Removes every subscription of the subscriber, e.g. when it terminated.
+    boolean removeSubscriber(ActorRef subscriber) {
+        boolean removed = false;
+        for (int slot = 0; slot < slots; slot++) {
+            if (subscriber.equals(subscribers[slot])) {
+                release(slot);
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    boolean isSubscribed(ActorRef subscriber) {
+        for (int slot = 0; slot < slots; slot++) {
+            if (subscriber.equals(subscribers[slot])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void publish(String deviceId, double value, long timestamp, ActorRef self) {
+        everyDevice.offer(this, deviceId, value, timestamp, self);
+        SlotList following = byDevice.get(deviceId);
+        if (following != null) {
+            following.offer(this, deviceId, value, timestamp, self);
+        }
+    }
+
+    // Offers a change to a single subscription, e.g. the current reading right after subscribing.
+    void publishTo(long subscriptionId, String deviceId, double value, long timestamp, ActorRef self) {
+        int slot = slotOf(subscriptionId);
+        if (slot >= 0) {
+            offer(slot, deviceId, value, timestamp, self);
+        }
+    }
+
+    // Acknowledges every change of the subscription up to and including the given sequence number, and
+    // sends coalesced changes into the room this makes.
+    void acknowledge(long subscriptionId, long sequence, ActorRef sender, ActorRef self) {
+        int slot = slotOf(subscriptionId);
+        if (slot < 0 || !subscribers[slot].equals(sender)) {
+            return;
+        }
+        acknowledged[slot] = Math.max(acknowledged[slot], Math.min(sequence, sent[slot]));
+        Backlog backlog = backlogs[slot];
+        if (backlog == null) {
+            return;
+        }
+        while (sent[slot] - acknowledged[slot] < windows[slot] && !backlog.pending.isEmpty()) {
+            DeviceState state = backlog.pending.poll();
+            state.pending = false;
+            if (!suppressed(slot, state, state.value)) {
+                deliver(slot, state, state.deviceId, state.value, state.timestamp, self);
+            }
+        }
+        if (backlog.pending.isEmpty() && minDeltas[slot] == 0.0) {
+            // Caught up, and nothing else needs the per-device state
+            backlogs[slot] = null;
+        }
+    }
+
+    private void offer(int slot, String deviceId, double value, long timestamp, ActorRef self) {
+        Backlog backlog = backlogs[slot];
+        boolean hasRoom = sent[slot] - acknowledged[slot] < windows[slot];
+        if (backlog == null) {
+            if (hasRoom && minDeltas[slot] == 0.0) {
+                deliver(slot, null, deviceId, value, timestamp, self);
+                return;
+            }
+            backlog = new Backlog();
+            backlogs[slot] = backlog;
+        }
+        DeviceState state = backlog.states.get(deviceId);
+        if (state == null) {
+            state = new DeviceState(deviceId);
+            backlog.states.put(deviceId, state);
+        }
+        if (state.pending) {
+            // Coalesced: only the latest value is sent once there is room
+            state.value = value;
+            state.timestamp = timestamp;
+        } else if (suppressed(slot, state, value)) {
+            return;
+        } else if (hasRoom && backlog.pending.isEmpty()) {
+            deliver(slot, state, deviceId, value, timestamp, self);
+        } else {
+            state.pending = true;
+            state.value = value;
+            state.timestamp = timestamp;
+            backlog.pending.add(state);
+        }
+    }
+
+    private boolean suppressed(int slot, DeviceState state, double value) {
+        return minDeltas[slot] > 0.0 && state.hasDelivered && Math.abs(value - state.delivered) < minDeltas[slot];
+    }
+
+    private void deliver(int slot, DeviceState state, String deviceId, double value, long timestamp, ActorRef self) {
+        long sequence = ++sent[slot];
+        if (state != null) {
+            state.delivered = value;
+            state.hasDelivered = true;
+        }
+        subscribers[slot].tell(
+                new DeviceGroup.TemperatureChanged(idOf(slot), sequence, groupId, deviceId, value, timestamp), self);
+    }
+
+    private long idOf(int slot) {
+        return ((long) generations[slot] << 32) | slot;
+    }
+
+    private int slotOf(long subscriptionId) {
+        int slot = (int) subscriptionId;
+        if (slot < 0 || slot >= slots || subscribers[slot] == null
+                || generations[slot] != (int) (subscriptionId >>> 32)) {
+            return -1;
+        }
+        return slot;
+    }
+
+    private int find(ActorRef subscriber, String deviceId) {
+        SlotList list = listFor(deviceId, false);
+        if (list != null) {
+            for (int i = 0; i < list.size; i++) {
+                if (subscribers[list.slots[i]].equals(subscriber)) {
+                    return list.slots[i];
+                }
+            }
+        }
+        return -1;
+    }
+
+    private SlotList listFor(String deviceId, boolean create) {
+        if (deviceId == null) {
+            return everyDevice;
+        }
+        SlotList list = byDevice.get(deviceId);
+        if (list == null && create) {
+            list = new SlotList();
+            byDevice.put(deviceId, list);
+        }
+        return list;
+    }
+
+    private int allocate() {
+        if (freeCount > 0) {
+            return free[--freeCount];
+        }
+        if (slots == subscribers.length) {
+            int capacity = slots * 2;
+            subscribers = Arrays.copyOf(subscribers, capacity);
+            deviceIds = Arrays.copyOf(deviceIds, capacity);
+            minDeltas = Arrays.copyOf(minDeltas, capacity);
+            windows = Arrays.copyOf(windows, capacity);
+            sent = Arrays.copyOf(sent, capacity);
+            acknowledged = Arrays.copyOf(acknowledged, capacity);
+            generations = Arrays.copyOf(generations, capacity);
+            backlogs = Arrays.copyOf(backlogs, capacity);
+        }
+        return slots++;
+    }
+
+    private void release(int slot) {
+        SlotList list = listFor(deviceIds[slot], false);
+        list.remove(slot);
+        if (list.size == 0 && deviceIds[slot] != null) {
+            byDevice.remove(deviceIds[slot]);
+        }
+        subscribers[slot] = null;
+        deviceIds[slot] = null;
+        backlogs[slot] = null;
+        generations[slot]++;
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount * 2);
+        }
+        free[freeCount++] = slot;
+        size--;
+    }
+
+    private static final class SlotList {
+        int[] slots = new int[2];
+        int size;
+
+        void add(int slot) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size++] = slot;
+        }
+
+        void remove(int slot) {
+            for (int i = 0; i < size; i++) {
+                if (slots[i] == slot) {
+                    slots[i] = slots[--size];
+                    return;
+                }
+            }
+        }
+
+        void offer(TemperatureSubscriptions subscriptions, String deviceId, double value, long timestamp,
+                   ActorRef self) {
+            for (int i = 0; i < size; i++) {
+                subscriptions.offer(slots[i], deviceId, value, timestamp, self);
+            }
+        }
+    }
+
+    private static final class Backlog {
+        final Map<String, DeviceState> states = new HashMap<>();
+        // Devices with a coalesced change waiting for room in the window, in the order they fell behind.
+        final ArrayDeque<DeviceState> pending = new ArrayDeque<>();
+    }
+
+    private static final class DeviceState {
+        final String deviceId;
+        boolean hasDelivered;
+        double delivered;
+        boolean pending;
+        double value;
+        long timestamp;
+
+        DeviceState(final String deviceId) {
+            this.deviceId = deviceId;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.lightbend.akka.sample.iot;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// The binary protocol of WireServer. Every frame is [int length][byte type][payload], big-endian, where
+// length counts the type byte and the payload. A client first binds each device to a handle of its
+// choosing, small non-negative ints, and then sends readings against the handle:
+//   TRACK     client -> server  [int handle][ushort length][groupId UTF-8][ushort length][deviceId UTF-8]
+//   RECORD    client -> server  [int handle][long requestId][double value]
+//   TRACKED   server -> client  [int handle]
+//   RECORDED  server -> client  [int handle][long requestId]: every reading of the device up to and
+//                               including requestId has been recorded
+// A device's requestIds must increase. The server closes the connection on a malformed frame.
+public final class WireFormat {
+
+    public static final byte TRACK = 1;
+    public static final byte RECORD = 2;
+    public static final byte TRACKED = 3;
+    public static final byte RECORDED = 4;
+
+    public static final int HEADER_BYTES = 5;
+    public static final int RECORD_FRAME_BYTES = HEADER_BYTES + 4 + 8 + 8;
+    public static final int TRACKED_FRAME_BYTES = HEADER_BYTES + 4;
+    public static final int RECORDED_FRAME_BYTES = HEADER_BYTES + 4 + 8;
+    // Keeps the largest TRACK frame well within the server's read buffer.
+    public static final int MAX_ID_BYTES = 1024;
+    public static final int MAX_FRAME_BYTES = HEADER_BYTES + 4 + 2 + MAX_ID_BYTES + 2 + MAX_ID_BYTES;
+    // Handles index an array on the server, so they are kept dense and bounded.
+    public static final int MAX_HANDLE = (1 << 24) - 1;
+
+    private WireFormat() {
+    }
+
+    public static void putTrack(ByteBuffer buffer, int handle, String groupId, String deviceId) {
+        byte[] group = groupId.getBytes(StandardCharsets.UTF_8);
+        byte[] device = deviceId.getBytes(StandardCharsets.UTF_8);
+        if (group.length > MAX_ID_BYTES || device.length > MAX_ID_BYTES) {
+            throw new IllegalArgumentException("groupId and deviceId must be at most " + MAX_ID_BYTES + " bytes");
+        }
+        buffer.putInt(1 + 4 + 2 + group.length + 2 + device.length);
+        buffer.put(TRACK);
+        buffer.putInt(handle);
+        buffer.putShort((short) group.length);
+        buffer.put(group);
+        buffer.putShort((short) device.length);
+        buffer.put(device);
+    }
+
+    public static void putRecord(ByteBuffer buffer, int handle, long requestId, double value) {
+        buffer.putInt(RECORD_FRAME_BYTES - 4);
+        buffer.put(RECORD);
+        buffer.putInt(handle);
+        buffer.putLong(requestId);
+        buffer.putDouble(value);
+    }
+
+    public static void putTracked(ByteBuffer buffer, int handle) {
+        buffer.putInt(TRACKED_FRAME_BYTES - 4);
+        buffer.put(TRACKED);
+        buffer.putInt(handle);
+    }
+
+    public static void putRecorded(ByteBuffer buffer, int handle, long requestId) {
+        buffer.putInt(RECORDED_FRAME_BYTES - 4);
+        buffer.put(RECORDED);
+        buffer.putInt(handle);
+        buffer.putLong(requestId);
+    }
+}
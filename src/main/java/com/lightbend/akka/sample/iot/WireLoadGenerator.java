@@ -0,0 +1,166 @@
+package com.lightbend.akka.sample.iot;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+// A gateway for WireServer: tracks devices spread over groups, then sends readings to them round-robin
+// from one thread while another reads the acknowledgements, with at most `window` readings unacknowledged.
+// Latency is measured per reading, from writing it into the send buffer to reading its RECORDED frame.
+//   java -cp ... com.lightbend.akka.sample.iot.WireLoadGenerator <host> <port> <groups> <devices> <readings> <window>
+public final class WireLoadGenerator {
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Result result = run(new InetSocketAddress(args[0], Integer.parseInt(args[1])), Integer.parseInt(args[2]),
+                Integer.parseInt(args[3]), Integer.parseInt(args[4]), Integer.parseInt(args[5]));
+        System.out.println(result);
+    }
+
+    public static final class Result {
+        private final long readings;
+        private final long elapsedNanos;
+        private final LatencyHistogram.Snapshot latency;
+
+        Result(final long readings, final long elapsedNanos, final LatencyHistogram.Snapshot latency) {
+            this.readings = readings;
+            this.elapsedNanos = elapsedNanos;
+            this.latency = latency;
+        }
+
+        // Readings sent and acknowledged.
+        public long getReadings() {
+            return readings;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getReadingsPerSecond() {
+            return readings * 1e9 / Math.max(elapsedNanos, 1L);
+        }
+
+        public LatencyHistogram.Snapshot getLatency() {
+            return latency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%d readings in %.3f s, %.0f readings/s, latency p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                    readings, elapsedNanos / 1e9, getReadingsPerSecond(),
+                    latency.getValueAtPercentile(50) / 1000.0, latency.getValueAtPercentile(99) / 1000.0,
+                    latency.getValueAtPercentile(99.9) / 1000.0, latency.getMax() / 1000.0);
+        }
+    }
+
+    public static Result run(InetSocketAddress server, int groups, int devices, int readings, int window)
+            throws IOException, InterruptedException {
+        try (SocketChannel channel = SocketChannel.open(server)) {
+            channel.socket().setTcpNoDelay(true);
+            ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_BYTES);
+
+            for (int device = 0; device < devices; device++) {
+                if (out.remaining() < WireFormat.MAX_FRAME_BYTES) {
+                    write(channel, out);
+                }
+                WireFormat.putTrack(out, device, "group-" + device % groups, "device-" + device);
+            }
+            write(channel, out);
+            int tracked = 0;
+            while (tracked < devices) {
+                read(channel, in);
+                while (in.remaining() >= WireFormat.TRACKED_FRAME_BYTES && in.get(in.position() + 4) == WireFormat.TRACKED) {
+                    in.position(in.position() + WireFormat.TRACKED_FRAME_BYTES);
+                    tracked++;
+                }
+                in.compact();
+            }
+
+            // Reading i goes to device i % devices, so its requestId is i and a device's ids step by `devices`
+            AtomicLongArray sentAt = new AtomicLongArray(readings);
+            Semaphore unacknowledged = new Semaphore(window);
+            AtomicReference<Throwable> writeFailure = new AtomicReference<>();
+            long start = System.nanoTime();
+            Thread writer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < readings; i++) {
+                        if (!unacknowledged.tryAcquire()) {
+                            write(channel, out);
+                            unacknowledged.acquire();
+                        }
+                        if (out.remaining() < WireFormat.RECORD_FRAME_BYTES) {
+                            write(channel, out);
+                        }
+                        WireFormat.putRecord(out, i % devices, i, 20.0 + (i % 100) * 0.1);
+                        sentAt.set(i, System.nanoTime());
+                    }
+                    write(channel, out);
+                } catch (Throwable e) {
+                    writeFailure.set(e);
+                }
+            }, "wire-load-writer");
+            writer.start();
+
+            LatencyHistogram latency = new LatencyHistogram();
+            long[] lastAcknowledged = new long[devices];
+            for (int device = 0; device < devices; device++) {
+                lastAcknowledged[device] = device - devices;
+            }
+            long acknowledged = 0;
+            while (acknowledged < readings) {
+                if (writeFailure.get() != null) {
+                    throw new IOException("Sending readings failed", writeFailure.get());
+                }
+                read(channel, in);
+                long now = System.nanoTime();
+                while (in.remaining() >= WireFormat.RECORDED_FRAME_BYTES) {
+                    int frameStart = in.position();
+                    if (in.getInt(frameStart) != WireFormat.RECORDED_FRAME_BYTES - 4
+                            || in.get(frameStart + 4) != WireFormat.RECORDED) {
+                        throw new IOException("Unexpected frame type " + in.get(frameStart + 4));
+                    }
+                    int device = in.getInt(frameStart + 5);
+                    long highest = in.getLong(frameStart + 9);
+                    in.position(frameStart + WireFormat.RECORDED_FRAME_BYTES);
+                    int newly = 0;
+                    for (long id = lastAcknowledged[device] + devices; id <= highest; id += devices) {
+                        latency.record(now - sentAt.get((int) id));
+                        newly++;
+                    }
+                    lastAcknowledged[device] = Math.max(lastAcknowledged[device], highest);
+                    acknowledged += newly;
+                    unacknowledged.release(newly);
+                }
+                in.compact();
+            }
+            long elapsed = System.nanoTime() - start;
+            writer.join();
+            return new Result(acknowledged, elapsed, latency.snapshot());
+        }
+    }
+
+    private static void write(SocketChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    // Leaves the buffer flipped for reading.
+    private static void read(SocketChannel channel, ByteBuffer in) throws IOException {
+        if (channel.read(in) < 0) {
+            throw new IOException("Server closed the connection");
+        }
+        in.flip();
+    }
+}
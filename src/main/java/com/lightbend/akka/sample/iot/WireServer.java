@@ -0,0 +1,486 @@
+package com.lightbend.akka.sample.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.event.LoggingAdapter;
+import akka.pattern.PatternsCS;
+import akka.util.Timeout;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Serves WireFormat over TCP with plain NIO. One selector thread accepts connections and decodes frames
+// straight out of each connection's direct read buffer. The readings of every read are gathered per group
+// and sent to the DeviceManager as RecordTemperatureBatch messages of at most IngestSettings.getBatchSize()
+// readings. Device ids are decoded once, when the device is tracked, and a reading only carries its handle,
+// so decoding a reading allocates nothing. While IngestSettings.getParallelism() batches of a connection are
+// unacknowledged the connection isn't read, which leaves a fast gateway waiting on its TCP window instead
+// of filling mailboxes. A connection whose batch or registration isn't answered within
+// IngestSettings.getAckTimeout() is closed, like a ReadingIngest stream fails.
+public final class WireServer implements Closeable {
+
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+    private static final int WRITE_BUFFER_BYTES = 256 * 1024;
+
+    public static WireServer start(ActorSystem system, ActorRef manager, IngestSettings settings,
+                                   InetSocketAddress address) throws IOException {
+        return new WireServer(system, manager, settings, address);
+    }
+
+    private final ActorRef manager;
+    private final IngestSettings settings;
+    private final Timeout askTimeout;
+    private final LoggingAdapter log;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final InetSocketAddress localAddress;
+    private final Thread thread;
+    // Connections with replies to handle, added from the threads that complete the asks.
+    private final Queue<Connection> replied = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+    // Only used on the selector thread.
+    private long nextRequestId = 0L;
+
+    private WireServer(final ActorSystem system, final ActorRef manager, final IngestSettings settings,
+                       final InetSocketAddress address) throws IOException {
+        this.manager = manager;
+        this.settings = settings;
+        this.askTimeout = new Timeout(settings.getAckTimeout());
+        this.log = system.log();
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.localAddress = (InetSocketAddress) serverChannel.getLocalAddress();
+        this.thread = new Thread(this::run, "wire-server-" + localAddress.getPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public InetSocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    // Stops accepting and closes every connection, without waiting for unacknowledged batches.
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isReadable()) {
+                        connection.read();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.handleReplies();
+                    }
+                }
+                Connection connection;
+                while ((connection = replied.poll()) != null) {
+                    connection.scheduled.set(false);
+                    connection.handleReplies();
+                }
+            }
+        } catch (IOException e) {
+            log.error(e, "Wire server on {} failed", localAddress);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                log.warning("Could not close wire server on {}: {}", localAddress, e);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    private static final class Tracked {
+        final int handle;
+
+        Tracked(final int handle) {
+            this.handle = handle;
+        }
+    }
+
+    private static final class TrackFailed {
+        final int handle;
+        final Throwable cause;
+
+        TrackFailed(final int handle, final Throwable cause) {
+            this.handle = handle;
+            this.cause = cause;
+        }
+    }
+
+    private static final class BatchFailed {
+        final long batchId;
+        final Throwable cause;
+
+        BatchFailed(final long batchId, final Throwable cause) {
+            this.batchId = batchId;
+            this.cause = cause;
+        }
+    }
+
+    private static final class Target {
+        final String deviceId;
+        final GroupBatch group;
+
+        Target(final String deviceId, final GroupBatch group) {
+            this.deviceId = deviceId;
+            this.group = group;
+        }
+    }
+
+    // The readings of one group collected since its last batch, and the handles of its devices.
+    private final class GroupBatch {
+        final String groupId;
+        final Map<String, Integer> handles = new HashMap<>();
+        String[] deviceIds;
+        long[] requestIds;
+        double[] values;
+        int size;
+
+        GroupBatch(final String groupId) {
+            this.groupId = groupId;
+        }
+
+        void add(String deviceId, long requestId, double value) {
+            if (deviceIds == null) {
+                deviceIds = new String[settings.getBatchSize()];
+                requestIds = new long[settings.getBatchSize()];
+                values = new double[settings.getBatchSize()];
+            }
+            deviceIds[size] = deviceId;
+            requestIds[size] = requestId;
+            values[size] = value;
+            size++;
+        }
+
+        // The arrays go to the actors as they are, so the next readings start new ones.
+        DeviceManager.RecordTemperatureBatch take(long batchId) {
+            DeviceManager.RecordTemperatureBatch batch = size == deviceIds.length
+                    ? new DeviceManager.RecordTemperatureBatch(batchId, groupId, deviceIds, requestIds, values)
+                    : new DeviceManager.RecordTemperatureBatch(batchId, groupId, Arrays.copyOf(deviceIds, size),
+                            Arrays.copyOf(requestIds, size), Arrays.copyOf(values, size));
+            deviceIds = null;
+            requestIds = null;
+            values = null;
+            size = 0;
+            return batch;
+        }
+    }
+
+    private final class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        final ByteBuffer in = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+        final ByteBuffer out = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+        final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        final Queue<Object> replies = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+
+        // Everything below is only used on the selector thread.
+        Target[] targets = new Target[64];
+        final Map<String, GroupBatch> groups = new HashMap<>();
+        final List<GroupBatch> filled = new ArrayList<>();
+        final Map<Long, GroupBatch> pending = new HashMap<>();
+        int pendingTracks;
+        // How many devices of the batch at the head of replies were acknowledged before the buffer filled up.
+        int acknowledged;
+        boolean inputClosed;
+        boolean closed;
+
+        Connection(final SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        // Called from any thread.
+        void reply(Object reply) {
+            replies.add(reply);
+            if (scheduled.compareAndSet(false, true)) {
+                replied.add(this);
+                selector.wakeup();
+            }
+        }
+
+        void read() {
+            try {
+                if (channel.read(in) < 0) {
+                    inputClosed = true;
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                    closeIfDone();
+                    return;
+                }
+                in.flip();
+                while (in.remaining() >= 4) {
+                    int length = in.getInt(in.position());
+                    if (length < 1 || length > WireFormat.MAX_FRAME_BYTES - 4) {
+                        throw new ProtocolException("frame length " + length);
+                    }
+                    if (in.remaining() < 4 + length) {
+                        break;
+                    }
+                    int frameEnd = in.position() + 4 + length;
+                    in.position(in.position() + 4);
+                    byte type = in.get();
+                    if (type == WireFormat.RECORD && length == WireFormat.RECORD_FRAME_BYTES - 4) {
+                        record(in.getInt(), in.getLong(), in.getDouble());
+                    } else if (type == WireFormat.TRACK) {
+                        track(frameEnd);
+                    } else {
+                        throw new ProtocolException("frame type " + type + " of length " + length);
+                    }
+                    if (in.position() != frameEnd) {
+                        throw new ProtocolException("frame type " + type + " of length " + length);
+                    }
+                }
+                in.compact();
+                for (GroupBatch group : filled) {
+                    if (group.size > 0) {
+                        send(group);
+                    }
+                }
+                filled.clear();
+                if (pending.size() >= settings.getParallelism()) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                }
+            } catch (ProtocolException | CharacterCodingException e) {
+                log.warning("Closing wire connection from {} after a malformed frame: {}", remoteAddress(), e.getMessage());
+                close();
+            } catch (IOException e) {
+                log.warning("Closing wire connection from {}: {}", remoteAddress(), e);
+                close();
+            }
+        }
+
+        private void record(int handle, long requestId, double value) throws ProtocolException {
+            Target target = handle >= 0 && handle < targets.length ? targets[handle] : null;
+            if (target == null) {
+                throw new ProtocolException("reading for untracked handle " + handle);
+            }
+            GroupBatch group = target.group;
+            if (group.size == 0) {
+                filled.add(group);
+            }
+            group.add(target.deviceId, requestId, value);
+            if (group.size == settings.getBatchSize()) {
+                send(group);
+            }
+        }
+
+        private void track(int frameEnd) throws ProtocolException, CharacterCodingException {
+            int handle = in.getInt();
+            String groupId = decodeId(frameEnd);
+            String deviceId = decodeId(frameEnd);
+            if (handle < 0 || handle > WireFormat.MAX_HANDLE) {
+                throw new ProtocolException("handle " + handle);
+            }
+            if (handle >= targets.length) {
+                targets = Arrays.copyOf(targets, Math.max(handle + 1, targets.length * 2));
+            }
+            Target target = targets[handle];
+            if (target != null && !(target.group.groupId.equals(groupId) && target.deviceId.equals(deviceId))) {
+                throw new ProtocolException("handle " + handle + " is already used for another device");
+            }
+            if (target == null) {
+                GroupBatch group = groups.computeIfAbsent(groupId, GroupBatch::new);
+                group.handles.put(deviceId, handle);
+                targets[handle] = new Target(deviceId, group);
+            }
+            // Sent before any batch with the device's readings, so the group tracks it first
+            pendingTracks++;
+            PatternsCS.ask(manager, new DeviceManager.RequestTrackDevice(groupId, deviceId), askTimeout)
+                    .whenComplete((registered, failure) ->
+                            reply(failure == null ? new Tracked(handle) : new TrackFailed(handle, failure)));
+        }
+
+        private String decodeId(int frameEnd) throws ProtocolException, CharacterCodingException {
+            if (in.position() + 2 > frameEnd) {
+                throw new ProtocolException("truncated track frame");
+            }
+            int length = in.getShort() & 0xFFFF;
+            if (length == 0 || in.position() + length > frameEnd) {
+                throw new ProtocolException("id of length " + length);
+            }
+            ByteBuffer bytes = in.duplicate();
+            bytes.limit(in.position() + length);
+            in.position(in.position() + length);
+            return decoder.decode(bytes).toString();
+        }
+
+        private void send(GroupBatch group) {
+            long batchId = nextRequestId++;
+            PatternsCS.ask(manager, group.take(batchId), askTimeout)
+                    .whenComplete((recorded, failure) -> reply(failure == null ? recorded : new BatchFailed(batchId, failure)));
+            pending.put(batchId, group);
+        }
+
+        void handleReplies() {
+            if (closed) {
+                return;
+            }
+            try {
+                Object reply;
+                while ((reply = replies.peek()) != null) {
+                    if (reply instanceof DeviceManager.TemperatureBatchRecorded) {
+                        if (!acknowledge((DeviceManager.TemperatureBatchRecorded) reply)) {
+                            break;
+                        }
+                    } else if (reply instanceof Tracked) {
+                        if (out.remaining() < WireFormat.TRACKED_FRAME_BYTES && !flush()) {
+                            break;
+                        }
+                        WireFormat.putTracked(out, ((Tracked) reply).handle);
+                        pendingTracks--;
+                    } else if (reply instanceof TrackFailed) {
+                        TrackFailed failed = (TrackFailed) reply;
+                        log.warning("Closing wire connection from {}: tracking handle {} failed: {}",
+                                remoteAddress(), failed.handle, failed.cause);
+                        close();
+                        return;
+                    } else if (reply instanceof BatchFailed) {
+                        BatchFailed failed = (BatchFailed) reply;
+                        log.warning("Closing wire connection from {}: batch {} was not acknowledged: {}",
+                                remoteAddress(), failed.batchId, failed.cause);
+                        close();
+                        return;
+                    }
+                    replies.poll();
+                }
+                flush();
+                if (!inputClosed && pending.size() < settings.getParallelism()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                }
+                closeIfDone();
+            } catch (IOException e) {
+                log.warning("Closing wire connection from {}: {}", remoteAddress(), e);
+                close();
+            }
+        }
+
+        // Writes a Recorded frame per device of the batch, continuing where a full write buffer stopped the
+        // previous call. Returns false if the buffer filled up again.
+        private boolean acknowledge(DeviceManager.TemperatureBatchRecorded recorded) throws IOException {
+            GroupBatch group = pending.get(recorded.getRequestId());
+            if (group != null) {
+                for (; acknowledged < recorded.size(); acknowledged++) {
+                    Integer handle = group.handles.get(recorded.getDeviceId(acknowledged));
+                    if (handle == null) {
+                        continue;
+                    }
+                    if (out.remaining() < WireFormat.RECORDED_FRAME_BYTES && !flush()) {
+                        return false;
+                    }
+                    WireFormat.putRecorded(out, handle, recorded.getHighestRequestId(acknowledged));
+                }
+                pending.remove(recorded.getRequestId());
+            }
+            acknowledged = 0;
+            return true;
+        }
+
+        // Writes what it can and returns whether the write buffer is now empty.
+        private boolean flush() throws IOException {
+            out.flip();
+            channel.write(out);
+            out.compact();
+            boolean empty = out.position() == 0;
+            key.interestOps(empty
+                    ? key.interestOps() & ~SelectionKey.OP_WRITE
+                    : key.interestOps() | SelectionKey.OP_WRITE);
+            return empty;
+        }
+
+        // A client that has sent everything gets all its acknowledgements before the connection closes.
+        private void closeIfDone() {
+            if (inputClosed && pending.isEmpty() && pendingTracks == 0 && replies.isEmpty() && out.position() == 0) {
+                close();
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warning("Could not close wire connection: {}", e);
+            }
+        }
+
+        private Object remoteAddress() {
+            try {
+                return channel.getRemoteAddress();
+            } catch (IOException e) {
+                return "unknown";
+            }
+        }
+    }
+
+    private static final class ProtocolException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ProtocolException(final String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.event.Logging;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.ActivityLogging;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.lightbend.akka.sample.iot.IotSettings;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+
+public class ActivityLoggingTest {
+
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    // Records the readings through a manager and returns the info lines logged within the next second.
+    private static List<String> recordAndCollectInfo(String groupId, IotSettings settings, int readings) {
+        TestKit logs = new TestKit(system);
+        system.eventStream().subscribe(logs.getRef(), Logging.Info.class);
+        TestKit probe = new TestKit(system);
+        ActorRef manager = system.actorOf(DeviceManager.props(settings));
+        manager.tell(new DeviceManager.RequestTrackDevice(groupId, "device"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        ActorRef device = probe.getLastSender();
+        for (int i = 0; i < readings; i++) {
+            device.tell(new Device.RecordTemperature(i, 20.0 + i), probe.getRef());
+        }
+        probe.receiveN(readings);
+
+        List<String> lines = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (System.nanoTime() < deadline) {
+            Object event = logs.receiveOne(FiniteDuration.create(100, TimeUnit.MILLISECONDS));
+            if (event == null) {
+                continue;
+            }
+            String line = String.valueOf(((Logging.Info) event).message());
+            if (line.contains(groupId) || line.contains("emperature")) {
+                lines.add(line);
+            }
+        }
+        system.eventStream().unsubscribe(logs.getRef());
+        system.stop(manager);
+        return lines;
+    }
+
+    private static long count(List<String> lines, String prefix) {
+        return lines.stream().filter(line -> line.startsWith(prefix)).count();
+    }
+
+    @Test
+    public void testPerMessageLoggingLogsEveryReading() {
+        IotSettings settings = IotSettings.defaults().withManagerShards(1)
+                .withActivityLogging(ActivityLogging.PER_MESSAGE);
+        List<String> lines = recordAndCollectInfo("verbose", settings, 100);
+        assertEquals(100, count(lines, "Recorded temperature reading"));
+        assertEquals(1, count(lines, "Creating device group actor for verbose"));
+    }
+
+    @Test
+    public void testSampledLoggingLogsSampleAndSummary() {
+        IotSettings settings = IotSettings.defaults().withManagerShards(1)
+                .withActivityLogging(ActivityLogging.SAMPLED)
+                .withLogSampleRate(10)
+                .withLogSummaryInterval(FiniteDuration.create(200, TimeUnit.MILLISECONDS));
+        List<String> lines = recordAndCollectInfo("sampled", settings, 100);
+        // Only the first reading: the next sample comes within the same second
+        assertEquals(1, count(lines, "Recorded 1 temperature readings, last 20.0 with 0"));
+        assertEquals(0, count(lines, "Creating device"));
+        // A summary may fall in the middle of the readings, so they can be spread over two of them
+        Pattern summary = Pattern.compile("DeviceGroup sampled over [0-9.]+ s: readings=(\\d+) created=(\\d+) .*devices=1");
+        int summarized = 0;
+        int created = 0;
+        for (String line : lines) {
+            Matcher matcher = summary.matcher(line);
+            if (matcher.matches()) {
+                summarized += Integer.parseInt(matcher.group(1));
+                created += Integer.parseInt(matcher.group(2));
+            }
+        }
+        assertEquals(lines.toString(), 100, summarized);
+        assertEquals(lines.toString(), 1, created);
+    }
+}
@@ -14,12 +14,16 @@ import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 public class AkkaQuickstartTest {
     static ActorSystem system;
@@ -84,6 +88,25 @@ public class AkkaQuickstartTest {
         assertEquals(Optional.of(145.0), responseNewTemperature.getValue());
     }
 
+    @Test
+    public void testReplyWithPrimitiveTemperatureReading() {
+        TestKit probe = new TestKit(system);
+        ActorRef deviceActor = system.actorOf(Device.props("group", "device"));
+
+        deviceActor.tell(new Device.ReadTemperature(1L), probe.getRef());
+        Device.RespondTemperature empty = probe.expectMsgClass(Device.RespondTemperature.class);
+        assertFalse(empty.hasValue());
+
+        deviceActor.tell(new Device.RecordTemperature(2L, 21.5), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+
+        deviceActor.tell(new Device.ReadTemperature(3L), probe.getRef());
+        Device.RespondTemperature response = probe.expectMsgClass(Device.RespondTemperature.class);
+        assertTrue(response.hasValue());
+        assertEquals(21.5, response.getValueAsDouble(), 0.0);
+        assertEquals(Optional.of(21.5), response.getValue());
+    }
+
     @Test
     public void testReplyToRegistrationRequests() {
         TestKit probe = new TestKit(system);
@@ -203,4 +226,38 @@ public class AkkaQuickstartTest {
             return null;
         });
     }
+
+    @Test
+    public void testCollectTemperaturesFromAllActiveDevices() {
+        TestKit probe = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+
+        groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        ActorRef deviceActor1 = probe.getLastSender();
+
+        groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device2"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        ActorRef deviceActor2 = probe.getLastSender();
+
+        groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device3"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+
+        // Check that the device actors are working
+        deviceActor1.tell(new Device.RecordTemperature(0L, 1.0), probe.getRef());
+        assertEquals(0L, probe.expectMsgClass(Device.TemperatureRecorded.class).getRequestId());
+        deviceActor2.tell(new Device.RecordTemperature(1L, 2.0), probe.getRef());
+        assertEquals(1L, probe.expectMsgClass(Device.TemperatureRecorded.class).getRequestId());
+        // No temperature for device 3
+
+        groupActor.tell(new DeviceGroup.RequestAllTemperatures(0L), probe.getRef());
+        DeviceGroup.RespondAllTemperatures response = probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+        assertEquals(0L, response.getRequestId());
+
+        Map<String, DeviceGroup.TemperatureReading> expectedTemperatures = new HashMap<>();
+        expectedTemperatures.put("device1", new DeviceGroup.Temperature(1.0));
+        expectedTemperatures.put("device2", new DeviceGroup.Temperature(2.0));
+        expectedTemperatures.put("device3", DeviceGroup.TemperatureNotAvailable.INSTANCE);
+        assertEquals(expectedTemperatures, response.getTemperatures());
+    }
 }
@@ -0,0 +1,211 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Status;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.BlockingIo;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.lightbend.akka.sample.iot.ExecutionProfile;
+import com.lightbend.akka.sample.iot.IotSettings;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.lightbend.akka.sample.DeviceFixtures.track;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BlockingIoTest {
+
+    private static final int BLOCKING_CALLS = 10000;
+    private static final int READINGS = 20000;
+
+    private static final FiniteDuration TIMEOUT = FiniteDuration.create(1, TimeUnit.MINUTES);
+
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    public void testResultsAndFailuresArePiped() throws Exception {
+        BlockingIo blockingIo = BlockingIo.get(system);
+        TestKit probe = new TestKit(system);
+        blockingIo.pipe(() -> "done", probe.getRef(), ActorRef.noSender());
+        probe.expectMsgEquals("done");
+        blockingIo.pipe(() -> {
+            throw new IOException("store unavailable");
+        }, probe.getRef(), ActorRef.noSender());
+        assertEquals("store unavailable", probe.expectMsgClass(Status.Failure.class).cause().getMessage());
+        assertEquals(42, (int) blockingIo.call(() -> 42).toCompletableFuture().get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDeviceAnswersExternalCalls() {
+        ActorRef manager = system.actorOf(DeviceManager.props(IotSettings.defaults()));
+        TestKit probe = new TestKit(system);
+        ActorRef device = track(probe, manager, "group", "device");
+
+        device.tell(new Device.CallExternal(1L, () -> "config"), probe.getRef());
+        Device.ExternalCallCompleted completed = probe.expectMsgClass(Device.ExternalCallCompleted.class);
+        assertEquals(1L, completed.getRequestId());
+        assertEquals("device", completed.getDeviceId());
+        assertEquals("config", completed.getResult());
+
+        device.tell(new Device.CallExternal(2L, () -> {
+            throw new IOException("store unavailable");
+        }), probe.getRef());
+        assertTrue(probe.expectMsgClass(Status.Failure.class).cause() instanceof IOException);
+    }
+
+    @Test
+    public void testCallToPassivatingDeviceIsAnsweredByItsNextActor() throws Exception {
+        // Groups get a dispatcher with a single thread, which the test holds while the device passivates
+        ActorSystem passivating = ActorSystem.create("passivating", ConfigFactory.parseString(
+                "iot.management-dispatcher.thread-pool-executor.fixed-pool-size = 1")
+                .withFallback(ConfigFactory.load()));
+        try {
+            ActorRef manager = passivating.actorOf(DeviceManager.props(IotSettings.defaults()
+                    .withExecutionProfile(ExecutionProfile.TIERED)
+                    .withPassivationTimeout(FiniteDuration.create(100, TimeUnit.MILLISECONDS))));
+            TestKit probe = new TestKit(passivating);
+            manager.tell(new DeviceManager.RequestTrackDevice("group", "device"), probe.getRef());
+            probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+            ActorRef device = probe.getLastSender();
+            probe.watch(device);
+
+            CountDownLatch held = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            passivating.dispatchers().lookup("iot.management-dispatcher").execute(() -> {
+                held.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            held.await();
+            // The device asks to be passivated, but its group can't stop it yet
+            Thread.sleep(500);
+            CountDownLatch callReturns = new CountDownLatch(1);
+            device.tell(new Device.CallExternal(1L, () -> {
+                callReturns.await();
+                return "config";
+            }), probe.getRef());
+            release.countDown();
+            probe.expectTerminated(device);
+
+            callReturns.countDown();
+            Device.ExternalCallCompleted completed = probe.expectMsgClass(Device.ExternalCallCompleted.class);
+            assertEquals(1L, completed.getRequestId());
+            assertEquals("config", completed.getResult());
+        } finally {
+            TestKit.shutdownActorSystem(passivating);
+        }
+    }
+
+    @Test
+    public void testRejectedCallIsNotInFlight() {
+        ActorSystem terminated = ActorSystem.create("terminated");
+        BlockingIo blockingIo = BlockingIo.get(terminated);
+        TestKit.shutdownActorSystem(terminated);
+        try {
+            blockingIo.pipe(() -> "late", ActorRef.noSender(), ActorRef.noSender());
+            fail("A call after termination should be rejected");
+        } catch (RejectedExecutionException e) {
+            assertEquals(0, blockingIo.getInFlight());
+        }
+    }
+
+    @Test
+    public void testDevicesKeepRecordingWhileCallsBlock() throws Exception {
+        BlockingIo blockingIo = BlockingIo.get(system);
+        ActorRef manager = system.actorOf(DeviceManager.props(IotSettings.defaults()));
+        TestKit probe = new TestKit(system);
+        ActorRef recording = track(probe, manager, "recording", "device");
+        List<ActorRef> calling = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            calling.add(track(probe, manager, "calling", "device" + i));
+        }
+
+        CountDownLatch release = new CountDownLatch(1);
+        TestKit callers = new TestKit(system);
+        for (int i = 0; i < BLOCKING_CALLS; i++) {
+            calling.get(i % calling.size()).tell(new Device.CallExternal(i, () -> {
+                release.await();
+                return "written";
+            }), callers.getRef());
+        }
+        // Every call has reached BlockingIo, and none could have returned yet
+        callers.awaitAssert(() -> {
+            assertEquals(BLOCKING_CALLS, blockingIo.getInFlight());
+            return null;
+        });
+
+        // A blocked dispatcher would leave these unanswered
+        TestKit recorder = new TestKit(system);
+        for (int i = 0; i < READINGS; i++) {
+            recording.tell(new Device.RecordTemperature(i, 20.0 + i % 3), recorder.getRef());
+        }
+        for (Object reply : recorder.receiveN(READINGS, TIMEOUT)) {
+            assertTrue(reply instanceof Device.TemperatureRecorded);
+        }
+        assertEquals(BLOCKING_CALLS, blockingIo.getInFlight());
+        callers.expectNoMsg(FiniteDuration.create(100, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        for (Object reply : callers.receiveN(BLOCKING_CALLS, TIMEOUT)) {
+            assertTrue(reply instanceof Device.ExternalCallCompleted);
+        }
+        callers.awaitAssert(() -> {
+            assertEquals(0, blockingIo.getInFlight());
+            return null;
+        });
+    }
+
+    @Test
+    public void testPoolFallback() throws Exception {
+        ActorSystem pooled = ActorSystem.create("pooled", ConfigFactory.parseString(
+                "iot.blocking-io.virtual-threads = off\niot.blocking-io.pool-size = 2"));
+        try {
+            BlockingIo blockingIo = BlockingIo.get(pooled);
+            assertFalse(blockingIo.usesVirtualThreads());
+            // More calls than threads queue for the pool rather than failing
+            CountDownLatch release = new CountDownLatch(1);
+            TestKit probe = new TestKit(pooled);
+            for (int i = 0; i < 10; i++) {
+                int call = i;
+                blockingIo.pipe(() -> {
+                    release.await();
+                    return call;
+                }, probe.getRef(), ActorRef.noSender());
+            }
+            assertEquals(10, blockingIo.getInFlight());
+            release.countDown();
+            assertEquals(10, probe.receiveN(10).size());
+        } finally {
+            TestKit.shutdownActorSystem(pooled);
+        }
+    }
+}
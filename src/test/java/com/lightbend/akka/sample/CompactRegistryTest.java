@@ -0,0 +1,101 @@
+package com.lightbend.akka.sample;
+
+import com.lightbend.akka.sample.iot.CompactRegistry;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompactRegistryTest {
+
+    @Test
+    public void testLookupsInBothDirections() {
+        CompactRegistry<Object> registry = new CompactRegistry<>();
+        Object actor1 = new Object();
+        Object actor2 = new Object();
+
+        registry.put("device1", actor1);
+        registry.put("device2", actor2);
+
+        assertEquals(2, registry.size());
+        assertEquals(actor1, registry.get("device1"));
+        assertEquals("device2", registry.idOf(actor2));
+        assertNull(registry.get("device3"));
+        assertNull(registry.idOf(new Object()));
+    }
+
+    @Test
+    public void testIdsWithoutValue() {
+        CompactRegistry<Object> registry = new CompactRegistry<>();
+        Object actor = new Object();
+        registry.put("device1", actor);
+
+        registry.put("device1", null);
+
+        assertTrue(registry.contains("device1"));
+        assertNull(registry.get("device1"));
+        assertNull(registry.idOf(actor));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void testMatchesHashMapsUnderRandomOperations() {
+        CompactRegistry<Object> registry = new CompactRegistry<>();
+        Map<String, Object> idToValue = new HashMap<>();
+        Map<Object, String> valueToId = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int op = 0; op < 200000; op++) {
+            String id = "device-" + random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(idToValue.containsKey(id), registry.remove(id));
+                Object removed = idToValue.remove(id);
+                valueToId.remove(removed);
+            } else {
+                Object value = new Object();
+                Object previous = idToValue.put(id, value);
+                valueToId.remove(previous);
+                valueToId.put(value, id);
+                registry.put(id, value);
+            }
+        }
+
+        assertEquals(idToValue.size(), registry.size());
+        for (Map.Entry<String, Object> entry : idToValue.entrySet()) {
+            assertEquals(entry.getValue(), registry.get(entry.getKey()));
+            assertEquals(entry.getKey(), registry.idOf(entry.getValue()));
+        }
+        for (int i = 0; i < registry.size(); i++) {
+            assertEquals(idToValue.get(registry.idAt(i)), registry.valueAt(i));
+        }
+        assertEquals(idToValue.keySet(), registry.idSnapshot());
+    }
+
+    @Test
+    public void testSnapshotIsUnaffectedByLaterChanges() {
+        CompactRegistry<Object> registry = new CompactRegistry<>();
+        registry.put("device1", new Object());
+        registry.put("device2", new Object());
+
+        Set<String> snapshot = registry.idSnapshot();
+        registry.remove("device1");
+        registry.put("device3", new Object());
+
+        assertEquals(2, snapshot.size());
+        assertTrue(snapshot.contains("device1"));
+        assertFalse(snapshot.contains("device3"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSnapshotIsImmutable() {
+        CompactRegistry<Object> registry = new CompactRegistry<>();
+        registry.idSnapshot().add("device1");
+    }
+}
@@ -0,0 +1,176 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.AlertRule;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceGroup;
+import com.lightbend.akka.sample.iot.IotSettings;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.lightbend.akka.sample.DeviceFixtures.track;
+import static org.junit.Assert.assertEquals;
+
+public class DeviceAlertTest {
+
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    private static void setRules(TestKit probe, ActorRef groupActor, List<AlertRule> rules, TestKit sink) {
+        groupActor.tell(new DeviceGroup.SetAlertRules(1L, rules, sink.getRef()), probe.getRef());
+        probe.expectMsgClass(DeviceGroup.AlertRulesSet.class);
+    }
+
+    private static void record(TestKit probe, ActorRef device, long requestId, double value) {
+        device.tell(new Device.RecordTemperature(requestId, value), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+    }
+
+    private static Device.Alert expectAlert(TestKit sink, String rule, double value) {
+        Device.Alert alert = sink.expectMsgClass(Device.Alert.class);
+        assertEquals(rule, alert.getRule());
+        assertEquals(value, alert.getValue(), 0.0);
+        return alert;
+    }
+
+    private static void expectNoAlert(TestKit sink) {
+        sink.expectNoMsg(FiniteDuration.create(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testThresholdsRaiseOncePerExcursion() {
+        TestKit probe = new TestKit(system);
+        TestKit sink = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+        ActorRef device = track(probe, groupActor, "group", "device");
+        setRules(probe, groupActor, Arrays.asList(
+                AlertRule.above("warm", 25.0),
+                AlertRule.above("hot", 30.0),
+                AlertRule.below("cold", 5.0)), sink);
+
+        record(probe, device, 1L, 20.0);
+        expectNoAlert(sink);
+        record(probe, device, 2L, 26.0);
+        Device.Alert alert = expectAlert(sink, "warm", 26.0);
+        assertEquals("group", alert.getGroupId());
+        assertEquals("device", alert.getDeviceId());
+        // Still warm: nothing new until it gets hot
+        record(probe, device, 3L, 27.0);
+        expectNoAlert(sink);
+        record(probe, device, 4L, 31.0);
+        expectAlert(sink, "hot", 31.0);
+        // Back to normal re-arms both, and a jump raises both at once, lowest threshold first
+        record(probe, device, 5L, 20.0);
+        record(probe, device, 6L, 35.0);
+        expectAlert(sink, "warm", 35.0);
+        expectAlert(sink, "hot", 35.0);
+        record(probe, device, 7L, 4.0);
+        expectAlert(sink, "cold", 4.0);
+        expectNoAlert(sink);
+    }
+
+    @Test
+    public void testConsecutiveReadings() {
+        TestKit probe = new TestKit(system);
+        TestKit sink = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+        ActorRef device = track(probe, groupActor, "group", "device");
+        setRules(probe, groupActor, Collections.singletonList(AlertRule.consecutiveAbove("sustained", 25.0, 3)), sink);
+
+        record(probe, device, 1L, 26.0);
+        record(probe, device, 2L, 27.0);
+        record(probe, device, 3L, 24.0);
+        record(probe, device, 4L, 26.0);
+        record(probe, device, 5L, 26.5);
+        expectNoAlert(sink);
+        record(probe, device, 6L, 27.0);
+        expectAlert(sink, "sustained", 27.0);
+        record(probe, device, 7L, 28.0);
+        expectNoAlert(sink);
+    }
+
+    @Test
+    public void testRateOfChange() throws Exception {
+        TestKit probe = new TestKit(system);
+        TestKit sink = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+        ActorRef device = track(probe, groupActor, "group", "device");
+        setRules(probe, groupActor, Collections.singletonList(AlertRule.rateOfChange("spike", 50.0)), sink);
+
+        record(probe, device, 1L, 20.0);
+        Thread.sleep(100);
+        // At most 1 degree over at least 100 ms
+        record(probe, device, 2L, 21.0);
+        expectNoAlert(sink);
+        Thread.sleep(100);
+        // Falling 20 degrees in a few hundred milliseconds
+        record(probe, device, 3L, 1.0);
+        expectAlert(sink, "spike", 1.0);
+    }
+
+    @Test
+    public void testRulesReachRestartedDevicesAndCanBeRemoved() {
+        TestKit probe = new TestKit(system);
+        TestKit sink = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group", IotSettings.defaults()
+                .withPassivationTimeout(FiniteDuration.create(200, TimeUnit.MILLISECONDS))));
+        ActorRef device = track(probe, groupActor, "group", "device");
+        setRules(probe, groupActor, Collections.singletonList(AlertRule.above("hot", 30.0)), sink);
+
+        probe.watch(device);
+        probe.expectTerminated(device);
+        ActorRef rehydrated = track(probe, groupActor, "group", "device");
+        record(probe, rehydrated, 1L, 31.0);
+        expectAlert(sink, "hot", 31.0);
+        ActorRef other = track(probe, groupActor, "group", "other");
+        record(probe, other, 2L, 32.0);
+        expectAlert(sink, "hot", 32.0);
+
+        setRules(probe, groupActor, Collections.emptyList(), sink);
+        record(probe, other, 3L, 20.0);
+        record(probe, other, 4L, 40.0);
+        expectNoAlert(sink);
+    }
+
+    @Test
+    public void testPassivationKeepsAlertState() {
+        TestKit probe = new TestKit(system);
+        TestKit sink = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group", IotSettings.defaults()
+                .withPassivationTimeout(FiniteDuration.create(200, TimeUnit.MILLISECONDS))));
+        ActorRef device = track(probe, groupActor, "group", "device");
+        setRules(probe, groupActor, Collections.singletonList(AlertRule.above("hot", 30.0)), sink);
+
+        record(probe, device, 1L, 35.0);
+        expectAlert(sink, "hot", 35.0);
+        probe.watch(device);
+        probe.expectTerminated(device);
+
+        // Still hot after passivation, so the rule isn't raised again until it was back to normal
+        ActorRef rehydrated = track(probe, groupActor, "group", "device");
+        record(probe, rehydrated, 2L, 36.0);
+        expectNoAlert(sink);
+        record(probe, rehydrated, 3L, 20.0);
+        record(probe, rehydrated, 4L, 33.0);
+        expectAlert(sink, "hot", 33.0);
+    }
+}
@@ -0,0 +1,164 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.lightbend.akka.sample.iot.IotSettings;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class DeviceDeduplicationTest {
+
+    private static final IotSettings DEDUPLICATED = IotSettings.defaults().withDeduplicatedSenders(8);
+
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    private static void record(TestKit sender, ActorRef device, long requestId, double value) {
+        device.tell(new Device.RecordTemperature(requestId, value), sender.getRef());
+        assertEquals(requestId, sender.expectMsgClass(Device.TemperatureRecorded.class).getRequestId());
+    }
+
+    private static double read(TestKit probe, ActorRef device) {
+        device.tell(new Device.ReadTemperature(0L), probe.getRef());
+        return probe.expectMsgClass(Device.RespondTemperature.class).getValueAsDouble();
+    }
+
+    private static int recorded(TestKit probe, ActorRef device) {
+        device.tell(new Device.ReadAggregate(0L, FiniteDuration.create(1, TimeUnit.MINUTES)), probe.getRef());
+        return probe.expectMsgClass(Device.RespondAggregate.class).getCount();
+    }
+
+    @Test
+    public void testRetriedReadingIsAcknowledgedButNotRecordedAgain() {
+        TestKit probe = new TestKit(system);
+        ActorRef device = system.actorOf(Device.props("group", "device", DEDUPLICATED));
+
+        record(probe, device, 1L, 20.0);
+        record(probe, device, 2L, 30.0);
+        record(probe, device, 2L, 30.0);
+        record(probe, device, 1L, 20.0);
+
+        assertEquals(30.0, read(probe, device), 0.0);
+        assertEquals(2, recorded(probe, device));
+    }
+
+    @Test
+    public void testLateReadingDoesNotReplaceNewerOne() {
+        TestKit probe = new TestKit(system);
+        ActorRef device = system.actorOf(Device.props("group", "device", DEDUPLICATED));
+
+        record(probe, device, 5L, 50.0);
+        record(probe, device, 3L, 30.0);
+        record(probe, device, 4L, 40.0);
+        record(probe, device, 4L, 40.0);
+        assertEquals(50.0, read(probe, device), 0.0);
+        assertEquals(3, recorded(probe, device));
+
+        // Further back than the window can tell: acknowledged and dropped
+        record(probe, device, 200L, 200.0);
+        record(probe, device, 100L, 100.0);
+        assertEquals(200.0, read(probe, device), 0.0);
+        assertEquals(4, recorded(probe, device));
+
+        // A jump past the whole window leaves only the new high-water mark marked as seen
+        record(probe, device, 199L, 199.0);
+        assertEquals(5, recorded(probe, device));
+    }
+
+    @Test
+    public void testSendersAreTrackedSeparately() {
+        TestKit gateway1 = new TestKit(system);
+        TestKit gateway2 = new TestKit(system);
+        ActorRef device = system.actorOf(Device.props("group", "device", DEDUPLICATED));
+
+        record(gateway1, device, 1L, 10.0);
+        record(gateway2, device, 1L, 20.0);
+        assertEquals(20.0, read(gateway1, device), 0.0);
+        record(gateway1, device, 2L, 30.0);
+        record(gateway2, device, 1L, 20.0);
+        assertEquals(30.0, read(gateway1, device), 0.0);
+        assertEquals(3, recorded(gateway1, device));
+    }
+
+    @Test
+    public void testForgottenSenderIsRecordedAgain() {
+        TestKit gateway1 = new TestKit(system);
+        TestKit gateway2 = new TestKit(system);
+        ActorRef device = system.actorOf(Device.props("group", "device", DEDUPLICATED.withDeduplicatedSenders(1)));
+
+        record(gateway1, device, 1L, 10.0);
+        record(gateway2, device, 1L, 20.0);
+        record(gateway1, device, 1L, 10.0);
+        assertEquals(10.0, read(gateway1, device), 0.0);
+        assertEquals(3, recorded(gateway1, device));
+    }
+
+    @Test
+    public void testDeduplicationCanBeDisabled() {
+        TestKit probe = new TestKit(system);
+        ActorRef device = system.actorOf(Device.props("group", "device", IotSettings.defaults()));
+
+        record(probe, device, 2L, 20.0);
+        record(probe, device, 1L, 10.0);
+        record(probe, device, 1L, 10.0);
+        assertEquals(10.0, read(probe, device), 0.0);
+        assertEquals(3, recorded(probe, device));
+    }
+
+    @Test
+    public void testMessagesWithoutSenderAreNotDeduplicated() {
+        TestKit probe = new TestKit(system);
+        ActorRef device = system.actorOf(Device.props("group", "device", DEDUPLICATED));
+
+        device.tell(new Device.RecordTemperature(2L, 20.0), ActorRef.noSender());
+        device.tell(new Device.RecordTemperature(1L, 10.0), ActorRef.noSender());
+        device.tell(new Device.RecordTemperature(1L, 10.0), ActorRef.noSender());
+        assertEquals(10.0, read(probe, device), 0.0);
+        assertEquals(3, recorded(probe, device));
+    }
+
+    @Test
+    public void testRetriedBatchIsAcknowledgedButNotRecordedAgain() {
+        TestKit probe = new TestKit(system);
+        ActorRef manager = system.actorOf(DeviceManager.props(DEDUPLICATED));
+        manager.tell(new DeviceManager.RequestTrackDevice("group", "device"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        ActorRef device = probe.getLastSender();
+
+        DeviceManager.RecordTemperatureBatch batch = new DeviceManager.RecordTemperatureBatch(1L, "group",
+                new String[]{"device", "device"}, new long[]{1L, 2L}, new double[]{10.0, 20.0});
+        for (int attempt = 0; attempt < 2; attempt++) {
+            manager.tell(batch, probe.getRef());
+            assertEquals(2L, probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class).getHighestRequestId(0));
+        }
+        // Only the new reading of a partly retried batch is recorded, and a late one doesn't become the latest
+        manager.tell(new DeviceManager.RecordTemperatureBatch(2L, "group",
+                new String[]{"device", "device"}, new long[]{2L, 4L}, new double[]{20.0, 40.0}), probe.getRef());
+        probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+        manager.tell(new DeviceManager.RecordTemperatureBatch(3L, "group",
+                new String[]{"device"}, new long[]{3L}, new double[]{30.0}), probe.getRef());
+        probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+
+        assertEquals(40.0, read(probe, device), 0.0);
+        assertEquals(4, recorded(probe, device));
+    }
+}
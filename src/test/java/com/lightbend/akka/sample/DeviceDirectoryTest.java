@@ -0,0 +1,166 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.actor.Terminated;
+import akka.testkit.javadsl.TestKit;
+import akka.util.Timeout;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceDirectory;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.lightbend.akka.sample.iot.IotServices;
+import com.lightbend.akka.sample.iot.IotSettings;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.lightbend.akka.sample.DeviceFixtures.track;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceDirectoryTest {
+
+    private static final int RACE_LOOKUPS = 4096;
+
+    private static final Timeout TIMEOUT = Timeout.apply(3, TimeUnit.SECONDS);
+
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    public void testResolvedDeviceIsToldDirectly() throws Exception {
+        DeviceDirectory directory = new DeviceDirectory();
+        ActorRef manager = system.actorOf(DeviceManager.props(IotSettings.defaults(), IotServices.none().withDeviceDirectory(directory)));
+        TestKit probe = new TestKit(system);
+
+        assertNull(directory.lookup("group", "device"));
+        ActorRef device = directory.resolve(manager, "group", "device", TIMEOUT)
+                .toCompletableFuture().get(3, TimeUnit.SECONDS);
+        assertEquals(track(probe, manager, "group", "device"), device);
+        assertEquals(device, directory.lookup("group", "device"));
+        assertNull(directory.lookup("group", "other"));
+        assertNull(directory.lookup("other", "device"));
+
+        device.tell(new Device.RecordTemperature(1L, 21.5), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+        manager.tell(new DeviceManager.RequestTemperature(2L, "group", "device"), probe.getRef());
+        assertEquals(Optional.of(21.5), probe.expectMsgClass(Device.RespondTemperature.class).getValue());
+    }
+
+    @Test
+    public void testStoppedDeviceIsRemoved() {
+        DeviceDirectory directory = new DeviceDirectory();
+        ActorRef manager = system.actorOf(DeviceManager.props(IotSettings.defaults(), IotServices.none().withDeviceDirectory(directory)));
+        TestKit probe = new TestKit(system);
+        ActorRef device = track(probe, manager, "group", "device");
+        track(probe, manager, "group", "other");
+
+        probe.watch(device);
+        device.tell(PoisonPill.getInstance(), ActorRef.noSender());
+        probe.expectTerminated(device);
+        probe.awaitAssert(() -> {
+            assertNull(directory.lookup("group", "device"));
+            return null;
+        });
+        assertNotNull(directory.lookup("group", "other"));
+
+        // Stopping the manager stops the groups, whose devices are never seen terminating by them
+        probe.watch(manager);
+        system.stop(manager);
+        probe.expectTerminated(manager);
+        probe.awaitAssert(() -> {
+            assertEquals(0, directory.size());
+            return null;
+        });
+    }
+
+    @Test
+    public void testPassivatedDeviceIsReplacedByItsSuccessor() {
+        DeviceDirectory directory = new DeviceDirectory();
+        ActorRef manager = system.actorOf(DeviceManager.props(IotSettings.defaults()
+                .withPassivationTimeout(FiniteDuration.create(100, TimeUnit.MILLISECONDS)),
+                IotServices.none().withDeviceDirectory(directory)));
+        TestKit probe = new TestKit(system);
+        ActorRef first = track(probe, manager, "group", "device");
+
+        probe.watch(first);
+        probe.expectTerminated(first);
+        assertNull(directory.lookup("group", "device"));
+
+        ActorRef second = track(probe, manager, "group", "device");
+        assertNotEquals(first, second);
+        assertEquals(second, directory.lookup("group", "device"));
+    }
+
+    // Senders resolve and tell devices directly while the devices keep passivating and being re-created
+    // through the manager. Groups remove a device before asking it to stop, so the directory must never
+    // hand out an actor that has already terminated.
+    @Test
+    public void testLookupsRaceWithPassivation() {
+        DeviceDirectory directory = new DeviceDirectory();
+        ActorRef manager = system.actorOf(DeviceManager.props(IotSettings.defaults()
+                .withPassivationTimeout(FiniteDuration.create(5, TimeUnit.MILLISECONDS)),
+                IotServices.none().withDeviceDirectory(directory)));
+        TestKit probe = new TestKit(system);
+        TestKit watcher = new TestKit(system);
+        Set<ActorRef> seen = new HashSet<>();
+        Set<ActorRef> terminated = new HashSet<>();
+
+        long direct = 0;
+        for (long i = 0; i < RACE_LOOKUPS; i++) {
+            String deviceId = "device" + i % 4;
+            ActorRef device = directory.lookup("group", deviceId);
+            if (device == null) {
+                device = track(probe, manager, "group", deviceId);
+            } else {
+                direct++;
+                // The watcher is told about terminations in order with everything else it receives
+                while (watcher.msgAvailable()) {
+                    terminated.add(watcher.expectMsgClass(Terminated.class).getActor());
+                }
+                assertFalse("looked up " + device + " after it terminated", terminated.contains(device));
+                device.tell(new Device.ReadTemperature(i), probe.getRef());
+                // A device that stops before reading the message doesn't answer, and late answers are skipped
+                Object reply;
+                do {
+                    reply = probe.receiveOne(FiniteDuration.create(100, TimeUnit.MILLISECONDS));
+                } while (reply instanceof Device.RespondTemperature && ((Device.RespondTemperature) reply).getRequestId() != i);
+            }
+            if (seen.add(device)) {
+                watcher.watch(device);
+            }
+            if (i % 64 == 63) {
+                // Let the devices go idle long enough to passivate
+                probe.expectNoMsg(FiniteDuration.create(i % 128 == 127 ? 40 : 4, TimeUnit.MILLISECONDS));
+            }
+        }
+
+        ActorRef running = track(probe, manager, "group", "device0");
+        ActorRef listed = directory.lookup("group", "device0");
+        assertTrue(listed == null || listed.equals(running));
+        assertTrue(direct > 0);
+        // Devices were passivated and re-created along the way
+        assertTrue(seen.size() > 4);
+    }
+}
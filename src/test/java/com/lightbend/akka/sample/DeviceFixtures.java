@@ -0,0 +1,19 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.DeviceManager;
+
+// Registration shared by the tests that need a device to talk to.
+final class DeviceFixtures {
+
+    private DeviceFixtures() {
+    }
+
+    // Registers the device through parent, a manager, shard region or group, and returns the device actor.
+    static ActorRef track(TestKit probe, ActorRef parent, String groupId, String deviceId) {
+        parent.tell(new DeviceManager.RequestTrackDevice(groupId, deviceId), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        return probe.getLastSender();
+    }
+}
@@ -0,0 +1,231 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceGroup;
+import com.lightbend.akka.sample.iot.GroupJournal;
+import com.lightbend.akka.sample.iot.IotSettings;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.lightbend.akka.sample.DeviceFixtures.track;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceGroupJournalTest {
+
+    // Recovery time is measured by GroupJournalBenchmark.
+    private static final int RECOVERY_DEVICES = 10000;
+
+    static ActorSystem system;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create("journal", ConfigFactory.parseString("akka.loglevel = WARNING"));
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    public void testGroupRecoversDevicesAndReadingsAfterRestart() throws IOException {
+        TestKit probe = new TestKit(system);
+        IotSettings settings = IotSettings.defaults().withJournalDirectory(folder.newFolder().toPath());
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group", settings));
+
+        ActorRef device1 = track(probe, groupActor, "group", "device1");
+        track(probe, groupActor, "group", "device2");
+        device1.tell(new Device.RecordTemperature(1L, 24.0), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+        // Devices confirm a reading before their group has it, so wait until it has before stopping it
+        probe.awaitAssert(() -> {
+            groupActor.tell(new DeviceGroup.ReadGroupStats(0L), probe.getRef());
+            assertEquals(1, probe.expectMsgClass(DeviceGroup.RespondGroupStats.class).getReportingCount());
+            return null;
+        });
+        stop(probe, groupActor);
+
+        ActorRef recovered = system.actorOf(DeviceGroup.props("group", settings));
+        recovered.tell(new DeviceGroup.RequestDeviceList(0L), probe.getRef());
+        assertEquals(Stream.of("device1", "device2").collect(Collectors.toSet()),
+                probe.expectMsgClass(DeviceGroup.ReplyDeviceList.class).getDeviceIds());
+
+        recovered.tell(new DeviceGroup.RequestAllTemperatures(1L), probe.getRef());
+        Map<String, DeviceGroup.TemperatureReading> expected = new HashMap<>();
+        expected.put("device1", new DeviceGroup.Temperature(24.0));
+        expected.put("device2", DeviceGroup.TemperatureNotAvailable.INSTANCE);
+        assertEquals(expected, probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class).getTemperatures());
+
+        ActorRef recoveredDevice1 = track(probe, recovered, "group", "device1");
+        recoveredDevice1.tell(new Device.ReadTemperature(2L), probe.getRef());
+        assertEquals(24.0, probe.expectMsgClass(Device.RespondTemperature.class).getValueAsDouble(), 0.0);
+    }
+
+    @Test
+    public void testRecoverFromSnapshotAndLaterJournal() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        GroupJournal journal = GroupJournal.open(directory, "group", 3);
+        journal.tracked("device1");
+        journal.recorded("device1", 20.0, 100L);
+        journal.tracked("device2");
+        assertTrue(journal.isSnapshotDue());
+        GroupJournal.SnapshotWriter snapshot = journal.beginSnapshot();
+        snapshot.write("device1", true, 20.0, 100L);
+        snapshot.write("device2", false, 0.0, 0L);
+        snapshot.commit();
+        assertFalse(journal.isSnapshotDue());
+
+        journal.recorded("device2", 30.0, 200L);
+        journal.tracked("device3");
+        journal.removed("device1");
+        journal.close();
+
+        Map<String, Double> state = recover(directory);
+        Map<String, Double> expected = new HashMap<>();
+        expected.put("device2", 30.0);
+        expected.put("device3", null);
+        assertEquals(expected, state);
+    }
+
+    @Test
+    public void testTornJournalTailIsDropped() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        GroupJournal journal = GroupJournal.open(directory, "group", 1000);
+        journal.tracked("device1");
+        journal.recorded("device1", 20.0, 100L);
+        journal.close();
+
+        // Half a record, as left by a crash in the middle of a write
+        Files.write(directory.resolve("group").resolve("journal.bin"), new byte[]{0, 0, 0, 20, 2, 0},
+                StandardOpenOption.APPEND);
+
+        GroupJournal reopened = GroupJournal.open(directory, "group", 1000);
+        assertEquals(20.0, replay(reopened).get("device1"), 0.0);
+        reopened.recorded("device1", 21.0, 200L);
+        reopened.close();
+
+        assertEquals(21.0, recover(directory).get("device1"), 0.0);
+    }
+
+    @Test
+    public void testGarbageRecordLengthIsDropped() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        GroupJournal journal = GroupJournal.open(directory, "group", 1000);
+        journal.tracked("device1");
+        journal.recorded("device1", 20.0, 100L);
+        journal.close();
+
+        // A length no record can have, which must not be allocated
+        Files.write(directory.resolve("group").resolve("journal.bin"), new byte[]{0x7f, -1, -1, -1, 2, 0, 0, 0},
+                StandardOpenOption.APPEND);
+
+        GroupJournal reopened = GroupJournal.open(directory, "group", 1000);
+        assertEquals(20.0, replay(reopened).get("device1"), 0.0);
+        reopened.close();
+        assertEquals(20.0, recover(directory).get("device1"), 0.0);
+    }
+
+    @Test
+    public void testLargeGroupRecoversFromJournalOrSnapshot() throws IOException {
+        Path journalOnly = folder.newFolder().toPath();
+        writeJournal(journalOnly, Integer.MAX_VALUE);
+        Path snapshotted = folder.newFolder().toPath();
+        writeJournal(snapshotted, RECOVERY_DEVICES);
+
+        for (Path directory : new Path[]{journalOnly, snapshotted}) {
+            Map<String, Double> state = recover(directory);
+            assertEquals(RECOVERY_DEVICES, state.size());
+            assertEquals(2.0, state.get("device-0"), 0.0);
+
+            TestKit probe = new TestKit(system);
+            IotSettings settings = IotSettings.defaults().withJournalDirectory(directory)
+                    .withJournalSnapshotInterval(Integer.MAX_VALUE);
+            ActorRef groupActor = system.actorOf(DeviceGroup.props("group", settings));
+            groupActor.tell(new DeviceGroup.ReadGroupStats(0L), probe.getRef());
+            DeviceGroup.RespondGroupStats stats = probe.expectMsgClass(
+                    FiniteDuration.create(1, TimeUnit.MINUTES), DeviceGroup.RespondGroupStats.class);
+            assertEquals(RECOVERY_DEVICES, stats.getDeviceCount());
+            assertEquals(RECOVERY_DEVICES, stats.getReportingCount());
+            stop(probe, groupActor);
+        }
+    }
+
+    // Tracks every device and records three readings each, snapshotting every snapshotInterval events.
+    private static void writeJournal(Path directory, int snapshotInterval) {
+        GroupJournal journal = GroupJournal.open(directory, "group", snapshotInterval);
+        for (int i = 0; i < RECOVERY_DEVICES; i++) {
+            journal.tracked("device-" + i);
+        }
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < RECOVERY_DEVICES; i++) {
+                journal.recorded("device-" + i, round + i * 0.001, round);
+            }
+        }
+        if (journal.isSnapshotDue()) {
+            GroupJournal.SnapshotWriter snapshot = journal.beginSnapshot();
+            for (int i = 0; i < RECOVERY_DEVICES; i++) {
+                snapshot.write("device-" + i, true, 2 + i * 0.001, 2);
+            }
+            snapshot.commit();
+        }
+        journal.close();
+    }
+
+    private static Map<String, Double> recover(Path directory) {
+        GroupJournal journal = GroupJournal.open(directory, "group", Integer.MAX_VALUE);
+        Map<String, Double> state = replay(journal);
+        journal.close();
+        return state;
+    }
+
+    private static Map<String, Double> replay(GroupJournal journal) {
+        Map<String, Double> state = new HashMap<>();
+        journal.recover(new GroupJournal.Recovery() {
+            @Override
+            public void tracked(String deviceId) {
+                state.put(deviceId, null);
+            }
+
+            @Override
+            public void recorded(String deviceId, double value, long timestamp) {
+                state.put(deviceId, value);
+            }
+
+            @Override
+            public void removed(String deviceId) {
+                state.remove(deviceId);
+            }
+        });
+        return state;
+    }
+
+    private static void stop(TestKit probe, ActorRef actor) {
+        probe.watch(actor);
+        system.stop(actor);
+        probe.expectTerminated(actor);
+    }
+}
@@ -0,0 +1,175 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceGroup;
+import com.lightbend.akka.sample.iot.DeviceGroupQuery;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class DeviceGroupQueryTest {
+
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    public void testReturnTemperatureValueForWorkingDevices() {
+        TestKit requester = new TestKit(system);
+        TestKit device1 = new TestKit(system);
+        TestKit device2 = new TestKit(system);
+
+        ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(
+                actorToDeviceId(device1, device2), 1L, requester.getRef(), new FiniteDuration(3, TimeUnit.SECONDS)));
+
+        assertEquals(1L, device1.expectMsgClass(Device.ReadTemperature.class).getRequestId());
+        assertEquals(1L, device2.expectMsgClass(Device.ReadTemperature.class).getRequestId());
+
+        queryActor.tell(new Device.RespondTemperature(1L, Optional.of(1.0)), device1.getRef());
+        queryActor.tell(new Device.RespondTemperature(1L, Optional.of(2.0)), device2.getRef());
+
+        DeviceGroup.RespondAllTemperatures response = requester.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+        assertEquals(1L, response.getRequestId());
+
+        Map<String, DeviceGroup.TemperatureReading> expectedTemperatures = new HashMap<>();
+        expectedTemperatures.put("device1", new DeviceGroup.Temperature(1.0));
+        expectedTemperatures.put("device2", new DeviceGroup.Temperature(2.0));
+        assertEquals(expectedTemperatures, response.getTemperatures());
+    }
+
+    @Test
+    public void testReturnTemperatureNotAvailableForDevicesWithNoReadings() {
+        TestKit requester = new TestKit(system);
+        TestKit device1 = new TestKit(system);
+        TestKit device2 = new TestKit(system);
+
+        ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(
+                actorToDeviceId(device1, device2), 1L, requester.getRef(), new FiniteDuration(3, TimeUnit.SECONDS)));
+
+        device1.expectMsgClass(Device.ReadTemperature.class);
+        device2.expectMsgClass(Device.ReadTemperature.class);
+
+        queryActor.tell(new Device.RespondTemperature(1L, Optional.empty()), device1.getRef());
+        queryActor.tell(new Device.RespondTemperature(1L, Optional.of(2.0)), device2.getRef());
+
+        DeviceGroup.RespondAllTemperatures response = requester.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+
+        Map<String, DeviceGroup.TemperatureReading> expectedTemperatures = new HashMap<>();
+        expectedTemperatures.put("device1", DeviceGroup.TemperatureNotAvailable.INSTANCE);
+        expectedTemperatures.put("device2", new DeviceGroup.Temperature(2.0));
+        assertEquals(expectedTemperatures, response.getTemperatures());
+    }
+
+    @Test
+    public void testReturnDeviceNotAvailableIfDeviceStopsBeforeAnswering() {
+        TestKit requester = new TestKit(system);
+        TestKit device1 = new TestKit(system);
+        TestKit device2 = new TestKit(system);
+
+        ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(
+                actorToDeviceId(device1, device2), 1L, requester.getRef(), new FiniteDuration(3, TimeUnit.SECONDS)));
+
+        device1.expectMsgClass(Device.ReadTemperature.class);
+        device2.expectMsgClass(Device.ReadTemperature.class);
+
+        queryActor.tell(new Device.RespondTemperature(1L, Optional.of(1.0)), device1.getRef());
+        device2.getRef().tell(PoisonPill.getInstance(), ActorRef.noSender());
+
+        DeviceGroup.RespondAllTemperatures response = requester.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+
+        Map<String, DeviceGroup.TemperatureReading> expectedTemperatures = new HashMap<>();
+        expectedTemperatures.put("device1", new DeviceGroup.Temperature(1.0));
+        expectedTemperatures.put("device2", DeviceGroup.DeviceNotAvailable.INSTANCE);
+        assertEquals(expectedTemperatures, response.getTemperatures());
+    }
+
+    @Test
+    public void testReturnTemperatureReadingEvenIfDeviceStopsAfterAnswering() {
+        TestKit requester = new TestKit(system);
+        TestKit device1 = new TestKit(system);
+        TestKit device2 = new TestKit(system);
+
+        ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(
+                actorToDeviceId(device1, device2), 1L, requester.getRef(), new FiniteDuration(3, TimeUnit.SECONDS)));
+
+        device1.expectMsgClass(Device.ReadTemperature.class);
+        device2.expectMsgClass(Device.ReadTemperature.class);
+
+        queryActor.tell(new Device.RespondTemperature(1L, Optional.of(1.0)), device1.getRef());
+        queryActor.tell(new Device.RespondTemperature(1L, Optional.of(2.0)), device2.getRef());
+        device2.getRef().tell(PoisonPill.getInstance(), ActorRef.noSender());
+
+        DeviceGroup.RespondAllTemperatures response = requester.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+
+        Map<String, DeviceGroup.TemperatureReading> expectedTemperatures = new HashMap<>();
+        expectedTemperatures.put("device1", new DeviceGroup.Temperature(1.0));
+        expectedTemperatures.put("device2", new DeviceGroup.Temperature(2.0));
+        assertEquals(expectedTemperatures, response.getTemperatures());
+    }
+
+    @Test
+    public void testReturnDeviceTimedOutIfDeviceDoesNotAnswerInTime() {
+        TestKit requester = new TestKit(system);
+        TestKit device1 = new TestKit(system);
+        TestKit device2 = new TestKit(system);
+
+        ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(
+                actorToDeviceId(device1, device2), 1L, requester.getRef(), new FiniteDuration(1, TimeUnit.SECONDS)));
+
+        device1.expectMsgClass(Device.ReadTemperature.class);
+        device2.expectMsgClass(Device.ReadTemperature.class);
+
+        queryActor.tell(new Device.RespondTemperature(1L, Optional.of(1.0)), device1.getRef());
+
+        DeviceGroup.RespondAllTemperatures response = requester.expectMsgClass(
+                FiniteDuration.create(5, TimeUnit.SECONDS),
+                DeviceGroup.RespondAllTemperatures.class);
+
+        Map<String, DeviceGroup.TemperatureReading> expectedTemperatures = new HashMap<>();
+        expectedTemperatures.put("device1", new DeviceGroup.Temperature(1.0));
+        expectedTemperatures.put("device2", DeviceGroup.DeviceTimedOut.INSTANCE);
+        assertEquals(expectedTemperatures, response.getTemperatures());
+    }
+
+    @Test
+    public void testReplyImmediatelyForEmptyGroup() {
+        TestKit requester = new TestKit(system);
+
+        system.actorOf(DeviceGroupQuery.props(
+                new HashMap<>(), 1L, requester.getRef(), new FiniteDuration(3, TimeUnit.SECONDS)));
+
+        DeviceGroup.RespondAllTemperatures response = requester.expectMsgClass(
+                FiniteDuration.create(500, TimeUnit.MILLISECONDS),
+                DeviceGroup.RespondAllTemperatures.class);
+        assertEquals(1L, response.getRequestId());
+        assertEquals(new HashMap<>(), response.getTemperatures());
+    }
+
+    private static Map<ActorRef, String> actorToDeviceId(TestKit device1, TestKit device2) {
+        Map<ActorRef, String> actorToDeviceId = new HashMap<>();
+        actorToDeviceId.put(device1.getRef(), "device1");
+        actorToDeviceId.put(device2.getRef(), "device2");
+        return actorToDeviceId;
+    }
+}
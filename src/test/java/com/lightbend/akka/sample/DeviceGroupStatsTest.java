@@ -0,0 +1,139 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceGroup;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.lightbend.akka.sample.iot.IotSettings;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static com.lightbend.akka.sample.DeviceFixtures.track;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceGroupStatsTest {
+
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    public void testStatsOfGroupWithoutReadings() {
+        TestKit probe = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+
+        groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+
+        groupActor.tell(new DeviceGroup.ReadGroupStats(1L), probe.getRef());
+        DeviceGroup.RespondGroupStats stats = probe.expectMsgClass(DeviceGroup.RespondGroupStats.class);
+        assertEquals(1L, stats.getRequestId());
+        assertEquals(1, stats.getDeviceCount());
+        assertEquals(0, stats.getReportingCount());
+        assertTrue(Double.isNaN(stats.getMean()));
+        assertTrue(Double.isNaN(stats.getMax()));
+    }
+
+    @Test
+    public void testStatsFollowRecordedReadings() {
+        TestKit probe = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group", IotSettings.defaults().withStatsThreshold(30.0)));
+
+        ActorRef device1 = track(probe, groupActor, "group", "device1");
+        ActorRef device2 = track(probe, groupActor, "group", "device2");
+        ActorRef device3 = track(probe, groupActor, "group", "device3");
+
+        record(probe, device1, 10.0);
+        record(probe, device2, 40.0);
+        record(probe, device3, 34.0);
+        expectStats(probe, groupActor, 3, 28.0, 40.0, 2);
+
+        // Lowering the maximum has to find the next highest reading
+        record(probe, device2, 20.0);
+        expectStats(probe, groupActor, 3, 64.0 / 3, 34.0, 1);
+
+        probe.watch(device3);
+        device3.tell(PoisonPill.getInstance(), ActorRef.noSender());
+        probe.expectTerminated(device3);
+        expectStats(probe, groupActor, 2, 15.0, 20.0, 0);
+    }
+
+    @Test
+    public void testStatsFollowDevicesAfterRemovalAndIgnoreNaN() {
+        TestKit probe = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group", IotSettings.defaults().withStatsThreshold(30.0)));
+
+        ActorRef device1 = track(probe, groupActor, "group", "device1");
+        ActorRef device2 = track(probe, groupActor, "group", "device2");
+        ActorRef device3 = track(probe, groupActor, "group", "device3");
+        record(probe, device1, 50.0);
+        record(probe, device2, 20.0);
+        record(probe, device3, 40.0);
+        expectStats(probe, groupActor, 3, 110.0 / 3, 50.0, 2);
+
+        // Removing the first device moves the last one into its place
+        probe.watch(device1);
+        device1.tell(PoisonPill.getInstance(), ActorRef.noSender());
+        probe.expectTerminated(device1);
+        expectStats(probe, groupActor, 2, 30.0, 40.0, 1);
+        record(probe, device3, 10.0);
+        expectStats(probe, groupActor, 2, 15.0, 20.0, 0);
+
+        // A NaN reading leaves the device's previous reading in the aggregates
+        record(probe, device2, Double.NaN);
+        record(probe, device3, 12.0);
+        expectStats(probe, groupActor, 2, 16.0, 20.0, 0);
+    }
+
+    @Test
+    public void testStatsIncludeBatchedReadings() {
+        TestKit probe = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group", IotSettings.defaults().withStatsThreshold(30.0)));
+
+        track(probe, groupActor, "group", "device1");
+        track(probe, groupActor, "group", "device2");
+
+        groupActor.tell(new DeviceManager.RecordTemperatureBatch(1L, "group",
+                new String[]{"device1", "device2", "device1"},
+                new long[]{1L, 2L, 3L},
+                new double[]{50.0, 20.0, 31.0}), probe.getRef());
+        probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+
+        expectStats(probe, groupActor, 2, 25.5, 31.0, 1);
+    }
+
+    // Devices acknowledge a repeated requestId without recording it again, so every reading gets its own
+    private static long nextRequestId = 0L;
+
+    private static void record(TestKit probe, ActorRef deviceActor, double value) {
+        deviceActor.tell(new Device.RecordTemperature(nextRequestId++, value), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+    }
+
+    // Updates reach the group asynchronously after the device has acknowledged the reading
+    private static void expectStats(TestKit probe, ActorRef groupActor, int reporting, double mean, double max, int above) {
+        probe.awaitAssert(() -> {
+            groupActor.tell(new DeviceGroup.ReadGroupStats(0L), probe.getRef());
+            DeviceGroup.RespondGroupStats stats = probe.expectMsgClass(DeviceGroup.RespondGroupStats.class);
+            assertEquals(reporting, stats.getReportingCount());
+            assertEquals(mean, stats.getMean(), 1e-9);
+            assertEquals(max, stats.getMax(), 0.0);
+            assertEquals(above, stats.getAboveThresholdCount());
+            return null;
+        });
+    }
+}
@@ -0,0 +1,120 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.Device;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceHistoryTest {
+
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    private static final FiniteDuration ONE_MINUTE = FiniteDuration.create(1, TimeUnit.MINUTES);
+
+    @Test
+    public void testAggregateOfDeviceWithoutReadings() {
+        TestKit probe = new TestKit(system);
+        ActorRef deviceActor = system.actorOf(Device.props("group", "device"));
+
+        deviceActor.tell(new Device.ReadAggregate(1L, ONE_MINUTE), probe.getRef());
+        Device.RespondAggregate aggregate = probe.expectMsgClass(Device.RespondAggregate.class);
+
+        assertEquals(1L, aggregate.getRequestId());
+        assertEquals(0, aggregate.getCount());
+        assertTrue(Double.isNaN(aggregate.getMean()));
+    }
+
+    @Test
+    public void testAggregateOverRecordedReadings() {
+        TestKit probe = new TestKit(system);
+        ActorRef deviceActor = system.actorOf(Device.props("group", "device", 8, ONE_MINUTE));
+
+        double[] readings = {2.0, 4.0, 4.0, 4.0, 5.0, 5.0, 7.0, 9.0};
+        for (int i = 0; i < readings.length; i++) {
+            deviceActor.tell(new Device.RecordTemperature(i, readings[i]), probe.getRef());
+            probe.expectMsgClass(Device.TemperatureRecorded.class);
+        }
+
+        deviceActor.tell(new Device.ReadAggregate(2L, ONE_MINUTE), probe.getRef());
+        Device.RespondAggregate aggregate = probe.expectMsgClass(Device.RespondAggregate.class);
+
+        assertEquals(2L, aggregate.getRequestId());
+        assertEquals(8, aggregate.getCount());
+        assertEquals(2.0, aggregate.getMin(), 0.0);
+        assertEquals(9.0, aggregate.getMax(), 0.0);
+        assertEquals(5.0, aggregate.getMean(), 1e-9);
+        assertEquals(2.0, aggregate.getStddev(), 1e-9);
+    }
+
+    @Test
+    public void testAggregateOnlyKeepsMostRecentReadingsUpToCapacity() {
+        TestKit probe = new TestKit(system);
+        ActorRef deviceActor = system.actorOf(Device.props("group", "device", 3, ONE_MINUTE));
+
+        for (int i = 1; i <= 10; i++) {
+            deviceActor.tell(new Device.RecordTemperature(i, i), probe.getRef());
+            probe.expectMsgClass(Device.TemperatureRecorded.class);
+        }
+
+        deviceActor.tell(new Device.ReadAggregate(3L, ONE_MINUTE), probe.getRef());
+        Device.RespondAggregate aggregate = probe.expectMsgClass(Device.RespondAggregate.class);
+
+        assertEquals(3, aggregate.getCount());
+        assertEquals(8.0, aggregate.getMin(), 0.0);
+        assertEquals(10.0, aggregate.getMax(), 0.0);
+        assertEquals(9.0, aggregate.getMean(), 1e-9);
+    }
+
+    @Test
+    public void testAggregateExcludesReadingsOutsideWindow() throws InterruptedException {
+        TestKit probe = new TestKit(system);
+        ActorRef deviceActor = system.actorOf(Device.props("group", "device", 8, ONE_MINUTE));
+
+        deviceActor.tell(new Device.RecordTemperature(1L, 100.0), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+        Thread.sleep(300);
+        deviceActor.tell(new Device.RecordTemperature(2L, 20.0), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+
+        deviceActor.tell(new Device.ReadAggregate(3L, FiniteDuration.create(200, TimeUnit.MILLISECONDS)), probe.getRef());
+        Device.RespondAggregate aggregate = probe.expectMsgClass(Device.RespondAggregate.class);
+
+        assertEquals(1, aggregate.getCount());
+        assertEquals(20.0, aggregate.getMax(), 0.0);
+    }
+
+    @Test
+    public void testAggregateIncludesBatchedReadings() {
+        TestKit probe = new TestKit(system);
+        ActorRef deviceActor = system.actorOf(Device.props("group", "device", 8, ONE_MINUTE));
+
+        deviceActor.tell(new Device.RecordTemperatureBatch(0L, 0, new long[]{1L, 2L, 3L}, new double[]{1.0, 2.0, 3.0}), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureBatchRecorded.class);
+
+        deviceActor.tell(new Device.ReadAggregate(4L, ONE_MINUTE), probe.getRef());
+        Device.RespondAggregate aggregate = probe.expectMsgClass(Device.RespondAggregate.class);
+
+        assertEquals(3, aggregate.getCount());
+        assertEquals(2.0, aggregate.getMean(), 1e-9);
+    }
+}
@@ -0,0 +1,80 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.lightbend.akka.sample.iot.IotSettings;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceManagerShardingTest {
+
+    // Registration throughput per shard count is measured by RegistrationBenchmark.
+    private static final int DEVICES = 2000;
+    private static final int GROUPS = 200;
+
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create("sharding", ConfigFactory.parseString("akka.loglevel = WARNING"));
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    public void testRegisterDevicesAcrossShards() {
+        TestKit probe = new TestKit(system);
+        ActorRef deviceManager = system.actorOf(DeviceManager.props(IotSettings.defaults().withManagerShards(4)));
+
+        deviceManager.tell(new DeviceManager.RequestTrackDevice("group1", "device1"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        ActorRef device1 = probe.getLastSender();
+
+        deviceManager.tell(new DeviceManager.RequestTrackDevice("group2", "device1"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        ActorRef otherGroupDevice1 = probe.getLastSender();
+        assertNotEquals(device1, otherGroupDevice1);
+
+        // The same group always lands on the same shard, so the same device actor is returned
+        deviceManager.tell(new DeviceManager.RequestTrackDevice("group1", "device1"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        assertEquals(device1, probe.getLastSender());
+
+        deviceManager.tell(new DeviceManager.RecordTemperatureBatch(1L, "group1",
+                new String[]{"device1"}, new long[]{5L}, new double[]{21.0}), probe.getRef());
+        DeviceManager.TemperatureBatchRecorded recorded = probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+        assertEquals(1, recorded.size());
+        assertEquals(5L, recorded.getHighestRequestId(0));
+
+        device1.tell(new Device.ReadTemperature(2L), probe.getRef());
+        assertEquals(21.0, probe.expectMsgClass(Device.RespondTemperature.class).getValueAsDouble(), 0.0);
+    }
+
+    @Test
+    public void testRegistrationStormIsAnsweredByEveryShard() {
+        TestKit probe = new TestKit(system);
+        ActorRef deviceManager = system.actorOf(DeviceManager.props(IotSettings.defaults().withManagerShards(16)));
+        for (int i = 0; i < DEVICES; i++) {
+            deviceManager.tell(new DeviceManager.RequestTrackDevice("group-" + (i % GROUPS), "device-" + i), probe.getRef());
+        }
+        for (Object reply : probe.receiveN(DEVICES, FiniteDuration.create(1, TimeUnit.MINUTES))) {
+            assertTrue(reply instanceof DeviceManager.DeviceRegistered);
+        }
+    }
+}
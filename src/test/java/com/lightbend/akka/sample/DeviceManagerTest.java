@@ -7,11 +7,19 @@ import akka.actor.Terminated;
 import akka.testkit.javadsl.TestKit;
 import com.lightbend.akka.sample.iot.Device;
 import com.lightbend.akka.sample.iot.DeviceManager;
+import com.lightbend.akka.sample.iot.ExecutionProfile;
+import com.lightbend.akka.sample.iot.IotSettings;
+import com.typesafe.config.ConfigFactory;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 
@@ -86,4 +94,96 @@ public class DeviceManagerTest {
         deviceToTerminate.tell(PoisonPill.getInstance(), ActorRef.noSender());
         probe.expectTerminated(deviceToTerminate);
     }
+
+    @Test
+    public void testRecordTemperatureBatch() {
+        TestKit probe = new TestKit(system);
+
+        ActorRef deviceManager = system.actorOf(DeviceManager.props());
+
+        deviceManager.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        ActorRef device1 = probe.getLastSender();
+
+        deviceManager.tell(new DeviceManager.RequestTrackDevice("group", "device2"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        ActorRef device2 = probe.getLastSender();
+
+        deviceManager.tell(new DeviceManager.RecordTemperatureBatch(7L, "group",
+                new String[]{"device1", "device2", "unknown", "device1", "device2"},
+                new long[]{10L, 20L, 30L, 11L, 21L},
+                new double[]{1.0, 2.0, 3.0, 1.5, 2.5}), probe.getRef());
+
+        DeviceManager.TemperatureBatchRecorded recorded = probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+        assertEquals(7L, recorded.getRequestId());
+        Map<String, Long> highestRequestIds = new HashMap<>();
+        for (int i = 0; i < recorded.size(); i++) {
+            highestRequestIds.put(recorded.getDeviceId(i), recorded.getHighestRequestId(i));
+        }
+        Map<String, Long> expected = new HashMap<>();
+        expected.put("device1", 11L);
+        expected.put("device2", 21L);
+        assertEquals(expected, highestRequestIds);
+
+        device1.tell(new Device.ReadTemperature(2L), probe.getRef());
+        assertEquals(Optional.of(1.5), probe.expectMsgClass(Device.RespondTemperature.class).getValue());
+
+        device2.tell(new Device.ReadTemperature(3L), probe.getRef());
+        assertEquals(Optional.of(2.5), probe.expectMsgClass(Device.RespondTemperature.class).getValue());
+    }
+
+    @Test
+    public void testAcknowledgeTemperatureBatchForUnknownGroup() {
+        TestKit probe = new TestKit(system);
+
+        ActorRef deviceManager = system.actorOf(DeviceManager.props());
+        deviceManager.tell(new DeviceManager.RecordTemperatureBatch(8L, "unknown",
+                new String[]{"device1"}, new long[]{1L}, new double[]{1.0}), probe.getRef());
+
+        DeviceManager.TemperatureBatchRecorded recorded = probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+        assertEquals(8L, recorded.getRequestId());
+        assertEquals(0, recorded.size());
+    }
+
+    @Test
+    public void testTemperatureBatchTimesOutForStalledDevice() throws InterruptedException {
+        // Devices get a dispatcher with a single thread, which the test can hold
+        ActorSystem stalled = ActorSystem.create("stalled", ConfigFactory.parseString(
+                "iot.device-dispatcher { executor = thread-pool-executor, thread-pool-executor.fixed-pool-size = 1 }")
+                .withFallback(ConfigFactory.load()));
+        try {
+            TestKit probe = new TestKit(stalled);
+            ActorRef deviceManager = stalled.actorOf(DeviceManager.props(IotSettings.defaults()
+                    .withExecutionProfile(ExecutionProfile.TIERED)
+                    .withQueryTimeout(FiniteDuration.create(300, TimeUnit.MILLISECONDS))));
+            deviceManager.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+            probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+
+            CountDownLatch held = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            stalled.dispatchers().lookup("iot.device-dispatcher").execute(() -> {
+                held.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            held.await();
+            deviceManager.tell(new DeviceManager.RecordTemperatureBatch(9L, "group",
+                    new String[]{"device1"}, new long[]{1L}, new double[]{1.0}), probe.getRef());
+            DeviceManager.TemperatureBatchRecorded recorded = probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+            assertEquals(9L, recorded.getRequestId());
+            assertEquals(0, recorded.size());
+
+            // The device records the batch once it runs again, but the batch was already answered
+            release.countDown();
+            probe.expectNoMsg(FiniteDuration.create(300, TimeUnit.MILLISECONDS));
+            deviceManager.tell(new DeviceManager.RecordTemperatureBatch(10L, "group",
+                    new String[]{"device1"}, new long[]{2L}, new double[]{2.0}), probe.getRef());
+            assertEquals(1, probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class).size());
+        } finally {
+            TestKit.shutdownActorSystem(stalled);
+        }
+    }
 }
@@ -0,0 +1,168 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Source;
+import akka.testkit.javadsl.TestKit;
+import akka.util.ByteString;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceDirectory;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.lightbend.akka.sample.iot.DeviceManifest;
+import com.lightbend.akka.sample.iot.IngestSettings;
+import com.lightbend.akka.sample.iot.IotServices;
+import com.lightbend.akka.sample.iot.IotSettings;
+import com.lightbend.akka.sample.iot.IotSupervisor;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceManifestTest {
+
+    private static final int GROUPS = 200;
+    private static final int DEVICES = 20000;
+
+    private static final FiniteDuration TIMEOUT = FiniteDuration.create(5, TimeUnit.MINUTES);
+
+    static ActorSystem system;
+    static Materializer materializer;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+        materializer = ActorMaterializer.create(system);
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    private static Source<ByteString, ?> lines(String... lines) {
+        return Source.from(Stream.of(lines).map(line -> ByteString.fromString(line + "\n")).collect(Collectors.toList()));
+    }
+
+    private static DeviceManifest.ManifestReport load(Source<ByteString, ?> manifest, ActorRef manager) throws Exception {
+        return DeviceManifest.load(manifest, manager, IngestSettings.defaults(), materializer)
+                .toCompletableFuture().get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testManifestDevicesAreTrackedWithoutActors() throws Exception {
+        DeviceDirectory directory = new DeviceDirectory();
+        ActorRef manager = system.actorOf(DeviceManager.props(IotSettings.defaults(), IotServices.none().withDeviceDirectory(directory)));
+        TestKit probe = new TestKit(system);
+
+        DeviceManifest.ManifestReport report = load(lines(
+                "# groupId,deviceId,lastReading",
+                "group1,device1,21.5",
+                "group1,device2",
+                "",
+                "group2,device3,18.0",
+                "group2",
+                "group2,device4,warm",
+                "group2,device3,19.0"), manager);
+        assertEquals(2, report.getGroups());
+        assertEquals(4, report.getDevices());
+        assertEquals(3, report.getRegistered());
+        assertEquals(2, report.getMalformed());
+        // Every device is dormant until it is first used
+        assertEquals(0, directory.size());
+
+        manager.tell(new DeviceManager.RequestTemperature(1L, "group1", "device1"), probe.getRef());
+        assertEquals(Optional.of(21.5), probe.expectMsgClass(Device.RespondTemperature.class).getValue());
+        manager.tell(new DeviceManager.RequestTemperature(2L, "group1", "device2"), probe.getRef());
+        assertEquals(Optional.empty(), probe.expectMsgClass(Device.RespondTemperature.class).getValue());
+        // The first entry for a device wins
+        manager.tell(new DeviceManager.RequestTemperature(3L, "group2", "device3"), probe.getRef());
+        assertEquals(Optional.of(18.0), probe.expectMsgClass(Device.RespondTemperature.class).getValue());
+        assertEquals(0, directory.size());
+
+        // Tracking a dormant device starts it with its last reading
+        manager.tell(new DeviceManager.RequestTrackDevice("group1", "device1"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        ActorRef device1 = probe.getLastSender();
+        assertEquals(1, directory.size());
+        device1.tell(new Device.ReadTemperature(4L), probe.getRef());
+        assertEquals(Optional.of(21.5), probe.expectMsgClass(Device.RespondTemperature.class).getValue());
+    }
+
+    @Test
+    public void testLoadingTwiceRegistersNothingNew() throws Exception {
+        ActorRef manager = system.actorOf(DeviceManager.props(IotSettings.defaults()));
+        TestKit probe = new TestKit(system);
+        manager.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+
+        assertEquals(1, load(lines("group,device1,20.0", "group,device2,22.0"), manager).getRegistered());
+        assertEquals(0, load(lines("group,device1,20.0", "group,device2,22.0"), manager).getRegistered());
+
+        // A device that was already running keeps its own state
+        manager.tell(new DeviceManager.RequestTemperature(1L, "group", "device1"), probe.getRef());
+        assertEquals(Optional.empty(), probe.expectMsgClass(Device.RespondTemperature.class).getValue());
+        manager.tell(new DeviceManager.RequestTemperature(2L, "group", "device2"), probe.getRef());
+        assertEquals(Optional.of(22.0), probe.expectMsgClass(Device.RespondTemperature.class).getValue());
+    }
+
+    @Test
+    public void testManifestLoadsUnderTheSupervisor() throws Exception {
+        ActorRef supervisor = system.actorOf(IotSupervisor.props(IotSettings.defaults()));
+        TestKit probe = new TestKit(system);
+        supervisor.tell(new IotSupervisor.RequestDeviceManager(1L), probe.getRef());
+        IotSupervisor.RespondDeviceManager response = probe.expectMsgClass(IotSupervisor.RespondDeviceManager.class);
+        assertEquals(1L, response.getRequestId());
+        ActorRef manager = response.getDeviceManager();
+        assertEquals(supervisor.path(), manager.path().parent());
+
+        assertEquals(2, load(lines("group1,device1,20.0", "group2,device2,22.0"), manager).getRegistered());
+        manager.tell(new DeviceManager.RequestTrackDevice("group2", "device2"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        assertTrue(probe.getLastSender().path().toString().startsWith(manager.path().toString() + "/"));
+        probe.getLastSender().tell(new Device.ReadTemperature(2L), probe.getRef());
+        assertEquals(Optional.of(22.0), probe.expectMsgClass(Device.RespondTemperature.class).getValue());
+    }
+
+    @Test
+    public void testLargeManifestRegistersEveryDevice() throws Exception {
+        DeviceManifest.ManifestReport report = loadManifest(GROUPS, DEVICES);
+        assertEquals(GROUPS, report.getGroups());
+        assertEquals(DEVICES, report.getDevices());
+        assertEquals(0, report.getMalformed());
+    }
+
+    private static DeviceManifest.ManifestReport loadManifest(int groups, int devices) throws Exception {
+        ActorRef manager = system.actorOf(DeviceManager.props(IotSettings.defaults()));
+        Iterator<ByteString> manifest = new Iterator<ByteString>() {
+            int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < devices;
+            }
+
+            @Override
+            public ByteString next() {
+                // Listed group by group, as an export of the fleet would be
+                int i = next++;
+                return ByteString.fromString("group" + (long) i * groups / devices + ",device" + i + "," + i % 40 + "\n");
+            }
+        };
+        DeviceManifest.ManifestReport report = load(Source.fromIterator(() -> manifest), manager);
+        assertEquals(devices, report.getRegistered());
+        system.stop(manager);
+        return report;
+    }
+}
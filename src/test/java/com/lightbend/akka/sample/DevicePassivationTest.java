@@ -0,0 +1,135 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceGroup;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.lightbend.akka.sample.iot.IotSettings;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.lightbend.akka.sample.DeviceFixtures.track;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class DevicePassivationTest {
+
+    static ActorSystem system;
+
+    private static final IotSettings PASSIVATING = IotSettings.defaults()
+            .withPassivationTimeout(FiniteDuration.create(200, TimeUnit.MILLISECONDS));
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    public void testIdleDeviceIsPassivatedAndStillListed() {
+        TestKit probe = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group", PASSIVATING));
+
+        ActorRef device1 = track(probe, groupActor, "group", "device1");
+        awaitPassivation(device1);
+
+        groupActor.tell(new DeviceGroup.RequestDeviceList(0L), probe.getRef());
+        DeviceGroup.ReplyDeviceList reply = probe.expectMsgClass(DeviceGroup.ReplyDeviceList.class);
+        assertEquals(Stream.of("device1").collect(Collectors.toSet()), reply.getDeviceIds());
+    }
+
+    @Test
+    public void testPassivatedDeviceIsRecreatedWithLastReading() {
+        TestKit probe = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group", PASSIVATING));
+
+        ActorRef device1 = track(probe, groupActor, "group", "device1");
+        device1.tell(new Device.RecordTemperature(1L, 24.0), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+        awaitPassivation(device1);
+
+        ActorRef rehydrated = track(probe, groupActor, "group", "device1");
+        assertNotEquals(device1, rehydrated);
+
+        rehydrated.tell(new Device.ReadTemperature(2L), probe.getRef());
+        assertEquals(24.0, probe.expectMsgClass(Device.RespondTemperature.class).getValueAsDouble(), 0.0);
+    }
+
+    @Test
+    public void testQueryAnswersPassivatedDevicesFromLastReading() {
+        TestKit probe = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group", PASSIVATING));
+
+        ActorRef device1 = track(probe, groupActor, "group", "device1");
+        ActorRef device2 = track(probe, groupActor, "group", "device2");
+        device1.tell(new Device.RecordTemperature(1L, 18.0), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+        awaitPassivation(device1);
+        awaitPassivation(device2);
+
+        groupActor.tell(new DeviceGroup.RequestAllTemperatures(3L), probe.getRef());
+        DeviceGroup.RespondAllTemperatures response = probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+
+        Map<String, DeviceGroup.TemperatureReading> expectedTemperatures = new HashMap<>();
+        expectedTemperatures.put("device1", new DeviceGroup.Temperature(18.0));
+        expectedTemperatures.put("device2", DeviceGroup.TemperatureNotAvailable.INSTANCE);
+        assertEquals(expectedTemperatures, response.getTemperatures());
+    }
+
+    @Test
+    public void testBatchForPassivatedDeviceRecreatesIt() {
+        TestKit probe = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group", PASSIVATING));
+
+        ActorRef device1 = track(probe, groupActor, "group", "device1");
+        awaitPassivation(device1);
+
+        groupActor.tell(new DeviceManager.RecordTemperatureBatch(4L, "group",
+                new String[]{"device1"}, new long[]{9L}, new double[]{30.0}), probe.getRef());
+        DeviceManager.TemperatureBatchRecorded recorded = probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+        assertEquals(1, recorded.size());
+        assertEquals(9L, recorded.getHighestRequestId(0));
+    }
+
+    @Test
+    public void testStoppedDeviceIsNotTreatedAsPassivated() {
+        TestKit probe = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group", PASSIVATING));
+
+        ActorRef device1 = track(probe, groupActor, "group", "device1");
+        track(probe, groupActor, "group", "device2");
+        probe.watch(device1);
+        device1.tell(PoisonPill.getInstance(), ActorRef.noSender());
+        probe.expectTerminated(device1);
+
+        probe.awaitAssert(() -> {
+            groupActor.tell(new DeviceGroup.RequestDeviceList(5L), probe.getRef());
+            DeviceGroup.ReplyDeviceList reply = probe.expectMsgClass(DeviceGroup.ReplyDeviceList.class);
+            assertEquals(Stream.of("device2").collect(Collectors.toSet()), reply.getDeviceIds());
+            return null;
+        });
+    }
+
+    private static void awaitPassivation(ActorRef deviceActor) {
+        TestKit watcher = new TestKit(system);
+        watcher.watch(deviceActor);
+        watcher.expectTerminated(deviceActor);
+    }
+
+}
@@ -0,0 +1,203 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Address;
+import akka.cluster.Cluster;
+import akka.cluster.MemberStatus;
+import akka.cluster.sharding.ShardRegion;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceGroup;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.lightbend.akka.sample.iot.DeviceSharding;
+import com.lightbend.akka.sample.iot.IotSettings;
+import com.typesafe.config.ConfigFactory;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.StreamSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Every node is an ActorSystem of its own in this JVM, joined to the first one over loopback remoting.
+// The nodes share a system name, so a sender only gets its replies back when it is on the node of the
+// region it sends to: each node has its own probe.
+public class DeviceShardingTest {
+
+    private static final int DEVICES = 3000;
+    private static final int GROUPS = 300;
+
+    private static final FiniteDuration TIMEOUT = FiniteDuration.create(1, TimeUnit.MINUTES);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<ActorSystem> nodes = new ArrayList<>();
+    private final List<ActorRef> regions = new ArrayList<>();
+    private final List<TestKit> probes = new ArrayList<>();
+
+    @After
+    public void teardown() {
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            TestKit.shutdownActorSystem(nodes.get(i));
+        }
+        nodes.clear();
+        regions.clear();
+        probes.clear();
+    }
+
+    // Starts a node with a region, joins it to the cluster and waits until every node is up and known to
+    // the coordinator.
+    private void startNode(IotSettings settings) {
+        ActorSystem node = ActorSystem.create("iot", ConfigFactory.parseString(
+                "akka.loglevel = WARNING\n"
+                        + "akka.actor.provider = cluster\n"
+                        + "akka.actor.warn-about-java-serializer-usage = off\n"
+                        + "akka.remote.netty.tcp.hostname = 127.0.0.1\n"
+                        + "akka.remote.netty.tcp.port = 0\n"
+                        + "akka.cluster.jmx.enabled = off\n"
+                        + "akka.cluster.sharding.rebalance-interval = 1 s\n"
+                        + "iot.sharding.number-of-shards = 30"));
+        Cluster.get(node).join(Cluster.get(nodes.isEmpty() ? node : nodes.get(0)).selfAddress());
+        nodes.add(node);
+        regions.add(DeviceSharding.start(node, settings));
+        probes.add(new TestKit(node));
+
+        TestKit probe = probes.get(probes.size() - 1);
+        probe.awaitAssert(FiniteDuration.create(20, TimeUnit.SECONDS), () -> {
+            for (ActorSystem member : nodes) {
+                assertEquals(nodes.size(), StreamSupport.stream(Cluster.get(member).state().getMembers().spliterator(), false)
+                        .filter(m -> m.status().equals(MemberStatus.up()))
+                        .count());
+            }
+            regions.get(regions.size() - 1).tell(ShardRegion.getCurrentRegionsInstance(), probe.getRef());
+            assertEquals(nodes.size(), probe.expectMsgClass(ShardRegion.CurrentRegions.class).getRegions().size());
+            return null;
+        });
+    }
+
+    // Registers the device through the region of the given node.
+    private ActorRef track(int node, String groupId, String deviceId) {
+        return DeviceFixtures.track(probes.get(node), regions.get(node), groupId, deviceId);
+    }
+
+    // The address of the node that hosts a device, as seen from the given node, whose own actors have refs
+    // without a host.
+    private Address nodeOf(int node, ActorRef device) {
+        Address address = device.path().address();
+        return address.hasGlobalScope() ? address : Cluster.get(nodes.get(node)).selfAddress();
+    }
+
+    @Test
+    public void testGroupsAreSpreadOverNodes() {
+        for (int i = 0; i < 3; i++) {
+            startNode(IotSettings.defaults());
+        }
+
+        Set<Address> hosts = new HashSet<>();
+        for (int group = 0; group < 30; group++) {
+            ActorRef device = track(group % 3, "group" + group, "device");
+            hosts.add(nodeOf(group % 3, device));
+            // Any region finds the same device
+            ActorRef found = track((group + 1) % 3, "group" + group, "device");
+            assertEquals(nodeOf(group % 3, device), nodeOf((group + 1) % 3, found));
+            assertEquals(device.path().toStringWithoutAddress(), found.path().toStringWithoutAddress());
+        }
+        assertEquals(3, hosts.size());
+
+        regions.get(1).tell(new DeviceManager.RecordTemperatureBatch(1L, "group7",
+                new String[]{"device"}, new long[]{1L}, new double[]{21.5}), probes.get(1).getRef());
+        assertEquals(1, probes.get(1).expectMsgClass(DeviceManager.TemperatureBatchRecorded.class).size());
+        regions.get(2).tell(new DeviceManager.RequestTemperature(2L, "group7", "device"), probes.get(2).getRef());
+        assertEquals(21.5, probes.get(2).expectMsgClass(Device.RespondTemperature.class).getValueAsDouble(), 0.0);
+    }
+
+    @Test
+    public void testEveryManagerMessageIsRouted() {
+        for (int i = 0; i < 2; i++) {
+            startNode(IotSettings.defaults());
+        }
+
+        for (int group = 0; group < 10; group++) {
+            TestKit probe = probes.get(group % 2);
+            regions.get(group % 2).tell(new DeviceManager.RegisterDevices(group, "group" + group,
+                    new String[]{"device"}, new double[]{group}), probe.getRef());
+            assertEquals(1, probe.expectMsgClass(DeviceManager.DevicesRegistered.class).getRegistered());
+            probe = probes.get((group + 1) % 2);
+            regions.get((group + 1) % 2).tell(new DeviceManager.ForGroup("group" + group,
+                    new DeviceGroup.RequestAllTemperatures(group)), probe.getRef());
+            assertEquals(new DeviceGroup.Temperature(group), probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class)
+                    .getTemperatures().get("device"));
+        }
+        TestKit subscriber = new TestKit(nodes.get(1));
+        regions.get(1).tell(new DeviceManager.ForGroup("group3", new DeviceGroup.Subscribe(11L, "device")),
+                subscriber.getRef());
+        assertEquals(11L, subscriber.expectMsgClass(DeviceGroup.Subscribed.class).getRequestId());
+        assertEquals(3.0, subscriber.expectMsgClass(DeviceGroup.TemperatureChanged.class).getValue(), 0.0);
+    }
+
+    @Test
+    public void testShardsMoveToJoiningNodes() throws Exception {
+        // Groups recover from the shared journal wherever they move
+        IotSettings settings = IotSettings.defaults().withJournalDirectory(folder.newFolder().toPath());
+        startNode(settings);
+        TestKit probe = probes.get(0);
+        for (int group = 0; group < 60; group++) {
+            track(0, "group" + group, "device");
+            regions.get(0).tell(new DeviceManager.RecordTemperatureBatch(group, "group" + group,
+                    new String[]{"device"}, new long[]{1L}, new double[]{group}), probe.getRef());
+            probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+        }
+
+        startNode(settings);
+        startNode(settings);
+
+        // Shards handed off by the first node are allocated again when their groups are next used
+        probe.awaitAssert(FiniteDuration.create(30, TimeUnit.SECONDS), () -> {
+            Set<Address> hosts = new HashSet<>();
+            for (int group = 0; group < 60; group++) {
+                hosts.add(nodeOf(0, track(0, "group" + group, "device")));
+                regions.get(0).tell(new DeviceManager.RequestTemperature(group, "group" + group, "device"), probe.getRef());
+                assertEquals(group, probe.expectMsgClass(Device.RespondTemperature.class).getValueAsDouble(), 0.0);
+            }
+            assertEquals(3, hosts.size());
+            return null;
+        });
+    }
+
+    @Test
+    public void testEveryRegionRegistersAndReadsDevicesOfEveryShard() {
+        for (int i = 0; i < 3; i++) {
+            startNode(IotSettings.defaults());
+        }
+
+        for (int i = 0; i < DEVICES; i++) {
+            regions.get(i % 3).tell(
+                    new DeviceManager.RequestTrackDevice("group" + i % GROUPS, "device" + i), probes.get(i % 3).getRef());
+        }
+        for (TestKit probe : probes) {
+            for (Object response : probe.receiveN(DEVICES / 3, TIMEOUT)) {
+                assertTrue(response instanceof DeviceManager.DeviceRegistered);
+            }
+        }
+        for (int i = 0; i < DEVICES; i++) {
+            regions.get((i + 1) % 3).tell(new DeviceManager.RequestTemperature(i, "group" + i % GROUPS, "device" + i),
+                    probes.get((i + 1) % 3).getRef());
+        }
+        for (TestKit probe : probes) {
+            for (Object response : probe.receiveN(DEVICES / 3, TIMEOUT)) {
+                assertTrue(response instanceof Device.RespondTemperature);
+            }
+        }
+    }
+}
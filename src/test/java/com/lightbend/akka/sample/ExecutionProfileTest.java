@@ -0,0 +1,126 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceGroup;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.lightbend.akka.sample.iot.ExecutionProfile;
+import com.lightbend.akka.sample.iot.IotSettings;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+public class ExecutionProfileTest {
+
+    static ActorSystem system;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    public void testEveryProfileRunsTheWholeHierarchy() throws IOException {
+        for (ExecutionProfile profile : ExecutionProfile.values()) {
+            TestKit probe = new TestKit(system);
+            IotSettings settings = IotSettings.defaults()
+                    .withExecutionProfile(profile)
+                    .withManagerShards(2)
+                    .withReadingJournalDirectory(folder.newFolder().toPath());
+            ActorRef manager = system.actorOf(DeviceManager.props(settings));
+
+            manager.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+            probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+            ActorRef device1 = probe.getLastSender();
+
+            device1.tell(new Device.RecordTemperature(1L, 20.0), probe.getRef());
+            probe.expectMsgClass(Device.TemperatureRecorded.class);
+            manager.tell(new DeviceManager.RecordTemperatureBatch(2L, "group",
+                    new String[]{"device1"}, new long[]{2L}, new double[]{21.0}), probe.getRef());
+            assertEquals(1, probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class).size());
+
+            system.actorSelection(device1.path().parent()).tell(new DeviceGroup.RequestAllTemperatures(3L), probe.getRef());
+            assertEquals(new DeviceGroup.Temperature(21.0),
+                    probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class).getTemperatures().get("device1"));
+            system.stop(manager);
+        }
+    }
+
+    @Test
+    public void testBoundedProfileRefusesBatchesForABusyDevice() throws InterruptedException {
+        // Devices get a dispatcher with a single thread, which the test can hold while batches queue up
+        ActorSystem bounded = ActorSystem.create("bounded", ConfigFactory.parseString(
+                "iot.bounded-device-batches = 2\n"
+                        + "iot.device-dispatcher { executor = thread-pool-executor, thread-pool-executor.fixed-pool-size = 1 }")
+                .withFallback(ConfigFactory.load()));
+        try {
+            TestKit probe = new TestKit(bounded);
+            ActorRef manager = bounded.actorOf(DeviceManager.props(IotSettings.defaults()
+                    .withExecutionProfile(ExecutionProfile.TIERED_BOUNDED)));
+            manager.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+            probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+            ActorRef device1 = probe.getLastSender();
+
+            CountDownLatch held = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            bounded.dispatchers().lookup("iot.device-dispatcher").execute(() -> {
+                held.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            held.await();
+            for (long requestId = 1L; requestId <= 5L; requestId++) {
+                manager.tell(new DeviceManager.RecordTemperatureBatch(requestId, "group",
+                        new String[]{"device1"}, new long[]{requestId}, new double[]{requestId}), probe.getRef());
+            }
+            // Two batches wait in the device's mailbox, the rest are answered right away without the device
+            Set<Long> refused = new HashSet<>();
+            for (int i = 0; i < 3; i++) {
+                DeviceManager.TemperatureBatchRecorded recorded = probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+                assertEquals(0, recorded.size());
+                refused.add(recorded.getRequestId());
+            }
+            assertEquals(new HashSet<>(Arrays.asList(3L, 4L, 5L)), refused);
+
+            release.countDown();
+            for (int i = 0; i < 2; i++) {
+                assertEquals(1, probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class).size());
+            }
+            device1.tell(new Device.ReadTemperature(6L), probe.getRef());
+            assertEquals(Optional.of(2.0), probe.expectMsgClass(Device.RespondTemperature.class).getValue());
+
+            // With the mailbox drained the device takes batches again
+            manager.tell(new DeviceManager.RecordTemperatureBatch(7L, "group",
+                    new String[]{"device1"}, new long[]{7L}, new double[]{7.0}), probe.getRef());
+            assertEquals(1, probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class).size());
+        } finally {
+            TestKit.shutdownActorSystem(bounded);
+        }
+    }
+}
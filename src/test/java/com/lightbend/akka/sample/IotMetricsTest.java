@@ -0,0 +1,115 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.lightbend.akka.sample.iot.IotMetrics;
+import com.lightbend.akka.sample.iot.IotSettings;
+import com.lightbend.akka.sample.iot.LatencyHistogram;
+import com.lightbend.akka.sample.iot.MetricsReporter;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IotMetricsTest {
+
+    static ActorSystem system;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    public void testHistogramPercentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 10000; micros++) {
+            histogram.record(micros * 1000);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10000, snapshot.getCount());
+        assertEquals(5000500.0, snapshot.getMean(), 0.0);
+        assertEquals(10000000L, snapshot.getMax());
+        assertEquals(5000000.0, snapshot.getValueAtPercentile(50), 5000000.0 * 0.03);
+        assertEquals(9900000.0, snapshot.getValueAtPercentile(99), 9900000.0 * 0.03);
+        assertEquals(0L, new LatencyHistogram().snapshot().getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testActorsReportMessagesAndActiveCounts() {
+        TestKit probe = new TestKit(system);
+        IotSettings settings = IotSettings.defaults().withManagerShards(1).withMetricsEnabled(true);
+        ActorRef manager = system.actorOf(DeviceManager.props(settings));
+        ActorRef reporter = system.actorOf(MetricsReporter.props());
+
+        for (String[] device : new String[][]{{"group1", "device1"}, {"group1", "device2"}, {"group2", "device1"}}) {
+            manager.tell(new DeviceManager.RequestTrackDevice(device[0], device[1]), probe.getRef());
+            probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        }
+        ActorRef device = probe.getLastSender();
+        device.tell(new Device.RecordTemperature(1L, 20.0), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+
+        // The device replies before its processing time is recorded, so the counts may lag slightly
+        probe.awaitAssert(() -> {
+            reporter.tell(new MetricsReporter.ReadMetrics(1L), probe.getRef());
+            IotMetrics.Snapshot snapshot = probe.expectMsgClass(MetricsReporter.RespondMetrics.class).getSnapshot();
+            IotMetrics.TierSnapshot managers = snapshot.getTier(IotMetrics.MANAGER);
+            IotMetrics.TierSnapshot groups = snapshot.getTier(IotMetrics.GROUP);
+            IotMetrics.TierSnapshot devices = snapshot.getTier(IotMetrics.DEVICE);
+            assertEquals(1, managers.getActive());
+            assertEquals(2, groups.getActive());
+            assertEquals(3, devices.getActive());
+            assertEquals(3, managers.getProcessed("DeviceManager.RequestTrackDevice"));
+            assertEquals(3, devices.getProcessed("DeviceManager.RequestTrackDevice"));
+            assertEquals(1, devices.getProcessed("Device.RecordTemperature"));
+            // Only the first message of every device is timed
+            assertEquals(3, devices.getProcessingTime().getCount());
+            assertEquals(3, devices.getMailboxTime().getCount());
+            return null;
+        });
+
+        probe.watch(manager);
+        system.stop(manager);
+        probe.expectTerminated(manager);
+        reporter.tell(new MetricsReporter.ReadMetrics(2L), probe.getRef());
+        IotMetrics.Snapshot snapshot = probe.expectMsgClass(MetricsReporter.RespondMetrics.class).getSnapshot();
+        assertEquals(0, snapshot.getTier(IotMetrics.MANAGER).getActive());
+        assertEquals(0, snapshot.getTier(IotMetrics.GROUP).getActive());
+        assertEquals(0, snapshot.getTier(IotMetrics.DEVICE).getActive());
+    }
+
+    @Test
+    public void testReporterDumpsMetricsToFile() throws IOException {
+        Path dumpFile = folder.newFolder().toPath().resolve("metrics.txt");
+        system.actorOf(MetricsReporter.props(dumpFile, FiniteDuration.create(50, TimeUnit.MILLISECONDS)));
+
+        new TestKit(system).awaitCond(() -> Files.exists(dumpFile));
+        String dump = new String(Files.readAllBytes(dumpFile), StandardCharsets.UTF_8);
+        assertTrue(dump, dump.contains("device.active "));
+        assertTrue(dump, dump.contains("manager.processing-time count="));
+    }
+}
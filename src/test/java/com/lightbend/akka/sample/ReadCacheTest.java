@@ -0,0 +1,189 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import akka.util.Timeout;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceGroup;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.lightbend.akka.sample.iot.IotServices;
+import com.lightbend.akka.sample.iot.IotSettings;
+import com.lightbend.akka.sample.iot.ReadCache;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.lightbend.akka.sample.DeviceFixtures.track;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReadCacheTest {
+
+    private static final Timeout TIMEOUT = Timeout.apply(3, TimeUnit.SECONDS);
+
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    private static void record(TestKit probe, ActorRef device, long requestId, double value) {
+        device.tell(new Device.RecordTemperature(requestId, value), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+    }
+
+    // Devices report to their group after acknowledging, so wait until the group has seen every reading
+    private static void awaitReporting(TestKit probe, ActorRef group, int devices) {
+        probe.awaitAssert(() -> {
+            group.tell(new DeviceGroup.ReadGroupStats(0L), probe.getRef());
+            assertEquals(devices, probe.expectMsgClass(DeviceGroup.RespondGroupStats.class).getReportingCount());
+            return null;
+        });
+    }
+
+    @Test
+    public void testReadsAreAnsweredFromTheCache() throws Exception {
+        ReadCache cache = new ReadCache(100, FiniteDuration.create(10, TimeUnit.SECONDS));
+        ActorRef manager = system.actorOf(DeviceManager.props(IotSettings.defaults(), IotServices.none().withReadCache(cache)));
+        TestKit probe = new TestKit(system);
+        ActorRef device = track(probe, manager, "group", "device");
+
+        assertNull(cache.read("group", "device"));
+        record(probe, device, 1L, 21.5);
+        probe.awaitAssert(() -> {
+            assertNotNull(cache.read("group", "device"));
+            return null;
+        });
+        record(probe, device, 2L, 22.5);
+        probe.awaitAssert(() -> {
+            assertEquals(22.5, cache.read("group", "device").getValue(), 0.0);
+            return null;
+        });
+
+        Device.RespondTemperature response = cache.readTemperature(manager, 42L, "group", "device", TIMEOUT)
+                .toCompletableFuture().get(3, TimeUnit.SECONDS);
+        assertEquals(42L, response.getRequestId());
+        assertEquals(Optional.of(22.5), response.getValue());
+
+        ReadCache.Stats stats = cache.stats();
+        assertTrue(stats.getHits() >= 2);
+        assertTrue(stats.getHitRate() > 0.0);
+        assertEquals(stats.getHits(), stats.getHitLatency().getCount());
+    }
+
+    @Test
+    public void testExpiredReadingFallsBackToTheDevice() throws Exception {
+        ReadCache cache = new ReadCache(100, FiniteDuration.create(200, TimeUnit.MILLISECONDS));
+        ActorRef manager = system.actorOf(DeviceManager.props(IotSettings.defaults(), IotServices.none().withReadCache(cache)));
+        TestKit probe = new TestKit(system);
+        ActorRef device = track(probe, manager, "group", "device");
+        record(probe, device, 1L, 21.5);
+        probe.awaitAssert(() -> {
+            assertNotNull(cache.read("group", "device"));
+            return null;
+        });
+
+        probe.expectNoMsg(FiniteDuration.create(300, TimeUnit.MILLISECONDS));
+        assertNull(cache.read("group", "device"));
+        Device.RespondTemperature response = cache.readTemperature(manager, 7L, "group", "device", TIMEOUT)
+                .toCompletableFuture().get(3, TimeUnit.SECONDS);
+        assertEquals(Optional.of(21.5), response.getValue());
+        assertEquals(1, cache.stats().getExpired());
+        assertEquals(1, cache.stats().getMissLatency().getCount());
+
+        Device.RespondTemperature unknown = cache.readTemperature(manager, 8L, "group", "other", TIMEOUT)
+                .toCompletableFuture().get(3, TimeUnit.SECONDS);
+        assertEquals(Optional.empty(), unknown.getValue());
+        Device.RespondTemperature unknownGroup = cache.readTemperature(manager, 9L, "nogroup", "device", TIMEOUT)
+                .toCompletableFuture().get(3, TimeUnit.SECONDS);
+        assertEquals(Optional.empty(), unknownGroup.getValue());
+    }
+
+    @Test
+    public void testReadsAreNeverStalerThanTheTimeToLive() throws Exception {
+        long timeToLive = 50;
+        ReadCache cache = new ReadCache(100, FiniteDuration.create(timeToLive, TimeUnit.MILLISECONDS));
+        ActorRef manager = system.actorOf(DeviceManager.props(IotSettings.defaults(), IotServices.none().withReadCache(cache)));
+        TestKit probe = new TestKit(system);
+        ActorRef device = track(probe, manager, "group", "device");
+
+        // The writer pauses longer than the time to live now and then, so reads also have to expire
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            for (long i = 0; running.get(); i++) {
+                device.tell(new Device.RecordTemperature(i, i), ActorRef.noSender());
+                try {
+                    Thread.sleep(i % 50 == 49 ? 2 * timeToLive : 1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "cache-writer");
+        writer.start();
+
+        long hits = 0;
+        long misses = 0;
+        double lastValue = -1.0;
+        // Until reads have been served from the cache and have found readings expired a few times each
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (hits < 1000 || misses < 10) {
+            assertTrue("only " + hits + " hits and " + misses + " misses", System.nanoTime() < deadline);
+            // The cache checks the age when it looks the reading up, which is no earlier than this
+            long readAt = System.currentTimeMillis();
+            ReadCache.CachedReading reading = cache.read("group", "device");
+            if (reading == null) {
+                misses++;
+                continue;
+            }
+            hits++;
+            assertTrue("served a reading " + (readAt - reading.getTimestamp()) + " ms old",
+                    readAt - reading.getTimestamp() <= timeToLive);
+            assertTrue("went back from " + lastValue + " to " + reading.getValue(), reading.getValue() >= lastValue);
+            lastValue = reading.getValue();
+        }
+        running.set(false);
+        writer.join();
+    }
+
+    @Test
+    public void testRecentlyReadDevicesSurviveEviction() {
+        ReadCache cache = new ReadCache(2, Duration.create(1, TimeUnit.MINUTES));
+        ActorRef group = system.actorOf(DeviceGroup.props("group", IotSettings.defaults(), IotServices.none().withReadCache(cache)));
+        TestKit probe = new TestKit(system);
+        ActorRef[] devices = new ActorRef[3];
+        for (int i = 0; i < devices.length; i++) {
+            devices[i] = track(probe, group, "group", "device" + i);
+        }
+        record(probe, devices[0], 1L, 1.0);
+        record(probe, devices[1], 1L, 2.0);
+        awaitReporting(probe, group, 2);
+
+        assertNotNull(cache.read("group", "device0"));
+        record(probe, devices[2], 1L, 3.0);
+        awaitReporting(probe, group, 3);
+
+        assertEquals(2, cache.stats().getSize());
+        assertEquals(1, cache.stats().getEvictions());
+        assertNotNull(cache.read("group", "device0"));
+        assertNull(cache.read("group", "device1"));
+        assertNotNull(cache.read("group", "device2"));
+        assertFalse(cache.stats().getHitRate() == 1.0);
+    }
+}
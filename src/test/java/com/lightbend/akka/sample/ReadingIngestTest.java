@@ -0,0 +1,205 @@
+package com.lightbend.akka.sample;
+
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.KillSwitches;
+import akka.stream.Materializer;
+import akka.stream.SharedKillSwitch;
+import akka.stream.javadsl.FileIO;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.Tcp;
+import akka.testkit.javadsl.TestKit;
+import akka.util.ByteString;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.lightbend.akka.sample.iot.IngestSettings;
+import com.lightbend.akka.sample.iot.IotSettings;
+import com.lightbend.akka.sample.iot.ReadingIngest;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReadingIngestTest {
+
+    private static final int READINGS = 50000;
+
+    static ActorSystem system;
+    static Materializer materializer;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create("ingest", ConfigFactory.parseString("akka.loglevel = WARNING"));
+        materializer = ActorMaterializer.create(system);
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    private static String line(int reading, int groups, int devices) {
+        return "group" + reading % groups + ",device" + reading % devices + "," + reading + "\n";
+    }
+
+    private static double readTemperature(ActorRef manager, String groupId, String deviceId) {
+        TestKit probe = new TestKit(system);
+        manager.tell(new DeviceManager.RequestTrackDevice(groupId, deviceId), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        probe.getLastSender().tell(new Device.ReadTemperature(1L), probe.getRef());
+        return probe.expectMsgClass(Device.RespondTemperature.class).getValue().get();
+    }
+
+    @Test
+    public void testIngestsFileIntoDevices() throws Exception {
+        Path file = folder.newFile("readings.csv").toPath();
+        StringBuilder lines = new StringBuilder("# groupId,deviceId,value\n\n");
+        for (int i = 0; i < 3000; i++) {
+            lines.append(line(i, 3, 30));
+            if (i == 1500) {
+                lines.append("group0,device0\nnot a reading\n");
+            }
+        }
+        Files.write(file, lines.toString().getBytes(StandardCharsets.UTF_8));
+        ActorRef manager = system.actorOf(DeviceManager.props(IotSettings.defaults().withManagerShards(2)));
+
+        ReadingIngest.IngestReport report = ReadingIngest.run(FileIO.fromPath(file), manager,
+                IngestSettings.defaults().withBatchSize(256), materializer).toCompletableFuture().get(30, TimeUnit.SECONDS);
+
+        assertEquals(3000, report.getReadings());
+        assertEquals(3000, report.getRecorded());
+        assertEquals(2, report.getMalformed());
+        // Readings of a device are delivered in order, so each one ends with its last line
+        assertEquals(2970.0, readTemperature(manager, "group0", "device0"), 0.0);
+        assertEquals(2999.0, readTemperature(manager, "group2", "device29"), 0.0);
+        assertEquals(2986.0, readTemperature(manager, "group1", "device16"), 0.0);
+    }
+
+    @Test
+    public void testUnacknowledgedBatchesStopTheSource() {
+        TestKit manager = new TestKit(system);
+        AtomicLong pulled = new AtomicLong();
+        SharedKillSwitch killSwitch = KillSwitches.shared("overload");
+        Source<ByteString, NotUsed> endless = Source.repeat(ByteString.fromString("group,device,21.5\n"))
+                .map(bytes -> {
+                    pulled.incrementAndGet();
+                    return bytes;
+                })
+                .via(killSwitch.flow());
+        IngestSettings settings = IngestSettings.defaults()
+                .withBatchSize(100)
+                .withParallelism(2)
+                .withBatchDelay(FiniteDuration.create(10, TimeUnit.MILLISECONDS))
+                .withAckTimeout(FiniteDuration.create(1, TimeUnit.SECONDS));
+        ReadingIngest.run(endless, manager.getRef(), settings, materializer);
+
+        manager.expectMsgClass(DeviceManager.RequestTrackDevice.class);
+        ActorRef registration = manager.getLastSender();
+        DeviceManager.RecordTemperatureBatch first = manager.expectMsgClass(DeviceManager.RecordTemperatureBatch.class);
+        ActorRef firstAck = manager.getLastSender();
+        manager.expectMsgClass(DeviceManager.RecordTemperatureBatch.class);
+
+        // Two batches are unacknowledged, so nothing more is sent and the source is no longer read
+        manager.expectNoMsg(FiniteDuration.create(300, TimeUnit.MILLISECONDS));
+        long stalled = pulled.get();
+        assertTrue("read " + stalled + " lines", stalled <= 1000);
+        manager.expectNoMsg(FiniteDuration.create(200, TimeUnit.MILLISECONDS));
+        assertEquals(stalled, pulled.get());
+
+        registration.tell(new DeviceManager.DeviceRegistered(), ActorRef.noSender());
+        firstAck.tell(new DeviceManager.TemperatureBatchRecorded(first.getRequestId(),
+                new String[]{"device"}, new long[]{first.getRequestId(first.size() - 1)}), ActorRef.noSender());
+        manager.expectMsgClass(DeviceManager.RecordTemperatureBatch.class);
+        assertTrue(pulled.get() > stalled);
+        killSwitch.shutdown();
+    }
+
+    @Test
+    public void testForgottenDeviceIsRegisteredAgain() {
+        TestKit manager = new TestKit(system);
+        IngestSettings settings = IngestSettings.defaults()
+                .withBatchSize(1)
+                .withParallelism(1)
+                .withTrackedDevices(1);
+        ReadingIngest.run(Source.from(Arrays.asList(
+                ByteString.fromString("group,device1,1\n"),
+                ByteString.fromString("group,device2,2\n"),
+                ByteString.fromString("group,device1,3\n"))), manager.getRef(), settings, materializer);
+
+        // Only device2 is remembered once it has been registered, so device1 is registered a second time
+        for (String deviceId : new String[]{"device1", "device2", "device1"}) {
+            assertEquals(deviceId, manager.expectMsgClass(DeviceManager.RequestTrackDevice.class).getDeviceId());
+            manager.getLastSender().tell(new DeviceManager.DeviceRegistered(), ActorRef.noSender());
+            DeviceManager.RecordTemperatureBatch batch = manager.expectMsgClass(DeviceManager.RecordTemperatureBatch.class);
+            manager.getLastSender().tell(new DeviceManager.TemperatureBatchRecorded(batch.getRequestId(),
+                    new String[]{deviceId}, new long[]{batch.getRequestId(0)}), ActorRef.noSender());
+        }
+        manager.expectNoMsg(FiniteDuration.create(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testTcpConnectionIsAcknowledgedPerBatch() throws Exception {
+        ActorRef manager = system.actorOf(DeviceManager.props(IotSettings.defaults().withManagerShards(2)));
+        Tcp.ServerBinding binding = ReadingIngest.bind(system, manager, IngestSettings.defaults().withBatchSize(100),
+                "localhost", 0, materializer).toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+        int recorded = 0;
+        int readings = 0;
+        try (Socket socket = new Socket("localhost", binding.localAddress().getPort())) {
+            OutputStream out = socket.getOutputStream();
+            for (int i = 0; i < 1000; i++) {
+                out.write(line(i, 4, 40).getBytes(StandardCharsets.UTF_8));
+            }
+            out.flush();
+            socket.shutdownOutput();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String ack;
+            while ((ack = in.readLine()) != null) {
+                String[] counts = ack.split(" ")[1].split("/");
+                recorded += Integer.parseInt(counts[0]);
+                readings += Integer.parseInt(counts[1]);
+            }
+        }
+        binding.unbind();
+
+        assertEquals(1000, readings);
+        assertEquals(1000, recorded);
+        assertEquals(999.0, readTemperature(manager, "group3", "device39"), 0.0);
+    }
+
+    @Test
+    public void testIngestsEveryReadingOfALongStream() throws Exception {
+        ActorRef manager = system.actorOf(DeviceManager.props(IotSettings.defaults()));
+        Source<ByteString, NotUsed> lines = Source.range(0, READINGS - 1)
+                .map(i -> ByteString.fromString(line(i, 10, 1000)));
+
+        ReadingIngest.IngestReport report = ReadingIngest.run(lines, manager, IngestSettings.defaults(), materializer)
+                .toCompletableFuture().get(5, TimeUnit.MINUTES);
+
+        assertEquals(READINGS, report.getReadings());
+        assertEquals(READINGS, report.getRecorded());
+    }
+}
@@ -0,0 +1,183 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.lightbend.akka.sample.iot.IotSettings;
+import com.lightbend.akka.sample.iot.ReadingJournal;
+import com.lightbend.akka.sample.iot.ReadingJournalWriter;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReadingJournalTest {
+
+    // Append and scan throughput are measured by ReadingJournalBenchmark.
+    private static final int RECORDS = 100000;
+
+    static ActorSystem system;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create("reading-journal", ConfigFactory.parseString("akka.loglevel = WARNING"));
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    public void testScanReturnsCommittedRecordsAcrossSegments() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        ReadingJournal journal = ReadingJournal.open(directory, 4);
+        for (int i = 0; i < 10; i++) {
+            journal.append(7L, i, 1000L + i, i * 0.5);
+        }
+        journal.commit();
+
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(3, files.count());
+        }
+        List<long[]> records = scan(directory);
+        assertEquals(10, records.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(7L, records.get(i)[0]);
+            assertEquals(i, records.get(i)[1]);
+            assertEquals(1000L + i, records.get(i)[2]);
+            assertEquals(i * 0.5, Double.longBitsToDouble(records.get(i)[3]), 0.0);
+        }
+        journal.close();
+    }
+
+    @Test
+    public void testUncommittedRecordsAreNotScannedAndOverwrittenOnReopen() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        ReadingJournal journal = ReadingJournal.open(directory, 100);
+        journal.append(1L, 1L, 10L, 1.0);
+        journal.commit();
+        journal.append(1L, 2L, 20L, 2.0);
+        assertEquals(1, scan(directory).size());
+
+        // Reopening without a commit, as after a crash, continues after the last committed record
+        ReadingJournal reopened = ReadingJournal.open(directory, 100);
+        assertEquals(1L, reopened.nextSequence());
+        reopened.append(1L, 3L, 30L, 3.0);
+        reopened.close();
+
+        List<long[]> records = scan(directory);
+        assertEquals(2, records.size());
+        assertEquals(3L, records.get(1)[1]);
+    }
+
+    @Test
+    public void testHeaderlessLastSegmentIsStartedAgain() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        ReadingJournal journal = ReadingJournal.open(directory, 2);
+        journal.append(1L, 1L, 10L, 1.0);
+        journal.append(1L, 2L, 20L, 2.0);
+        journal.close();
+
+        // The next segment was created, but a crash kept its header from reaching the disk
+        Files.write(directory.resolve(String.format("%020d.segment", 2)), new byte[64]);
+        assertEquals(2, scan(directory).size());
+
+        ReadingJournal reopened = ReadingJournal.open(directory, 2);
+        assertEquals(2L, reopened.nextSequence());
+        reopened.append(1L, 3L, 30L, 3.0);
+        reopened.close();
+
+        List<long[]> records = scan(directory);
+        assertEquals(3, records.size());
+        assertEquals(3L, records.get(2)[1]);
+    }
+
+    @Test
+    public void testDevicesJournalEveryRecordedReading() throws IOException {
+        TestKit probe = new TestKit(system);
+        Path directory = folder.newFolder().toPath();
+        IotSettings settings = IotSettings.defaults().withManagerShards(1).withReadingJournalDirectory(directory);
+        ActorRef manager = system.actorOf(DeviceManager.props(settings), "manager");
+
+        manager.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        ActorRef device1 = probe.getLastSender();
+        device1.tell(new Device.RecordTemperature(1L, 21.5), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+        manager.tell(new DeviceManager.RecordTemperatureBatch(2L, "group",
+                new String[]{"device1", "device1"}, new long[]{2L, 3L}, new double[]{22.0, 22.5}), probe.getRef());
+        probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+
+        // The device has sent its readings to the writer before acknowledging them
+        ActorRef writer = system.actorSelection(manager.path().child("reading-journal"))
+                .resolveOneCS(FiniteDuration.create(3, TimeUnit.SECONDS)).toCompletableFuture().join();
+        writer.tell(new ReadingJournalWriter.Commit(0L), probe.getRef());
+        assertEquals(3L, probe.expectMsgClass(ReadingJournalWriter.Committed.class).getNextSequence());
+
+        List<long[]> records = scan(directory.resolve("manager"));
+        long deviceHash = ReadingJournal.deviceHash("group", "device1");
+        assertEquals(3, records.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(deviceHash, records.get(i)[0]);
+            assertEquals(i + 1L, records.get(i)[1]);
+        }
+        assertEquals(22.5, Double.longBitsToDouble(records.get(2)[3]), 0.0);
+        system.stop(manager);
+    }
+
+    @Test
+    public void testWriterCommitsSingleAndBatchedAppendsAcrossSegments() {
+        Path directory = folder.getRoot().toPath().resolve("writer");
+        TestKit probe = new TestKit(system);
+        ActorRef writer = system.actorOf(ReadingJournalWriter.props(directory, 1 << 14));
+        appendThroughWriter(probe, writer, 1);
+        appendThroughWriter(probe, writer, 100);
+        writer.tell(new ReadingJournalWriter.Commit(1L), probe.getRef());
+        assertEquals(2L * RECORDS, probe.expectMsgClass(ReadingJournalWriter.Committed.class).getNextSequence());
+        system.stop(writer);
+
+        assertEquals(2L * RECORDS, ReadingJournal.scan(directory, (deviceHash, requestId, timestamp, value) -> { }));
+    }
+
+    private static void appendThroughWriter(TestKit probe, ActorRef writer, int batchSize) {
+        for (int i = 0; i < RECORDS; i += batchSize) {
+            if (batchSize == 1) {
+                writer.tell(new ReadingJournalWriter.Append(i & 1023, i, i, i), ActorRef.noSender());
+            } else {
+                long[] requestIds = new long[batchSize];
+                double[] values = new double[batchSize];
+                writer.tell(new ReadingJournalWriter.AppendBatch(i & 1023, i, requestIds, values), ActorRef.noSender());
+            }
+        }
+        writer.tell(new ReadingJournalWriter.Commit(0L), probe.getRef());
+        probe.expectMsgClass(FiniteDuration.create(1, TimeUnit.MINUTES), ReadingJournalWriter.Committed.class);
+    }
+
+    // Each record as {deviceHash, requestId, timestamp, value bits}.
+    private static List<long[]> scan(Path directory) {
+        List<long[]> records = new ArrayList<>();
+        ReadingJournal.scan(directory, (deviceHash, requestId, timestamp, value) ->
+                records.add(new long[]{deviceHash, requestId, timestamp, Double.doubleToLongBits(value)}));
+        return records;
+    }
+}
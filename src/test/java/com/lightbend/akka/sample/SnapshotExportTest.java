@@ -0,0 +1,241 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Status;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Source;
+import akka.testkit.javadsl.TestKit;
+import akka.util.ByteString;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.lightbend.akka.sample.iot.DeviceManifest;
+import com.lightbend.akka.sample.iot.IngestSettings;
+import com.lightbend.akka.sample.iot.IotSettings;
+import com.lightbend.akka.sample.iot.SnapshotFile;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.lightbend.akka.sample.DeviceFixtures.track;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotExportTest {
+
+    private static final int GROUPS = 500;
+    private static final int DEVICES = 50000;
+
+    private static final FiniteDuration TIMEOUT = FiniteDuration.create(10, TimeUnit.MINUTES);
+
+    static ActorSystem system;
+    static Materializer materializer;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+        materializer = ActorMaterializer.create(system);
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    private static DeviceManager.SnapshotExported export(ActorRef manager, Path file) {
+        TestKit probe = new TestKit(system);
+        manager.tell(new DeviceManager.ExportSnapshot(1L, file), probe.getRef());
+        return probe.expectMsgClass(TIMEOUT, DeviceManager.SnapshotExported.class);
+    }
+
+    // groupId/deviceId to the value read back, NaN for devices without a reading.
+    private static Map<String, Double> readBack(Path file) throws IOException {
+        Map<String, Double> values = new HashMap<>();
+        try (SnapshotFile.Reader reader = SnapshotFile.open(file)) {
+            while (reader.nextBlock()) {
+                for (int i = 0; i < reader.getBlockSize(); i++) {
+                    if (reader.getTimestamp(i) != 0) {
+                        assertTrue(reader.hasValue(i));
+                    }
+                    values.put(reader.getGroupId(i) + "/" + reader.getDeviceId(i), reader.getValue(i));
+                }
+            }
+            assertEquals(values.size(), reader.getTotalDevices());
+        }
+        return values;
+    }
+
+    @Test
+    public void testSnapshotHoldsTheLastReadingOfEveryDevice() throws Exception {
+        ActorRef manager = system.actorOf(DeviceManager.props(IotSettings.defaults()));
+        TestKit probe = new TestKit(system);
+        ActorRef device1 = track(probe, manager, "group1", "device1");
+        track(probe, manager, "group1", "device2");
+        ActorRef device3 = track(probe, manager, "group2", "device1");
+        device1.tell(new Device.RecordTemperature(1L, 20.0), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+        device1.tell(new Device.RecordTemperature(2L, 21.5), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+        device3.tell(new Device.RecordTemperature(3L, -4.0), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+        // A dormant device is exported from the reading it was registered with, which has no timestamp
+        manager.tell(new DeviceManager.RegisterDevices(4L, "group3", new String[]{"device9"}, new double[]{17.0}),
+                probe.getRef());
+        probe.expectMsgClass(DeviceManager.DevicesRegistered.class);
+
+        Path file = folder.getRoot().toPath().resolve("devices.snapshot");
+        // Devices confirm a reading before their group has it
+        probe.awaitAssert(() -> {
+            DeviceManager.SnapshotExported exported = export(manager, file);
+            assertEquals(3, exported.getGroups());
+            assertEquals(4, exported.getDevices());
+            try {
+                assertEquals(Files.size(file), exported.getBytes());
+                Map<String, Double> values = readBack(file);
+                assertEquals(4, values.size());
+                assertEquals(21.5, values.get("group1/device1"), 0.0);
+                assertTrue(Double.isNaN(values.get("group1/device2")));
+                assertEquals(-4.0, values.get("group2/device1"), 0.0);
+                assertEquals(17.0, values.get("group3/device9"), 0.0);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            return null;
+        });
+        assertFalse(Files.exists(file.resolveSibling("devices.snapshot.tmp")));
+        try (SnapshotFile.Reader reader = SnapshotFile.open(file)) {
+            while (reader.nextBlock()) {
+                for (int i = 0; i < reader.getBlockSize(); i++) {
+                    assertEquals(reader.getGroupId(i).equals("group3") || !reader.hasValue(i),
+                            reader.getTimestamp(i) == 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSnapshotCoversEveryShard() {
+        ActorRef manager = system.actorOf(DeviceManager.props(IotSettings.defaults().withManagerShards(4)));
+        TestKit probe = new TestKit(system);
+        for (int g = 0; g < 20; g++) {
+            ActorRef device = track(probe, manager, "group" + g, "device");
+            device.tell(new Device.RecordTemperature(g, g), probe.getRef());
+            probe.expectMsgClass(Device.TemperatureRecorded.class);
+        }
+
+        Path file = folder.getRoot().toPath().resolve("sharded.snapshot");
+        // Devices confirm a reading before their group has it, so wait until all 20 have arrived
+        probe.awaitAssert(() -> {
+            assertEquals(20, export(manager, file).getGroups());
+            try {
+                Map<String, Double> values = readBack(file);
+                for (int g = 0; g < 20; g++) {
+                    assertEquals(g, values.get("group" + g + "/device"), 0.0);
+                }
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            return null;
+        });
+    }
+
+    @Test
+    public void testUnwritableTargetFails() {
+        ActorRef manager = system.actorOf(DeviceManager.props(IotSettings.defaults()));
+        TestKit probe = new TestKit(system);
+        manager.tell(new DeviceManager.ExportSnapshot(1L, folder.getRoot().toPath().resolve("missing/devices.snapshot")),
+                probe.getRef());
+        assertTrue(probe.expectMsgClass(Status.Failure.class).cause() instanceof IOException);
+    }
+
+    @Test
+    public void testGroupThatDoesNotAnswerIsLeftOut() throws Exception {
+        // Journaled groups get a dispatcher with a single thread, which the test holds
+        ActorSystem stalled = ActorSystem.create("stalled", ConfigFactory.parseString(
+                "iot.group-journal-dispatcher.thread-pool-executor.fixed-pool-size = 1")
+                .withFallback(ConfigFactory.load()));
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            ActorRef manager = stalled.actorOf(DeviceManager.props(IotSettings.defaults()
+                    .withJournalDirectory(folder.newFolder().toPath())
+                    .withQueryTimeout(FiniteDuration.create(300, TimeUnit.MILLISECONDS))));
+            TestKit probe = new TestKit(stalled);
+            manager.tell(new DeviceManager.RequestTrackDevice("group", "device"), probe.getRef());
+            probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+
+            CountDownLatch held = new CountDownLatch(1);
+            stalled.dispatchers().lookup("iot.group-journal-dispatcher").execute(() -> {
+                held.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            held.await();
+            manager.tell(new DeviceManager.ExportSnapshot(1L, folder.getRoot().toPath().resolve("stalled.snapshot")),
+                    probe.getRef());
+            DeviceManager.SnapshotExported exported = probe.expectMsgClass(DeviceManager.SnapshotExported.class);
+            assertEquals(0, exported.getGroups());
+            assertEquals(0, exported.getDevices());
+        } finally {
+            release.countDown();
+            TestKit.shutdownActorSystem(stalled);
+        }
+    }
+
+    @Test
+    public void testLargeFleetIsExportedInFull() throws Exception {
+        ActorRef manager = system.actorOf(DeviceManager.props(IotSettings.defaults()));
+        Iterator<ByteString> manifest = new Iterator<ByteString>() {
+            int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < DEVICES;
+            }
+
+            @Override
+            public ByteString next() {
+                int i = next++;
+                return ByteString.fromString("group" + (long) i * GROUPS / DEVICES + ",device" + i + "," + i % 40 + "\n");
+            }
+        };
+        DeviceManifest.load(Source.fromIterator(() -> manifest), manager, IngestSettings.defaults(), materializer)
+                .toCompletableFuture().get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+
+        Path file = folder.getRoot().toPath().resolve("fleet.snapshot");
+        DeviceManager.SnapshotExported exported = export(manager, file);
+        assertEquals(GROUPS, exported.getGroups());
+        assertEquals(DEVICES, exported.getDevices());
+        assertEquals(Files.size(file), exported.getBytes());
+
+        long devices = 0;
+        try (SnapshotFile.Reader reader = SnapshotFile.open(file)) {
+            while (reader.nextBlock()) {
+                devices += reader.getBlockSize();
+            }
+            assertEquals(DEVICES, reader.getTotalDevices());
+        }
+        assertEquals(DEVICES, devices);
+    }
+}
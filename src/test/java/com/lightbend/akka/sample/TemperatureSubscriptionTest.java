@@ -0,0 +1,192 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceGroup;
+import com.lightbend.akka.sample.iot.IotSettings;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.lightbend.akka.sample.DeviceFixtures.track;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class TemperatureSubscriptionTest {
+
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    private static void record(TestKit probe, ActorRef device, long requestId, double value) {
+        device.tell(new Device.RecordTemperature(requestId, value), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+    }
+
+    private static long subscribe(TestKit subscriber, ActorRef groupActor, DeviceGroup.Subscribe subscribe) {
+        groupActor.tell(subscribe, subscriber.getRef());
+        return subscriber.expectMsgClass(DeviceGroup.Subscribed.class).getSubscriptionId();
+    }
+
+    private static DeviceGroup.TemperatureChanged expectChange(TestKit subscriber, String deviceId, double value) {
+        DeviceGroup.TemperatureChanged changed = subscriber.expectMsgClass(DeviceGroup.TemperatureChanged.class);
+        assertEquals(deviceId, changed.getDeviceId());
+        assertEquals(value, changed.getValue(), 0.0);
+        return changed;
+    }
+
+    // The group has seen every reading once its stats reflect them.
+    private static void awaitGroupMean(TestKit probe, ActorRef groupActor, int reporting, double mean) {
+        probe.awaitAssert(() -> {
+            groupActor.tell(new DeviceGroup.ReadGroupStats(0L), probe.getRef());
+            DeviceGroup.RespondGroupStats stats = probe.expectMsgClass(DeviceGroup.RespondGroupStats.class);
+            assertEquals(reporting, stats.getReportingCount());
+            assertEquals(mean, stats.getMean(), 1e-9);
+            return null;
+        });
+    }
+
+    @Test
+    public void testSubscriberGetsCurrentValueAndChanges() {
+        TestKit probe = new TestKit(system);
+        TestKit subscriber = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+        ActorRef device1 = track(probe, groupActor, "group", "device1");
+        ActorRef device2 = track(probe, groupActor, "group", "device2");
+        record(probe, device1, 1L, 20.0);
+        awaitGroupMean(probe, groupActor, 1, 20.0);
+
+        long subscriptionId = subscribe(subscriber, groupActor, new DeviceGroup.Subscribe(1L, "device1"));
+        DeviceGroup.TemperatureChanged current = expectChange(subscriber, "device1", 20.0);
+        assertEquals(subscriptionId, current.getSubscriptionId());
+        assertEquals(1L, current.getSequence());
+        assertEquals("group", current.getGroupId());
+
+        record(probe, device2, 2L, 30.0);
+        record(probe, device1, 3L, 21.0);
+        assertEquals(2L, expectChange(subscriber, "device1", 21.0).getSequence());
+        subscriber.expectNoMsg(FiniteDuration.create(100, TimeUnit.MILLISECONDS));
+
+        groupActor.tell(new DeviceGroup.Unsubscribe(2L, subscriptionId), subscriber.getRef());
+        assertEquals(2L, subscriber.expectMsgClass(DeviceGroup.Unsubscribed.class).getRequestId());
+        record(probe, device1, 4L, 22.0);
+        subscriber.expectNoMsg(FiniteDuration.create(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testGroupSubscriberGetsEveryDevice() {
+        TestKit probe = new TestKit(system);
+        TestKit subscriber = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+        ActorRef device1 = track(probe, groupActor, "group", "device1");
+        ActorRef device2 = track(probe, groupActor, "group", "device2");
+        track(probe, groupActor, "group", "device3");
+        record(probe, device1, 1L, 20.0);
+        record(probe, device2, 2L, 30.0);
+        awaitGroupMean(probe, groupActor, 2, 25.0);
+
+        subscribe(subscriber, groupActor, new DeviceGroup.Subscribe(1L, null));
+        Map<String, Double> current = new HashMap<>();
+        for (int i = 0; i < 2; i++) {
+            DeviceGroup.TemperatureChanged changed = subscriber.expectMsgClass(DeviceGroup.TemperatureChanged.class);
+            current.put(changed.getDeviceId(), changed.getValue());
+        }
+        Map<String, Double> expected = new HashMap<>();
+        expected.put("device1", 20.0);
+        expected.put("device2", 30.0);
+        assertEquals(expected, current);
+
+        record(probe, device2, 3L, 31.0);
+        expectChange(subscriber, "device2", 31.0);
+    }
+
+    @Test
+    public void testSmallChangesAreSuppressed() {
+        TestKit probe = new TestKit(system);
+        TestKit subscriber = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+        ActorRef device1 = track(probe, groupActor, "group", "device1");
+        subscribe(subscriber, groupActor, new DeviceGroup.Subscribe(1L, "device1", 0.5, 100));
+
+        record(probe, device1, 1L, 20.0);
+        expectChange(subscriber, "device1", 20.0);
+        // Measured against the last value sent, so small steps add up
+        record(probe, device1, 2L, 20.2);
+        record(probe, device1, 3L, 20.4);
+        record(probe, device1, 4L, 20.6);
+        expectChange(subscriber, "device1", 20.6);
+        record(probe, device1, 5L, 20.2);
+        record(probe, device1, 6L, 19.9);
+        expectChange(subscriber, "device1", 19.9);
+        subscriber.expectNoMsg(FiniteDuration.create(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testSlowSubscriberGetsLatestValuePerDevice() {
+        TestKit probe = new TestKit(system);
+        TestKit subscriber = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+        ActorRef device1 = track(probe, groupActor, "group", "device1");
+        ActorRef device2 = track(probe, groupActor, "group", "device2");
+        long subscriptionId = subscribe(subscriber, groupActor, new DeviceGroup.Subscribe(1L, null, 0.0, 1));
+
+        record(probe, device1, 1L, 1.0);
+        expectChange(subscriber, "device1", 1.0);
+        record(probe, device1, 2L, 2.0);
+        record(probe, device1, 3L, 3.0);
+        record(probe, device2, 4L, 10.0);
+        record(probe, device1, 5L, 4.0);
+        awaitGroupMean(probe, groupActor, 2, 7.0);
+        // The window of one is taken until the first change is acknowledged
+        subscriber.expectNoMsg(FiniteDuration.create(100, TimeUnit.MILLISECONDS));
+
+        groupActor.tell(new DeviceGroup.AcknowledgeChanges(subscriptionId, 1L), subscriber.getRef());
+        assertEquals(2L, expectChange(subscriber, "device1", 4.0).getSequence());
+        subscriber.expectNoMsg(FiniteDuration.create(100, TimeUnit.MILLISECONDS));
+        groupActor.tell(new DeviceGroup.AcknowledgeChanges(subscriptionId, 2L), subscriber.getRef());
+        assertEquals(3L, expectChange(subscriber, "device2", 10.0).getSequence());
+        groupActor.tell(new DeviceGroup.AcknowledgeChanges(subscriptionId, 3L), subscriber.getRef());
+
+        // Caught up, changes flow again
+        record(probe, device2, 6L, 11.0);
+        expectChange(subscriber, "device2", 11.0);
+    }
+
+    @Test
+    public void testDeviceSubscriptionOutlivesPassivation() {
+        TestKit probe = new TestKit(system);
+        TestKit subscriber = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group", IotSettings.defaults()
+                .withPassivationTimeout(FiniteDuration.create(200, TimeUnit.MILLISECONDS))));
+        ActorRef device1 = track(probe, groupActor, "group", "device1");
+
+        device1.tell(new Device.Subscribe(1L), subscriber.getRef());
+        subscriber.expectMsgClass(DeviceGroup.Subscribed.class);
+        assertEquals(groupActor, subscriber.getLastSender());
+        record(probe, device1, 1L, 20.0);
+        expectChange(subscriber, "device1", 20.0);
+
+        probe.watch(device1);
+        probe.expectTerminated(device1);
+        ActorRef rehydrated = track(probe, groupActor, "group", "device1");
+        assertNotEquals(device1, rehydrated);
+        record(probe, rehydrated, 2L, 21.0);
+        expectChange(subscriber, "device1", 21.0);
+    }
+}
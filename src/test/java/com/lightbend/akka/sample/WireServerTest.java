@@ -0,0 +1,143 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.lightbend.akka.sample.iot.Device;
+import com.lightbend.akka.sample.iot.DeviceManager;
+import com.lightbend.akka.sample.iot.IngestSettings;
+import com.lightbend.akka.sample.iot.IotSettings;
+import com.lightbend.akka.sample.iot.WireFormat;
+import com.lightbend.akka.sample.iot.WireLoadGenerator;
+import com.lightbend.akka.sample.iot.WireServer;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class WireServerTest {
+
+    // Throughput and latency are measured by running WireLoadGenerator against a server.
+    private static final int READINGS = 50000;
+    // Unacknowledged readings the load generator allows.
+    private static final int WINDOW = 5000;
+
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create("wire", ConfigFactory.parseString("akka.loglevel = WARNING"));
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    private static WireServer start(ActorRef manager) throws IOException {
+        return WireServer.start(system, manager, IngestSettings.defaults(), new InetSocketAddress("localhost", 0));
+    }
+
+    // Reads exactly one frame of the given size.
+    private static ByteBuffer readFrame(SocketChannel channel, int bytes) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(bytes);
+        while (frame.hasRemaining()) {
+            if (channel.read(frame) < 0) {
+                throw new IOException("Connection closed");
+            }
+        }
+        frame.flip();
+        return frame;
+    }
+
+    @Test
+    public void testTrackedDeviceRecordsReadingsAndAcknowledges() throws IOException {
+        ActorRef manager = system.actorOf(DeviceManager.props(IotSettings.defaults().withManagerShards(1)));
+        try (WireServer server = start(manager);
+             SocketChannel channel = SocketChannel.open(server.getLocalAddress())) {
+            ByteBuffer out = ByteBuffer.allocate(1024);
+            WireFormat.putTrack(out, 7, "group", "device");
+            out.flip();
+            channel.write(out);
+            ByteBuffer tracked = readFrame(channel, WireFormat.TRACKED_FRAME_BYTES);
+            assertEquals(WireFormat.TRACKED, tracked.get(4));
+            assertEquals(7, tracked.getInt(5));
+
+            out.clear();
+            WireFormat.putRecord(out, 7, 1L, 20.5);
+            WireFormat.putRecord(out, 7, 2L, 21.5);
+            out.flip();
+            channel.write(out);
+            long highest = 0;
+            while (highest < 2L) {
+                ByteBuffer recorded = readFrame(channel, WireFormat.RECORDED_FRAME_BYTES);
+                assertEquals(WireFormat.RECORDED, recorded.get(4));
+                assertEquals(7, recorded.getInt(5));
+                highest = recorded.getLong(9);
+            }
+        }
+
+        TestKit probe = new TestKit(system);
+        manager.tell(new DeviceManager.RequestTrackDevice("group", "device"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        probe.getLastSender().tell(new Device.ReadTemperature(3L), probe.getRef());
+        assertEquals(21.5, probe.expectMsgClass(Device.RespondTemperature.class).getValue().get(), 0.0);
+    }
+
+    @Test
+    public void testMalformedFrameClosesTheConnection() throws IOException {
+        ActorRef manager = system.actorOf(DeviceManager.props(IotSettings.defaults().withManagerShards(1)));
+        try (WireServer server = start(manager);
+             SocketChannel channel = SocketChannel.open(server.getLocalAddress())) {
+            ByteBuffer out = ByteBuffer.allocate(64);
+            // A reading for a handle that was never tracked
+            WireFormat.putRecord(out, 3, 1L, 20.0);
+            out.flip();
+            channel.write(out);
+            assertEquals(-1, channel.read(ByteBuffer.allocate(16)));
+        }
+    }
+
+    @Test
+    public void testUnacknowledgedBatchClosesTheConnection() throws IOException {
+        TestKit manager = new TestKit(system);
+        IngestSettings settings = IngestSettings.defaults().withAckTimeout(FiniteDuration.create(200, TimeUnit.MILLISECONDS));
+        try (WireServer server = WireServer.start(system, manager.getRef(), settings, new InetSocketAddress("localhost", 0));
+             SocketChannel channel = SocketChannel.open(server.getLocalAddress())) {
+            ByteBuffer out = ByteBuffer.allocate(1024);
+            WireFormat.putTrack(out, 1, "group", "device");
+            out.flip();
+            channel.write(out);
+            manager.expectMsgClass(DeviceManager.RequestTrackDevice.class);
+            manager.reply(new DeviceManager.DeviceRegistered());
+            assertEquals(WireFormat.TRACKED, readFrame(channel, WireFormat.TRACKED_FRAME_BYTES).get(4));
+
+            out.clear();
+            WireFormat.putRecord(out, 1, 1L, 20.0);
+            out.flip();
+            channel.write(out);
+            // The batch is never answered
+            manager.expectMsgClass(DeviceManager.RecordTemperatureBatch.class);
+            assertEquals(-1, channel.read(ByteBuffer.allocate(16)));
+        }
+    }
+
+    @Test
+    public void testLoadGeneratorOverLoopback() throws Exception {
+        ActorRef manager = system.actorOf(DeviceManager.props(IotSettings.defaults()));
+        try (WireServer server = start(manager)) {
+            WireLoadGenerator.Result result = WireLoadGenerator.run(server.getLocalAddress(), 10, 1000, READINGS, WINDOW);
+            assertEquals(READINGS, result.getReadings());
+        }
+    }
+}